@@ -0,0 +1,33 @@
+package bench;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** {@code --name=value} command-line options for the harness mains. */
+final class Args {
+  private final Map<String, String> values = new HashMap<>();
+
+  Args(String[] args) {
+    for (String arg : args) {
+      if (!arg.startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + arg);
+      int eq = arg.indexOf('=');
+      if (eq < 0) {
+        values.put(arg.substring(2), "true");
+      } else {
+        values.put(arg.substring(2, eq), arg.substring(eq + 1));
+      }
+    }
+  }
+
+  String get(String name, String fallback) {
+    return values.getOrDefault(name, fallback);
+  }
+
+  int getInt(String name, int fallback) {
+    return values.containsKey(name) ? Integer.parseInt(values.get(name)) : fallback;
+  }
+
+  double getDouble(String name, double fallback) {
+    return values.containsKey(name) ? Double.parseDouble(values.get(name)) : fallback;
+  }
+}
@@ -0,0 +1,109 @@
+package bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import models.Location;
+import models.PlaceResult;
+import models.Preference;
+
+/** Deterministic synthetic inputs, so runs before and after a change see the same data. */
+final class BenchmarkData {
+
+  /** Words descriptions and preferences are drawn from; a few are common, most are rare. */
+  static final String[] VOCABULARY = {
+    "cafe", "coffee", "espresso", "breakfast", "brunch", "pastries", "bagels", "quiet", "study",
+    "wifi", "outdoor", "seating", "park", "trail", "playground", "dog", "friendly", "vegan",
+    "gluten", "free", "korean", "thai", "pizza", "late", "night", "cozy", "bright", "student",
+    "discount", "sandwiches", "tea", "boba", "smoothies", "library", "museum", "garden", "river",
+    "view", "music", "bookstore", "bakery", "donuts", "ramen", "tacos", "salad", "juice"
+  };
+
+  private BenchmarkData() {}
+
+  static List<PlaceResult> places(int count, int descriptionLength, long seed) {
+    Random random = new Random(seed);
+    List<PlaceResult> places = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      PlaceResult place = new PlaceResult();
+      place.name = word(random) + " " + word(random) + " #" + i;
+      place.priceLevel = random.nextInt(5) == 0 ? null : random.nextInt(4) + 1;
+      place.address = (random.nextInt(400) + 1) + " Thayer St, Providence";
+      place.location = new Location();
+      place.location.lat = 41.82 + random.nextDouble() * 0.02;
+      place.location.lng = -71.41 + random.nextDouble() * 0.02;
+      place.rating = Math.round(random.nextDouble() * 40 + 10) / 10.0;
+      place.openNow = random.nextBoolean();
+      place.description = sentence(random, descriptionLength);
+      place.totalRatings = random.nextInt(5_000);
+      places.add(place);
+    }
+    return places;
+  }
+
+  static List<Preference> preferences(int count, long seed) {
+    Random random = new Random(seed);
+    List<Preference> prefs = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      Preference p = new Preference();
+      p.keyword = word(random);
+      p.weight = random.nextInt(9) + 1;
+      prefs.add(p);
+    }
+    return prefs;
+  }
+
+  /** Places API details bodies ({"result":{...},"status":"OK"}) for {@code places}. */
+  static List<String> detailsBodies(List<PlaceResult> places) {
+    List<String> bodies = new ArrayList<>(places.size());
+    for (int i = 0; i < places.size(); i++) {
+      PlaceResult place = places.get(i);
+      JsonObject result = new JsonObject();
+      result.addProperty("name", place.name);
+      result.addProperty("place_id", "place-" + i);
+      result.addProperty("vicinity", place.address);
+      if (place.priceLevel != null) result.addProperty("price_level", place.priceLevel);
+      JsonObject location = new JsonObject();
+      location.addProperty("lat", place.location.lat);
+      location.addProperty("lng", place.location.lng);
+      JsonObject geometry = new JsonObject();
+      geometry.add("location", location);
+      result.add("geometry", geometry);
+      result.addProperty("rating", place.rating);
+      JsonObject hours = new JsonObject();
+      hours.addProperty("open_now", place.openNow);
+      hours.add("weekday_text", new JsonArray());
+      result.add("opening_hours", hours);
+      JsonObject summary = new JsonObject();
+      summary.addProperty("overview", place.description);
+      summary.addProperty("language", "en");
+      result.add("editorial_summary", summary);
+      result.addProperty("user_ratings_total", place.totalRatings);
+
+      JsonObject root = new JsonObject();
+      root.add("html_attributions", new JsonArray());
+      root.add("result", result);
+      root.addProperty("status", "OK");
+      bodies.add(root.toString());
+    }
+    return bodies;
+  }
+
+  private static String word(Random random) {
+    // skewed towards the front of the vocabulary, like real descriptions
+    int i = (int) (VOCABULARY.length * Math.pow(random.nextDouble(), 2));
+    return VOCABULARY[i];
+  }
+
+  private static String sentence(Random random, int length) {
+    StringBuilder text = new StringBuilder(length + 16);
+    while (text.length() < length) {
+      if (text.length() > 0) text.append(' ');
+      text.append(word(random));
+    }
+    text.setLength(length);
+    return text.toString();
+  }
+}
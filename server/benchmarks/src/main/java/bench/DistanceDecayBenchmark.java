@@ -0,0 +1,105 @@
+package bench;
+
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import models.PlaceResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import src.geo.Distance;
+import src.ranking.DistanceDecay;
+
+/**
+ * Distance-decay bonuses for a candidate batch, two ways: per place, reading each location out of
+ * its Places API JSON object and calling haversine and {@code exp} one at a time; and in bulk,
+ * over latitude/longitude columns with {@link Distance#metersFrom} and {@link
+ * DistanceDecay#bonuses}. Both produce one bonus per candidate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx4g"})
+public class DistanceDecayBenchmark {
+
+  private static final double LAT = 41.8268;
+  private static final double LNG = -71.4025;
+
+  @Param({"100", "1000", "10000", "100000"})
+  public int candidates;
+
+  @Param({"EXPONENTIAL", "GAUSSIAN", "RECIPROCAL"})
+  public DistanceDecay.Kernel kernel;
+
+  private List<JsonObject> results;
+  private double[] lats;
+  private double[] lngs;
+  private double[] meters;
+  private double[] bonuses;
+  private DistanceDecay decay;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    List<PlaceResult> places = BenchmarkData.places(candidates, 40, 42);
+    results = new ArrayList<>(candidates);
+    lats = new double[candidates];
+    lngs = new double[candidates];
+    for (int i = 0; i < candidates; i++) {
+      PlaceResult place = places.get(i);
+      JsonObject location = new JsonObject();
+      location.addProperty("lat", place.location.lat);
+      location.addProperty("lng", place.location.lng);
+      JsonObject geometry = new JsonObject();
+      geometry.add("location", location);
+      JsonObject result = new JsonObject();
+      result.add("geometry", geometry);
+      results.add(result);
+      lats[i] = place.location.lat;
+      lngs[i] = place.location.lng;
+    }
+    meters = new double[candidates];
+    Distance.metersFrom(LAT, LNG, lats, lngs, candidates, meters);
+    bonuses = new double[candidates];
+    decay = new DistanceDecay(kernel, 500, 5);
+  }
+
+  @Benchmark
+  public double[] perPlaceFromJson() {
+    double[] out = new double[results.size()];
+    for (int i = 0; i < out.length; i++) {
+      JsonObject location =
+          results.get(i).getAsJsonObject("geometry").getAsJsonObject("location");
+      double d =
+          Distance.meters(
+              LAT, LNG, location.get("lat").getAsDouble(), location.get("lng").getAsDouble());
+      out[i] = decay.bonus(d);
+    }
+    return out;
+  }
+
+  @Benchmark
+  public double[] bulkOverColumns() {
+    Distance.metersFrom(LAT, LNG, lats, lngs, candidates, meters);
+    decay.bonuses(meters, candidates, bonuses);
+    return bonuses;
+  }
+
+  /** The kernel alone, distances already known (as after a grid radius query). */
+  @Benchmark
+  public double[] bulkBonusesOnly() {
+    decay.bonuses(meters, candidates, bonuses);
+    return bonuses;
+  }
+}
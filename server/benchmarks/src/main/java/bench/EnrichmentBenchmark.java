@@ -0,0 +1,83 @@
+package bench;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import models.PlaceDetails;
+import models.PlaceResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import src.handlers.PlacesApiJson;
+import src.handlers.PlacesJson;
+
+/**
+ * The JSON side of PlacesHandler's enrichment: a details response body per candidate, read and
+ * mapped onto a {@link PlaceResult}. Network time is excluded; this is the CPU and allocation cost
+ * once the bodies have arrived. {@code parseTree} is the old way, a full Gson tree per body, kept
+ * for comparison with the field-selective reader the client uses now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class EnrichmentBenchmark {
+
+  @Param({"10", "1000", "100000", "1000000"})
+  public int candidates;
+
+  @Param({"40", "400"})
+  public int descriptionLength;
+
+  private List<byte[]> bodies;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    bodies = new ArrayList<>();
+    for (String body :
+        BenchmarkData.detailsBodies(BenchmarkData.places(candidates, descriptionLength, 42))) {
+      bodies.add(body.getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Benchmark
+  public List<PlaceResult> enrichFromDetailsBodies() throws IOException {
+    List<PlaceResult> enriched = new ArrayList<>(bodies.size());
+    for (byte[] body : bodies) {
+      PlaceDetails result = PlacesApiJson.read(body).result;
+      if (result != null && result.name != null) {
+        enriched.add(PlacesJson.fromPlacesApi(result));
+      }
+    }
+    return enriched;
+  }
+
+  @Benchmark
+  public List<JsonObject> parseTree() {
+    List<JsonObject> parsed = new ArrayList<>(bodies.size());
+    for (byte[] body : bodies) {
+      JsonElement result =
+          JsonParser.parseString(new String(body, StandardCharsets.UTF_8))
+              .getAsJsonObject()
+              .get("result");
+      if (result != null && result.isJsonObject()) parsed.add(result.getAsJsonObject());
+    }
+    return parsed;
+  }
+}
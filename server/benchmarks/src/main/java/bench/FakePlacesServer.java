@@ -0,0 +1,288 @@
+package bench;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import models.PlaceResult;
+import src.geo.Distance;
+import src.handlers.PlacesJson;
+import src.handlers.QueryStrings;
+import src.server.RequestExecutors;
+
+/**
+ * A local stand-in for the Places API's {@code nearbysearch} and {@code details} endpoints, so the
+ * real {@code PlacesHandler} path can be load-tested offline. Point the server at it with {@code
+ * PLACES_BASE_URL=http://localhost:PORT}.
+ *
+ * <p>Places come from an enriched-place fixture (the files under {@code src/test/TestingData}) or
+ * are generated. Each place gets the place_id {@code fake-<index>}. Latency, server errors and
+ * {@code OVER_QUERY_LIMIT} answers are configurable per run.
+ *
+ * <p>Run: {@code java -cp benchmarks.jar bench.FakePlacesServer --port=8090
+ * --fixture=src/test/TestingData/all_prov_accurate(r=2km).json --details-latency=lognormal:40:0.5}
+ */
+public final class FakePlacesServer implements AutoCloseable {
+
+  private static final String OVER_QUERY_LIMIT =
+      "{\"html_attributions\":[],\"results\":[],\"status\":\"OVER_QUERY_LIMIT\"}";
+
+  /** Upstream behaviour. Defaults: instant, no errors, no rate limit, 20 results per search. */
+  public static final class Config {
+    public LatencyModel nearbyLatency = LatencyModel.none();
+    public LatencyModel detailsLatency = LatencyModel.none();
+    /** Fraction of requests answered with HTTP 500. */
+    public double errorRate;
+    /** Fraction of requests answered with status OVER_QUERY_LIMIT. */
+    public double overQueryLimitRate;
+    /** Requests per second above which every request gets OVER_QUERY_LIMIT; 0 for no limit. */
+    public int maxQps;
+    /** Most results one nearby search returns (Google's page size is 20). */
+    public int pageSize = 20;
+  }
+
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Config config;
+  private final List<PlaceResult> places;
+  private final List<JsonObject> nearbyResults = new ArrayList<>();
+  private final List<String> detailsBodies = new ArrayList<>();
+
+  private final AtomicLong nearbyRequests = new AtomicLong();
+  private final AtomicLong detailsRequests = new AtomicLong();
+  private final AtomicLong errors = new AtomicLong();
+  private final AtomicLong rateLimited = new AtomicLong();
+  private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+  private final AtomicLong windowCount = new AtomicLong();
+
+  private FakePlacesServer(int port, List<PlaceResult> places, Config config) throws IOException {
+    this.places = places;
+    this.config = config;
+    for (int i = 0; i < places.size(); i++) {
+      JsonObject result = toPlacesApi(places.get(i), "fake-" + i);
+      JsonObject nearby = result.deepCopy();
+      nearby.remove("editorial_summary"); // nearby search does not return it
+      nearbyResults.add(nearby);
+      JsonObject body = new JsonObject();
+      body.add("html_attributions", new JsonArray());
+      body.add("result", result);
+      body.addProperty("status", "OK");
+      detailsBodies.add(body.toString());
+    }
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+    server.createContext("/maps/api/place/nearbysearch/json", this::nearby);
+    server.createContext("/maps/api/place/details/json", this::details);
+    // latency is simulated by sleeping, which costs nothing on virtual threads
+    this.executor = RequestExecutors.create(RequestExecutors.Mode.VIRTUAL, 512);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  /** Starts serving {@code places} on {@code port} (0 picks a free one). */
+  public static FakePlacesServer start(int port, List<PlaceResult> places, Config config)
+      throws IOException {
+    return new FakePlacesServer(port, places, config);
+  }
+
+  /** What to pass as the client's base URL. */
+  public String baseUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  public List<PlaceResult> places() {
+    return places;
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        Locale.ROOT,
+        "stand-in: %d nearby, %d details requests; %d answered 500, %d OVER_QUERY_LIMIT",
+        nearbyRequests.get(),
+        detailsRequests.get(),
+        errors.get(),
+        rateLimited.get());
+  }
+
+  private void nearby(HttpExchange exchange) throws IOException {
+    nearbyRequests.incrementAndGet();
+    if (misbehave(exchange, config.nearbyLatency)) return;
+
+    Map<String, String> qp = QueryStrings.parse(exchange.getRequestURI().getRawQuery());
+    String[] location = qp.getOrDefault("location", "0,0").split(",");
+    double lat = Double.parseDouble(location[0]);
+    double lng = Double.parseDouble(location[1]);
+    double radius = Double.parseDouble(qp.getOrDefault("radius", "1500"));
+    String[] keywords = qp.getOrDefault("keyword", "").toLowerCase(Locale.ROOT).split("\\s+");
+
+    JsonArray results = new JsonArray();
+    for (int i = 0; i < places.size() && results.size() < config.pageSize; i++) {
+      PlaceResult place = places.get(i);
+      if (place.location == null) continue;
+      if (Distance.meters(lat, lng, place.location.lat, place.location.lng) > radius) continue;
+      if (!matches(place, keywords)) continue;
+      results.add(nearbyResults.get(i));
+    }
+    JsonObject body = new JsonObject();
+    body.add("html_attributions", new JsonArray());
+    body.add("results", results);
+    body.addProperty("status", results.size() == 0 ? "ZERO_RESULTS" : "OK");
+    send(exchange, 200, body.toString());
+  }
+
+  private void details(HttpExchange exchange) throws IOException {
+    detailsRequests.incrementAndGet();
+    if (misbehave(exchange, config.detailsLatency)) return;
+
+    String placeId =
+        QueryStrings.parse(exchange.getRequestURI().getRawQuery()).getOrDefault("place_id", "");
+    int index = -1;
+    if (placeId.startsWith("fake-")) {
+      try {
+        index = Integer.parseInt(placeId.substring("fake-".length()));
+      } catch (NumberFormatException e) {
+        index = -1;
+      }
+    }
+    if (index < 0 || index >= detailsBodies.size()) {
+      send(exchange, 200, "{\"html_attributions\":[],\"status\":\"NOT_FOUND\"}");
+    } else {
+      send(exchange, 200, detailsBodies.get(index));
+    }
+  }
+
+  /**
+   * Sleeps for a sampled latency, then answers with an error or OVER_QUERY_LIMIT if the dice (or
+   * the rate limit) say so.
+   *
+   * @return true if a response was sent
+   */
+  private boolean misbehave(HttpExchange exchange, LatencyModel latency) throws IOException {
+    Random random = ThreadLocalRandom.current();
+    long delay = Math.round(latency.sampleMillis(random));
+    if (delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (random.nextDouble() < config.errorRate) {
+      errors.incrementAndGet();
+      send(exchange, 500, "{}");
+      return true;
+    }
+    if (random.nextDouble() < config.overQueryLimitRate || overRateLimit()) {
+      rateLimited.incrementAndGet();
+      send(exchange, 200, OVER_QUERY_LIMIT);
+      return true;
+    }
+    return false;
+  }
+
+  /** Fixed one-second windows; good enough to model a quota. */
+  private boolean overRateLimit() {
+    if (config.maxQps <= 0) return false;
+    long now = System.nanoTime();
+    long start = windowStart.get();
+    if (now - start >= 1_000_000_000L && windowStart.compareAndSet(start, now)) {
+      windowCount.set(0);
+    }
+    return windowCount.incrementAndGet() > config.maxQps;
+  }
+
+  private static boolean matches(PlaceResult place, String[] keywords) {
+    String text = (place.name + " " + place.description).toLowerCase(Locale.ROOT);
+    for (String keyword : keywords) {
+      if (!keyword.isEmpty() && !text.contains(keyword)) return false;
+    }
+    return true;
+  }
+
+  private static void send(HttpExchange exchange, int status, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(bytes);
+    }
+  }
+
+  /** The Places API shape of an enriched place, the inverse of PlacesJson.fromPlacesApi. */
+  private static JsonObject toPlacesApi(PlaceResult place, String placeId) {
+    JsonObject result = new JsonObject();
+    result.addProperty("place_id", placeId);
+    result.addProperty("name", place.name);
+    if (place.address != null) result.addProperty("vicinity", place.address);
+    if (place.priceLevel != null) result.addProperty("price_level", place.priceLevel);
+    if (place.location != null) {
+      JsonObject location = new JsonObject();
+      location.addProperty("lat", place.location.lat);
+      location.addProperty("lng", place.location.lng);
+      JsonObject geometry = new JsonObject();
+      geometry.add("location", location);
+      result.add("geometry", geometry);
+    }
+    result.addProperty("rating", place.rating);
+    JsonObject hours = new JsonObject();
+    hours.addProperty("open_now", place.openNow);
+    result.add("opening_hours", hours);
+    if (place.description != null && !PlacesJson.NO_DESCRIPTION.equals(place.description)) {
+      JsonObject summary = new JsonObject();
+      summary.addProperty("overview", place.description);
+      result.add("editorial_summary", summary);
+    }
+    if (place.totalRatings >= 0) result.addProperty("user_ratings_total", place.totalRatings);
+    return result;
+  }
+
+  /** Places from {@code --fixture=PATH}, or {@code --synthetic=N} generated ones. */
+  static List<PlaceResult> loadPlaces(Args args) throws IOException {
+    String fixture = args.get("fixture", null);
+    if (fixture != null) {
+      return PlacesJson.parseResults(Files.readString(Paths.get(fixture)));
+    }
+    int count = args.getInt("synthetic", 1_000);
+    return BenchmarkData.places(count, args.getInt("description-length", 120), 42);
+  }
+
+  static Config config(Args args) {
+    Config config = new Config();
+    config.nearbyLatency = LatencyModel.parse(args.get("nearby-latency", "0"));
+    config.detailsLatency = LatencyModel.parse(args.get("details-latency", "0"));
+    config.errorRate = args.getDouble("error-rate", 0);
+    config.overQueryLimitRate = args.getDouble("over-query-limit-rate", 0);
+    config.maxQps = args.getInt("max-qps", 0);
+    config.pageSize = args.getInt("page-size", 20);
+    return config;
+  }
+
+  public static void main(String[] argv) throws Exception {
+    Args args = new Args(argv);
+    FakePlacesServer server = start(args.getInt("port", 8090), loadPlaces(args), config(args));
+    System.out.println(
+        "Places stand-in with " + server.places().size() + " places at " + server.baseUrl());
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println(server.toString())));
+    Thread.currentThread().join();
+  }
+}
@@ -0,0 +1,86 @@
+package bench;
+
+import java.util.Locale;
+import java.util.Random;
+
+/** How long the Places stand-in waits before answering. */
+public abstract class LatencyModel {
+
+  /** One delay, in milliseconds. */
+  public abstract double sampleMillis(Random random);
+
+  public static LatencyModel none() {
+    return fixed(0);
+  }
+
+  public static LatencyModel fixed(double millis) {
+    return new LatencyModel() {
+      @Override
+      public double sampleMillis(Random random) {
+        return millis;
+      }
+
+      @Override
+      public String toString() {
+        return "fixed:" + millis;
+      }
+    };
+  }
+
+  public static LatencyModel uniform(double minMillis, double maxMillis) {
+    return new LatencyModel() {
+      @Override
+      public double sampleMillis(Random random) {
+        return minMillis + random.nextDouble() * (maxMillis - minMillis);
+      }
+
+      @Override
+      public String toString() {
+        return "uniform:" + minMillis + ":" + maxMillis;
+      }
+    };
+  }
+
+  /**
+   * Log-normal around {@code medianMillis}: mostly close to the median with a long right tail,
+   * which is what Places API latencies look like. {@code sigma} 0.5 puts p99 at about 3.2x median.
+   */
+  public static LatencyModel logNormal(double medianMillis, double sigma) {
+    return new LatencyModel() {
+      @Override
+      public double sampleMillis(Random random) {
+        return medianMillis * Math.exp(sigma * random.nextGaussian());
+      }
+
+      @Override
+      public String toString() {
+        return "lognormal:" + medianMillis + ":" + sigma;
+      }
+    };
+  }
+
+  /**
+   * Parses {@code fixed:MS}, {@code uniform:MIN:MAX} or {@code lognormal:MEDIAN:SIGMA}; a bare
+   * number is a fixed delay.
+   *
+   * @throws IllegalArgumentException on anything else
+   */
+  public static LatencyModel parse(String spec) {
+    String[] parts = spec.trim().toLowerCase(Locale.ROOT).split(":");
+    try {
+      switch (parts[0]) {
+        case "fixed":
+          return fixed(Double.parseDouble(parts[1]));
+        case "uniform":
+          return uniform(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+        case "lognormal":
+          return logNormal(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]));
+        default:
+          if (parts.length == 1) return fixed(Double.parseDouble(parts[0]));
+      }
+    } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+      // fall through
+    }
+    throw new IllegalArgumentException("Bad latency spec: " + spec);
+  }
+}
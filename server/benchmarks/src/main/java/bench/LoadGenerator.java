@@ -0,0 +1,177 @@
+package bench;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Open-loop load against /places: requests start on a fixed schedule at the target rate whether or
+ * not earlier ones have finished, and latency is measured from the scheduled start. A slow server
+ * therefore shows up as growing latency instead of silently lowering the offered load.
+ *
+ * <p>Run: {@code java -cp benchmarks.jar bench.LoadGenerator --url=http://localhost:8080 --rps=200
+ * --seconds=30}
+ */
+public final class LoadGenerator {
+
+  /** Outcome of one run. */
+  public static final class Report {
+    public final long sent;
+    public final long failed;
+    public final double seconds;
+    /** Responses by HTTP status; index 0 counts requests that got no response. */
+    public final long[] statuses;
+    /** Latencies of every answered request, sorted, in nanoseconds. */
+    public final long[] latencies;
+
+    Report(long sent, long failed, double seconds, long[] statuses, long[] latencies) {
+      this.sent = sent;
+      this.failed = failed;
+      this.seconds = seconds;
+      this.statuses = statuses;
+      this.latencies = latencies;
+    }
+
+    /** Answered requests per second. */
+    public double throughput() {
+      return latencies.length / seconds;
+    }
+
+    /** Latency at quantile {@code q} (0..1), in milliseconds. */
+    public double percentileMillis(double q) {
+      if (latencies.length == 0) return Double.NaN;
+      int i = (int) Math.ceil(q * latencies.length) - 1;
+      return latencies[Math.max(0, Math.min(latencies.length - 1, i))] / 1e6;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder codes = new StringBuilder();
+      for (int status = 0; status < statuses.length; status++) {
+        if (statuses[status] == 0) continue;
+        if (codes.length() > 0) codes.append(", ");
+        codes.append(status == 0 ? "no response" : Integer.toString(status));
+        codes.append(": ").append(statuses[status]);
+      }
+      return String.format(
+          Locale.ROOT,
+          "%d sent, %d failed in %.1f s; %.1f req/s; p50 %.1f ms, p95 %.1f ms, p99 %.1f ms,"
+              + " max %.1f ms; status %s",
+          sent,
+          failed,
+          seconds,
+          throughput(),
+          percentileMillis(0.50),
+          percentileMillis(0.95),
+          percentileMillis(0.99),
+          percentileMillis(1.0),
+          codes);
+    }
+  }
+
+  private LoadGenerator() {}
+
+  /**
+   * Sends {@code rps * duration} GETs, cycling through {@code paths} (relative to {@code base}),
+   * and waits up to {@code timeout} for the last ones to finish.
+   */
+  public static Report run(
+      URI base, List<String> paths, double rps, Duration duration, Duration timeout) {
+    HttpClient http = HttpClient.newBuilder().connectTimeout(timeout).build();
+    int total = (int) Math.max(1, Math.round(rps * duration.toMillis() / 1000.0));
+    long interval = Math.round(1e9 / rps);
+    long[] latencies = new long[total];
+    Arrays.fill(latencies, -1);
+    AtomicLongArray statuses = new AtomicLongArray(600);
+    List<CompletableFuture<?>> pending = new ArrayList<>(total);
+
+    long start = System.nanoTime();
+    for (int i = 0; i < total; i++) {
+      long scheduled = start + i * interval;
+      long wait = scheduled - System.nanoTime();
+      if (wait > 0) LockSupport.parkNanos(wait);
+
+      HttpRequest request =
+          HttpRequest.newBuilder(base.resolve(paths.get(i % paths.size())))
+              .timeout(timeout)
+              .header("Accept-Encoding", "gzip")
+              .GET()
+              .build();
+      int slot = i;
+      pending.add(
+          http.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+              .handle(
+                  (response, err) -> {
+                    if (err != null) {
+                      statuses.incrementAndGet(0);
+                    } else {
+                      latencies[slot] = System.nanoTime() - scheduled;
+                      statuses.incrementAndGet(Math.min(599, response.statusCode()));
+                    }
+                    return null;
+                  }));
+    }
+    CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+    double seconds = (System.nanoTime() - start) / 1e9;
+
+    long[] answered = Arrays.stream(latencies).filter(l -> l >= 0).sorted().toArray();
+    long[] counts = new long[statuses.length()];
+    for (int s = 0; s < counts.length; s++) counts[s] = statuses.get(s);
+    return new Report(total, total - answered.length, seconds, counts, answered);
+  }
+
+  /**
+   * {@code distinct} /places queries around ({@code lat}, {@code lng}): a mix of keywords and
+   * radii, jittered by up to ~300 m. Few distinct queries means mostly cache hits, many means
+   * mostly misses.
+   */
+  public static List<String> placesQueries(double lat, double lng, int distinct, long seed) {
+    String[] keywords = {"", "cafe", "coffee", "park", "study quiet", "pizza", "breakfast cafe"};
+    int[] radii = {500, 1000, 2000};
+    Random random = new Random(seed);
+    List<String> queries = new ArrayList<>(distinct);
+    for (int i = 0; i < distinct; i++) {
+      double qLat = lat + (random.nextDouble() - 0.5) * 0.005;
+      double qLng = lng + (random.nextDouble() - 0.5) * 0.005;
+      String keyword = keywords[random.nextInt(keywords.length)].replace(" ", "%20");
+      queries.add(
+          String.format(
+              Locale.ROOT,
+              "/places?lat=%.6f&lng=%.6f&radius=%d&keyword=%s&limit=20",
+              qLat,
+              qLng,
+              radii[random.nextInt(radii.length)],
+              keyword));
+    }
+    return queries;
+  }
+
+  public static void main(String[] argv) {
+    Args args = new Args(argv);
+    URI base = URI.create(args.get("url", "http://localhost:8080"));
+    List<String> queries =
+        placesQueries(
+            args.getDouble("lat", 41.8268),
+            args.getDouble("lng", -71.4025),
+            args.getInt("distinct", 64),
+            args.getInt("seed", 1));
+    Report report =
+        run(
+            base,
+            queries,
+            args.getDouble("rps", 100),
+            Duration.ofSeconds(args.getInt("seconds", 30)),
+            Duration.ofSeconds(args.getInt("timeout-seconds", 30)));
+    System.out.println(report);
+  }
+}
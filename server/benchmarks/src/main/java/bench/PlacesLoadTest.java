@@ -0,0 +1,80 @@
+package bench;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import models.PlaceResult;
+import src.Server;
+import src.handlers.GooglePlacesClient;
+import src.handlers.PlacesHandler;
+
+/**
+ * The whole /places path offline: a {@link FakePlacesServer}, the real server with the real
+ * {@link PlacesHandler} pointed at it, and a {@link LoadGenerator} driving it. Prints the load
+ * report, what the stand-in saw and the client's cache counters.
+ *
+ * <p>Takes the options of both: {@code java -cp benchmarks.jar bench.PlacesLoadTest
+ * --fixture=src/test/TestingData/all_prov_accurate(r=2km).json --details-latency=lognormal:60:0.6
+ * --error-rate=0.01 --rps=200 --seconds=30}. {@code --nearby-qps} and {@code --details-qps} set
+ * the client's outbound quota.
+ */
+public final class PlacesLoadTest {
+
+  private PlacesLoadTest() {}
+
+  public static void main(String[] argv) throws Exception {
+    Args args = new Args(argv);
+    List<PlaceResult> places = FakePlacesServer.loadPlaces(args);
+    double lat = 0;
+    double lng = 0;
+    int located = 0;
+    for (PlaceResult place : places) {
+      if (place.location == null) continue;
+      lat += place.location.lat;
+      lng += place.location.lng;
+      located++;
+    }
+    lat /= Math.max(1, located);
+    lng /= Math.max(1, located);
+
+    try (FakePlacesServer upstream =
+        FakePlacesServer.start(0, places, FakePlacesServer.config(args))) {
+      GooglePlacesClient client =
+          new GooglePlacesClient(
+              upstream.baseUrl(),
+              "stand-in",
+              null,
+              args.getDouble("nearby-qps", GooglePlacesClient.DEFAULT_NEARBY_QPS),
+              args.getDouble("details-qps", GooglePlacesClient.DEFAULT_DETAILS_QPS));
+      PlacesHandler handler =
+          new PlacesHandler(
+              client,
+              args.getInt("details-concurrency", PlacesHandler.DEFAULT_DETAILS_CONCURRENCY),
+              Duration.ofMillis(
+                  args.getInt(
+                      "details-timeout-ms",
+                      (int) PlacesHandler.DEFAULT_DETAILS_TIMEOUT.toMillis())));
+      HttpServer server = Server.start(0, handler);
+      try {
+        URI base = URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+        System.out.println("Driving " + base + "/places against " + upstream.baseUrl());
+        LoadGenerator.Report report =
+            LoadGenerator.run(
+                base,
+                LoadGenerator.placesQueries(lat, lng, args.getInt("distinct", 64), 1),
+                args.getDouble("rps", 100),
+                Duration.ofSeconds(args.getInt("seconds", 30)),
+                Duration.ofSeconds(args.getInt("timeout-seconds", 30)));
+        System.out.println(report);
+        System.out.println(upstream);
+        System.out.println("nearby cache: " + client.nearbyCacheStats());
+        System.out.println("details cache: " + client.detailsCacheStats());
+        System.out.println("response cache: " + handler.responseCacheStats());
+      } finally {
+        server.stop(0);
+      }
+    }
+    System.exit(0); // the server's executor threads are not daemons on every JDK
+  }
+}
@@ -0,0 +1,53 @@
+package bench;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import src.handlers.QueryStrings;
+
+/** Query-string parsing, run once per /places request. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryStringBenchmark {
+
+  /** Keywords in the encoded {@code keyword} parameter. */
+  @Param({"1", "5", "20"})
+  public int preferences;
+
+  private String query;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    StringBuilder keyword = new StringBuilder();
+    for (int i = 0; i < preferences; i++) {
+      if (i > 0) keyword.append(' ');
+      keyword.append(BenchmarkData.VOCABULARY[i % BenchmarkData.VOCABULARY.length]);
+    }
+    query =
+        "lat=41.8286671&lng=-71.4086326&radius=1000&keyword="
+            + URLEncoder.encode(keyword.toString(), StandardCharsets.UTF_8)
+            + "&match=word&rank=bm25&limit=20&offset=40";
+  }
+
+  @Benchmark
+  public Map<String, String> parse() {
+    return QueryStrings.parse(query);
+  }
+}
@@ -0,0 +1,81 @@
+package bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import models.PlaceResult;
+import models.Preference;
+import models.ResultsWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import src.handlers.MockRankingHandler;
+import src.handlers.PlacesJson;
+import src.handlers.RankingHandler;
+import src.ranking.KeywordScorer.MatchMode;
+
+/**
+ * The ranking entry points: JSON in, JSON out ({@code rankEnriched}) as the handlers used to call
+ * them, and the typed page ranking the handlers call now.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx8g"})
+public class RankingBenchmark {
+
+  @Param({"10", "1000", "100000", "1000000"})
+  public int candidates;
+
+  @Param({"1", "5", "20"})
+  public int preferences;
+
+  @Param({"40", "400"})
+  public int descriptionLength;
+
+  private String enrichedJson;
+  private List<PlaceResult> places;
+  private List<Preference> prefs;
+  private final RankingHandler ranking = new RankingHandler();
+  private final ExposedMockRanking mockRanking = new ExposedMockRanking();
+
+  /** MockRankingHandler.rankEnriched is protected; a subclass can call it. */
+  static final class ExposedMockRanking extends MockRankingHandler {
+    String rank(String enrichedJson, List<Preference> prefs) {
+      return rankEnriched(enrichedJson, prefs);
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    places = BenchmarkData.places(candidates, descriptionLength, 42);
+    prefs = BenchmarkData.preferences(preferences, 7);
+    enrichedJson = PlacesJson.toJson(places);
+  }
+
+  @Benchmark
+  public String rankingHandlerRankEnriched() {
+    return ranking.rankEnriched(enrichedJson, prefs);
+  }
+
+  @Benchmark
+  public String mockRankingHandlerRankEnriched() {
+    return mockRanking.rank(enrichedJson, prefs);
+  }
+
+  /** What /places does per request: score everything, materialize one page of 20. */
+  @Benchmark
+  public ResultsWrapper rankFirstPage() {
+    return ranking.rankPage(places, prefs, MatchMode.SUBSTRING, 0, 20);
+  }
+}
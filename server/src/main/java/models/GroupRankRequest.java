@@ -0,0 +1,22 @@
+package models;
+
+import java.util.List;
+
+/**
+ * Body of POST /rank: one search (lat, lng, radius and an optional search keyword) and the
+ * preference profiles to rank its results for. A plain {@link PreferencesRequest} is accepted too;
+ * its {@code preferences} are then the only profile.
+ */
+public class GroupRankRequest extends PreferencesRequest {
+  public String keyword;
+  public List<PreferenceProfile> profiles;
+
+  /** "average" (default) or "least_misery". */
+  public String aggregate;
+
+  /** "word" for whole-word keyword matching; substring otherwise. */
+  public String match;
+
+  /** Results per ranking; all candidates when null. */
+  public Integer limit;
+}
@@ -0,0 +1,18 @@
+package models;
+
+import java.util.List;
+
+/** Result of POST /rank: a ranking per profile, in request order, and one for the group. */
+public class GroupRankResponse {
+  /** Number of places that were ranked. */
+  public int candidates;
+
+  public String aggregate;
+  public List<ProfileRanking> profiles;
+  public List<PlaceResult> group;
+
+  public static class ProfileRanking {
+    public String name;
+    public List<PlaceResult> results;
+  }
+}
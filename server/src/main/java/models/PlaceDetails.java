@@ -0,0 +1,54 @@
+package models;
+
+/**
+ * The fields of a Places API place (a details result or a nearby-search result) that /places uses,
+ * and nothing else. Immutable, so one cached copy is shared by every request that reads it.
+ */
+public final class PlaceDetails {
+  public final String placeId; // null when the response has none
+  public final String name; // null when the response has none
+  public final String vicinity;
+  public final double lat; // NaN when the place has no location
+  public final double lng;
+  public final double rating; // NaN when unrated
+  public final Integer priceLevel; // null when Google has no price level
+  public final boolean openNow;
+  public final String overview; // editorial summary, null when there is none
+  public final int userRatingsTotal; // -1 when unknown
+
+  public PlaceDetails(
+      String placeId,
+      String name,
+      String vicinity,
+      double lat,
+      double lng,
+      double rating,
+      Integer priceLevel,
+      boolean openNow,
+      String overview,
+      int userRatingsTotal) {
+    this.placeId = placeId;
+    this.name = name;
+    this.vicinity = vicinity;
+    this.lat = lat;
+    this.lng = lng;
+    this.rating = rating;
+    this.priceLevel = priceLevel;
+    this.openNow = openNow;
+    this.overview = overview;
+    this.userRatingsTotal = userRatingsTotal;
+  }
+
+  public boolean hasLocation() {
+    return !Double.isNaN(lat) && !Double.isNaN(lng);
+  }
+
+  /** Approximate heap footprint in bytes, for weighing cache entries. */
+  public long weight() {
+    return 64 + chars(placeId) + chars(name) + chars(vicinity) + chars(overview);
+  }
+
+  private static long chars(String s) {
+    return s == null ? 0 : 40 + 2L * s.length(); // String and array headers, then UTF-16
+  }
+}
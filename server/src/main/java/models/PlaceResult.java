@@ -2,7 +2,31 @@ package models;
 
 public class PlaceResult {
   public String name;
+  public Integer priceLevel; // null when Google has no price level
+  public String address;
   public Location location;
   public double rating;
+  public boolean openNow;
+  public String description;
+  public int totalRatings = -1; // -1 when unknown
   public int score;
+  public Double relevance; // only set by relevance-ranked modes (BM25, distance, group)
+  public Double distance; // meters from the searched point, when known
+
+  /** Shallow copy; {@code location} is shared. */
+  public PlaceResult copy() {
+    PlaceResult c = new PlaceResult();
+    c.name = name;
+    c.priceLevel = priceLevel;
+    c.address = address;
+    c.location = location;
+    c.rating = rating;
+    c.openNow = openNow;
+    c.description = description;
+    c.totalRatings = totalRatings;
+    c.score = score;
+    c.relevance = relevance;
+    c.distance = distance;
+    return c;
+  }
 }
@@ -0,0 +1,9 @@
+package models;
+
+import java.util.List;
+
+/** One member's weighted preferences, as sent to POST /rank. */
+public class PreferenceProfile {
+  public String name;
+  public List<Preference> preferences;
+}
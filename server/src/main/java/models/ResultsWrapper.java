@@ -4,4 +4,8 @@ import java.util.List;
 
 public class ResultsWrapper {
   public List<PlaceResult> results;
+  // pagination; left null (and omitted from JSON) unless the client asked for a page
+  public Integer total;
+  public Integer offset;
+  public Integer limit;
 }
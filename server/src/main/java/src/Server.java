@@ -1,23 +1,143 @@
 package src;
 
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
 import src.handlers.*;
+import src.metrics.Metrics;
+import src.metrics.MetricsHandler;
+import src.server.AdmissionFilter;
+import src.server.Log;
+import src.server.RequestExecutors;
 
 public class Server {
+
+  // Runtime knobs, read from the environment. SERVER_EXECUTOR is "virtual" (default) or
+  // "platform"; the rest are numbers.
+  private static final String EXECUTOR = env("SERVER_EXECUTOR", "virtual");
+  private static final int PLATFORM_THREADS = envInt("SERVER_THREADS", 64);
+  private static final int MAX_IN_FLIGHT = envInt("SERVER_MAX_IN_FLIGHT", 256);
+  private static final int MAX_QUEUED = envInt("SERVER_MAX_QUEUED", 512);
+  private static final int QUEUE_TIMEOUT_MS = envInt("SERVER_QUEUE_TIMEOUT_MS", 1_000);
+  private static final int REQUEST_TIMEOUT_MS = envInt("SERVER_REQUEST_TIMEOUT_MS", 8_000);
+
+  /** Most platform threads kept out of the admission budget, to turn requests away with 503. */
+  private static final int SPARE_THREADS = 8;
+
   public static void main(String[] args) throws IOException {
     int port = 8080;
+    // PLACES_SOURCE=google serves live Places data (PLACES_BASE_URL can point it at a stand-in)
+    HttpHandler places =
+        "google".equalsIgnoreCase(env("PLACES_SOURCE", "mock"))
+            ? new PlacesHandler()
+            // mock data handler for below sample URL
+            // http://localhost:8080/places?lat=41.8286671&lng=-71.4086326&radius=1000&keyword=cafe
+            : new MockPlacesHandler();
+    start(port, places);
+    Log.info("Server started on http://localhost:" + port + "/places");
+  }
+
+  /**
+   * Serves {@code placesHandler} at /places on {@code port} (0 picks a free port), behind admission
+   * control and on the configured executor. If the handler is also a {@link CandidateSource}, POST
+   * /rank ranks its places for groups, sharing the same admission budget.
+   */
+  public static HttpServer start(int port, HttpHandler placesHandler) throws IOException {
     HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
 
-    //    server.createContext("/places", new PlacesHandler());
+    // requests run off the dispatcher thread, so one slow upstream call does not stall the rest
+    RequestExecutors.Mode mode =
+        "platform".equalsIgnoreCase(EXECUTOR)
+            ? RequestExecutors.Mode.PLATFORM
+            : RequestExecutors.Mode.VIRTUAL;
+    ExecutorService executor = RequestExecutors.create(mode, PLATFORM_THREADS);
+
+    HttpContext places = server.createContext("/places", placesHandler);
+    AdmissionFilter admission = admissionFilter(RequestExecutors.threadLimit(executor));
+    places.getFilters().add(admission);
+    registerAdmissionMetrics(admission);
+    if (placesHandler instanceof CandidateSource) {
+      HttpContext rank =
+          server.createContext("/rank", new GroupRankHandler((CandidateSource) placesHandler));
+      rank.getFilters().add(admission);
+    }
 
-    // mock data handler for below sample URL
-    http: // localhost:8080/places?lat=41.8286671&lng=-71.4086326&radius=1000&keyword=cafe
-    server.createContext("/places", new MockPlacesHandler());
+    // outside admission control, so it can still be scraped when /places is saturated
+    server.createContext("/metrics", new MetricsHandler(Metrics.REGISTRY));
 
-    server.setExecutor(null);
+    server.setExecutor(executor);
     server.start();
-    System.out.println("Server started on http://localhost:" + port + "/places");
+    return server;
+  }
+
+  /**
+   * Admission control for requests run on {@code threads} threads (-1 for unbounded). The filter
+   * runs on those threads, so every admitted request and every one waiting for a slot holds one.
+   * The in-flight and queue limits are therefore cut to fit the pool with a few threads to spare.
+   * That way excess requests still get a thread that answers 503, instead of backing up in the
+   * pool.
+   */
+  private static AdmissionFilter admissionFilter(int threads) {
+    int maxInFlight = MAX_IN_FLIGHT;
+    int maxQueued = MAX_QUEUED;
+    if (threads > 0) {
+      int spare = Math.max(1, Math.min(SPARE_THREADS, threads / 4));
+      int budget = Math.max(1, threads - spare);
+      maxInFlight = Math.min(maxInFlight, Math.max(1, budget * 3 / 4));
+      maxQueued = Math.min(maxQueued, budget - maxInFlight);
+      if (maxInFlight < MAX_IN_FLIGHT || maxQueued < MAX_QUEUED) {
+        Log.info(
+            "Admitting "
+                + maxInFlight
+                + " requests at once and queueing "
+                + maxQueued
+                + " to fit "
+                + threads
+                + " platform threads");
+      }
+    }
+    return new AdmissionFilter(
+        maxInFlight,
+        maxQueued,
+        Duration.ofMillis(QUEUE_TIMEOUT_MS),
+        Duration.ofMillis(REQUEST_TIMEOUT_MS),
+        Duration.ofSeconds(1));
+  }
+
+  private static void registerAdmissionMetrics(AdmissionFilter admission) {
+    Metrics.REGISTRY.gauge(
+        "places_requests_in_flight",
+        "/places and /rank requests being handled",
+        admission::inFlight);
+    Metrics.REGISTRY.gauge(
+        "places_requests_queued",
+        "/places and /rank requests waiting for a slot",
+        admission::queued);
+    Metrics.REGISTRY.counter(
+        "places_requests_admitted_total",
+        "/places and /rank requests let in",
+        admission::admittedCount);
+    Metrics.REGISTRY.counter(
+        "places_requests_rejected_total",
+        "/places and /rank requests turned away with 503",
+        admission::rejectedCount);
+  }
+
+  private static String env(String name, String fallback) {
+    String value = System.getenv(name);
+    return value == null || value.isBlank() ? fallback : value.trim();
+  }
+
+  private static int envInt(String name, int fallback) {
+    try {
+      return Integer.parseInt(env(name, Integer.toString(fallback)));
+    } catch (NumberFormatException e) {
+      Log.warn("Ignoring invalid " + name + "; using " + fallback);
+      return fallback;
+    }
   }
 }
@@ -0,0 +1,244 @@
+package src.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * An in-memory LRU cache bounded by total weight, with a per-entry time-to-live and single-flight
+ * loading. With the default weigher every entry weighs 1, so the bound is an entry count.
+ *
+ * <p>An entry can be kept for a while after it expires, so that {@link #getStale} can still hand it
+ * out when a fresh value cannot be loaded (stale-if-error); until then it is a miss like any other
+ * expired entry.
+ *
+ * <p>All map operations take the cache's lock; loads run outside it, and concurrent misses on the
+ * same key share one load through {@link SingleFlight}.
+ */
+public class BoundedCache<K, V> {
+
+  private static class Entry<V> {
+    final V value;
+    final long weight;
+    final long expiresAtNanos;
+
+    Entry(V value, long weight, long expiresAtNanos) {
+      this.value = value;
+      this.weight = weight;
+      this.expiresAtNanos = expiresAtNanos;
+    }
+  }
+
+  private final long maxWeight;
+  private final long ttlNanos;
+  private final long staleNanos;
+  private final ToLongFunction<V> weigher;
+  private final LongSupplier clock;
+  private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final SingleFlight<K, V> loads = new SingleFlight<>();
+  private long totalWeight;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong expirations = new AtomicLong();
+  private final AtomicLong staleHits = new AtomicLong();
+  private final AtomicLong loadSuccesses = new AtomicLong();
+  private final AtomicLong loadFailures = new AtomicLong();
+  private final AtomicLong totalLoadTimeNanos = new AtomicLong();
+
+  /** A cache holding at most {@code maxEntries} entries, each living for {@code ttl}. */
+  public BoundedCache(long maxEntries, Duration ttl) {
+    this(maxEntries, ttl, v -> 1L, System::nanoTime);
+  }
+
+  /**
+   * @param maxWeight upper bound on the summed weight of all entries
+   * @param ttl how long an entry is served after it was stored
+   * @param weigher weight of a value, e.g. its approximate size in bytes
+   * @param clock nanosecond time source, replaceable in tests
+   */
+  public BoundedCache(long maxWeight, Duration ttl, ToLongFunction<V> weigher, LongSupplier clock) {
+    this(maxWeight, ttl, Duration.ZERO, weigher, clock);
+  }
+
+  /**
+   * Like {@link #BoundedCache(long, Duration, ToLongFunction, LongSupplier)}, but an expired entry
+   * stays available to {@link #getStale} for {@code staleFor} more. It still counts towards the
+   * bound, and goes first when space is needed if it has not been used for a while.
+   */
+  public BoundedCache(
+      long maxWeight,
+      Duration ttl,
+      Duration staleFor,
+      ToLongFunction<V> weigher,
+      LongSupplier clock) {
+    if (maxWeight <= 0) {
+      throw new IllegalArgumentException("maxWeight must be positive");
+    }
+    if (staleFor.isNegative()) {
+      throw new IllegalArgumentException("staleFor must not be negative");
+    }
+    this.maxWeight = maxWeight;
+    this.ttlNanos = ttl.toNanos();
+    this.staleNanos = staleFor.toNanos();
+    this.weigher = weigher;
+    this.clock = clock;
+  }
+
+  /** Returns the live value for {@code key}, or null if it is absent or expired. */
+  public V getIfPresent(K key) {
+    V value = lookup(key);
+    if (value != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return value;
+  }
+
+  /**
+   * Returns the cached value for {@code key}, loading it with {@code loader} on a miss. Concurrent
+   * misses on one key trigger a single load; a failed load is not cached.
+   */
+  public CompletableFuture<V> getAsync(K key, Function<K, CompletableFuture<V>> loader) {
+    V value = getIfPresent(key);
+    if (value != null) {
+      return CompletableFuture.completedFuture(value);
+    }
+    return loads.run(
+        key,
+        () -> {
+          long start = clock.getAsLong();
+          return loader
+              .apply(key)
+              .whenComplete(
+                  (loaded, err) -> {
+                    totalLoadTimeNanos.addAndGet(clock.getAsLong() - start);
+                    if (err != null || loaded == null) {
+                      loadFailures.incrementAndGet();
+                    } else {
+                      loadSuccesses.incrementAndGet();
+                      put(key, loaded);
+                    }
+                  });
+        });
+  }
+
+  /** Stores {@code value}, evicting least-recently-used entries until the cache fits its bound. */
+  public void put(K key, V value) {
+    store(key, value, ttlNanos);
+  }
+
+  /**
+   * Like {@link #put(Object, Object)}, but the entry lives for {@code ttl} instead of the cache's
+   * time-to-live, e.g. for a value restored from disk that is already part-way through its life.
+   */
+  public void put(K key, V value, Duration ttl) {
+    store(key, value, ttl.toNanos());
+  }
+
+  private void store(K key, V value, long ttlNanos) {
+    long weight = weigher.applyAsLong(value);
+    if (weight > maxWeight || ttlNanos <= 0) {
+      return; // would evict everything else and still not fit, or is already stale
+    }
+    Entry<V> entry = new Entry<>(value, weight, clock.getAsLong() + ttlNanos);
+    synchronized (this) {
+      Entry<V> previous = entries.put(key, entry);
+      if (previous != null) {
+        totalWeight -= previous.weight;
+      }
+      totalWeight += weight;
+      evictToFit();
+    }
+  }
+
+  /**
+   * Returns the value for {@code key} even if it has expired, as long as it is within the cache's
+   * stale window, or null. Meant for when loading a fresh value failed; does not count as a hit.
+   */
+  public V getStale(K key) {
+    V value;
+    synchronized (this) {
+      Entry<V> entry = entries.get(key);
+      if (entry == null || clock.getAsLong() - entry.expiresAtNanos >= staleNanos) {
+        return null;
+      }
+      value = entry.value;
+    }
+    staleHits.incrementAndGet();
+    return value;
+  }
+
+  public synchronized void invalidate(K key) {
+    Entry<V> removed = entries.remove(key);
+    if (removed != null) {
+      totalWeight -= removed.weight;
+    }
+  }
+
+  public synchronized void invalidateAll() {
+    entries.clear();
+    totalWeight = 0;
+  }
+
+  /** Number of entries currently stored, including expired ones not yet cleaned up. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public CacheStats stats() {
+    long size;
+    long weight;
+    synchronized (this) {
+      size = entries.size();
+      weight = totalWeight;
+    }
+    return new CacheStats(
+        hits.get(),
+        misses.get(),
+        evictions.get(),
+        expirations.get(),
+        staleHits.get(),
+        loadSuccesses.get(),
+        loadFailures.get(),
+        totalLoadTimeNanos.get(),
+        size,
+        weight);
+  }
+
+  private synchronized V lookup(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    long age = clock.getAsLong() - entry.expiresAtNanos; // time since it expired
+    if (age >= 0) {
+      if (age >= staleNanos) {
+        entries.remove(key);
+        totalWeight -= entry.weight;
+        expirations.incrementAndGet();
+      }
+      return null;
+    }
+    return entry.value;
+  }
+
+  // caller holds the lock
+  private void evictToFit() {
+    Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+    while (totalWeight > maxWeight && eldest.hasNext()) {
+      Entry<V> victim = eldest.next().getValue();
+      eldest.remove();
+      totalWeight -= victim.weight;
+      evictions.incrementAndGet();
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package src.cache;
+
+/** Point-in-time counters for a {@link BoundedCache}. */
+public class CacheStats {
+  public final long hits;
+  public final long misses;
+  public final long evictions;
+  public final long expirations;
+
+  /** Expired values served because a fresh one could not be loaded. */
+  public final long staleHits;
+
+  public final long loadSuccesses;
+  public final long loadFailures;
+  public final long totalLoadTimeNanos;
+  public final long size;
+  public final long weight;
+
+  public CacheStats(
+      long hits,
+      long misses,
+      long evictions,
+      long expirations,
+      long staleHits,
+      long loadSuccesses,
+      long loadFailures,
+      long totalLoadTimeNanos,
+      long size,
+      long weight) {
+    this.hits = hits;
+    this.misses = misses;
+    this.evictions = evictions;
+    this.expirations = expirations;
+    this.staleHits = staleHits;
+    this.loadSuccesses = loadSuccesses;
+    this.loadFailures = loadFailures;
+    this.totalLoadTimeNanos = totalLoadTimeNanos;
+    this.size = size;
+    this.weight = weight;
+  }
+
+  public double hitRate() {
+    long requests = hits + misses;
+    return requests == 0 ? 1.0 : (double) hits / requests;
+  }
+
+  /** Average time spent in a load, successful or not, in milliseconds. */
+  public double averageLoadMillis() {
+    long loads = loadSuccesses + loadFailures;
+    return loads == 0 ? 0.0 : totalLoadTimeNanos / 1_000_000.0 / loads;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "CacheStats{hits=%d, misses=%d, hitRate=%.3f, evictions=%d, expirations=%d,"
+            + " staleHits=%d, loads=%d, loadFailures=%d, avgLoadMs=%.2f, size=%d, weight=%d}",
+        hits,
+        misses,
+        hitRate(),
+        evictions,
+        expirations,
+        staleHits,
+        loadSuccesses,
+        loadFailures,
+        averageLoadMillis(),
+        size,
+        weight);
+  }
+}
@@ -0,0 +1,200 @@
+package src.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import models.PlaceDetails;
+import src.geo.Distance;
+import src.geo.GeoHash;
+
+/**
+ * Caches nearby-search results per geohash cell. A query is snapped to the cell containing its
+ * center and its radius is rounded up to a bucket; the upstream search is then made once for the
+ * whole cell, from the cell center with the radius grown by the cell's half-diagonal. Every query
+ * in that cell with a radius inside the bucket is covered by that circle, so it is answered by
+ * filtering the cached candidates by their real distance.
+ *
+ * <p>That only holds while the tile holds everything in its circle. Google returns one page of at
+ * most {@link #UPSTREAM_PAGE_SIZE} results, so a full tile may have dropped places the query's own,
+ * smaller circle would have kept; such a query is sent upstream as asked instead, and its answer is
+ * cached under the exact point, radius and keyword.
+ *
+ * <p>If refetching an expired tile fails, the expired copy is served instead for as long as the
+ * cache's stale window allows.
+ *
+ * <p>Every answer names the upstream result set it was cut from ({@link Result#version}). It stays
+ * the same until that set is fetched again, so callers can use it to validate what they derived
+ * from it.
+ */
+public class NearbySearchCache {
+
+  /** Geohash length of a tile; 7 characters is roughly 150 m x 150 m. */
+  public static final int CELL_PRECISION = 7;
+
+  /** Radii are rounded up to a multiple of this before keying. */
+  public static final int RADIUS_BUCKET_METERS = 250;
+
+  /** Largest radius the Places API accepts. */
+  public static final int MAX_UPSTREAM_RADIUS_METERS = 50_000;
+
+  /** Results in one page of an upstream nearby search; a tile with this many may be cut short. */
+  public static final int UPSTREAM_PAGE_SIZE = 20;
+
+  /** Upstream nearby search, called on a cache miss with the tile's (or query's) circle. */
+  public interface Fetcher {
+    CompletableFuture<List<PlaceDetails>> fetch(double lat, double lng, int radius, String keyword);
+  }
+
+  /** The places a search found, and which fetch of which tile they came from. */
+  public static final class Result {
+    public final List<PlaceDetails> places;
+
+    /** The tile's key and fetch number; equal for every search answered by the same fetch. */
+    public final String version;
+
+    Result(List<PlaceDetails> places, String version) {
+      this.places = places;
+      this.version = version;
+    }
+  }
+
+  /** One upstream result set, fetched for a whole cell or for one exact query. */
+  private static class Tile {
+    final double lat;
+    final double lng;
+    final int radius;
+    final List<PlaceDetails> results;
+    final String version;
+
+    Tile(double lat, double lng, int radius, List<PlaceDetails> results, String version) {
+      this.lat = lat;
+      this.lng = lng;
+      this.radius = radius;
+      this.results = results;
+      this.version = version;
+    }
+
+    /** True if every place a search of this circle would return is among the results. */
+    boolean answers(double queryLat, double queryLng, int queryRadius) {
+      return results.size() < UPSTREAM_PAGE_SIZE
+          && Distance.meters(lat, lng, queryLat, queryLng) + queryRadius <= radius;
+    }
+  }
+
+  private final BoundedCache<String, Tile> tiles;
+  private final AtomicLong fetches = new AtomicLong();
+
+  public NearbySearchCache(long maxTiles, Duration ttl) {
+    this(maxTiles, ttl, Duration.ZERO);
+  }
+
+  /** A cache whose tiles can still be served for {@code staleFor} past {@code ttl} on error. */
+  public NearbySearchCache(long maxTiles, Duration ttl, Duration staleFor) {
+    this.tiles = new BoundedCache<>(maxTiles, ttl, staleFor, tile -> 1L, System::nanoTime);
+  }
+
+  /**
+   * Returns the nearby-search results within {@code radius} meters of the point, using a cached
+   * tile when one covers the query and fetching (once per tile) otherwise. When the tile came back
+   * full, the query is fetched with its own point and radius, and cached as such.
+   *
+   * <p>Keys use the normalized keyword; Google is sent {@code keyword} as the caller wrote it.
+   */
+  public CompletableFuture<Result> search(
+      double lat, double lng, int radius, String keyword, Fetcher fetcher) {
+    String searchKeyword = keyword == null ? "" : keyword.trim();
+    String normalizedKeyword = normalizeKeyword(keyword);
+    int bucket = Math.max(1, (radius + RADIUS_BUCKET_METERS - 1) / RADIUS_BUCKET_METERS);
+    String cell = GeoHash.encode(lat, lng, CELL_PRECISION);
+    double[] b = GeoHash.bounds(cell);
+    double centerLat = (b[0] + b[1]) / 2;
+    double centerLng = (b[2] + b[3]) / 2;
+    // the corner nearer the pole is the shorter one, so measure to the one nearer the equator
+    double edgeLat = Math.abs(b[0]) < Math.abs(b[1]) ? b[0] : b[1];
+    int fetchRadius =
+        bucket * RADIUS_BUCKET_METERS
+            + (int) Math.ceil(Distance.meters(centerLat, centerLng, edgeLat, b[2]));
+
+    if (fetchRadius > MAX_UPSTREAM_RADIUS_METERS) {
+      return exact(lat, lng, radius, searchKeyword, normalizedKeyword, fetcher);
+    }
+
+    String key = cell + "|" + bucket + "|" + normalizedKeyword;
+    return tile(key, centerLat, centerLng, fetchRadius, searchKeyword, fetcher)
+        .thenCompose(
+            tile ->
+                tile.answers(lat, lng, radius)
+                    ? CompletableFuture.completedFuture(
+                        new Result(within(tile.results, lat, lng, radius), tile.version))
+                    : exact(lat, lng, radius, searchKeyword, normalizedKeyword, fetcher));
+  }
+
+  public CacheStats stats() {
+    return tiles.stats();
+  }
+
+  /** Lower-cases and collapses whitespace so equivalent keywords share tiles. */
+  public static String normalizeKeyword(String keyword) {
+    if (keyword == null) return "";
+    return keyword.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+  }
+
+  /** The results of a search of exactly this circle, cached under it. */
+  private CompletableFuture<Result> exact(
+      double lat,
+      double lng,
+      int radius,
+      String keyword,
+      String normalizedKeyword,
+      Fetcher fetcher) {
+    String key = lat + "," + lng + "|" + radius + "|" + normalizedKeyword;
+    return tile(key, lat, lng, radius, keyword, fetcher)
+        .thenApply(tile -> new Result(tile.results, tile.version));
+  }
+
+  /**
+   * The cached search of the circle under {@code key}, fetched on a miss. If the fetch fails, an
+   * expired copy is used while the stale window allows.
+   */
+  private CompletableFuture<Tile> tile(
+      String key, double lat, double lng, int radius, String keyword, Fetcher fetcher) {
+    return tiles
+        .getAsync(
+            key,
+            k ->
+                fetcher
+                    .fetch(lat, lng, radius, keyword)
+                    .thenApply(
+                        results ->
+                            new Tile(
+                                lat, lng, radius, results, k + "#" + fetches.incrementAndGet())))
+        .exceptionally(
+            err -> {
+              Tile stale = tiles.getStale(key);
+              if (stale == null) throw asCompletion(err);
+              return stale;
+            });
+  }
+
+  private static CompletionException asCompletion(Throwable err) {
+    return err instanceof CompletionException
+        ? (CompletionException) err
+        : new CompletionException(err);
+  }
+
+  private static List<PlaceDetails> within(
+      List<PlaceDetails> candidates, double lat, double lng, int radius) {
+    List<PlaceDetails> inside = new ArrayList<>();
+    for (PlaceDetails place : candidates) {
+      // with nothing to measure, keep what Google returned
+      if (!place.hasLocation() || Distance.meters(lat, lng, place.lat, place.lng) <= radius) {
+        inside.add(place);
+      }
+    }
+    return inside;
+  }
+}
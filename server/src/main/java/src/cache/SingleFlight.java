@@ -0,0 +1,49 @@
+package src.cache;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent loads of the same key into one. The first caller for a key starts the load;
+ * everyone who asks for that key before it finishes gets the same result (or the same failure).
+ */
+public class SingleFlight<K, V> {
+  private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * Runs {@code loader} for {@code key} unless a load for it is already running, in which case the
+   * running one is joined. Each caller gets its own copy of the shared future, so cancelling or
+   * timing out one caller does not affect the others.
+   */
+  public CompletableFuture<V> run(K key, Supplier<CompletableFuture<V>> loader) {
+    CompletableFuture<V> mine = new CompletableFuture<>();
+    CompletableFuture<V> shared = inFlight.putIfAbsent(key, mine);
+    if (shared != null) {
+      return shared.copy();
+    }
+
+    CompletableFuture<V> load;
+    try {
+      load = loader.get();
+    } catch (RuntimeException e) {
+      load = CompletableFuture.failedFuture(e);
+    }
+    load.whenComplete(
+        (value, err) -> {
+          inFlight.remove(key, mine);
+          if (err != null) {
+            mine.completeExceptionally(err);
+          } else {
+            mine.complete(value);
+          }
+        });
+    return mine.copy();
+  }
+
+  /** Number of keys with a load currently running. */
+  public int inFlightCount() {
+    return inFlight.size();
+  }
+}
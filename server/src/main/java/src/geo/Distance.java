@@ -0,0 +1,40 @@
+package src.geo;
+
+/** Great-circle distances on a spherical Earth. */
+public final class Distance {
+  public static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+  private Distance() {}
+
+  /** Haversine distance between two points, in meters. */
+  public static double meters(double lat1, double lng1, double lat2, double lng2) {
+    double dLat = Math.toRadians(lat2 - lat1);
+    double dLng = Math.toRadians(lng2 - lng1);
+    double a =
+        Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(lat1))
+                * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2)
+                * Math.sin(dLng / 2);
+    return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+  }
+
+  /**
+   * Distances from ({@code lat}, {@code lng}) to the first {@code n} points of the {@code lats} /
+   * {@code lngs} columns, into {@code out}, in meters. Uses the equirectangular approximation
+   * (longitudes scaled by the cosine of the origin's latitude), which stays within 0.1% of {@link
+   * #meters} for points a few tens of kilometers away, outside the polar regions. The loop is free
+   * of trigonometry and branches, so it costs a few multiplies and a square root per point.
+   */
+  public static void metersFrom(
+      double lat, double lng, double[] lats, double[] lngs, int n, double[] out) {
+    double radians = Math.PI / 180;
+    double lngScale = Math.cos(lat * radians) * radians;
+    for (int i = 0; i < n; i++) {
+      double dLat = (lats[i] - lat) * radians;
+      double dLng = lngs[i] - lng;
+      dLng = (dLng - 360 * Math.rint(dLng / 360)) * lngScale; // the short way round
+      out[i] = EARTH_RADIUS_METERS * Math.sqrt(dLat * dLat + dLng * dLng);
+    }
+  }
+}
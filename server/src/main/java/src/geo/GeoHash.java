@@ -0,0 +1,81 @@
+package src.geo;
+
+/**
+ * Minimal geohash encoder. A geohash names a rectangular cell of the lat/lng grid; each extra
+ * character splits the cell 32 ways, so nearby points share a prefix.
+ */
+public final class GeoHash {
+  private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+  private GeoHash() {}
+
+  /** Geohash of the cell at {@code precision} characters that contains the point. */
+  public static String encode(double lat, double lng, int precision) {
+    if (precision < 1 || precision > 12) {
+      throw new IllegalArgumentException("precision must be between 1 and 12");
+    }
+    double minLat = -90, maxLat = 90, minLng = -180, maxLng = 180;
+    StringBuilder hash = new StringBuilder(precision);
+    boolean evenBit = true;
+    int bit = 0;
+    int ch = 0;
+    while (hash.length() < precision) {
+      if (evenBit) {
+        double mid = (minLng + maxLng) / 2;
+        if (lng >= mid) {
+          ch = (ch << 1) | 1;
+          minLng = mid;
+        } else {
+          ch <<= 1;
+          maxLng = mid;
+        }
+      } else {
+        double mid = (minLat + maxLat) / 2;
+        if (lat >= mid) {
+          ch = (ch << 1) | 1;
+          minLat = mid;
+        } else {
+          ch <<= 1;
+          maxLat = mid;
+        }
+      }
+      evenBit = !evenBit;
+      if (++bit == 5) {
+        hash.append(BASE32[ch]);
+        bit = 0;
+        ch = 0;
+      }
+    }
+    return hash.toString();
+  }
+
+  /** Bounds of a cell as {@code {minLat, maxLat, minLng, maxLng}}. */
+  public static double[] bounds(String hash) {
+    double minLat = -90, maxLat = 90, minLng = -180, maxLng = 180;
+    boolean evenBit = true;
+    for (int i = 0; i < hash.length(); i++) {
+      int value = indexOf(hash.charAt(i));
+      for (int b = 4; b >= 0; b--) {
+        boolean set = ((value >> b) & 1) == 1;
+        if (evenBit) {
+          double mid = (minLng + maxLng) / 2;
+          if (set) minLng = mid;
+          else maxLng = mid;
+        } else {
+          double mid = (minLat + maxLat) / 2;
+          if (set) minLat = mid;
+          else maxLat = mid;
+        }
+        evenBit = !evenBit;
+      }
+    }
+    return new double[] {minLat, maxLat, minLng, maxLng};
+  }
+
+  private static int indexOf(char c) {
+    for (int i = 0; i < BASE32.length; i++) {
+      if (BASE32[i] == c) return i;
+    }
+    throw new IllegalArgumentException("Not a geohash character: " + c);
+  }
+}
@@ -0,0 +1,220 @@
+package src.geo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A uniform lat/lng grid over a fixed set of points, for radius queries. Points are bucketed into
+ * square cells (in degrees) no taller than {@code cellMeters} and stored cell by cell in flat
+ * arrays. A query only visits the cells its circle's bounding box overlaps, skips points outside
+ * the box with two comparisons, and runs the exact haversine check on the rest. Immutable once
+ * built; safe to share between threads.
+ */
+public final class GridIndex {
+
+  /** Cell size used when none is given; about the smallest radius /places is asked for. */
+  public static final double DEFAULT_CELL_METERS = 500;
+
+  private static final double METERS_PER_DEGREE = Distance.EARTH_RADIUS_METERS * Math.PI / 180;
+
+  /** The points of a query, in ascending row order, and their distances in meters. */
+  public static final class Within {
+    public final int[] rows;
+    public final double[] meters;
+
+    Within(int[] rows, double[] meters) {
+      this.rows = rows;
+      this.meters = meters;
+    }
+
+    public int size() {
+      return rows.length;
+    }
+
+    /** Position of {@code row} in {@link #rows}, or -1 if it is not within the radius. */
+    public int indexOf(int row) {
+      int i = Arrays.binarySearch(rows, row);
+      return i >= 0 ? i : -1;
+    }
+  }
+
+  private final double cellDegrees;
+  private final int columns; // cells around the globe; 360 / columns is the cell size
+  private final long[] cellKeys; // sorted, distinct
+  private final int[] cellStart; // cellKeys[c]'s points are [cellStart[c], cellStart[c + 1])
+  private final int[] rows; // point ids, grouped by cell
+  private final double[] lat; // grouped like rows
+  private final double[] lng;
+
+  private GridIndex(
+      int columns, long[] cellKeys, int[] cellStart, int[] rows, double[] lat, double[] lng) {
+    this.columns = columns;
+    this.cellDegrees = 360.0 / columns;
+    this.cellKeys = cellKeys;
+    this.cellStart = cellStart;
+    this.rows = rows;
+    this.lat = lat;
+    this.lng = lng;
+  }
+
+  /**
+   * Indexes point {@code i} at ({@code lat[i]}, {@code lng[i]}) for every {@code i} set in {@code
+   * present}; the others are never returned.
+   */
+  public static GridIndex build(double[] lat, double[] lng, BitSet present, double cellMeters) {
+    if (!(cellMeters > 0)) throw new IllegalArgumentException("cellMeters must be positive");
+    // a whole number of columns around the globe, so column arithmetic wraps cleanly
+    int columns = (int) Math.ceil(360 / (cellMeters / METERS_PER_DEGREE));
+    double cellDegrees = 360.0 / columns;
+    int n = present.cardinality();
+
+    // group the points by cell (row order within a cell)
+    long[] keys = new long[n];
+    Integer[] order = new Integer[n];
+    int k = 0;
+    for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+      keys[k] = key(cellRow(lat[i], cellDegrees), cellColumn(lng[i], cellDegrees, columns));
+      order[k] = i;
+      k++;
+    }
+    long[] keyOf = new long[lat.length];
+    for (int j = 0; j < n; j++) keyOf[order[j]] = keys[j];
+    Arrays.sort(
+        order,
+        (a, b) -> keyOf[a] != keyOf[b] ? Long.compare(keyOf[a], keyOf[b]) : Integer.compare(a, b));
+
+    int[] rows = new int[n];
+    double[] sortedLat = new double[n];
+    double[] sortedLng = new double[n];
+    long[] cellKeys = new long[n];
+    int[] cellStart = new int[n + 1];
+    int cells = 0;
+    for (int j = 0; j < n; j++) {
+      int row = order[j];
+      rows[j] = row;
+      sortedLat[j] = lat[row];
+      sortedLng[j] = lng[row];
+      if (cells == 0 || cellKeys[cells - 1] != keyOf[row]) {
+        cellKeys[cells] = keyOf[row];
+        cellStart[cells++] = j;
+      }
+    }
+    cellStart[cells] = n;
+    return new GridIndex(
+        columns,
+        Arrays.copyOf(cellKeys, cells),
+        Arrays.copyOf(cellStart, cells + 1),
+        rows,
+        sortedLat,
+        sortedLng);
+  }
+
+  /** Number of indexed points. */
+  public int size() {
+    return rows.length;
+  }
+
+  /** Every indexed point within {@code radiusMeters} of ({@code lat}, {@code lng}). */
+  public Within within(double lat, double lng, double radiusMeters) {
+    // bounding box of the circle, in degrees; near the poles it spans every longitude
+    double dLat = radiusMeters / METERS_PER_DEGREE;
+    double cosLat = Math.cos(Math.toRadians(Math.min(90, Math.abs(lat) + dLat)));
+    double dLng = cosLat > 1e-9 ? dLat / cosLat : 360;
+    boolean allLongitudes = dLng >= 180;
+
+    int rowFrom = cellRow(lat - dLat, cellDegrees);
+    int rowTo = cellRow(lat + dLat, cellDegrees);
+    int colFrom = 0;
+    int span = columns;
+    if (!allLongitudes) {
+      // may run past either end of the grid; probes wrap around the antimeridian
+      colFrom = (int) Math.floor((wrap(lng) - dLng + 180) / cellDegrees);
+      int colTo = (int) Math.floor((wrap(lng) + dLng + 180) / cellDegrees);
+      span = Math.min(columns, colTo - colFrom + 1);
+    }
+
+    Hits hits = new Hits(lat, lng, radiusMeters, dLat, allLongitudes ? 360 : dLng);
+    if ((long) (rowTo - rowFrom + 1) * span > cellKeys.length) {
+      // the box has more cells than the data occupies: scan those instead of probing
+      for (int cell = 0; cell < cellKeys.length; cell++) scan(cell, hits);
+    } else {
+      for (int row = rowFrom; row <= rowTo; row++) {
+        for (int i = 0; i < span; i++) {
+          int cell = Arrays.binarySearch(cellKeys, key(row, Math.floorMod(colFrom + i, columns)));
+          if (cell >= 0) scan(cell, hits);
+        }
+      }
+    }
+    return hits.byRow();
+  }
+
+  /** Box pre-filter, then the exact distance, for every point of one cell. */
+  private void scan(int cell, Hits hits) {
+    for (int j = cellStart[cell]; j < cellStart[cell + 1]; j++) {
+      if (Math.abs(lat[j] - hits.lat) > hits.dLat) continue;
+      if (Math.abs(wrap(lng[j] - hits.lng)) > hits.dLng) continue;
+      double d = Distance.meters(hits.lat, hits.lng, lat[j], lng[j]);
+      if (d <= hits.radius) hits.add(rows[j], d);
+    }
+  }
+
+  /** A query and the points found so far. */
+  private static final class Hits {
+    final double lat;
+    final double lng;
+    final double radius;
+    final double dLat;
+    final double dLng;
+    int[] rows = new int[16];
+    double[] meters = new double[16];
+    int count;
+
+    Hits(double lat, double lng, double radius, double dLat, double dLng) {
+      this.lat = lat;
+      this.lng = lng;
+      this.radius = radius;
+      this.dLat = dLat;
+      this.dLng = dLng;
+    }
+
+    void add(int row, double d) {
+      if (count == rows.length) {
+        rows = Arrays.copyOf(rows, count * 2);
+        meters = Arrays.copyOf(meters, count * 2);
+      }
+      rows[count] = row;
+      meters[count++] = d;
+    }
+
+    /** Cells are visited in grid order; callers want the points in row order. */
+    Within byRow() {
+      Integer[] order = new Integer[count];
+      for (int i = 0; i < count; i++) order[i] = i;
+      Arrays.sort(order, (a, b) -> Integer.compare(rows[a], rows[b]));
+      int[] sortedRows = new int[count];
+      double[] sortedMeters = new double[count];
+      for (int i = 0; i < count; i++) {
+        sortedRows[i] = rows[order[i]];
+        sortedMeters[i] = meters[order[i]];
+      }
+      return new Within(sortedRows, sortedMeters);
+    }
+  }
+
+  private static int cellRow(double lat, double cellDegrees) {
+    return (int) Math.floor((lat + 90) / cellDegrees);
+  }
+
+  private static int cellColumn(double lng, double cellDegrees, int columns) {
+    return Math.floorMod((int) Math.floor((wrap(lng) + 180) / cellDegrees), columns);
+  }
+
+  private static long key(int row, int column) {
+    return ((long) row << 32) | (column & 0xffffffffL);
+  }
+
+  /** {@code degrees} in [-180, 180). */
+  private static double wrap(double degrees) {
+    return ((degrees + 180) % 360 + 360) % 360 - 180;
+  }
+}
@@ -0,0 +1,19 @@
+package src.handlers;
+
+import java.io.IOException;
+import java.util.List;
+import models.PlaceResult;
+
+/** Where POST /rank gets the places it ranks: the same search /places runs, without ranking. */
+public interface CandidateSource {
+
+  /**
+   * The enriched places a /places request for this search would rank, in search order. The list and
+   * its places are the caller's to rank, but must not be modified.
+   *
+   * @param keyword the normalized search keyword (lower-case words, sorted, space-separated; may be
+   *     empty)
+   */
+  List<PlaceResult> candidates(double lat, double lng, int radius, String keyword)
+      throws IOException, InterruptedException;
+}
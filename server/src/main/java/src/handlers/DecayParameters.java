@@ -0,0 +1,40 @@
+package src.handlers;
+
+import java.util.Map;
+import src.ranking.DistanceDecay;
+
+/**
+ * The query parameters of {@code rank=distance}: {@code decay} (exponential, gaussian or
+ * reciprocal), {@code half_distance} in meters and {@code distance_weight}, each optional.
+ */
+final class DecayParameters {
+
+  private DecayParameters() {}
+
+  /** Whether the request asked for distance-aware ranking. */
+  static boolean requested(Map<String, String> qp) {
+    return "distance".equalsIgnoreCase(qp.get("rank"));
+  }
+
+  /**
+   * The decay the request describes, with defaults for what it leaves out.
+   *
+   * @throws IllegalArgumentException if a parameter is malformed or out of range
+   */
+  static DistanceDecay fromQuery(Map<String, String> qp) {
+    return new DistanceDecay(
+        DistanceDecay.Kernel.parse(qp.get("decay")),
+        parse(qp, "half_distance", DistanceDecay.DEFAULT_HALF_DISTANCE_METERS),
+        parse(qp, "distance_weight", DistanceDecay.DEFAULT_WEIGHT));
+  }
+
+  private static double parse(Map<String, String> qp, String name, double fallback) {
+    String value = qp.get(name);
+    if (value == null || value.isBlank()) return fallback;
+    try {
+      return Double.parseDouble(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(name + " must be a number");
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package src.handlers;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/** The {"error":"..."} answer shared by the handlers. */
+public final class ErrorResponses {
+
+  private ErrorResponses() {}
+
+  /** {@code {"error":message}}, with the message escaped; it may echo what the caller sent. */
+  public static String body(String message) {
+    JsonObject error = new JsonObject();
+    error.addProperty("error", String.valueOf(message));
+    return error.toString();
+  }
+
+  /** Sends {@link #body} with {@code status}; the exchange must not have sent its headers yet. */
+  public static void send(HttpExchange exchange, int status, String message) throws IOException {
+    byte[] bytes = body(message).getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(bytes);
+    }
+  }
+}
@@ -2,56 +2,561 @@ package src.handlers;
 
 import io.github.cdimascio.dotenv.Dotenv;
 import java.io.IOException;
+import java.io.StringReader;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.Map;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import models.PlaceDetails;
+import src.cache.BoundedCache;
+import src.cache.CacheStats;
+import src.cache.NearbySearchCache;
+import src.metrics.Metrics;
+import src.server.Log;
+import src.server.RequestDeadline;
+import src.storage.DetailsLog;
+import src.upstream.CircuitBreaker;
+import src.upstream.OutboundScheduler;
+import src.upstream.OutboundScheduler.Priority;
+import src.upstream.TokenBucket;
+import src.upstream.UpstreamException;
+import src.upstream.UpstreamPolicy;
 
 public class GooglePlacesClient {
 
+  /** Where requests go unless PLACES_BASE_URL points somewhere else (e.g. a local stand-in). */
+  public static final String DEFAULT_BASE_URL = "https://maps.googleapis.com";
+
+  /** Upper bound on the details cache, counted in (approximate) bytes of cached records. */
+  public static final long DETAILS_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+
+  /** Details go stale (rating, opening hours), so cached places are refetched after this. */
+  public static final Duration DETAILS_CACHE_TTL = Duration.ofMinutes(30);
+
+  /** Where details are persisted for a warm restart, unless DETAILS_STORE_PATH says. */
+  public static final String DEFAULT_DETAILS_STORE_PATH = "data/place-details.log";
+
+  /** How long expired details are still served when Google cannot be reached. */
+  public static final Duration DETAILS_STALE_FOR = Duration.ofHours(2);
+
+  /**
+   * Deadline for one details lookup, which the callers waiting on a place share; each of them can
+   * give up sooner.
+   */
+  public static final Duration DETAILS_TIMEOUT = Duration.ofSeconds(10);
+
+  /** Deadline for one details attempt; a straggler is hedged well before this. */
+  public static final Duration DETAILS_ATTEMPT_TIMEOUT = Duration.ofSeconds(3);
+
+  /** Details attempts slower than this quantile of past ones get a hedged twin. */
+  public static final double DETAILS_HEDGE_QUANTILE = 0.95;
+
+  /** Number of nearby-search tiles kept in memory. */
+  public static final long NEARBY_CACHE_MAX_TILES = 2_000;
+
+  /** Nearby results change slowly, but new places and closures should show up eventually. */
+  public static final Duration NEARBY_CACHE_TTL = Duration.ofMinutes(10);
+
+  /** How long an expired nearby tile is still served when Google cannot be reached. */
+  public static final Duration NEARBY_STALE_FOR = Duration.ofHours(1);
+
+  /** Deadline for one nearby-search call. */
+  public static final Duration NEARBY_TIMEOUT = Duration.ofSeconds(10);
+
+  /** Deadline for one nearby-search attempt, so a hung one leaves time for a retry. */
+  public static final Duration NEARBY_ATTEMPT_TIMEOUT = Duration.ofSeconds(4);
+
+  /** Deadline for opening a connection to Google. */
+  public static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+
+  /** Attempts per upstream call, including the first. */
+  public static final int MAX_ATTEMPTS = 3;
+
+  /** Retries wait up to this long, doubled per retry, up to {@link #RETRY_BACKOFF_CAP}. */
+  public static final Duration RETRY_BACKOFF_BASE = Duration.ofMillis(100);
+
+  public static final Duration RETRY_BACKOFF_CAP = Duration.ofSeconds(1);
+
+  /** Recent calls per endpoint the circuit breaker looks at. */
+  public static final int BREAKER_WINDOW = 20;
+
+  /** Once half of those failed (and at least ten are in), calls stop for this long. */
+  public static final Duration BREAKER_OPEN_FOR = Duration.ofSeconds(30);
+
+  /** Nearby searches per second, unless PLACES_NEARBY_QPS says otherwise. */
+  public static final double DEFAULT_NEARBY_QPS = 20;
+
+  /** Details lookups per second, unless PLACES_DETAILS_QPS says otherwise. */
+  public static final double DEFAULT_DETAILS_QPS = 100;
+
+  /** Calls per endpoint that may wait for quota; more are refused. */
+  public static final int MAX_QUEUED_CALLS = 1_000;
+
   private final String API_KEY;
+  private final String baseUrl;
   private final HttpClient client;
-  private final Map<String, String> placeDetailsCache;
+  private final BoundedCache<String, PlaceDetails> placeDetailsCache;
+  private final NearbySearchCache nearbyCache;
+  private final DetailsLog detailsLog; // null when details are not persisted
+  private final UpstreamPolicy nearbyPolicy;
+  private final UpstreamPolicy detailsPolicy;
+  private final OutboundScheduler nearbyScheduler;
+  private final OutboundScheduler detailsScheduler;
+  private final ConcurrentMap<String, DetailsLoad> detailsLoads = new ConcurrentHashMap<>();
 
+  /**
+   * Reads PLACES_API_KEY and, optionally, PLACES_BASE_URL, DETAILS_STORE_PATH, PLACES_NEARBY_QPS
+   * and PLACES_DETAILS_QPS from .env or the environment. Details are persisted to
+   * DETAILS_STORE_PATH (an empty value turns that off); the QPS values are the per-second quota for
+   * each endpoint.
+   */
   public GooglePlacesClient() {
-    Dotenv dotenv = Dotenv.load();
-    this.API_KEY = dotenv.get("PLACES_API_KEY");
-    this.client = HttpClient.newHttpClient();
-    this.placeDetailsCache = new ConcurrentHashMap<>();
+    this(Dotenv.load());
+  }
+
+  private GooglePlacesClient(Dotenv dotenv) {
+    this(
+        dotenv.get("PLACES_BASE_URL", DEFAULT_BASE_URL),
+        dotenv.get("PLACES_API_KEY"),
+        openDetailsLog(dotenv.get("DETAILS_STORE_PATH", DEFAULT_DETAILS_STORE_PATH)),
+        Double.parseDouble(dotenv.get("PLACES_NEARBY_QPS", Double.toString(DEFAULT_NEARBY_QPS))),
+        Double.parseDouble(dotenv.get("PLACES_DETAILS_QPS", Double.toString(DEFAULT_DETAILS_QPS))));
   }
 
+  /**
+   * @param baseUrl scheme, host and port of the Places API, e.g. {@link #DEFAULT_BASE_URL}
+   * @param apiKey key sent with every request
+   */
+  public GooglePlacesClient(String baseUrl, String apiKey) {
+    this(baseUrl, apiKey, null);
+  }
+
+  /**
+   * Like {@link #GooglePlacesClient(String, String)}, with details written behind to {@code
+   * detailsLog} and its live records loaded into the details cache up front, so a restart does not
+   * send every lookup back to Google. The log should keep records for {@link #DETAILS_CACHE_TTL}.
+   */
+  public GooglePlacesClient(String baseUrl, String apiKey, DetailsLog detailsLog) {
+    this(baseUrl, apiKey, detailsLog, DEFAULT_NEARBY_QPS, DEFAULT_DETAILS_QPS);
+  }
+
+  /**
+   * Like {@link #GooglePlacesClient(String, String, DetailsLog)}, with calls to Google paced to
+   * {@code nearbyQps} nearby searches and {@code detailsQps} details lookups per second. Bursts of
+   * up to a second's worth go out at once; beyond that calls queue, most urgent first (see {@link
+   * OutboundScheduler}).
+   */
+  public GooglePlacesClient(
+      String baseUrl, String apiKey, DetailsLog detailsLog, double nearbyQps, double detailsQps) {
+    this.API_KEY = apiKey;
+    this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+    this.client = HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).build();
+    this.placeDetailsCache =
+        new BoundedCache<>(
+            DETAILS_CACHE_MAX_BYTES,
+            DETAILS_CACHE_TTL,
+            DETAILS_STALE_FOR,
+            PlaceDetails::weight,
+            System::nanoTime);
+    this.nearbyCache =
+        new NearbySearchCache(NEARBY_CACHE_MAX_TILES, NEARBY_CACHE_TTL, NEARBY_STALE_FOR);
+    this.nearbyPolicy = policy("nearby", 0);
+    this.detailsPolicy = policy("details", DETAILS_HEDGE_QUANTILE);
+    this.nearbyScheduler = scheduler("nearby", nearbyQps);
+    this.detailsScheduler = scheduler("details", detailsQps);
+    Metrics.registerCache("nearby", this::nearbyCacheStats);
+    Metrics.registerCache("details", this::detailsCacheStats);
+    Metrics.registerUpstream("nearby", nearbyPolicy);
+    Metrics.registerUpstream("details", detailsPolicy);
+    Metrics.registerScheduler("nearby", nearbyScheduler);
+    Metrics.registerScheduler("details", detailsScheduler);
+    this.detailsLog = detailsLog;
+    if (detailsLog != null) {
+      warmDetailsCache(detailsLog);
+      Metrics.registerStore("details", detailsLog);
+    }
+  }
+
+  private static UpstreamPolicy policy(String endpoint, double hedgeQuantile) {
+    CircuitBreaker breaker =
+        new CircuitBreaker(
+            BREAKER_WINDOW, BREAKER_WINDOW / 2, 0.5, BREAKER_OPEN_FOR, System::nanoTime);
+    return new UpstreamPolicy(
+        endpoint, breaker, MAX_ATTEMPTS, RETRY_BACKOFF_BASE, RETRY_BACKOFF_CAP, hedgeQuantile);
+  }
+
+  private static OutboundScheduler scheduler(String endpoint, double qps) {
+    TokenBucket quota = new TokenBucket(qps, Math.max(1, qps), System::nanoTime);
+    return new OutboundScheduler(endpoint, quota, MAX_QUEUED_CALLS);
+  }
+
+  /** Opens the details log at {@code path}, or returns null (and runs without one) if it fails. */
+  private static DetailsLog openDetailsLog(String path) {
+    if (path == null || path.isBlank()) return null;
+    try {
+      Path file = Paths.get(path);
+      if (file.getParent() != null) Files.createDirectories(file.getParent());
+      DetailsLog log = DetailsLog.open(file, DETAILS_CACHE_TTL);
+      Runtime.getRuntime().addShutdownHook(new Thread(log::close, "details-log-close"));
+      return log;
+    } catch (IOException | RuntimeException e) {
+      Log.warn("Not persisting place details; cannot open " + path + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * Loads the log's live records, each for what is left of its time-to-live. Records are details
+   * bodies, as Google sent them (older logs) or cut down to the kept fields; both read the same.
+   */
+  private void warmDetailsCache(DetailsLog log) {
+    long now = System.currentTimeMillis();
+    int[] loaded = {0};
+    log.forEachLive(
+        entry -> {
+          PlaceDetails details;
+          try {
+            details = PlacesApiJson.read(new StringReader(entry.value)).result;
+          } catch (IOException e) {
+            details = null;
+          }
+          if (details == null) return; // not a details body; it will be fetched again
+          Duration age = Duration.ofMillis(now - entry.writtenAtMillis);
+          placeDetailsCache.put(entry.key, details, DETAILS_CACHE_TTL.minus(age));
+          loaded[0]++;
+        });
+    Log.info("Loaded " + loaded[0] + " place details from disk");
+  }
+
+  /**
+   * Nearby search, served from the geo-tiled cache when a cached tile covers the circle. Returns
+   * only the results within {@code radius} meters. While Google is failing, an expired tile is
+   * served if there is one.
+   *
+   * @throws HttpTimeoutException if the current request's deadline passes first
+   */
+  public List<PlaceDetails> searchNearby(double lat, double lng, int radius, String keyword)
+      throws IOException, InterruptedException {
+    return searchNearbyVersioned(lat, lng, radius, keyword).places;
+  }
+
+  /**
+   * {@link #searchNearby}, along with the version of the cached result set the places were taken
+   * from. The version changes only when that set is fetched from Google again.
+   */
+  public NearbySearchCache.Result searchNearbyVersioned(
+      double lat, double lng, int radius, String keyword) throws IOException, InterruptedException {
+    CompletableFuture<NearbySearchCache.Result> search =
+        nearbyCache.search(lat, lng, radius, keyword, this::fetchNearby);
+    try {
+      return search.get(RequestDeadline.clamp(NEARBY_TIMEOUT).toNanos(), TimeUnit.NANOSECONDS);
+    } catch (ExecutionException e) {
+      throw new IOException("Nearby search failed: " + e.getCause().getMessage(), e.getCause());
+    } catch (TimeoutException e) {
+      search.cancel(true);
+      throw new HttpTimeoutException("Nearby search did not finish before the request deadline");
+    }
+  }
+
+  /** {@link #searchNearby} wrapped as {"results":[...],"status":"OK"}. */
   public String searchNearbyAsJson(double lat, double lng, int radius, String keyword)
       throws IOException, InterruptedException {
-    String uri =
-        String.format(
-            "https://maps.googleapis.com/maps/api/place/nearbysearch/json?location=%f,%f&radius=%d&keyword=%s&key=%s",
-            lat, lng, radius, keyword, API_KEY);
-    HttpRequest request = HttpRequest.newBuilder().uri(URI.create(uri)).GET().build();
+    return PlacesApiJson.toNearbyJson(searchNearby(lat, lng, radius, keyword));
+  }
+
+  /** Hit, miss and eviction counters for the nearby-search tile cache. */
+  public CacheStats nearbyCacheStats() {
+    return nearbyCache.stats();
+  }
+
+  /** Nearby search gates every response, so it always goes first. */
+  private CompletableFuture<List<PlaceDetails>> fetchNearby(
+      double lat, double lng, int radius, String keyword) {
+    URI uri = URI.create(nearbyUri(lat, lng, radius, keyword));
+    Object owner = Thread.currentThread(); // the request this search is for
+    return nearbyPolicy.call(
+        (timeout, hedge) -> sendNearby(uri, owner, timeout),
+        NEARBY_ATTEMPT_TIMEOUT,
+        RequestDeadline.clamp(NEARBY_TIMEOUT));
+  }
+
+  private String nearbyUri(double lat, double lng, int radius, String keyword) {
+    return String.format(
+        Locale.ROOT, // "%f" must not use a decimal comma
+        "%s/maps/api/place/nearbysearch/json?location=%f,%f&radius=%d&keyword=%s&key=%s",
+        baseUrl,
+        lat,
+        lng,
+        radius,
+        URLEncoder.encode(keyword, StandardCharsets.UTF_8),
+        API_KEY);
+  }
 
-    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-    return response.body();
+  /** One nearby-search attempt, once the quota allows it. */
+  private CompletableFuture<List<PlaceDetails>> sendNearby(
+      URI uri, Object owner, Duration timeout) {
+    return send(nearbyScheduler, Priority.FIRST_PAGE, owner, uri, timeout)
+        .whenComplete((response, err) -> countFailure("nearby", err))
+        .thenApply(
+            response -> {
+              PlacesApiJson.Response body = read("nearby", "nearby search", response);
+              String status = body.status;
+              if (!"OK".equals(status) && !"ZERO_RESULTS".equals(status)) {
+                Metrics.upstreamError("nearby", "status");
+                throw new CompletionException(
+                    new UpstreamException(
+                        "Places API status " + status + " for nearby search",
+                        isTransientStatus(status)));
+              }
+              return body.results;
+            });
   }
 
   public String getPlaceDetailsAsJson(String placeId) throws IOException, InterruptedException {
-    // Check cache
-    if (placeDetailsCache.containsKey(placeId)) {
-      return placeDetailsCache.get(placeId);
+    try {
+      return getPlaceDetailsAsJsonAsync(placeId, DETAILS_TIMEOUT).get();
+    } catch (ExecutionException e) {
+      throw new IOException("Place details lookup failed for " + placeId, e.getCause());
     }
+  }
+
+  /**
+   * {@link #getPlaceDetailsAsync} as a details body, {@code {"result":{...},"status":"OK"}}, with
+   * only the fields a {@link PlaceDetails} keeps.
+   */
+  public CompletableFuture<String> getPlaceDetailsAsJsonAsync(String placeId, Duration timeout) {
+    return getPlaceDetailsAsync(placeId, timeout, Priority.FIRST_PAGE)
+        .thenApply(PlacesApiJson::toDetailsJson);
+  }
+
+  /**
+   * Details for one place, built on {@code sendAsync}. Cached places are returned immediately;
+   * concurrent misses on one place_id share a single upstream call, queued at {@code priority} if
+   * the details quota is used up. Calls made from one thread (one request) share a turn with other
+   * requests' calls of the same priority.
+   *
+   * <p>The returned future fails if the request does not finish within {@code timeout} (or the
+   * current request's deadline, if sooner), Google answers with a non-200 status, or its answer has
+   * no place; only places are cached. Slow calls are hedged and transient failures retried; if
+   * Google still cannot answer, or its circuit breaker is open, expired details are served if there
+   * are any.
+   *
+   * <p>A shared call runs for {@link #DETAILS_TIMEOUT} whoever started it, so a caller that gives
+   * up early does not cut it short for the rest, and it moves up to the most urgent {@code
+   * priority} among the callers waiting on it.
+   */
+  public CompletableFuture<PlaceDetails> getPlaceDetailsAsync(
+      String placeId, Duration timeout, Priority priority) {
+    Duration bounded = RequestDeadline.clamp(timeout);
+    DetailsLoad load = joinDetailsLoad(placeId, priority);
+    // getAsync hands every caller its own copy, so this deadline is this caller's alone
+    CompletableFuture<PlaceDetails> details =
+        placeDetailsCache
+            .getAsync(placeId, id -> fetchPlaceDetails(id, load))
+            .orTimeout(bounded.toNanos(), TimeUnit.NANOSECONDS);
+    details.whenComplete((found, err) -> leaveDetailsLoad(placeId, load));
+    return details.exceptionally(
+        err -> {
+          PlaceDetails stale = placeDetailsCache.getStale(placeId);
+          if (stale != null) return stale;
+          Throwable cause =
+              err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+          if (cause instanceof TimeoutException) {
+            throw new CompletionException(
+                new HttpTimeoutException(
+                    "Place details for " + placeId + " did not arrive within " + bounded));
+          }
+          throw err instanceof CompletionException
+              ? (CompletionException) err
+              : new CompletionException(err);
+        });
+  }
 
-    String uri =
-        String.format(
-            "https://maps.googleapis.com/maps/api/place/details/json?place_id=%s&fields=name,vicinity,geometry,opening_hours,rating,editorial_summary,price_level,user_ratings_total&key=%s",
-            placeId, API_KEY);
+  /** Hit, miss, eviction and load-time counters for the details cache. */
+  public CacheStats detailsCacheStats() {
+    return placeDetailsCache.stats();
+  }
 
-    HttpRequest request = HttpRequest.newBuilder().uri(URI.create(uri)).GET().build();
-    HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-    String responseBody = response.body();
+  /** The shared details call for {@code placeId}, made on behalf of {@code load}'s callers. */
+  private CompletableFuture<PlaceDetails> fetchPlaceDetails(String placeId, DetailsLoad load) {
+    URI uri = URI.create(detailsUri(placeId));
+    joinDetailsLoad(placeId, load.priority); // the call itself keeps the load open until it ends
+    return detailsPolicy
+        .call(
+            (attempt, hedge) ->
+                // a hedge is speculative: it only goes out ahead of nobody's real call
+                readDetails(
+                    placeId,
+                    hedge
+                        ? send(detailsScheduler, Priority.BACKGROUND, load.owner, uri, attempt)
+                        : load.send(uri, attempt)),
+            DETAILS_ATTEMPT_TIMEOUT,
+            DETAILS_TIMEOUT)
+        .thenApply(
+            details -> {
+              if (detailsLog != null) {
+                detailsLog.append(placeId, PlacesApiJson.toDetailsJson(details));
+              }
+              return details;
+            })
+        .whenComplete((details, err) -> leaveDetailsLoad(placeId, load));
+  }
 
-    // Cache response
-    placeDetailsCache.put(placeId, responseBody);
+  /** Counts a caller in on {@code placeId}'s details call, starting its load if it has none. */
+  private DetailsLoad joinDetailsLoad(String placeId, Priority priority) {
+    Object owner = Thread.currentThread(); // the request the call is for, if this one starts it
+    DetailsLoad load =
+        detailsLoads.compute(
+            placeId,
+            (id, running) -> {
+              DetailsLoad joined = running != null ? running : new DetailsLoad(owner, priority);
+              joined.waiters++;
+              return joined;
+            });
+    load.raise(priority);
+    return load;
+  }
+
+  private void leaveDetailsLoad(String placeId, DetailsLoad load) {
+    detailsLoads.computeIfPresent(
+        placeId, (id, running) -> running == load && --running.waiters == 0 ? null : running);
+  }
+
+  /** Reads the answer to one details attempt. */
+  private CompletableFuture<PlaceDetails> readDetails(
+      String placeId, CompletableFuture<HttpResponse<byte[]>> sent) {
+    return sent.whenComplete((response, err) -> countFailure("details", err))
+        .thenApply(
+            response -> {
+              PlacesApiJson.Response body =
+                  read("details", "place details for " + placeId, response);
+              if (body.result == null || isTransientStatus(body.status)) {
+                // NOT_FOUND and the like will not change on a retry; quota errors may
+                Metrics.upstreamError("details", "status");
+                throw new CompletionException(
+                    new UpstreamException(
+                        "Places API status " + body.status + " for place details of " + placeId,
+                        isTransientStatus(body.status)));
+              }
+              return body.result;
+            });
+  }
+
+  /**
+   * A GET of {@code uri}, made when {@code scheduler} has quota, within {@code timeout}. A 200 body
+   * is kept as bytes for {@link #read}; any other body is discarded as it arrives.
+   */
+  private CompletableFuture<HttpResponse<byte[]>> send(
+      OutboundScheduler scheduler, Priority priority, Object owner, URI uri, Duration timeout) {
+    return scheduler.submit(
+        priority,
+        owner,
+        timeout,
+        left -> {
+          HttpRequest request = HttpRequest.newBuilder().uri(uri).timeout(left).GET().build();
+          return client.sendAsync(
+              request,
+              info ->
+                  info.statusCode() == 200
+                      ? BodySubscribers.ofByteArray()
+                      : BodySubscribers.replacing(null));
+        });
+  }
+
+  /**
+   * Reads the kept fields of a 200 answer straight from its bytes (see {@link PlacesApiJson}).
+   * Fails on any other answer, where 5xx and 429 are worth retrying and other codes are not, or on
+   * a body that is not a Places API object.
+   */
+  private static PlacesApiJson.Response read(
+      String endpoint, String what, HttpResponse<byte[]> response) {
+    int code = response.statusCode();
+    if (code != 200) {
+      Metrics.upstreamError(endpoint, "http");
+      throw new CompletionException(
+          new UpstreamException(what + " returned HTTP " + code, code >= 500 || code == 429));
+    }
+    try {
+      return PlacesApiJson.read(response.body());
+    } catch (IOException e) {
+      Metrics.upstreamError(endpoint, "body");
+      throw new CompletionException(
+          new UpstreamException(what + " returned " + e.getMessage(), false));
+    }
+  }
+
+  /**
+   * The callers waiting on one place's details, and the priority their shared call goes out at: the
+   * most urgent any of them asked for, so a caller that joins a queued call can move it up.
+   */
+  private final class DetailsLoad {
+    final Object owner; // the request that started the call
+    int waiters; // only changed inside detailsLoads.compute
+    private volatile Priority priority;
+    private final Set<CompletableFuture<?>> queued = ConcurrentHashMap.newKeySet();
+
+    DetailsLoad(Object owner, Priority priority) {
+      this.owner = owner;
+      this.priority = priority;
+    }
+
+    /** One attempt at the current priority, kept track of until it answers. */
+    CompletableFuture<HttpResponse<byte[]>> send(URI uri, Duration timeout) {
+      Priority asked = priority;
+      CompletableFuture<HttpResponse<byte[]>> call =
+          GooglePlacesClient.this.send(detailsScheduler, asked, owner, uri, timeout);
+      queued.add(call);
+      call.whenComplete((response, err) -> queued.remove(call));
+      Priority now = priority;
+      if (now != asked) detailsScheduler.promote(call, now); // raised while it was submitted
+      return call;
+    }
+
+    void raise(Priority urgent) {
+      synchronized (this) {
+        if (urgent.compareTo(priority) >= 0) return;
+        priority = urgent;
+      }
+      for (CompletableFuture<?> call : queued) detailsScheduler.promote(call, urgent);
+    }
+  }
+
+  /** Places API statuses that say "not now" rather than "never". */
+  private static boolean isTransientStatus(String status) {
+    return "OVER_QUERY_LIMIT".equals(status) || "UNKNOWN_ERROR".equals(status);
+  }
+
+  /** Counts a call that got no answer at all; bad answers are counted where they are read. */
+  private static void countFailure(String endpoint, Throwable err) {
+    if (err == null) return;
+    Throwable cause =
+        err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+    if (cause instanceof CancellationException) return; // the caller gave up, upstream did not fail
+    Metrics.upstreamError(endpoint, cause instanceof HttpTimeoutException ? "timeout" : "io");
+  }
 
-    return responseBody;
+  private String detailsUri(String placeId) {
+    return String.format(
+        "%s/maps/api/place/details/json?place_id=%s&fields=name,vicinity,geometry,opening_hours,rating,editorial_summary,price_level,user_ratings_total&key=%s",
+        baseUrl, URLEncoder.encode(placeId, StandardCharsets.UTF_8), API_KEY);
   }
 }
@@ -0,0 +1,174 @@
+package src.handlers;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import models.GroupRankRequest;
+import models.GroupRankResponse;
+import models.PlaceResult;
+import models.Preference;
+import models.PreferenceProfile;
+import src.metrics.Metrics.Stage;
+import src.ranking.Aggregation;
+import src.ranking.KeywordScorer.MatchMode;
+import src.server.ResponseCompression;
+
+/**
+ * POST /rank: ranks one search's places for several preference profiles, e.g. everyone in a group,
+ * plus an aggregated ranking for the group. The places are searched and enriched once, however many
+ * profiles there are, so a group costs the upstream calls of a single /places request.
+ *
+ * <p>Body: {@code {"lat":41.82,"lng":-71.41,"radius":1000,"keyword":"cafe","profiles":[{"name":
+ * "ana","preferences":[{"keyword":"quiet","weight":5}]}, ...],"aggregate":"average","limit":10}}.
+ * See {@link GroupRankRequest} for the optional fields.
+ */
+public class GroupRankHandler implements HttpHandler {
+
+  /** Largest accepted request body. */
+  public static final int MAX_BODY_BYTES = 64 * 1024;
+
+  /** Most profiles one request may rank for. */
+  public static final int MAX_PROFILES = 50;
+
+  private final CandidateSource source;
+  private final RankingHandler ranking = new RankingHandler();
+
+  public GroupRankHandler(CandidateSource source) {
+    this.source = source;
+  }
+
+  @Override
+  public void handle(HttpExchange exchange) throws IOException {
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      exchange.sendResponseHeaders(405, -1);
+      exchange.close();
+      return;
+    }
+
+    byte[] body;
+    try (InputStream in = exchange.getRequestBody()) {
+      body = in.readNBytes(MAX_BODY_BYTES + 1);
+    }
+    if (body.length > MAX_BODY_BYTES) {
+      ErrorResponses.send(
+          exchange, 413, "request body is larger than " + MAX_BODY_BYTES + " bytes");
+      return;
+    }
+
+    GroupRankRequest request;
+    List<String> names = new ArrayList<>();
+    List<List<Preference>> profiles = new ArrayList<>();
+    Aggregation aggregation;
+    int limit;
+    try {
+      JsonElement json = JsonParser.parseString(new String(body, StandardCharsets.UTF_8));
+      if (json.isJsonNull()) throw new IllegalArgumentException("request body is empty");
+      if (!json.isJsonObject()) {
+        throw new IllegalArgumentException("request body must be a JSON object");
+      }
+      // lat and lng are primitives in the model, so a missing one would read as 0
+      requireNumber(json.getAsJsonObject(), "lat");
+      requireNumber(json.getAsJsonObject(), "lng");
+      request = PlacesJson.GSON.fromJson(json, GroupRankRequest.class);
+      readProfiles(request, names, profiles);
+      aggregation = Aggregation.parse(request.aggregate);
+      if (request.limit != null && request.limit < 0) {
+        throw new IllegalArgumentException("limit must be a non-negative integer");
+      }
+      limit = request.limit == null ? Integer.MAX_VALUE : request.limit;
+    } catch (JsonParseException e) {
+      ErrorResponses.send(exchange, 400, "request body is not valid JSON");
+      return;
+    } catch (IllegalArgumentException e) {
+      ErrorResponses.send(exchange, 400, e.getMessage());
+      return;
+    }
+    int radius = request.radius > 0 ? request.radius : 500; // /places' default
+    MatchMode matchMode =
+        "word".equalsIgnoreCase(request.match) ? MatchMode.WHOLE_WORD : MatchMode.SUBSTRING;
+
+    try {
+      // one search and one round of details for the whole group
+      String keyword = String.join(" ", KeywordPreferences.normalize(request.keyword));
+      List<PlaceResult> candidates = source.candidates(request.lat, request.lng, radius, keyword);
+
+      long start = System.nanoTime();
+      RankingHandler.GroupRanking ranked =
+          ranking.rankGroup(candidates, profiles, matchMode, aggregation, limit);
+      Stage.RANKING.recordSince(start);
+
+      GroupRankResponse response = new GroupRankResponse();
+      response.candidates = candidates.size();
+      response.aggregate = aggregation.name().toLowerCase(Locale.ROOT);
+      response.profiles = new ArrayList<>(names.size());
+      for (int m = 0; m < names.size(); m++) {
+        GroupRankResponse.ProfileRanking profile = new GroupRankResponse.ProfileRanking();
+        profile.name = names.get(m);
+        profile.results = ranked.profiles.get(m);
+        response.profiles.add(profile);
+      }
+      response.group = ranked.group;
+
+      byte[] json = PlacesJson.GSON.toJson(response).getBytes(StandardCharsets.UTF_8);
+      ResponseCompression.Encoding encoding =
+          ResponseCompression.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+      exchange.getResponseHeaders().set("Content-Type", "application/json");
+      ResponseCompression.send(exchange, 200, ResponseCompression.encode(json, encoding));
+    } catch (HttpTimeoutException e) {
+      ErrorResponses.send(exchange, 504, e.getMessage());
+    } catch (Exception e) {
+      ErrorResponses.send(exchange, 500, e.getMessage());
+    }
+  }
+
+  private static void requireNumber(JsonObject body, String field) {
+    JsonElement value = body.get(field);
+    if (value == null || !value.isJsonPrimitive() || !value.getAsJsonPrimitive().isNumber()) {
+      throw new IllegalArgumentException(field + " is required and must be a number");
+    }
+  }
+
+  /**
+   * Collects the request's profiles; a body with only top-level {@code preferences} (a plain
+   * PreferencesRequest) is one unnamed profile.
+   */
+  private static void readProfiles(
+      GroupRankRequest request, List<String> names, List<List<Preference>> profiles) {
+    if (request.profiles != null && !request.profiles.isEmpty()) {
+      if (request.profiles.size() > MAX_PROFILES) {
+        throw new IllegalArgumentException("at most " + MAX_PROFILES + " profiles per request");
+      }
+      for (PreferenceProfile profile : request.profiles) {
+        if (profile == null) throw new IllegalArgumentException("profiles must not contain null");
+        names.add(profile.name);
+        profiles.add(preferences(profile.preferences));
+      }
+    } else if (request.preferences != null) {
+      names.add(null);
+      profiles.add(preferences(request.preferences));
+    } else {
+      throw new IllegalArgumentException("profiles must not be empty");
+    }
+  }
+
+  private static List<Preference> preferences(List<Preference> prefs) {
+    if (prefs == null) return Collections.emptyList();
+    for (Preference p : prefs) {
+      if (p == null || p.keyword == null) {
+        throw new IllegalArgumentException("every preference needs a keyword");
+      }
+    }
+    return prefs;
+  }
+}
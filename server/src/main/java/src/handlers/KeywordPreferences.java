@@ -0,0 +1,46 @@
+package src.handlers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import models.Preference;
+
+/**
+ * The {@code keyword} query parameter of /places as a preference set. Ranking ignores case and
+ * keyword order, so the words are lower-cased and sorted: {@code cafe breakfast} and {@code
+ * Breakfast cafe} normalize to the same set and can share cached responses.
+ */
+final class KeywordPreferences {
+
+  /** Weight of each keyword taken from the query string. */
+  static final int WEIGHT = 5;
+
+  private KeywordPreferences() {}
+
+  /**
+   * The normalized words of {@code keyword}, which must already be URL-decoded; empty if it is null
+   * or blank.
+   */
+  static List<String> normalize(String keyword) {
+    List<String> words = new ArrayList<>();
+    if (keyword == null || keyword.isBlank()) return words;
+    for (String word : keyword.trim().split("\\s+")) {
+      if (!word.isEmpty()) words.add(word.toLowerCase(Locale.ROOT));
+    }
+    Collections.sort(words);
+    return words;
+  }
+
+  /** One preference of weight {@link #WEIGHT} per word. */
+  static List<Preference> toPreferences(List<String> words) {
+    List<Preference> prefs = new ArrayList<>(words.size());
+    for (String word : words) {
+      Preference p = new Preference();
+      p.keyword = word;
+      p.weight = WEIGHT;
+      prefs.add(p);
+    }
+    return prefs;
+  }
+}
@@ -3,26 +3,67 @@ package src.handlers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.*;
-import java.net.URLDecoder;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import models.PlaceResult;
 import models.Preference;
+import models.ResultsWrapper;
+import src.cache.CacheStats;
+import src.geo.GridIndex;
+import src.metrics.Metrics;
+import src.metrics.Metrics.Stage;
+import src.mock.MockDataset;
+import src.mock.MockDatasetStore;
+import src.ranking.DistanceDecay;
+import src.ranking.KeywordScorer.MatchMode;
+import src.server.EventStream;
+import src.server.Log;
+import src.server.RequestCoalescer;
+import src.server.ResponseCache;
+import src.server.ResponseCompression;
+import src.server.ResponseCompression.Encoding;
 
-public class MockPlacesHandler implements HttpHandler {
+public class MockPlacesHandler implements HttpHandler, CandidateSource {
+
+  /** Upper bound on the encoded response cache, in bytes of response body. */
+  public static final long RESPONSE_CACHE_MAX_BYTES = 16L * 1024 * 1024;
+
+  /** Radius when a request gives lat and lng but no radius; the same default as /places. */
+  public static final double DEFAULT_RADIUS_METERS = 500;
+
+  /** Entries are keyed by dataset version, so this only bounds how long unused bodies linger. */
+  public static final Duration RESPONSE_CACHE_TTL = Duration.ofHours(1);
 
   private final String TEST_DATA_DIR;
+  private final MockDatasetStore datasets;
+  private final MockRankingHandler rankingHandler = new MockRankingHandler();
 
-  public MockPlacesHandler() {
+  /**
+   * Encoded responses by dataset version, normalized request and encoding. A reload bumps the
+   * version, so stale bodies are never served; they just age out of the LRU.
+   */
+  private final ResponseCache responses =
+      new ResponseCache(RESPONSE_CACHE_MAX_BYTES, RESPONSE_CACHE_TTL);
+
+  private final RequestCoalescer<byte[]> inFlight = new RequestCoalescer<>();
+
+  public MockPlacesHandler() throws IOException {
     // Get the absolute path to the project root
     String projectRoot = new File("").getAbsolutePath();
     TEST_DATA_DIR = Paths.get(projectRoot, "src", "test", "TestingData").toString();
-    System.out.println("Test data directory: " + TEST_DATA_DIR);
+    Log.info("Test data directory: " + TEST_DATA_DIR);
+    // every fixture is parsed once, here, and again only when its file changes; requests never
+    // read from disk
+    this.datasets = MockDatasetStore.load(Paths.get(TEST_DATA_DIR));
+    this.datasets.startWatching();
+    Metrics.registerCache("mock_response", this::responseCacheStats);
+    Metrics.registerCoalescer("mock", inFlight);
   }
 
   @Override
@@ -33,90 +74,213 @@ public class MockPlacesHandler implements HttpHandler {
       return;
     }
 
-    // Parse query parameters from the URL
-    String queryString = exchange.getRequestURI().getQuery();
-    Map<String, String> queryParams = parseQueryParams(queryString);
+    // Parse query parameters from the URL; parse decodes them, so it gets the raw query
+    Map<String, String> queryParams;
+    try {
+      queryParams = QueryStrings.parse(exchange.getRequestURI().getRawQuery());
+    } catch (IllegalArgumentException e) {
+      ErrorResponses.send(exchange, 400, e.getMessage());
+      return;
+    }
 
     // Extract parameters
     String lat = queryParams.get("lat");
     String lng = queryParams.get("lng");
     String radius = queryParams.get("radius");
     String keyword = queryParams.get("keyword");
+    MatchMode matchMode =
+        "word".equalsIgnoreCase(queryParams.get("match"))
+            ? MatchMode.WHOLE_WORD
+            : MatchMode.SUBSTRING;
 
-    // Default mock data file
-    String fileName = "all_prov_accurate(r=2km).json";
-
-    if (keyword != null && !keyword.isEmpty()) {
-      // Try to find a matching file for the keyword
-      String possibleFileName = "places_" + keyword.toLowerCase() + "(radius=2000).json";
-      Path possiblePath = Paths.get(TEST_DATA_DIR, possibleFileName);
-      if (Files.exists(possiblePath)) {
-        fileName = possibleFileName;
+    Pagination page;
+    double[] center = null; // lat, lng, radius; null means the whole fixture
+    DistanceDecay decay = null; // rank=distance only
+    try {
+      page = Pagination.fromQuery(queryParams);
+      if (lat != null && lng != null) {
+        center =
+            new double[] {
+              Double.parseDouble(lat),
+              Double.parseDouble(lng),
+              radius != null ? Double.parseDouble(radius) : DEFAULT_RADIUS_METERS
+            };
+        if (!(center[2] > 0)) throw new IllegalArgumentException("radius must be positive");
       }
+      if (DecayParameters.requested(queryParams)) {
+        if (center == null) throw new IllegalArgumentException("rank=distance needs lat and lng");
+        decay = DecayParameters.fromQuery(queryParams);
+      }
+    } catch (IllegalArgumentException e) {
+      ErrorResponses.send(exchange, 400, e.getMessage());
+      return;
     }
 
-    Path filePath = Paths.get(TEST_DATA_DIR, fileName);
-    System.out.println("Attempting to read file: " + filePath.toAbsolutePath());
+    // one snapshot per request, so a reload cannot swap files mid-lookup
+    MockDatasetStore.Snapshot snapshot = datasets.snapshot();
 
-    try {
-      if (!Files.exists(filePath)) {
-        throw new IOException("File does not exist: " + filePath.toAbsolutePath());
-      }
+    // Keyword order and case do not change the ranking, so they do not change the key either
+    List<String> words = KeywordPreferences.normalize(keyword);
+    String normalizedKeyword = String.join(" ", words);
 
-      String enrichedJson = Files.readString(filePath, StandardCharsets.UTF_8);
-      System.out.println("Successfully read file: " + filePath);
-
-      List<Preference> prefs = new ArrayList<>();
-      if (keyword != null && !keyword.isBlank()) {
-        String decoded = URLDecoder.decode(keyword, StandardCharsets.UTF_8);
-        for (String kw : decoded.split("\\s+")) {
-          if (!kw.isBlank()) {
-            Preference p = new Preference();
-            p.keyword = kw;
-            p.weight = 5;
-            prefs.add(p);
+    String fileName = fileFor(snapshot, normalizedKeyword);
+    MockDataset dataset = snapshot.get(fileName);
+    if (dataset == null) {
+      Log.warn("Mock data file not loaded: " + fileName);
+      ErrorResponses.send(exchange, 500, "Failed to read mock data file: " + fileName);
+      return;
+    }
+
+    // The body is a function of the dataset version and the normalized request, so the ETag is
+    // known before ranking: a client revalidating an unchanged result costs a hash and a 304
+    boolean bm25 = "bm25".equalsIgnoreCase(queryParams.get("rank"));
+    String requestKey =
+        String.join(
+            "|",
+            fileName,
+            Long.toString(snapshot.version()),
+            normalizedKeyword,
+            center == null ? "*" : center[0] + "," + center[1] + "," + center[2],
+            matchMode.name(),
+            bm25 ? "bm25" : decay != null ? "distance:" + decay : "keyword",
+            Integer.toString(page.offset),
+            Integer.toString(page.limit),
+            Boolean.toString(page.requested));
+    // mock places are already enriched, so an event stream is just the "final" event
+    boolean stream = EventStream.accepts(exchange);
+    Encoding encoding =
+        stream
+            ? Encoding.IDENTITY
+            : ResponseCompression.negotiate(
+                exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+    String etag = ResponseCache.etag(requestKey);
+    if (!stream
+        && ResponseCache.sendIfNotModified(exchange, ResponseCache.forEncoding(etag, encoding))) {
+      return;
+    }
+
+    // identical requests get identical bytes: serve them already compressed, without ranking
+    ResponseCache.Entry cached = responses.get(requestKey, encoding);
+    if (cached == null) {
+      // concurrent identical misses rank once; the others wait for the leader's bytes
+      try (RequestCoalescer.Flight<byte[]> flight = inFlight.join(requestKey)) {
+        if (flight.leader()) {
+          try {
+            long stageStart = System.nanoTime();
+            List<Preference> prefs = KeywordPreferences.toPreferences(words);
+            ResultsWrapper ranked;
+            if (center != null) {
+              // only the places inside the circle, like a real nearby search
+              GridIndex.Within nearby = dataset.grid().within(center[0], center[1], center[2]);
+              if (bm25) {
+                ranked =
+                    rankingHandler.rankByRelevancePage(
+                        dataset, nearby, prefs, matchMode, page.offset, page.limit);
+              } else if (decay != null) {
+                ranked =
+                    rankingHandler.rankPageByDistance(
+                        dataset, nearby, decay, prefs, matchMode, page.offset, page.limit);
+              } else {
+                ranked =
+                    rankingHandler.rankPage(
+                        dataset, nearby, prefs, matchMode, page.offset, page.limit);
+              }
+            } else {
+              ranked =
+                  bm25
+                      ? rankingHandler.rankByRelevancePage(
+                          dataset, prefs, matchMode, page.offset, page.limit)
+                      : rankingHandler.rankPage(dataset, prefs, matchMode, page.offset, page.limit);
+            }
+            stageStart = Stage.RANKING.recordSince(stageStart);
+            // Serialize and compress once, keep the bytes for the next identical request
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PlacesJson.write(page.describe(ranked), out);
+            byte[] json = out.toByteArray();
+            flight.complete(json);
+            cached = responses.put(requestKey, encoding, etag, json);
+            Stage.SERIALIZATION.recordSince(stageStart);
+          } catch (Exception e) {
+            // followers get the failure through the flight; the leader answers for itself
+            flight.fail(e);
+            ErrorResponses.send(exchange, 500, String.valueOf(e.getMessage()));
+            return;
           }
+        } else {
+          byte[] json = awaitCoalesced(exchange, flight);
+          if (json == null) return; // the error has been sent
+          cached = responses.get(requestKey, encoding);
+          if (cached == null) cached = responses.put(requestKey, encoding, etag, json);
         }
       }
+    }
+    long writeStart = System.nanoTime();
+    if (stream) {
+      try (EventStream events = EventStream.open(exchange)) {
+        events.send("final", new String(cached.body.bytes, StandardCharsets.UTF_8));
+      }
+    } else {
+      ResponseCache.send(exchange, cached);
+    }
+    Stage.WRITE.recordSince(writeStart);
+  }
 
-      MockRankingHandler rankingHandler = new MockRankingHandler(filePath.toString(), keyword);
-      String rankedJson = rankingHandler.rankEnriched(enrichedJson, prefs);
-      byte[] resp = rankedJson.getBytes(StandardCharsets.UTF_8);
+  /**
+   * The body an identical in-flight request produced, or null after answering with its error (or
+   * 504 if it took longer than {@link PlacesHandler#COALESCED_WAIT}).
+   */
+  private byte[] awaitCoalesced(HttpExchange exchange, RequestCoalescer.Flight<byte[]> flight)
+      throws IOException {
+    try {
+      return flight.await(PlacesHandler.COALESCED_WAIT);
+    } catch (HttpTimeoutException e) {
+      ErrorResponses.send(exchange, 504, e.getMessage());
+    } catch (ExecutionException e) {
+      ErrorResponses.send(exchange, 500, String.valueOf(e.getCause().getMessage()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      ErrorResponses.send(exchange, 500, "Interrupted while waiting for an identical request");
+    }
+    return null;
+  }
 
-      // Send the JSON response
-      exchange.getResponseHeaders().set("Content-Type", "application/json");
-      exchange.sendResponseHeaders(200, resp.length);
-      try (OutputStream os = exchange.getResponseBody()) {
-        os.write(resp);
-      }
-    } catch (IOException e) {
-      System.err.println("Error reading file: " + e.getMessage());
-      e.printStackTrace();
-      String errorResponse =
-          "{\"error\": \"Failed to read mock data file: " + e.getMessage() + "\"}";
-      byte[] errorBytes = errorResponse.getBytes(StandardCharsets.UTF_8);
-      exchange.getResponseHeaders().set("Content-Type", "application/json");
-      exchange.sendResponseHeaders(500, errorBytes.length);
-      try (OutputStream os = exchange.getResponseBody()) {
-        os.write(errorBytes);
-      }
+  /** The places of the fixture /places would use for {@code keyword} that are in the circle. */
+  @Override
+  public List<PlaceResult> candidates(double lat, double lng, int radius, String keyword)
+      throws IOException {
+    MockDatasetStore.Snapshot snapshot = datasets.snapshot();
+    String fileName = fileFor(snapshot, keyword);
+    MockDataset dataset = snapshot.get(fileName);
+    if (dataset == null) {
+      throw new IOException("Mock data file not loaded: " + fileName);
+    }
+    GridIndex.Within nearby = dataset.grid().within(lat, lng, radius);
+    List<PlaceResult> places = new ArrayList<>(nearby.size());
+    for (int i = 0; i < nearby.size(); i++) {
+      PlaceResult place = dataset.row(nearby.rows[i]);
+      place.distance = nearby.meters[i];
+      places.add(place);
     }
+    return places;
   }
 
-  // Utility method to parse query parameters
-  private Map<String, String> parseQueryParams(String query) {
-    Map<String, String> queryParams = new HashMap<>();
-    if (query != null) {
-      String[] pairs = query.split("&");
-      for (String pair : pairs) {
-        String[] keyValue = pair.split("=");
-        if (keyValue.length == 2) {
-          String key = URLDecoder.decode(keyValue[0], StandardCharsets.UTF_8);
-          String value = URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8);
-          queryParams.put(key, value);
-        }
+  /** The fixture for a normalized keyword, or the default one if there is none for it. */
+  private static String fileFor(MockDatasetStore.Snapshot snapshot, String normalizedKeyword) {
+    // Default mock data file
+    String fileName = "all_prov_accurate(r=2km).json";
+
+    if (!normalizedKeyword.isEmpty()) {
+      // Try to find a matching file for the keyword
+      String possibleFileName = "places_" + normalizedKeyword + "(radius=2000).json";
+      if (snapshot.get(possibleFileName) != null) {
+        fileName = possibleFileName;
       }
     }
-    return queryParams;
+    return fileName;
+  }
+
+  /** Hit and eviction counters for the encoded response cache. */
+  public CacheStats responseCacheStats() {
+    return responses.stats();
   }
 }
@@ -1,6 +1,5 @@
 package src.handlers;
 
-import com.google.gson.*;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.IOException;
@@ -9,7 +8,13 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import models.PlaceResult;
 import models.Preference;
+import models.ResultsWrapper;
+import src.geo.GridIndex;
+import src.mock.MockDataset;
+import src.ranking.DistanceDecay;
+import src.ranking.KeywordScorer.MatchMode;
 
 /**
  * A MockRankingHandler that scores & sorts a pre-enriched JSON file using a fixed list of keywords
@@ -18,7 +23,12 @@ import models.Preference;
 public class MockRankingHandler implements HttpHandler {
   private final String filePath;
   private final List<Preference> prefs;
-  private final Gson gson = new Gson();
+  private final RankingHandler ranking = new RankingHandler();
+
+  /** A handler used only for its ranking methods; {@link #handle} needs a file path. */
+  public MockRankingHandler() {
+    this(null, null);
+  }
 
   /**
    * @param filePath path to a JSON file containing {"results":[...]}
@@ -78,37 +88,119 @@ public class MockRankingHandler implements HttpHandler {
    * desc, then rating desc.
    */
   protected String rankEnriched(String enrichedJson, List<Preference> prefs) {
-    JsonObject root = JsonParser.parseString(enrichedJson).getAsJsonObject();
-    JsonArray input = root.getAsJsonArray("results");
-    List<JsonObject> scored = new ArrayList<>();
-
-    for (JsonElement el : input) {
-      JsonObject place = el.getAsJsonObject();
-      String desc =
-          place.has("description") ? place.get("description").getAsString().toLowerCase() : "";
-      int score = 0;
-      for (Preference p : prefs) {
-        if (desc.contains(p.keyword.toLowerCase())) {
-          score += p.weight;
-        }
-      }
-      JsonObject copy = place.deepCopy();
-      copy.addProperty("score", score);
-      scored.add(copy);
+    return PlacesJson.toJson(rank(PlacesJson.parseResults(enrichedJson), prefs));
+  }
+
+  /** Typed variant of {@link #rankEnriched}; sets "score" on each place. */
+  public List<PlaceResult> rank(List<PlaceResult> places, List<Preference> prefs) {
+    return ranking.rank(places, prefs);
+  }
+
+  /** {@link #rank(List, List)} with an explicit keyword match mode. */
+  public List<PlaceResult> rank(List<PlaceResult> places, List<Preference> prefs, MatchMode mode) {
+    return ranking.rank(places, prefs, mode);
+  }
+
+  /** One page of the keyword ranking; see {@link RankingHandler#rankPage}. */
+  public ResultsWrapper rankPage(
+      List<PlaceResult> places, List<Preference> prefs, MatchMode mode, int offset, int limit) {
+    return ranking.rankPage(places, prefs, mode, offset, limit);
+  }
+
+  /** One page of the keyword ranking over a columnar mock dataset. */
+  public ResultsWrapper rankPage(
+      MockDataset dataset, List<Preference> prefs, MatchMode mode, int offset, int limit) {
+    return ranking.rankRows(
+        dataset.descriptions(), dataset.ratings(), dataset::row, prefs, mode, offset, limit);
+  }
+
+  /**
+   * {@link #rankPage(MockDataset, List, MatchMode, int, int)} over only the rows in {@code nearby}
+   * (a radius query on the dataset's grid); each place carries its distance.
+   */
+  public ResultsWrapper rankPage(
+      MockDataset dataset,
+      GridIndex.Within nearby,
+      List<Preference> prefs,
+      MatchMode mode,
+      int offset,
+      int limit) {
+    String[] allDescriptions = dataset.descriptions();
+    double[] allRatings = dataset.ratings();
+    String[] descriptions = new String[nearby.size()];
+    double[] ratings = new double[nearby.size()];
+    for (int i = 0; i < nearby.size(); i++) {
+      descriptions[i] = allDescriptions[nearby.rows[i]];
+      ratings[i] = allRatings[nearby.rows[i]];
+    }
+    return ranking.rankRows(
+        descriptions,
+        ratings,
+        i -> withDistance(dataset.row(nearby.rows[i]), nearby.meters[i]),
+        prefs,
+        mode,
+        offset,
+        limit);
+  }
+
+  /**
+   * Distance-aware ranking (see {@link RankingHandler#rankRowsByDistance}) over the rows in {@code
+   * nearby}, reusing the distances the radius query already computed.
+   */
+  public ResultsWrapper rankPageByDistance(
+      MockDataset dataset,
+      GridIndex.Within nearby,
+      DistanceDecay decay,
+      List<Preference> prefs,
+      MatchMode mode,
+      int offset,
+      int limit) {
+    String[] allDescriptions = dataset.descriptions();
+    double[] allRatings = dataset.ratings();
+    String[] descriptions = new String[nearby.size()];
+    double[] ratings = new double[nearby.size()];
+    for (int i = 0; i < nearby.size(); i++) {
+      descriptions[i] = allDescriptions[nearby.rows[i]];
+      ratings[i] = allRatings[nearby.rows[i]];
     }
+    return ranking.rankRowsByDistance(
+        descriptions,
+        ratings,
+        nearby.meters,
+        decay,
+        i -> withDistance(dataset.row(nearby.rows[i]), nearby.meters[i]),
+        prefs,
+        mode,
+        offset,
+        limit);
+  }
+
+  /** BM25 mode over only the rows in {@code nearby}; each place carries its distance. */
+  public ResultsWrapper rankByRelevancePage(
+      MockDataset dataset,
+      GridIndex.Within nearby,
+      List<Preference> prefs,
+      MatchMode mode,
+      int offset,
+      int limit) {
+    return ranking.rankByRelevancePage(
+        dataset.index(),
+        doc -> nearby.indexOf(doc) >= 0,
+        doc -> withDistance(dataset.row(doc), nearby.meters[nearby.indexOf(doc)]),
+        prefs,
+        mode,
+        offset,
+        limit);
+  }
+
+  private static PlaceResult withDistance(PlaceResult place, double meters) {
+    place.distance = meters;
+    return place;
+  }
 
-    scored.sort(
-        (a, b) -> {
-          int sA = a.get("score").getAsInt(), sB = b.get("score").getAsInt();
-          if (sA != sB) return Integer.compare(sB, sA);
-          double rA = a.get("rating").getAsDouble(), rB = b.get("rating").getAsDouble();
-          return Double.compare(rB, rA);
-        });
-
-    JsonArray outArr = new JsonArray();
-    scored.forEach(outArr::add);
-    JsonObject outRoot = new JsonObject();
-    outRoot.add("results", outArr);
-    return gson.toJson(outRoot);
+  /** One page of BM25 mode over a mock dataset's load-time index. */
+  public ResultsWrapper rankByRelevancePage(
+      MockDataset dataset, List<Preference> prefs, MatchMode mode, int offset, int limit) {
+    return ranking.rankByRelevancePage(dataset.index(), dataset::row, prefs, mode, offset, limit);
   }
 }
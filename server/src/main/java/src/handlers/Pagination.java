@@ -0,0 +1,54 @@
+package src.handlers;
+
+import java.util.Map;
+import models.ResultsWrapper;
+
+/** The {@code limit} and {@code offset} query parameters of /places. */
+final class Pagination {
+  final int offset;
+  final int limit;
+  final boolean requested;
+
+  private Pagination(int offset, int limit, boolean requested) {
+    this.offset = offset;
+    this.limit = limit;
+    this.requested = requested;
+  }
+
+  /**
+   * Reads {@code limit} (default: everything) and {@code offset} (default 0).
+   *
+   * @throws IllegalArgumentException if either is not a non-negative integer
+   */
+  static Pagination fromQuery(Map<String, String> qp) {
+    String limit = qp.get("limit");
+    String offset = qp.get("offset");
+    if (limit == null && offset == null) {
+      return new Pagination(0, Integer.MAX_VALUE, false);
+    }
+    return new Pagination(
+        parse("offset", offset, 0), parse("limit", limit, Integer.MAX_VALUE), true);
+  }
+
+  /** Adds offset/limit to a ranked page, or drops the total when no page was asked for. */
+  ResultsWrapper describe(ResultsWrapper page) {
+    if (requested) {
+      page.offset = offset;
+      page.limit = limit == Integer.MAX_VALUE ? null : limit;
+    } else {
+      page.total = null;
+    }
+    return page;
+  }
+
+  private static int parse(String name, String value, int fallback) {
+    if (value == null) return fallback;
+    try {
+      int parsed = Integer.parseInt(value.trim());
+      if (parsed >= 0) return parsed;
+    } catch (NumberFormatException e) {
+      // fall through
+    }
+    throw new IllegalArgumentException(name + " must be a non-negative integer");
+  }
+}
@@ -0,0 +1,244 @@
+package src.handlers;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import models.PlaceDetails;
+
+/**
+ * The Places API's JSON, as far as /places needs it. Response bodies are read field by field,
+ * keeping only what a {@link PlaceDetails} holds; everything else (photos, reviews, address
+ * components, viewports, ...) is skipped as the reader passes over it, so no tree and no strings
+ * are built for it.
+ */
+public final class PlacesApiJson {
+
+  /** What is kept of one response body. */
+  public static final class Response {
+    public final String status; // "" when the body has none
+    public final PlaceDetails result; // a details response's place, null when there is none
+    public final List<PlaceDetails> results; // a nearby-search response's places
+
+    Response(String status, PlaceDetails result, List<PlaceDetails> results) {
+      this.status = status;
+      this.result = result;
+      this.results = results;
+    }
+  }
+
+  private PlacesApiJson() {}
+
+  /** Reads a UTF-8 response body; see {@link #read(Reader)}. */
+  public static Response read(byte[] body) throws IOException {
+    return read(new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Reads the top-level {@code status}, {@code result} and {@code results} of a Places API response
+   * body, and closes {@code body}.
+   *
+   * @throws IOException if the body is not a JSON object, or a kept field has the wrong type
+   */
+  public static Response read(Reader body) throws IOException {
+    try (JsonReader json = new JsonReader(body)) {
+      String status = "";
+      PlaceDetails result = null;
+      List<PlaceDetails> results = new ArrayList<>();
+      json.beginObject();
+      while (json.hasNext()) {
+        String field = json.nextName();
+        if (json.peek() == JsonToken.NULL) {
+          json.nextNull();
+          continue;
+        }
+        switch (field) {
+          case "status":
+            status = json.nextString();
+            break;
+          case "result":
+            result = readPlace(json);
+            break;
+          case "results":
+            json.beginArray();
+            while (json.hasNext()) {
+              results.add(readPlace(json));
+            }
+            json.endArray();
+            break;
+          default:
+            json.skipValue();
+        }
+      }
+      json.endObject();
+      return new Response(status, result, results);
+    } catch (IllegalStateException | NumberFormatException e) {
+      throw new IOException("Malformed Places API body", e);
+    }
+  }
+
+  private static PlaceDetails readPlace(JsonReader json) throws IOException {
+    String placeId = null;
+    String name = null;
+    String vicinity = null;
+    double lat = Double.NaN;
+    double lng = Double.NaN;
+    double rating = Double.NaN;
+    Integer priceLevel = null;
+    boolean openNow = false;
+    String overview = null;
+    int userRatingsTotal = -1;
+
+    json.beginObject();
+    while (json.hasNext()) {
+      String field = json.nextName();
+      if (json.peek() == JsonToken.NULL) {
+        json.nextNull();
+        continue;
+      }
+      switch (field) {
+        case "place_id":
+          placeId = json.nextString();
+          break;
+        case "name":
+          name = json.nextString();
+          break;
+        case "vicinity":
+          vicinity = json.nextString();
+          break;
+        case "geometry":
+          if (find(json, "location")) {
+            json.beginObject();
+            while (json.hasNext()) {
+              String axis = json.nextName();
+              if ("lat".equals(axis)) {
+                lat = json.nextDouble();
+              } else if ("lng".equals(axis)) {
+                lng = json.nextDouble();
+              } else {
+                json.skipValue();
+              }
+            }
+            json.endObject();
+            leave(json);
+          }
+          break;
+        case "rating":
+          rating = json.nextDouble();
+          break;
+        case "price_level":
+          priceLevel = json.nextInt();
+          break;
+        case "opening_hours":
+          if (find(json, "open_now")) {
+            openNow = json.nextBoolean();
+            leave(json);
+          }
+          break;
+        case "editorial_summary":
+          if (find(json, "overview")) {
+            overview = json.nextString();
+            leave(json);
+          }
+          break;
+        case "user_ratings_total":
+          userRatingsTotal = json.nextInt();
+          break;
+        default:
+          json.skipValue();
+      }
+    }
+    json.endObject();
+    return new PlaceDetails(
+        placeId, name, vicinity, lat, lng, rating, priceLevel, openNow, overview, userRatingsTotal);
+  }
+
+  /**
+   * Steps into an object and past its members up to a non-null {@code name}, leaving the reader on
+   * its value. Returns false, already stepped out again, if there is no such member.
+   */
+  private static boolean find(JsonReader json, String name) throws IOException {
+    json.beginObject();
+    while (json.hasNext()) {
+      if (json.nextName().equals(name) && json.peek() != JsonToken.NULL) return true;
+      json.skipValue();
+    }
+    json.endObject();
+    return false;
+  }
+
+  /** Skips the rest of an object {@link #find} stepped into, and steps out of it. */
+  private static void leave(JsonReader json) throws IOException {
+    while (json.hasNext()) {
+      json.nextName();
+      json.skipValue();
+    }
+    json.endObject();
+  }
+
+  /**
+   * A details body, {@code {"result":{...},"status":"OK"}}, holding just what {@code place} has;
+   * {@link #read} reads it back into an equal record.
+   */
+  public static String toDetailsJson(PlaceDetails place) {
+    StringWriter out = new StringWriter();
+    try (JsonWriter json = new JsonWriter(out)) {
+      json.beginObject();
+      json.name("result");
+      writePlace(json, place);
+      json.name("status").value("OK");
+      json.endObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // a StringWriter does not fail
+    }
+    return out.toString();
+  }
+
+  /** A nearby-search body, {@code {"results":[...],"status":"OK"}}; see {@link #toDetailsJson}. */
+  public static String toNearbyJson(List<PlaceDetails> places) {
+    StringWriter out = new StringWriter();
+    try (JsonWriter json = new JsonWriter(out)) {
+      json.beginObject();
+      json.name("results").beginArray();
+      for (PlaceDetails place : places) {
+        writePlace(json, place);
+      }
+      json.endArray();
+      json.name("status").value("OK");
+      json.endObject();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toString();
+  }
+
+  private static void writePlace(JsonWriter json, PlaceDetails place) throws IOException {
+    json.beginObject();
+    if (place.placeId != null) json.name("place_id").value(place.placeId);
+    if (place.name != null) json.name("name").value(place.name);
+    if (place.vicinity != null) json.name("vicinity").value(place.vicinity);
+    if (place.hasLocation()) {
+      json.name("geometry").beginObject().name("location").beginObject();
+      json.name("lat").value(place.lat);
+      json.name("lng").value(place.lng);
+      json.endObject().endObject();
+    }
+    if (!Double.isNaN(place.rating)) json.name("rating").value(place.rating);
+    if (place.priceLevel != null) json.name("price_level").value(place.priceLevel);
+    json.name("opening_hours").beginObject().name("open_now").value(place.openNow).endObject();
+    if (place.overview != null) {
+      json.name("editorial_summary").beginObject().name("overview").value(place.overview);
+      json.endObject();
+    }
+    if (place.userRatingsTotal >= 0) json.name("user_ratings_total").value(place.userRatingsTotal);
+    json.endObject();
+  }
+}
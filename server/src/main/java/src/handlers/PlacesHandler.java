@@ -1,32 +1,106 @@
 package src.handlers;
 
-import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.net.URI;
-import java.net.URLDecoder;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
+import models.PlaceDetails;
+import models.PlaceResult;
 import models.Preference;
-import models.PreferencesRequest;
+import models.ResultsWrapper;
+import src.cache.BoundedCache;
+import src.cache.CacheStats;
+import src.cache.NearbySearchCache;
+import src.geo.Distance;
+import src.metrics.Metrics;
+import src.metrics.Metrics.Stage;
+import src.ranking.DistanceDecay;
+import src.ranking.KeywordScorer.MatchMode;
+import src.ranking.PlaceIndex;
+import src.server.EventStream;
+import src.server.Log;
+import src.server.RequestCoalescer;
+import src.server.RequestDeadline;
+import src.server.ResponseCache;
+import src.server.ResponseCompression;
+import src.server.ResponseCompression.Encoding;
+import src.upstream.OutboundScheduler.Priority;
 
-public class PlacesHandler implements HttpHandler {
+public class PlacesHandler implements HttpHandler, CandidateSource {
+
+  /** Max number of place-details calls one request keeps in flight at a time. */
+  public static final int DEFAULT_DETAILS_CONCURRENCY = 8;
+
+  /** Deadline for a single place-details call before the place is degraded. */
+  public static final Duration DEFAULT_DETAILS_TIMEOUT = Duration.ofSeconds(3);
+
+  /** Upper bound on the ranked response cache, in bytes of response body. */
+  public static final long RESPONSE_CACHE_MAX_BYTES = 16L * 1024 * 1024;
+
+  /**
+   * Live responses have no data version to key on, so they are only reused briefly: long enough to
+   * absorb a frontend re-rendering, well inside the upstream caches' TTLs.
+   */
+  public static final Duration RESPONSE_CACHE_TTL = Duration.ofSeconds(60);
+
+  /** Search indexes kept for the other pages of a bm25-ranked candidate set. */
+  public static final int INDEX_CACHE_MAX_ENTRIES = 256;
+
+  /** Longest a request waits for an identical in-flight request (or its deadline, if sooner). */
+  public static final Duration COALESCED_WAIT = Duration.ofSeconds(15);
 
   private final GooglePlacesClient client;
-  private final Gson gson = new Gson();
   private final RankingHandler ranking = new RankingHandler();
+  private final ResponseCache responses =
+      new ResponseCache(RESPONSE_CACHE_MAX_BYTES, RESPONSE_CACHE_TTL);
+  private final BoundedCache<String, PlaceIndex> indexes =
+      new BoundedCache<>(INDEX_CACHE_MAX_ENTRIES, RESPONSE_CACHE_TTL);
+  private final RequestCoalescer<Ranked> inFlight = new RequestCoalescer<>();
+  private final int detailsConcurrency;
+  private final Duration detailsTimeout;
 
   public PlacesHandler() {
-    this.client = new GooglePlacesClient();
+    this(new GooglePlacesClient(), DEFAULT_DETAILS_CONCURRENCY, DEFAULT_DETAILS_TIMEOUT);
+  }
+
+  /**
+   * @param client Places API client used for nearby search and details lookups
+   * @param detailsConcurrency max details calls in flight per request (at least 1)
+   * @param detailsTimeout deadline for each details call
+   */
+  public PlacesHandler(GooglePlacesClient client, int detailsConcurrency, Duration detailsTimeout) {
+    if (detailsConcurrency < 1) {
+      throw new IllegalArgumentException("detailsConcurrency must be at least 1");
+    }
+    this.client = client;
+    this.detailsConcurrency = detailsConcurrency;
+    this.detailsTimeout = detailsTimeout;
+    Metrics.registerCache("places_response", this::responseCacheStats);
+    Metrics.registerCache("places_index", this::indexCacheStats);
+    Metrics.registerCoalescer("places", inFlight);
   }
 
   @Override
@@ -38,131 +112,732 @@ public class PlacesHandler implements HttpHandler {
 
     // 1) Parse query params: lat, lng, radius (default 500), keyword
     URI uri = exchange.getRequestURI();
-    Map<String, String> qp = parseQuery(uri.getRawQuery());
-    double lat = Double.parseDouble(qp.getOrDefault("lat", "41.8240"));
-    double lng = Double.parseDouble(qp.getOrDefault("lng", "-71.4128"));
-    int radius = Integer.parseInt(qp.getOrDefault("radius", "500")); // ← default 500m
-    // :contentReference[oaicite:6]{index=6}:contentReference[oaicite:7]{index=7}
+    Map<String, String> qp;
+    double lat;
+    double lng;
+    int radius;
+    Pagination page;
+    DistanceDecay decay = null; // rank=distance only
+    try {
+      qp = QueryStrings.parse(uri.getRawQuery());
+      lat = Double.parseDouble(qp.getOrDefault("lat", "41.8240"));
+      lng = Double.parseDouble(qp.getOrDefault("lng", "-71.4128"));
+      radius = Integer.parseInt(qp.getOrDefault("radius", "500")); // ← default 500m
+      // :contentReference[oaicite:6]{index=6}:contentReference[oaicite:7]{index=7}
+      page = Pagination.fromQuery(qp);
+      if (DecayParameters.requested(qp)) decay = DecayParameters.fromQuery(qp);
+    } catch (IllegalArgumentException e) {
+      ErrorResponses.send(exchange, 400, e.getMessage());
+      return;
+    }
     String keyword = qp.getOrDefault("keyword", "");
+    // match=word only counts keywords that appear as whole words; rank=bm25 ranks by relevance
+    MatchMode matchMode =
+        "word".equalsIgnoreCase(qp.get("match")) ? MatchMode.WHOLE_WORD : MatchMode.SUBSTRING;
 
-    try {
-      // 2) ONE CALL: Nearby Search (filter by keyword if provided)
-      String rawNearby = client.searchNearbyAsJson(lat, lng, radius, keyword);
-
-      // 3) Enrich + de-duplicate + add extra fields
-      String enrichedJson = enrichWithPlaceDetails(rawNearby);
-
-      // 4) Build PreferencesRequest from keyword (weight=5)
-      PreferencesRequest req = new PreferencesRequest();
-      req.preferences = new ArrayList<>();
-      if (!keyword.isBlank()) {
-        String decoded = URLDecoder.decode(keyword, StandardCharsets.UTF_8);
-        for (String kw : decoded.split("\\s+")) {
-          Preference p = new Preference();
-          p.keyword = kw;
-          p.weight = 5;
-          req.preferences.add(p);
+    // Keyword order and case are left out of the cache key, so requests that differ only in those
+    // share a page; Google is still sent the keyword as the caller wrote it
+    List<String> words = KeywordPreferences.normalize(keyword);
+    String searchKeyword = keyword.trim();
+    String normalizedKeyword = String.join(" ", words);
+    boolean bm25 = "bm25".equalsIgnoreCase(qp.get("rank"));
+    String rankKey =
+        String.join(
+            "|",
+            normalizedKeyword,
+            matchMode.name(),
+            bm25 ? "bm25" : decay != null ? "distance:" + decay : "keyword",
+            Integer.toString(page.offset),
+            Integer.toString(page.limit),
+            Boolean.toString(page.requested));
+    String circle =
+        String.join("|", Double.toString(lat), Double.toString(lng), Integer.toString(radius));
+    String requestKey = circle + "|" + rankKey;
+    // the ETag leaves the point out where the order does not depend on it; see etag()
+    String tagKey = decay != null ? requestKey : rankKey;
+    if (EventStream.accepts(exchange)) {
+      StreamQuery query =
+          new StreamQuery(KeywordPreferences.toPreferences(words), matchMode, bm25, decay, page);
+      try {
+        streamPlaces(exchange, requestKey, tagKey, lat, lng, radius, searchKeyword, query);
+      } catch (Exception e) {
+        if (exchange.getResponseCode() != -1) {
+          // the stream is open, so there is no status left to send; most likely the client left
+          Log.debug(() -> "Event stream ended early: " + e);
+        } else {
+          ErrorResponses.send(
+              exchange, e instanceof HttpTimeoutException ? 504 : 500, e.getMessage());
         }
       }
+      return;
+    }
+
+    Encoding encoding =
+        ResponseCompression.negotiate(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
 
-      // 5) Delegate scoring & sorting (no more API calls)
-      String rankedJson = ranking.rankEnriched(enrichedJson, req.preferences);
+    ResponseCache.Entry cached = responses.get(requestKey, encoding);
+    if (cached != null) {
+      long start = System.nanoTime();
+      if (!ResponseCache.sendIfNotModified(exchange, cached.etag)) {
+        ResponseCache.send(exchange, cached);
+      }
+      Stage.WRITE.recordSince(start);
+      return;
+    }
 
-      // 6) Send response
-      byte[] resp = rankedJson.getBytes(StandardCharsets.UTF_8);
-      exchange.getResponseHeaders().set("Content-Type", "application/json");
-      exchange.sendResponseHeaders(200, resp.length);
-      try (OutputStream os = exchange.getResponseBody()) {
-        os.write(resp);
+    // identical requests that arrive while this one runs share its ranked page instead of
+    // repeating the searches (event streams were answered above and are not shared)
+    try (RequestCoalescer.Flight<Ranked> flight = inFlight.join(requestKey)) {
+      if (!flight.leader()) {
+        sendCoalesced(exchange, encoding, flight);
+        return;
       }
-    } catch (Exception e) {
-      String err = "{\"error\":\"" + e.getMessage() + "\"}";
-      byte[] errBytes = err.getBytes(StandardCharsets.UTF_8);
-      exchange.getResponseHeaders().set("Content-Type", "application/json");
-      exchange.sendResponseHeaders(500, errBytes.length);
-      try (OutputStream os = exchange.getResponseBody()) {
-        os.write(errBytes);
+      try {
+        // 2) + 3) One nearby search, then details for every result
+        Enrichment enriched = search(lat, lng, radius, searchKeyword);
+        long stageStart = System.nanoTime();
+
+        // 4) One preference per keyword (weight=5)
+        List<Preference> prefs = KeywordPreferences.toPreferences(words);
+
+        // 5) Delegate scoring & sorting (no more API calls)
+        ResultsWrapper ranked;
+        if (bm25) {
+          ranked =
+              ranking.rankByRelevancePage(
+                  index(enriched, circle), prefs, matchMode, page.offset, page.limit);
+        } else if (decay != null) {
+          ranked =
+              ranking.rankPageByDistance(
+                  enriched.places, decay, prefs, matchMode, page.offset, page.limit);
+        } else {
+          ranked = ranking.rankPage(enriched.places, prefs, matchMode, page.offset, page.limit);
+        }
+        Stage.RANKING.recordSince(stageStart);
+        ResultsWrapper described = page.describe(ranked);
+        // degraded places would otherwise be revalidated, or served from the cache, after details
+        // recover
+        String etag =
+            enriched.degraded == 0 ? etag(enriched.version, enriched.nearby, tagKey) : null;
+        flight.complete(new Ranked(described, etag)); // followers serialize their own copy
+
+        // 6) Stream the response; the only serialization of the request
+        if (!sendIfNotModified(exchange, encoding, etag)) {
+          ResponseCompression.Encoded sent = sendResults(exchange, encoding, described, etag);
+          if (etag != null) responses.put(requestKey, encoding, etag, sent);
+        }
+      } catch (Exception e) {
+        flight.fail(e);
+        if (exchange.getResponseCode() != -1) {
+          // the body was already streaming, so there is no status left to send
+          Log.debug(() -> "Response ended early: " + e);
+          exchange.close();
+        } else {
+          ErrorResponses.send(
+              exchange, e instanceof HttpTimeoutException ? 504 : 500, e.getMessage());
+        }
       }
     }
   }
 
-  private Map<String, String> parseQuery(String query) throws IOException {
-    Map<String, String> params = new HashMap<>();
-    if (query == null || query.isEmpty()) return params;
-    for (String param : query.split("&")) {
-      String[] kv = param.split("=");
-      if (kv.length == 2) {
-        params.put(
-            URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
-            URLDecoder.decode(kv[1], StandardCharsets.UTF_8));
+  /** Answers with the page an identical in-flight request computed, or with its error. */
+  private void sendCoalesced(
+      HttpExchange exchange, Encoding encoding, RequestCoalescer.Flight<Ranked> flight)
+      throws IOException {
+    try {
+      Ranked ranked = flight.await(COALESCED_WAIT);
+      if (!sendIfNotModified(exchange, encoding, ranked.etag)) {
+        sendResults(exchange, encoding, ranked.page, ranked.etag);
       }
+    } catch (HttpTimeoutException e) {
+      ErrorResponses.send(exchange, 504, e.getMessage());
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      int status = cause instanceof HttpTimeoutException ? 504 : 500;
+      ErrorResponses.send(exchange, status, String.valueOf(cause.getMessage()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      ErrorResponses.send(exchange, 500, "Interrupted while waiting for an identical request");
+    }
+  }
+
+  /** A ranked page and its ETag (null if it is degraded), as handed to coalesced followers. */
+  private static final class Ranked {
+    final ResultsWrapper page;
+    final String etag;
+
+    Ranked(ResultsWrapper page, String etag) {
+      this.page = page;
+      this.etag = etag;
+    }
+  }
+
+  /**
+   * The search index over {@code enriched}'s places. Every page ranked from the same candidate set
+   * (the same nearby-search version, seen from the same {@code circle}) shares one; a degraded set
+   * is indexed for this request only.
+   */
+  private PlaceIndex index(Enrichment enriched, String circle) {
+    if (enriched.degraded > 0) return PlaceIndex.build(enriched.places);
+    String key = enriched.version + "|" + circle;
+    PlaceIndex index = indexes.getIfPresent(key);
+    if (index == null) {
+      index = PlaceIndex.build(enriched.places);
+      indexes.put(key, index);
     }
-    return params;
+    return index;
+  }
+
+  /**
+   * The ETag of a fully enriched page ranked from {@code nearby}, the places in the circle of the
+   * nearby-search result set {@code version}. It is derived from those and the ranking ({@code
+   * tagKey}) rather than from the body, so it is known before the body is written. Requests from a
+   * few meters apart in the same tile share it while their distances differ slightly, hence weak.
+   * Ranking by distance depends on the point itself, so then {@code tagKey} includes it.
+   */
+  private static String etag(String version, List<PlaceDetails> nearby, String tagKey) {
+    StringBuilder validator = new StringBuilder(version).append('|').append(tagKey);
+    for (PlaceDetails place : nearby) validator.append('|').append(place.placeId);
+    return ResponseCache.weakEtag(validator.toString());
+  }
+
+  /**
+   * Answers 304 if the client already has the {@code encoding} representation tagged {@code etag}.
+   */
+  private static boolean sendIfNotModified(HttpExchange exchange, Encoding encoding, String etag)
+      throws IOException {
+    return etag != null
+        && ResponseCache.sendIfNotModified(exchange, ResponseCache.forEncoding(etag, encoding));
   }
 
-  private String enrichWithPlaceDetails(String rawNearbyJson)
+  @Override
+  public List<PlaceResult> candidates(double lat, double lng, int radius, String keyword)
       throws IOException, InterruptedException {
-    JsonObject root = JsonParser.parseString(rawNearbyJson).getAsJsonObject();
-    JsonArray results = root.getAsJsonArray("results");
-    JsonArray enrichedResults = new JsonArray();
+    return search(lat, lng, radius, keyword).places;
+  }
 
-    Set<String> seenPlaceIds = new HashSet<>();
+  /** Nearby search (filtered by {@code keyword} if not empty), then details for each result. */
+  private Enrichment search(double lat, double lng, int radius, String keyword)
+      throws IOException, InterruptedException {
+    long stageStart = System.nanoTime();
+    NearbySearchCache.Result nearby = client.searchNearbyVersioned(lat, lng, radius, keyword);
+    stageStart = Stage.NEARBY.recordSince(stageStart);
+
+    // Enrich + de-duplicate + add extra fields
+    Enrichment enriched = enrichWithPlaceDetails(nearby);
+    Stage.ENRICHMENT.recordSince(stageStart);
+    setDistances(enriched.places, lat, lng);
+    return enriched;
+  }
+
+  /** Sets each place's distance from ({@code lat}, {@code lng}), in one pass over columns. */
+  private static void setDistances(List<PlaceResult> places, double lat, double lng) {
+    int n = places.size();
+    double[] lats = new double[n];
+    double[] lngs = new double[n];
+    for (int i = 0; i < n; i++) {
+      PlaceResult place = places.get(i);
+      lats[i] = place.location != null ? place.location.lat : Double.NaN;
+      lngs[i] = place.location != null ? place.location.lng : Double.NaN;
+    }
+    double[] meters = new double[n];
+    Distance.metersFrom(lat, lng, lats, lngs, n, meters);
+    for (int i = 0; i < n; i++) {
+      if (!Double.isNaN(meters[i])) places.get(i).distance = meters[i];
+    }
+  }
+
+  /**
+   * The Server-Sent Events variant of /places, chosen by {@code Accept: text/event-stream} (what
+   * {@code EventSource} sends). Instead of waiting for every details call, it sends
+   *
+   * <ul>
+   *   <li>"provisional" as soon as nearby search returns: the page ranked from nearby-search data,
+   *       as {@code {"results":[...],"total":N,"order":[...]}};
+   *   <li>"update" each time a place's details arrive: {@code {"index":i,"place":{...},
+   *       "position":p,"order":[...]}}, the enriched and rescored place, its position on the page
+   *       (-1 if it is not on it) and the page's new order. {@code place} is null, and the place
+   *       gone from the results, if its details have no name;
+   *   <li>"final" once every place is enriched or out of time: exactly the body the plain request
+   *       returns.
+   * </ul>
+   *
+   * {@code index} and {@code order} refer to places by their position in the nearby-search results.
+   * Details calls are issued and awaited on this thread, at most {@code detailsConcurrency} at a
+   * time, so events go out in the order the calls finish.
+   */
+  private void streamPlaces(
+      HttpExchange exchange,
+      String requestKey,
+      String tagKey,
+      double lat,
+      double lng,
+      int radius,
+      String keyword,
+      StreamQuery query)
+      throws IOException, InterruptedException {
+    ResponseCache.Entry cached = responses.get(requestKey, Encoding.IDENTITY);
+    if (cached != null) {
+      try (EventStream events = EventStream.open(exchange)) {
+        events.send("final", new String(cached.body.bytes, StandardCharsets.UTF_8));
+      }
+      return;
+    }
+
+    long stageStart = System.nanoTime();
+    NearbySearchCache.Result found = client.searchNearbyVersioned(lat, lng, radius, keyword);
+    List<PlaceDetails> nearby = uniquePlaces(found.places);
+    stageStart = Stage.NEARBY.recordSince(stageStart);
+    int n = nearby.size();
+    PlaceResult[] places = new PlaceResult[n];
+    for (int i = 0; i < n; i++) {
+      if (nearby.get(i).name != null) places[i] = PlacesJson.fromPlacesApi(nearby.get(i));
+    }
+    setDistances(nonNull(places), lat, lng);
+
+    try (EventStream events = EventStream.open(exchange)) {
+      // bm25 re-ranks from one index, updated a place at a time as details arrive
+      PlaceIndex index = query.bm25 ? streamIndex(places) : null;
+      RankedSnapshot snapshot = rankSnapshot(places, index, query);
+      events.send("provisional", snapshot.provisional(query.page).toString());
+
+      // details for the places on the page go first, in the order they are shown, and they
+      // are the ones that go ahead of other requests' calls when the quota runs short
+      int[] byRank = snapshot.byRank(n);
+      boolean[] onPage = snapshot.onPage(n, query.page);
+      List<CompletableFuture<PlaceDetails>> lookups = new ArrayList<>(Collections.nCopies(n, null));
+      BlockingQueue<Integer> finished = new LinkedBlockingQueue<>();
+      boolean[] answered = new boolean[n];
+      int issued = 0;
+      int inFlight = 0;
+      int done = 0;
+      int degraded = 0;
+      try {
+        while (done < n) {
+          while (issued < n && inFlight < detailsConcurrency) {
+            int i = byRank[issued++];
+            Priority priority = onPage[i] ? Priority.FIRST_PAGE : Priority.LATER_RESULTS;
+            CompletableFuture<PlaceDetails> details =
+                lookUpDetails(nearby.get(i).placeId, priority);
+            lookups.set(i, details);
+            details.whenComplete((place, err) -> finished.add(i));
+            inFlight++;
+          }
+          Integer i = finished.poll(RequestDeadline.remainingNanos(), TimeUnit.NANOSECONDS);
+          if (i == null) break; // out of time: the rest keep their nearby-search data
+          inFlight--;
+          done++;
+          answered[i] = true;
+          PlaceDetails details = awaitDetails(lookups.get(i));
+          if (details == null) {
+            degraded++;
+            degrade(nearby.get(i));
+            continue; // the client already has the nearby-search version
+          }
+          if (details.name == null) {
+            // dropped, as enrichWithPlaceDetails drops it, so "final" matches the plain body
+            if (places[i] == null) continue;
+            places[i] = null;
+            if (index != null) index = index.without(i);
+          } else {
+            places[i] = PlacesJson.fromPlacesApi(details);
+            setDistances(List.of(places[i]), lat, lng);
+            if (index != null) {
+              index = index.with(i, places[i].name, places[i].description, places[i].rating);
+            }
+          }
+          snapshot = rankSnapshot(places, index, query);
+          events.send("update", snapshot.update(i, places[i], query.page).toString());
+        }
+      } catch (RuntimeException e) {
+        JsonObject error = new JsonObject();
+        error.addProperty("error", String.valueOf(e.getMessage()));
+        events.send("error", error.toString());
+        return;
+      } finally {
+        for (CompletableFuture<PlaceDetails> lookup : lookups) {
+          if (lookup != null) lookup.cancel(true);
+        }
+      }
+      for (int i = 0; i < n; i++) {
+        if (answered[i]) continue;
+        degraded++;
+        degrade(nearby.get(i));
+      }
+      Stage.ENRICHMENT.recordSince(stageStart);
+
+      String json = PlacesJson.toJson(query.page.describe(snapshot.page(query.page)));
+      events.send("final", json);
+      if (degraded == 0) {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        responses.put(requestKey, Encoding.IDENTITY, etag(found.version, nearby, tagKey), bytes);
+      }
+    }
+  }
 
-    for (int i = 0; i < results.size(); i++) {
-      JsonObject place = results.get(i).getAsJsonObject();
-      String placeId = place.get("place_id").getAsString();
+  /** What a streamed request ranks by; see {@link #streamPlaces}. */
+  private static final class StreamQuery {
+    final List<Preference> prefs;
+    final MatchMode mode;
+    final boolean bm25;
+    final DistanceDecay decay; // null unless rank=distance
+    final Pagination page;
 
-      if (!seenPlaceIds.add(placeId)) continue;
+    StreamQuery(
+        List<Preference> prefs,
+        MatchMode mode,
+        boolean bm25,
+        DistanceDecay decay,
+        Pagination page) {
+      this.prefs = prefs;
+      this.mode = mode;
+      this.bm25 = bm25;
+      this.decay = decay;
+      this.page = page;
+    }
+  }
+
+  /**
+   * A bm25 index over a stream's places whose document ids are their positions in {@code places};
+   * missing places are left out, as {@link PlaceIndex#build(List)} over the others would.
+   */
+  private static PlaceIndex streamIndex(PlaceResult[] places) {
+    int n = places.length;
+    String[] names = new String[n];
+    String[] descriptions = new String[n];
+    double[] ratings = new double[n];
+    for (int i = 0; i < n; i++) {
+      if (places[i] == null) continue;
+      names[i] = places[i].name;
+      descriptions[i] = places[i].description;
+      ratings[i] = places[i].rating;
+    }
+    PlaceIndex index = PlaceIndex.build(names, descriptions, ratings);
+    for (int i = 0; i < n; i++) {
+      if (places[i] == null) index = index.without(i);
+    }
+    return index;
+  }
+
+  /**
+   * Every place in {@code places} (nulls skipped) ranked in {@code query}'s mode, remembering the
+   * index in {@code places} each row came from. Candidate sets are one nearby-search page, so
+   * ranking all of them again after each update is cheap. For bm25, {@code index} is the stream's
+   * {@link #streamIndex}, kept up to date with {@code places}.
+   */
+  private RankedSnapshot rankSnapshot(PlaceResult[] places, PlaceIndex index, StreamQuery query) {
+    long stageStart = System.nanoTime();
+    List<PlaceResult> candidates = new ArrayList<>(places.length);
+    List<Integer> origin = new ArrayList<>(places.length);
+    for (int i = 0; i < places.length; i++) {
+      if (places[i] == null) continue;
+      candidates.add(places[i]);
+      origin.add(i);
+    }
+    Map<PlaceResult, Integer> rows = new IdentityHashMap<>();
+    IntFunction<PlaceResult> row =
+        r -> {
+          PlaceResult copy = candidates.get(r).copy();
+          rows.put(copy, origin.get(r));
+          return copy;
+        };
 
-      String detailsJson = client.getPlaceDetailsAsJson(placeId);
-      JsonObject detailsRoot = JsonParser.parseString(detailsJson).getAsJsonObject();
-      JsonObject details = detailsRoot.getAsJsonObject("result");
+    ResultsWrapper all;
+    if (query.bm25) {
+      // document ids are positions in places, not rows
+      IntFunction<PlaceResult> doc =
+          i -> {
+            PlaceResult copy = places[i].copy();
+            rows.put(copy, i);
+            return copy;
+          };
+      all = ranking.rankByRelevancePage(index, doc, query.prefs, query.mode, 0, Integer.MAX_VALUE);
+    } else {
+      int n = candidates.size();
+      String[] descriptions = new String[n];
+      double[] ratings = new double[n];
+      double[] meters = new double[n];
+      for (int r = 0; r < n; r++) {
+        PlaceResult place = candidates.get(r);
+        descriptions[r] = place.description;
+        ratings[r] = place.rating;
+        meters[r] = place.distance != null ? place.distance : Double.NaN;
+      }
+      all =
+          query.decay != null
+              ? ranking.rankRowsByDistance(
+                  descriptions,
+                  ratings,
+                  meters,
+                  query.decay,
+                  row,
+                  query.prefs,
+                  query.mode,
+                  0,
+                  Integer.MAX_VALUE)
+              : ranking.rankRows(
+                  descriptions, ratings, row, query.prefs, query.mode, 0, Integer.MAX_VALUE);
+    }
+    int[] order = new int[all.results.size()];
+    for (int k = 0; k < order.length; k++) order[k] = rows.get(all.results.get(k));
+    Stage.RANKING.recordSince(stageStart);
+    return new RankedSnapshot(all, order);
+  }
+
+  /** A full ranking of a streamed request's places, and where each row came from. */
+  private static final class RankedSnapshot {
+    final ResultsWrapper all;
+    final int[] order;
+
+    RankedSnapshot(ResultsWrapper all, int[] order) {
+      this.all = all;
+      this.order = order;
+    }
+
+    /** Rows {@code [offset, offset + limit)}, like {@link RankingHandler#rankPage}'s page. */
+    ResultsWrapper page(Pagination page) {
+      ResultsWrapper wrapper = new ResultsWrapper();
+      wrapper.results = new ArrayList<>(all.results.subList(from(page), to(page)));
+      wrapper.total = all.total;
+      return wrapper;
+    }
 
-      JsonObject enrichedPlace = new JsonObject();
-      enrichedPlace.addProperty("name", details.get("name").getAsString());
+    JsonObject provisional(Pagination page) {
+      JsonObject event = PlacesJson.GSON.toJsonTree(page(page)).getAsJsonObject();
+      event.add("order", order(page));
+      return event;
+    }
 
-      if (details.has("price_level")) {
-        enrichedPlace.addProperty("price_level", details.get("price_level").getAsInt());
-      } else {
-        enrichedPlace.addProperty("price_level", "price level unavailable");
+    JsonObject update(int index, PlaceResult place, Pagination page) {
+      int position = -1;
+      for (int k = from(page); k < to(page); k++) {
+        if (order[k] == index) {
+          position = k - from(page);
+          place = all.results.get(k); // the scored copy
+        }
       }
+      JsonObject event = new JsonObject();
+      event.addProperty("index", index);
+      event.add("place", PlacesJson.GSON.toJsonTree(place));
+      event.addProperty("position", position);
+      event.add("order", order(page));
+      return event;
+    }
 
-      if (details.has("vicinity")) {
-        enrichedPlace.addProperty("address", details.get("vicinity").getAsString());
+    /** Every index below {@code n}: ranked ones in rank order, then the unranked ones. */
+    int[] byRank(int n) {
+      int[] indexes = new int[n];
+      boolean[] ranked = new boolean[n];
+      int k = 0;
+      for (int index : order) {
+        indexes[k++] = index;
+        ranked[index] = true;
+      }
+      for (int index = 0; index < n; index++) {
+        if (!ranked[index]) indexes[k++] = index;
       }
+      return indexes;
+    }
+
+    /** Which of the indexes below {@code n} are on {@code page}. */
+    boolean[] onPage(int n, Pagination page) {
+      boolean[] on = new boolean[n];
+      for (int k = from(page); k < to(page); k++) on[order[k]] = true;
+      return on;
+    }
+
+    private JsonArray order(Pagination page) {
+      JsonArray indexes = new JsonArray();
+      for (int k = from(page); k < to(page); k++) indexes.add(order[k]);
+      return indexes;
+    }
+
+    private int from(Pagination page) {
+      return Math.min(page.offset, order.length);
+    }
+
+    private int to(Pagination page) {
+      return (int) Math.min(order.length, (long) page.offset + page.limit);
+    }
+  }
+
+  private static List<PlaceResult> nonNull(PlaceResult[] places) {
+    List<PlaceResult> present = new ArrayList<>(places.length);
+    for (PlaceResult place : places) {
+      if (place != null) present.add(place);
+    }
+    return present;
+  }
+
+  /** Hit and eviction counters for the ranked response cache. */
+  public CacheStats responseCacheStats() {
+    return responses.stats();
+  }
+
+  /** Hit and eviction counters for the bm25 indexes kept between pages. */
+  public CacheStats indexCacheStats() {
+    return indexes.stats();
+  }
+
+  /**
+   * Streams {@code page} with chunked encoding, compressed on the fly if the client accepts it.
+   * Returns the body as it was sent, already encoded, for the response cache.
+   *
+   * <p>Serialization and writing interleave, so they are told apart by timing every hand-off to the
+   * response stream: that time is the write stage, the rest is serialization.
+   */
+  private ResponseCompression.Encoded sendResults(
+      HttpExchange exchange, Encoding encoding, ResultsWrapper page, String etag)
+      throws IOException {
+    long start = System.nanoTime();
+    long[] writeNanos = {0};
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    if (etag != null) {
+      exchange.getResponseHeaders().set("ETag", ResponseCache.forEncoding(etag, encoding));
+    }
+    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    ResponseCompression.RecordingStream os =
+        ResponseCompression.recordingStream(exchange, 200, encoding);
+    try {
+      PlacesJson.write(
+          page,
+          new FilterOutputStream(os) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+              long t = System.nanoTime();
+              out.write(b, off, len);
+              writeNanos[0] += System.nanoTime() - t;
+            }
 
-      if (details.has("geometry")) {
-        enrichedPlace.add(
-            "location", details.getAsJsonObject("geometry").getAsJsonObject("location").deepCopy());
+            @Override
+            public void write(int b) throws IOException {
+              write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void flush() throws IOException {
+              long t = System.nanoTime();
+              out.flush();
+              writeNanos[0] += System.nanoTime() - t;
+            }
+          });
+    } finally {
+      long t = System.nanoTime();
+      os.close();
+      writeNanos[0] += System.nanoTime() - t;
+    }
+    Stage.SERIALIZATION.record(System.nanoTime() - start - writeNanos[0]);
+    Stage.WRITE.record(writeNanos[0]);
+    return os.sent();
+  }
+
+  /**
+   * Looks up details for every unique place_id concurrently (at most {@code detailsConcurrency} at
+   * once) and keeps the nearby-search order. A place whose details call fails or misses its
+   * deadline is degraded to the fields the nearby-search result already carries. No call outlives
+   * the request's {@link RequestDeadline}.
+   */
+  private Enrichment enrichWithPlaceDetails(NearbySearchCache.Result results)
+      throws InterruptedException {
+    List<PlaceDetails> nearbyPlaces = uniquePlaces(results.places);
+    List<CompletableFuture<PlaceDetails>> pending = new ArrayList<>();
+    Semaphore inFlight = new Semaphore(detailsConcurrency);
+
+    try {
+      for (PlaceDetails place : nearbyPlaces) {
+        // once the request deadline has passed, skip the remaining lookups and degrade
+        if (!inFlight.tryAcquire(RequestDeadline.remainingNanos(), TimeUnit.NANOSECONDS)) {
+          pending.add(CompletableFuture.failedFuture(new TimeoutException("request deadline")));
+          continue;
+        }
+        // nothing is sent before every place is enriched, so every lookup gates the page
+        CompletableFuture<PlaceDetails> details = lookUpDetails(place.placeId, Priority.FIRST_PAGE);
+        details.whenComplete((found, err) -> inFlight.release());
+        pending.add(details);
       }
+    } catch (InterruptedException e) {
+      pending.forEach(f -> f.cancel(true));
+      throw e;
+    }
 
-      enrichedPlace.addProperty(
-          "rating", details.has("rating") ? details.get("rating").getAsDouble() : 0);
-
-      enrichedPlace.addProperty(
-          "open_now",
-          details.has("opening_hours") && details.getAsJsonObject("opening_hours").has("open_now")
-              ? details.getAsJsonObject("opening_hours").get("open_now").getAsBoolean()
-              : false);
-
-      enrichedPlace.addProperty(
-          "description",
-          details.has("editorial_summary")
-              && details.getAsJsonObject("editorial_summary").has("overview")
-              ? details.getAsJsonObject("editorial_summary").get("overview").getAsString()
-              : "No description available.");
-
-      if (details.has("user_ratings_total")) {
-        enrichedPlace.addProperty("total_ratings", details.get("user_ratings_total").getAsInt());
-      } else {
-        enrichedPlace.addProperty("total_ratings", -1.0);
+    List<PlaceResult> enriched = new ArrayList<>(pending.size());
+    int degraded = 0;
+    for (int i = 0; i < pending.size(); i++) {
+      PlaceDetails details = awaitDetails(pending.get(i));
+      if (details == null) {
+        degraded++;
+        // degrade to what nearby search already told us
+        details = degrade(nearbyPlaces.get(i));
       }
+      if (details.name == null) continue;
+      enriched.add(PlacesJson.fromPlacesApi(details));
+    }
+    return new Enrichment(enriched, degraded, results.version, nearbyPlaces);
+  }
+
+  /** Nearby-search results with a place_id, first occurrence of each, in order. */
+  private static List<PlaceDetails> uniquePlaces(List<PlaceDetails> results) {
+    Set<String> seenPlaceIds = new HashSet<>();
+    List<PlaceDetails> places = new ArrayList<>();
+    for (PlaceDetails place : results) {
+      if (place.placeId != null && seenPlaceIds.add(place.placeId)) places.add(place);
+    }
+    return places;
+  }
+
+  /**
+   * Starts one details call at {@code priority}, bounded by the per-call timeout and the request's
+   * deadline. The returned future always completes; a failed call completes it exceptionally.
+   */
+  private CompletableFuture<PlaceDetails> lookUpDetails(String placeId, Priority priority) {
+    Duration timeout = RequestDeadline.clamp(detailsTimeout);
+    CompletableFuture<PlaceDetails> details;
+    try {
+      details =
+          client
+              .getPlaceDetailsAsync(placeId, timeout, priority)
+              .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      details = CompletableFuture.failedFuture(e);
+    }
+    long issued = System.nanoTime();
+    details.whenComplete((found, err) -> Stage.DETAILS.recordSince(issued));
+    return details;
+  }
+
+  /** Counts a place served from nearby-search data because its details call failed. */
+  private static PlaceDetails degrade(PlaceDetails nearbyPlace) {
+    Metrics.DEGRADED_DETAILS.increment();
+    Log.debug(
+        () ->
+            "Place details unavailable for " + nearbyPlace.placeId + ", using nearby-search data");
+    return nearbyPlace;
+  }
 
-      enrichedResults.add(enrichedPlace);
+  /**
+   * Enriched places, how many of them fell back to nearby-search data, and the nearby-search
+   * results they came from (see {@link #etag}).
+   */
+  private static final class Enrichment {
+    final List<PlaceResult> places;
+    final int degraded;
+    final String version;
+    final List<PlaceDetails> nearby;
+
+    Enrichment(List<PlaceResult> places, int degraded, String version, List<PlaceDetails> nearby) {
+      this.places = places;
+      this.degraded = degraded;
+      this.version = version;
+      this.nearby = nearby;
     }
+  }
 
-    JsonObject output = new JsonObject();
-    output.add("results", enrichedResults);
-    return gson.toJson(output);
+  /** Waits for one details call and returns the place, or null if it failed or was cancelled. */
+  private PlaceDetails awaitDetails(CompletableFuture<PlaceDetails> pending) {
+    try {
+      return pending.join();
+    } catch (CompletionException | CancellationException e) {
+      return null;
+    }
   }
 }
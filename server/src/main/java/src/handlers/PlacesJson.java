@@ -0,0 +1,250 @@
+package src.handlers;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import models.Location;
+import models.PlaceDetails;
+import models.PlaceResult;
+import models.ResultsWrapper;
+
+/**
+ * The JSON shape of an enriched place, in one place. Everything that reads or writes {@code
+ * {"results":[...]}} goes through here so the wire format stays the same across handlers.
+ */
+public final class PlacesJson {
+  public static final String NO_PRICE_LEVEL = "price level unavailable";
+  public static final String NO_DESCRIPTION = "No description available.";
+
+  /** Characters buffered by {@link #write} between flushes to the response. */
+  static final int STREAM_BUFFER = 8 * 1024;
+
+  public static final Gson GSON =
+      new GsonBuilder().registerTypeAdapter(PlaceResult.class, new PlaceResultAdapter()).create();
+
+  private PlacesJson() {}
+
+  /** Parses {@code {"results":[...]}} (or a bare array of places) into typed results. */
+  public static List<PlaceResult> parseResults(String json) {
+    try (JsonReader in = new JsonReader(new StringReader(json))) {
+      if (in.peek() == JsonToken.BEGIN_ARRAY) {
+        return readPlaces(in);
+      }
+      List<PlaceResult> places = new ArrayList<>();
+      in.beginObject();
+      while (in.hasNext()) {
+        if ("results".equals(in.nextName())) {
+          places = readPlaces(in);
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      return places;
+    } catch (IOException | IllegalStateException e) {
+      throw new JsonParseException("Malformed places JSON", e);
+    }
+  }
+
+  /** Serializes {@code {"results":[...]}}. */
+  public static String toJson(List<PlaceResult> places) {
+    ResultsWrapper wrapper = new ResultsWrapper();
+    wrapper.results = places;
+    return toJson(wrapper);
+  }
+
+  /** Serializes a (possibly paginated) result page; unset pagination fields are omitted. */
+  public static String toJson(ResultsWrapper page) {
+    return GSON.toJson(page);
+  }
+
+  /**
+   * Streams {@link #toJson(ResultsWrapper)} to {@code out} as UTF-8 without building the document
+   * in memory. The first place is flushed as soon as it is written; after that output goes out in
+   * buffer-sized chunks. Flushes but does not close {@code out}.
+   */
+  public static void write(ResultsWrapper page, OutputStream out) throws IOException {
+    Writer buffered =
+        new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), STREAM_BUFFER);
+    JsonWriter json = GSON.newJsonWriter(buffered); // same escaping as GSON.toJson
+    TypeAdapter<PlaceResult> adapter = GSON.getAdapter(PlaceResult.class);
+    json.beginObject();
+    if (page.results != null) {
+      json.name("results").beginArray();
+      for (int i = 0; i < page.results.size(); i++) {
+        adapter.write(json, page.results.get(i));
+        if (i == 0) json.flush();
+      }
+      json.endArray();
+    }
+    if (page.total != null) json.name("total").value(page.total);
+    if (page.offset != null) json.name("offset").value(page.offset);
+    if (page.limit != null) json.name("limit").value(page.limit);
+    json.endObject();
+    json.flush();
+  }
+
+  private static List<PlaceResult> readPlaces(JsonReader in) throws IOException {
+    TypeAdapter<PlaceResult> adapter = GSON.getAdapter(PlaceResult.class);
+    List<PlaceResult> places = new ArrayList<>();
+    in.beginArray();
+    while (in.hasNext()) {
+      places.add(adapter.read(in));
+    }
+    in.endArray();
+    return places;
+  }
+
+  /**
+   * Maps a Places API place onto a {@link PlaceResult}. Details and nearby-search results share the
+   * same fields, so this also builds a degraded entry from nearby-search data.
+   */
+  public static PlaceResult fromPlacesApi(PlaceDetails details) {
+    PlaceResult place = new PlaceResult();
+    place.name = details.name;
+    place.priceLevel = details.priceLevel;
+    place.address = details.vicinity;
+
+    if (details.hasLocation()) {
+      place.location = new Location();
+      place.location.lat = details.lat;
+      place.location.lng = details.lng;
+    }
+
+    place.rating = Double.isNaN(details.rating) ? 0 : details.rating;
+    place.openNow = details.openNow;
+    place.description = details.overview != null ? details.overview : NO_DESCRIPTION;
+    place.totalRatings = details.userRatingsTotal;
+    return place;
+  }
+
+  /** Reads and writes the enriched place shape used by /places and the mock fixtures. */
+  static class PlaceResultAdapter extends TypeAdapter<PlaceResult> {
+    @Override
+    public void write(JsonWriter out, PlaceResult place) throws IOException {
+      if (place == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      out.name("name").value(place.name);
+      out.name("price_level");
+      if (place.priceLevel != null) {
+        out.value(place.priceLevel);
+      } else {
+        out.value(NO_PRICE_LEVEL);
+      }
+      if (place.address != null) {
+        out.name("address").value(place.address);
+      }
+      if (place.location != null) {
+        out.name("location").beginObject();
+        out.name("lat").value(place.location.lat);
+        out.name("lng").value(place.location.lng);
+        out.endObject();
+      }
+      out.name("rating").value(place.rating);
+      out.name("open_now").value(place.openNow);
+      out.name("description").value(place.description);
+      out.name("total_ratings").value(place.totalRatings);
+      out.name("score").value(place.score);
+      if (place.relevance != null) {
+        out.name("relevance").value(place.relevance);
+      }
+      if (place.distance != null) {
+        out.name("distance").value(Math.round(place.distance * 10) / 10.0); // decimeters
+      }
+      out.endObject();
+    }
+
+    @Override
+    public PlaceResult read(JsonReader in) throws IOException {
+      if (in.peek() == JsonToken.NULL) {
+        in.nextNull();
+        return null;
+      }
+      PlaceResult place = new PlaceResult();
+      in.beginObject();
+      while (in.hasNext()) {
+        String field = in.nextName();
+        if (in.peek() == JsonToken.NULL) {
+          in.nextNull();
+          continue;
+        }
+        switch (field) {
+          case "name":
+            place.name = in.nextString();
+            break;
+          case "price_level":
+            if (in.peek() == JsonToken.NUMBER) {
+              place.priceLevel = in.nextInt();
+            } else {
+              in.skipValue(); // "price level unavailable"
+            }
+            break;
+          case "address":
+            place.address = in.nextString();
+            break;
+          case "location":
+            place.location = readLocation(in);
+            break;
+          case "rating":
+            place.rating = in.nextDouble();
+            break;
+          case "open_now":
+            place.openNow = in.nextBoolean();
+            break;
+          case "description":
+            place.description = in.nextString();
+            break;
+          case "total_ratings":
+            place.totalRatings = (int) in.nextDouble();
+            break;
+          case "score":
+            place.score = (int) in.nextDouble();
+            break;
+          case "relevance":
+            place.relevance = in.nextDouble();
+            break;
+          case "distance":
+            place.distance = in.nextDouble();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      return place;
+    }
+
+    private static Location readLocation(JsonReader in) throws IOException {
+      Location location = new Location();
+      in.beginObject();
+      while (in.hasNext()) {
+        String field = in.nextName();
+        if ("lat".equals(field)) {
+          location.lat = in.nextDouble();
+        } else if ("lng".equals(field)) {
+          location.lng = in.nextDouble();
+        } else {
+          in.skipValue();
+        }
+      }
+      in.endObject();
+      return location;
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package src.handlers;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/** Query-string parsing shared by the /places handlers. */
+public final class QueryStrings {
+
+  private QueryStrings() {}
+
+  /**
+   * Splits {@code a=1&b=2} into a map, URL-decoding names and values. Pairs without exactly one
+   * {@code =} are ignored; a repeated name keeps its last value.
+   */
+  public static Map<String, String> parse(String query) {
+    Map<String, String> params = new HashMap<>();
+    if (query == null || query.isEmpty()) return params;
+    for (String param : query.split("&")) {
+      String[] kv = param.split("=");
+      if (kv.length == 2) {
+        params.put(
+            URLDecoder.decode(kv[0], StandardCharsets.UTF_8),
+            URLDecoder.decode(kv[1], StandardCharsets.UTF_8));
+      }
+    }
+    return params;
+  }
+}
@@ -1,53 +1,338 @@
 // src/handlers/RankingHandler.java
 package src.handlers;
 
-import com.google.gson.*;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import models.PlaceResult;
 import models.Preference;
+import models.ResultsWrapper;
+import src.ranking.Aggregation;
+import src.ranking.DistanceDecay;
+import src.ranking.KeywordScorer;
+import src.ranking.KeywordScorer.MatchMode;
+import src.ranking.PlaceIndex;
+import src.ranking.TopK;
+import src.server.Log;
 
 /** Pure in-memory sorter. No HTTP calls here. */
 public class RankingHandler {
-  private final Gson gson = new Gson();
+
+  /** Output of {@link #rankGroup}: one page per profile, in profile order, and the group's page. */
+  public static final class GroupRanking {
+    public final List<List<PlaceResult>> profiles;
+    public final List<PlaceResult> group;
+
+    GroupRanking(List<List<PlaceResult>> profiles, List<PlaceResult> group) {
+      this.profiles = profiles;
+      this.group = group;
+    }
+  }
+
+  /**
+   * Scores & sorts already-enriched places. Returns scored copies ordered by score desc → rating
+   * desc; ties keep their input order.
+   */
+  public List<PlaceResult> rank(List<PlaceResult> places, List<Preference> prefs) {
+    return rank(places, prefs, MatchMode.SUBSTRING);
+  }
+
+  /**
+   * Same as {@link #rank(List, List)}, with keywords matched as substrings or whole words. The
+   * preferences are compiled once and each description is scanned once.
+   */
+  public List<PlaceResult> rank(List<PlaceResult> places, List<Preference> prefs, MatchMode mode) {
+    return rankPage(places, prefs, mode, 0, Integer.MAX_VALUE).results;
+  }
+
+  /**
+   * One page of {@link #rank(List, List, MatchMode)}: the places at positions {@code [offset,
+   * offset + limit)} of the full ranking. Every place is scored, but only the best {@code offset +
+   * limit} are selected (with a bounded heap) and only the page is copied. Input order breaks the
+   * remaining ties, so pages are stable.
+   */
+  public ResultsWrapper rankPage(
+      List<PlaceResult> places, List<Preference> prefs, MatchMode mode, int offset, int limit) {
+    int n = places.size();
+    String[] descriptions = new String[n];
+    double[] ratings = new double[n];
+    for (int i = 0; i < n; i++) {
+      descriptions[i] = places.get(i).description;
+      ratings[i] = places.get(i).rating;
+    }
+    return rankRows(descriptions, ratings, i -> places.get(i).copy(), prefs, mode, offset, limit);
+  }
+
+  /**
+   * Column form of {@link #rankPage}: row {@code i} has {@code descriptions[i]} and {@code
+   * ratings[i]}, and {@code row} builds a fresh {@link PlaceResult} for it. Only rows on the
+   * returned page are built.
+   */
+  public ResultsWrapper rankRows(
+      String[] descriptions,
+      double[] ratings,
+      IntFunction<PlaceResult> row,
+      List<Preference> prefs,
+      MatchMode mode,
+      int offset,
+      int limit) {
+    KeywordScorer scorer = KeywordScorer.compile(prefs, mode);
+    int n = descriptions.length;
+    int[] scores = new int[n];
+    for (int i = 0; i < n; i++) {
+      scores[i] = scorer.score(descriptions[i]);
+    }
+
+    // score desc, then rating desc, then input order
+    int[] best =
+        TopK.select(
+            n,
+            pageEnd(offset, limit),
+            (a, b) -> {
+              if (scores[a] != scores[b]) return Integer.compare(scores[b], scores[a]);
+              if (ratings[a] != ratings[b]) return Double.compare(ratings[b], ratings[a]);
+              return Integer.compare(a, b);
+            });
+
+    List<PlaceResult> page = new ArrayList<>(Math.max(0, best.length - offset));
+    for (int r = offset; r < best.length; r++) {
+      PlaceResult place = row.apply(best[r]);
+      place.score = scores[best[r]];
+      page.add(place);
+    }
+    return page(page, n);
+  }
+
+  /**
+   * Distance-aware keyword ranking: each place's keyword score plus {@code decay}'s bonus for its
+   * {@code distance}, set as "relevance". Ordered by relevance desc, then rating desc, then input
+   * order. Places without a distance get no bonus.
+   */
+  public ResultsWrapper rankPageByDistance(
+      List<PlaceResult> places,
+      DistanceDecay decay,
+      List<Preference> prefs,
+      MatchMode mode,
+      int offset,
+      int limit) {
+    int n = places.size();
+    String[] descriptions = new String[n];
+    double[] ratings = new double[n];
+    double[] meters = new double[n];
+    for (int i = 0; i < n; i++) {
+      PlaceResult place = places.get(i);
+      descriptions[i] = place.description;
+      ratings[i] = place.rating;
+      meters[i] = place.distance != null ? place.distance : Double.NaN;
+    }
+    return rankRowsByDistance(
+        descriptions,
+        ratings,
+        meters,
+        decay,
+        i -> places.get(i).copy(),
+        prefs,
+        mode,
+        offset,
+        limit);
+  }
+
+  /**
+   * Column form of {@link #rankPageByDistance}: row {@code i} is {@code meters[i]} away (NaN if
+   * unknown). The decay is computed for the whole batch in one pass before selection; only rows on
+   * the returned page are built.
+   */
+  public ResultsWrapper rankRowsByDistance(
+      String[] descriptions,
+      double[] ratings,
+      double[] meters,
+      DistanceDecay decay,
+      IntFunction<PlaceResult> row,
+      List<Preference> prefs,
+      MatchMode mode,
+      int offset,
+      int limit) {
+    KeywordScorer scorer = KeywordScorer.compile(prefs, mode);
+    int n = descriptions.length;
+    int[] scores = new int[n];
+    double[] relevance = new double[n];
+    decay.bonuses(meters, n, relevance);
+    for (int i = 0; i < n; i++) {
+      scores[i] = scorer.score(descriptions[i]);
+      relevance[i] += scores[i];
+    }
+
+    int[] best =
+        TopK.select(
+            n,
+            pageEnd(offset, limit),
+            (a, b) -> {
+              if (relevance[a] != relevance[b]) return Double.compare(relevance[b], relevance[a]);
+              if (ratings[a] != ratings[b]) return Double.compare(ratings[b], ratings[a]);
+              return Integer.compare(a, b);
+            });
+
+    List<PlaceResult> page = new ArrayList<>(Math.max(0, best.length - offset));
+    for (int r = offset; r < best.length; r++) {
+      PlaceResult place = row.apply(best[r]);
+      place.score = scores[best[r]];
+      place.relevance = relevance[best[r]];
+      page.add(place);
+    }
+    return page(page, n);
+  }
+
+  /**
+   * BM25 ranking mode. Only places whose name or description matches a preference term are
+   * returned, as copies ordered by "relevance" (the weight-mixed BM25F score) desc, then rating
+   * desc. "score" on each copy still follows the keyword rule of {@link #rank}.
+   */
+  public List<PlaceResult> rankByRelevance(
+      PlaceIndex index, List<Preference> prefs, MatchMode mode) {
+    return rankByRelevancePage(index, prefs, mode, 0, Integer.MAX_VALUE).results;
+  }
+
+  /** One page of {@link #rankByRelevance}; {@code total} counts the matching places. */
+  public ResultsWrapper rankByRelevancePage(
+      PlaceIndex index, List<Preference> prefs, MatchMode mode, int offset, int limit) {
+    return rankByRelevancePage(index, i -> index.place(i).copy(), prefs, mode, offset, limit);
+  }
+
+  /**
+   * {@link #rankByRelevancePage} for an index built from columns; {@code row} builds a fresh {@link
+   * PlaceResult} for a document id.
+   */
+  public ResultsWrapper rankByRelevancePage(
+      PlaceIndex index,
+      IntFunction<PlaceResult> row,
+      List<Preference> prefs,
+      MatchMode mode,
+      int offset,
+      int limit) {
+    return rankByRelevancePage(index, null, row, prefs, mode, offset, limit);
+  }
+
+  /** {@link #rankByRelevancePage} over only the documents {@code include} accepts (all if null). */
+  public ResultsWrapper rankByRelevancePage(
+      PlaceIndex index,
+      IntPredicate include,
+      IntFunction<PlaceResult> row,
+      List<Preference> prefs,
+      MatchMode mode,
+      int offset,
+      int limit) {
+    KeywordScorer scorer = KeywordScorer.compile(prefs, mode);
+    PlaceIndex.SearchResult found = index.search(prefs, pageEnd(offset, limit), include);
+    List<PlaceResult> page = new ArrayList<>(Math.max(0, found.hits.size() - offset));
+    for (int r = offset; r < found.hits.size(); r++) {
+      PlaceIndex.Hit hit = found.hits.get(r);
+      PlaceResult place = row.apply(hit.doc);
+      place.relevance = hit.score;
+      place.score = scorer.score(place.description);
+      page.add(place);
+    }
+    return page(page, found.total);
+  }
+
+  /**
+   * Ranks one candidate set for several preference profiles at once, e.g. every member of a group.
+   * Each profile's page is the first {@code limit} places of {@link #rankPage}. For the group page,
+   * a member's score for a place is divided by the most that member can score (the sum of their
+   * positive weights), so heavy weights do not let one member outvote the others, and {@code
+   * aggregation} combines the members. The group page is ordered by that combined score (set as
+   * "relevance", 0 to 1), then rating desc, then input order; its "score" is the members' summed
+   * keyword score.
+   */
+  public GroupRanking rankGroup(
+      List<PlaceResult> places,
+      List<List<Preference>> profiles,
+      MatchMode mode,
+      Aggregation aggregation,
+      int limit) {
+    int n = places.size();
+    double[] ratings = new double[n];
+    for (int i = 0; i < n; i++) ratings[i] = places.get(i).rating;
+
+    // members x places, each description scanned once per member
+    int[][] scores = new int[profiles.size()][n];
+    double[] maxScore = new double[profiles.size()];
+    List<List<PlaceResult>> pages = new ArrayList<>(profiles.size());
+    for (int m = 0; m < profiles.size(); m++) {
+      List<Preference> prefs = profiles.get(m);
+      KeywordScorer scorer = KeywordScorer.compile(prefs, mode);
+      int[] own = scores[m];
+      for (int i = 0; i < n; i++) own[i] = scorer.score(places.get(i).description);
+      for (Preference p : prefs) {
+        if (p.keyword != null && p.weight > 0) maxScore[m] += p.weight;
+      }
+
+      int[] best =
+          TopK.select(
+              n,
+              limit,
+              (a, b) -> {
+                if (own[a] != own[b]) return Integer.compare(own[b], own[a]);
+                if (ratings[a] != ratings[b]) return Double.compare(ratings[b], ratings[a]);
+                return Integer.compare(a, b);
+              });
+      List<PlaceResult> page = new ArrayList<>(best.length);
+      for (int i : best) {
+        PlaceResult place = places.get(i).copy();
+        place.score = own[i];
+        place.relevance = null;
+        page.add(place);
+      }
+      pages.add(page);
+    }
+
+    double[] combined = new double[n];
+    int[] total = new int[n];
+    double[] members = new double[profiles.size()];
+    for (int i = 0; i < n; i++) {
+      for (int m = 0; m < members.length; m++) {
+        members[m] = maxScore[m] > 0 ? scores[m][i] / maxScore[m] : 0;
+        total[i] += scores[m][i];
+      }
+      combined[i] = aggregation.combine(members);
+    }
+    int[] best =
+        TopK.select(
+            n,
+            limit,
+            (a, b) -> {
+              if (combined[a] != combined[b]) return Double.compare(combined[b], combined[a]);
+              if (ratings[a] != ratings[b]) return Double.compare(ratings[b], ratings[a]);
+              return Integer.compare(a, b);
+            });
+    List<PlaceResult> group = new ArrayList<>(best.length);
+    for (int i : best) {
+      PlaceResult place = places.get(i).copy();
+      place.score = total[i];
+      place.relevance = combined[i];
+      group.add(place);
+    }
+    return new GroupRanking(pages, group);
+  }
 
   /**
    * Scores & sorts an already‐enriched JSON string. Adds "score" to each place (desc counted) and
    * orders by score desc → rating desc.
    */
   public String rankEnriched(String enrichedJson, List<Preference> prefs) {
-    JsonObject root = JsonParser.parseString(enrichedJson).getAsJsonObject();
-    JsonArray input = root.getAsJsonArray("results");
-    List<JsonObject> scored = new ArrayList<>();
-
-    for (JsonElement el : input) {
-      JsonObject place = el.getAsJsonObject();
-      String desc =
-          place.has("description") ? place.get("description").getAsString().toLowerCase() : "";
-      int score = 0;
-      for (Preference p : prefs) {
-        if (desc.contains(p.keyword.toLowerCase())) {
-          score += p.weight;
-        }
-      }
-      JsonObject copy = place.deepCopy();
-      copy.addProperty("score", score);
-      scored.add(copy);
-    }
-
-    // sort by score desc, then rating desc
-    scored.sort(
-        (a, b) -> {
-          int sa = a.get("score").getAsInt(), sb = b.get("score").getAsInt();
-          if (sa != sb) return Integer.compare(sb, sa);
-          double ra = a.get("rating").getAsDouble(), rb = b.get("rating").getAsDouble();
-          return Double.compare(rb, ra);
-        });
-
-    JsonArray outArr = new JsonArray();
-    scored.forEach(outArr::add);
-    JsonObject out = new JsonObject();
-    out.add("results", outArr);
-    System.out.println(gson.toJson((out)));
-    return gson.toJson(out);
+    String rankedJson = PlacesJson.toJson(rank(PlacesJson.parseResults(enrichedJson), prefs));
+    Log.debug(() -> rankedJson);
+    return rankedJson;
+  }
+
+  private static int pageEnd(int offset, int limit) {
+    return (int) Math.min(Integer.MAX_VALUE, (long) offset + limit);
+  }
+
+  private static ResultsWrapper page(List<PlaceResult> results, int total) {
+    ResultsWrapper wrapper = new ResultsWrapper();
+    wrapper.results = results;
+    wrapper.total = total;
+    return wrapper;
   }
 }
@@ -0,0 +1,21 @@
+package src.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** A monotonically increasing count. Cheap to bump from many threads at once. */
+public final class Counter {
+  private final LongAdder value = new LongAdder();
+
+  public void increment() {
+    value.increment();
+  }
+
+  public void add(long amount) {
+    if (amount < 0) throw new IllegalArgumentException("counters only go up");
+    value.add(amount);
+  }
+
+  public long get() {
+    return value.sum();
+  }
+}
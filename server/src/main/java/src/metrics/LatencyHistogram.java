@@ -0,0 +1,103 @@
+package src.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with log-linear buckets, in the style of HdrHistogram: each power
+ * of two is split into {@value #SUB_BUCKETS} equal buckets, so any recorded value is known to
+ * within 1/16 (about 6%) at every scale, from nanoseconds up to about 18 minutes. Recording is one
+ * array increment and two adds, cheap enough for every request.
+ *
+ * <p>Percentiles report the top of the bucket the value fell in (never more than the largest value
+ * seen), so they never understate.
+ */
+public final class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /** Highest power of two with its own buckets; larger values land in the last bucket. */
+  private static final int MAX_EXPONENT = 40;
+
+  private static final long MAX_TRACKED = (1L << (MAX_EXPONENT + 1)) - 1;
+
+  private final AtomicLongArray counts =
+      new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS);
+  private final LongAdder count = new LongAdder();
+  private final LongAdder sum = new LongAdder();
+  private final AtomicLong max = new AtomicLong();
+
+  /** Records one duration; negative ones count as zero. */
+  public void record(long nanos) {
+    long value = Math.max(0, nanos);
+    counts.incrementAndGet(bucket(Math.min(value, MAX_TRACKED)));
+    count.increment();
+    sum.add(value);
+    long seen;
+    while (value > (seen = max.get()) && !max.compareAndSet(seen, value)) {
+      // another thread raised the max; retry against the new one
+    }
+  }
+
+  /**
+   * Records the time since {@code startNanos} (a {@link System#nanoTime} reading) and returns the
+   * current time, so consecutive stages can be timed from one variable.
+   */
+  public long recordSince(long startNanos) {
+    long now = System.nanoTime();
+    record(now - startNanos);
+    return now;
+  }
+
+  public long count() {
+    return count.sum();
+  }
+
+  public long sumNanos() {
+    return sum.sum();
+  }
+
+  public long maxNanos() {
+    return max.get();
+  }
+
+  /**
+   * The value at quantile {@code q} (0 to 1) of everything recorded so far, in nanoseconds, or 0 if
+   * nothing has been recorded.
+   */
+  public long percentileNanos(double q) {
+    long[] snapshot = new long[counts.length()];
+    long total = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      snapshot[i] = counts.get(i);
+      total += snapshot[i];
+    }
+    if (total == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(Math.min(1, Math.max(0, q)) * total));
+    long seen = 0;
+    for (int i = 0; i < snapshot.length; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) return Math.min(highestValue(i), maxNanos());
+    }
+    return maxNanos();
+  }
+
+  /** Bucket of {@code value}: exact below 16, then 16 buckets per power of two. */
+  static int bucket(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS)
+        + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  /** Largest value that falls in bucket {@code index}. */
+  static long highestValue(int index) {
+    if (index < SUB_BUCKETS) return index;
+    int shift = (index >> SUB_BUCKET_BITS) - 1;
+    long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+}
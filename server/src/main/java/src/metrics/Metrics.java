@@ -0,0 +1,213 @@
+package src.metrics;
+
+import java.util.function.Supplier;
+import src.cache.CacheStats;
+import src.server.RequestCoalescer;
+import src.storage.DetailsLog;
+import src.upstream.OutboundScheduler;
+import src.upstream.UpstreamPolicy;
+
+/**
+ * The server's metrics: per-stage latency of a /places request, upstream errors and cache counters,
+ * all in {@link #REGISTRY} and served at /metrics.
+ */
+public final class Metrics {
+
+  /** The registry /metrics serves. */
+  public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+  /** The stages of a /places request, each with its own latency histogram. */
+  public enum Stage {
+    /** Nearby search, cached or not. */
+    NEARBY("nearby"),
+    /** One place-details call, from issue to completion, cached or not. */
+    DETAILS("details"),
+    /** All details calls of a request, including the wait for a concurrency slot. */
+    ENRICHMENT("enrichment"),
+    RANKING("ranking"),
+    /** Turning the ranked page into JSON, excluding time blocked on the socket. */
+    SERIALIZATION("serialization"),
+    /** Handing response bytes to the client. */
+    WRITE("write");
+
+    public final String label;
+    private final LatencyHistogram histogram;
+
+    Stage(String label) {
+      this.label = label;
+      this.histogram =
+          REGISTRY.histogram(
+              "places_stage_duration_seconds",
+              "Time spent in each stage of /places",
+              "stage",
+              label);
+    }
+
+    public void record(long nanos) {
+      histogram.record(nanos);
+    }
+
+    /** See {@link LatencyHistogram#recordSince}. */
+    public long recordSince(long startNanos) {
+      return histogram.recordSince(startNanos);
+    }
+
+    public LatencyHistogram histogram() {
+      return histogram;
+    }
+  }
+
+  /** Places served with nearby-search data because their details call failed or timed out. */
+  public static final Counter DEGRADED_DETAILS =
+      REGISTRY.counter(
+          "places_details_degraded_total", "Places served without details after a failed lookup");
+
+  private Metrics() {}
+
+  /**
+   * Counts a failed upstream call. {@code endpoint} is "nearby" or "details"; {@code reason} is one
+   * of "timeout", "http" (a non-200 answer), "status" (a Places API error status), "body" (an
+   * answer that is not a Places API object) or "io".
+   */
+  public static void upstreamError(String endpoint, String reason) {
+    REGISTRY
+        .counter(
+            "places_upstream_errors_total",
+            "Failed Places API calls",
+            "endpoint",
+            endpoint,
+            "reason",
+            reason)
+        .increment();
+  }
+
+  /**
+   * Exposes a cache's hit, miss and eviction counters and its size under {@code cache=name}.
+   * Registering a name again points it at the new cache.
+   */
+  public static void registerCache(String name, Supplier<CacheStats> stats) {
+    REGISTRY.counter(
+        "places_cache_hits_total",
+        "Cache lookups answered from the cache",
+        () -> stats.get().hits,
+        "cache",
+        name);
+    REGISTRY.counter(
+        "places_cache_misses_total",
+        "Cache lookups that missed",
+        () -> stats.get().misses,
+        "cache",
+        name);
+    REGISTRY.counter(
+        "places_cache_evictions_total",
+        "Entries dropped to stay under the size bound",
+        () -> stats.get().evictions,
+        "cache",
+        name);
+    REGISTRY.counter(
+        "places_cache_stale_hits_total",
+        "Expired entries served because a fresh value could not be loaded",
+        () -> stats.get().staleHits,
+        "cache",
+        name);
+    REGISTRY.gauge(
+        "places_cache_entries", "Entries in the cache", () -> stats.get().size, "cache", name);
+  }
+
+  /**
+   * Exposes the retries, hedges and circuit breaker of the calls to one upstream endpoint under
+   * {@code endpoint=name}. The breaker state is 0 when closed, 1 when open and 2 when half-open.
+   */
+  public static void registerUpstream(String name, UpstreamPolicy policy) {
+    REGISTRY.counter(
+        "places_upstream_retries_total",
+        "Upstream attempts made after a failed one",
+        policy::retryCount,
+        "endpoint",
+        name);
+    REGISTRY.counter(
+        "places_upstream_hedges_total",
+        "Upstream attempts duplicated because they were slow",
+        policy::hedgeCount,
+        "endpoint",
+        name);
+    REGISTRY.counter(
+        "places_upstream_breaker_rejections_total",
+        "Upstream calls not made because the circuit breaker was open",
+        () -> policy.breaker().rejectedCount(),
+        "endpoint",
+        name);
+    REGISTRY.gauge(
+        "places_upstream_breaker_state",
+        "Circuit breaker state: 0 closed, 1 open, 2 half-open",
+        () -> policy.breaker().state().code,
+        "endpoint",
+        name);
+  }
+
+  /** Time calls to {@code endpoint} of {@code priority} waited for quota before going out. */
+  public static LatencyHistogram outboundWait(String endpoint, String priority) {
+    return REGISTRY.histogram(
+        "places_outbound_wait_seconds",
+        "Time upstream calls waited for quota",
+        "endpoint",
+        endpoint,
+        "priority",
+        priority);
+  }
+
+  /** Exposes how many calls wait for quota to {@code endpoint=name}, and how many were dropped. */
+  public static void registerScheduler(String name, OutboundScheduler scheduler) {
+    REGISTRY.gauge(
+        "places_outbound_queue_depth",
+        "Upstream calls waiting for quota",
+        scheduler::queuedCount,
+        "endpoint",
+        name);
+    REGISTRY.counter(
+        "places_outbound_dropped_total",
+        "Upstream calls refused or dropped while waiting for quota",
+        scheduler::droppedCount,
+        "endpoint",
+        name);
+  }
+
+  /** Exposes a persistent log's size and write counters under {@code store=name}. */
+  public static void registerStore(String name, DetailsLog log) {
+    REGISTRY.gauge("places_store_bytes", "Bytes used in the log file", log::bytes, "store", name);
+    REGISTRY.gauge("places_store_keys", "Keys with a record in the log", log::size, "store", name);
+    REGISTRY.counter(
+        "places_store_written_total", "Records written to the log", log::written, "store", name);
+    REGISTRY.counter(
+        "places_store_dropped_total",
+        "Records not written: queue full, file full or log closed",
+        log::dropped,
+        "store",
+        name);
+    REGISTRY.counter(
+        "places_store_compactions_total",
+        "Times the log was rewritten without its dead records",
+        log::compactions,
+        "store",
+        name);
+  }
+
+  /**
+   * Exposes how many requests {@code coalescer} answered with another request's result, and how
+   * many gave up waiting for it, under {@code handler=name}.
+   */
+  public static void registerCoalescer(String name, RequestCoalescer<?> coalescer) {
+    REGISTRY.counter(
+        "places_requests_coalesced_total",
+        "Requests that shared an identical in-flight request's result",
+        coalescer::coalescedCount,
+        "handler",
+        name);
+    REGISTRY.counter(
+        "places_requests_coalesce_timeouts_total",
+        "Coalesced requests that gave up waiting for the shared result",
+        coalescer::timeoutCount,
+        "handler",
+        name);
+  }
+}
@@ -0,0 +1,178 @@
+package src.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Named metrics, written out in the Prometheus text exposition format (version 0.0.4). A metric is
+ * a name plus label pairs, given as alternating keys and values: {@code counter("x_total", "help",
+ * "cache", "details")} is {@code x_total{cache="details"}}. Asking for the same name and labels
+ * again returns the same metric, so callers can look metrics up or hold on to them.
+ *
+ * <p>Latency histograms are exposed as summaries in seconds, with a fixed set of quantiles.
+ */
+public class MetricsRegistry {
+
+  /** Quantiles every histogram reports. */
+  static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+  private enum Type {
+    COUNTER("counter"),
+    GAUGE("gauge"),
+    SUMMARY("summary");
+
+    final String text;
+
+    Type(String text) {
+      this.text = text;
+    }
+  }
+
+  private static final class Family {
+    final String name;
+    final String help;
+    final Type type;
+
+    /** Metric by rendered label set; sorted so the output is stable. */
+    final ConcurrentMap<String, Object> children = new ConcurrentSkipListMap<>();
+
+    Family(String name, String help, Type type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+  }
+
+  private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+  /** The counter {@code name} with {@code labels}, created on first use. */
+  public Counter counter(String name, String help, String... labels) {
+    return (Counter)
+        family(name, help, Type.COUNTER)
+            .children
+            .computeIfAbsent(labels(labels), k -> new Counter());
+  }
+
+  /**
+   * A counter whose value is read from {@code value} at scrape time, for counts something else
+   * already keeps. Registering the same name and labels again replaces the supplier.
+   */
+  public void counter(String name, String help, LongSupplier value, String... labels) {
+    family(name, help, Type.COUNTER).children.put(labels(labels), value);
+  }
+
+  /**
+   * A gauge read from {@code value} at scrape time. Registering the same name and labels again
+   * replaces the supplier.
+   */
+  public void gauge(String name, String help, LongSupplier value, String... labels) {
+    family(name, help, Type.GAUGE).children.put(labels(labels), value);
+  }
+
+  /** The latency histogram {@code name} with {@code labels}, created on first use. */
+  public LatencyHistogram histogram(String name, String help, String... labels) {
+    return (LatencyHistogram)
+        family(name, help, Type.SUMMARY)
+            .children
+            .computeIfAbsent(labels(labels), k -> new LatencyHistogram());
+  }
+
+  /** Everything, in the Prometheus text format. */
+  public String scrape() {
+    StringWriter out = new StringWriter();
+    try {
+      write(out);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // a StringWriter does not fail
+    }
+    return out.toString();
+  }
+
+  /** Writes every metric in the Prometheus text format, families sorted by name. */
+  public void write(Writer out) throws IOException {
+    Family[] sorted = families.values().toArray(new Family[0]);
+    Arrays.sort(sorted, (a, b) -> a.name.compareTo(b.name));
+    for (Family family : sorted) {
+      out.write("# HELP " + family.name + " " + escapeHelp(family.help) + "\n");
+      out.write("# TYPE " + family.name + " " + family.type.text + "\n");
+      for (Map.Entry<String, Object> child : family.children.entrySet()) {
+        String labels = child.getKey();
+        Object metric = child.getValue();
+        if (metric instanceof Counter) {
+          sample(out, family.name, labels, ((Counter) metric).get());
+        } else if (metric instanceof LongSupplier) {
+          sample(out, family.name, labels, ((LongSupplier) metric).getAsLong());
+        } else {
+          LatencyHistogram histogram = (LatencyHistogram) metric;
+          for (double q : QUANTILES) {
+            String quantile = "quantile=\"" + q + "\"";
+            String withQuantile =
+                labels.isEmpty()
+                    ? "{" + quantile + "}"
+                    : labels.substring(0, labels.length() - 1) + "," + quantile + "}";
+            sample(out, family.name, withQuantile, seconds(histogram.percentileNanos(q)));
+          }
+          sample(out, family.name + "_sum", labels, seconds(histogram.sumNanos()));
+          sample(out, family.name + "_count", labels, histogram.count());
+        }
+      }
+    }
+  }
+
+  private Family family(String name, String help, Type type) {
+    if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+      throw new IllegalArgumentException("Invalid metric name: " + name);
+    }
+    Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+    if (family.type != type) {
+      throw new IllegalArgumentException(name + " is already registered as a " + family.type.text);
+    }
+    return family;
+  }
+
+  /** {@code {k1="v1",k2="v2"}}, or the empty string without labels. */
+  private static String labels(String[] pairs) {
+    if (pairs.length % 2 != 0) {
+      throw new IllegalArgumentException("Labels must be key/value pairs");
+    }
+    if (pairs.length == 0) return "";
+    StringBuilder rendered = new StringBuilder("{");
+    for (int i = 0; i < pairs.length; i += 2) {
+      if (i > 0) rendered.append(',');
+      rendered.append(pairs[i]).append("=\"");
+      for (char c : pairs[i + 1].toCharArray()) {
+        if (c == '\\' || c == '"') rendered.append('\\').append(c);
+        else if (c == '\n') rendered.append("\\n");
+        else rendered.append(c);
+      }
+      rendered.append('"');
+    }
+    return rendered.append('}').toString();
+  }
+
+  private static String escapeHelp(String help) {
+    return help.replace("\\", "\\\\").replace("\n", "\\n");
+  }
+
+  private static double seconds(long nanos) {
+    return nanos / 1e9;
+  }
+
+  private static void sample(Writer out, String name, String labels, long value)
+      throws IOException {
+    out.write(name + labels + " " + value + "\n");
+  }
+
+  private static void sample(Writer out, String name, String labels, double value)
+      throws IOException {
+    out.write(name + labels + " " + value + "\n");
+  }
+}
@@ -0,0 +1,155 @@
+package src.mock;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import models.Location;
+import models.PlaceResult;
+import src.geo.GridIndex;
+import src.ranking.PlaceIndex;
+
+/**
+ * One mock fixture, loaded once and held column by column: primitive arrays for the numbers, a
+ * bitset for open_now and interned strings for the text. Ranking reads the columns directly and
+ * only materializes {@link PlaceResult}s for the rows it returns. Immutable once built.
+ */
+public final class MockDataset {
+  /** File name the dataset was loaded from, e.g. {@code places_cafe(radius=1000).json}. */
+  public final String name;
+
+  private final int size;
+  private final String[] names;
+  private final String[] addresses;
+  private final String[] descriptions;
+  private final double[] lat;
+  private final double[] lng;
+  private final double[] rating;
+  private final int[] priceLevel; // -1 when unavailable
+  private final int[] totalRatings; // -1 when unknown
+  private final BitSet openNow;
+  private final BitSet hasLocation;
+  private final PlaceIndex index;
+  private final GridIndex grid;
+
+  private MockDataset(
+      String name,
+      String[] names,
+      String[] addresses,
+      String[] descriptions,
+      double[] lat,
+      double[] lng,
+      double[] rating,
+      int[] priceLevel,
+      int[] totalRatings,
+      BitSet openNow,
+      BitSet hasLocation) {
+    this.name = name;
+    this.size = names.length;
+    this.names = names;
+    this.addresses = addresses;
+    this.descriptions = descriptions;
+    this.lat = lat;
+    this.lng = lng;
+    this.rating = rating;
+    this.priceLevel = priceLevel;
+    this.totalRatings = totalRatings;
+    this.openNow = openNow;
+    this.hasLocation = hasLocation;
+    this.index = PlaceIndex.build(names, descriptions, rating);
+    this.grid = GridIndex.build(lat, lng, hasLocation, GridIndex.DEFAULT_CELL_METERS);
+  }
+
+  /**
+   * Converts parsed places into columns. Strings go through {@code interned}, so text repeated
+   * across rows (or across datasets sharing the map) is stored once.
+   */
+  public static MockDataset of(
+      String name, List<PlaceResult> places, Map<String, String> interned) {
+    int n = places.size();
+    String[] names = new String[n];
+    String[] addresses = new String[n];
+    String[] descriptions = new String[n];
+    double[] lat = new double[n];
+    double[] lng = new double[n];
+    double[] rating = new double[n];
+    int[] priceLevel = new int[n];
+    int[] totalRatings = new int[n];
+    BitSet openNow = new BitSet(n);
+    BitSet hasLocation = new BitSet(n);
+    for (int i = 0; i < n; i++) {
+      PlaceResult p = places.get(i);
+      names[i] = intern(p.name, interned);
+      addresses[i] = intern(p.address, interned);
+      descriptions[i] = intern(p.description, interned);
+      if (p.location != null) {
+        lat[i] = p.location.lat;
+        lng[i] = p.location.lng;
+        hasLocation.set(i);
+      }
+      rating[i] = p.rating;
+      priceLevel[i] = p.priceLevel != null ? p.priceLevel : -1;
+      totalRatings[i] = p.totalRatings;
+      openNow.set(i, p.openNow);
+    }
+    return new MockDataset(
+        name,
+        names,
+        addresses,
+        descriptions,
+        lat,
+        lng,
+        rating,
+        priceLevel,
+        totalRatings,
+        openNow,
+        hasLocation);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Description column; shared, do not modify. */
+  public String[] descriptions() {
+    return descriptions;
+  }
+
+  /** Rating column; shared, do not modify. */
+  public double[] ratings() {
+    return rating;
+  }
+
+  /** BM25 index over names and descriptions, built at load time. */
+  public PlaceIndex index() {
+    return index;
+  }
+
+  /** Spatial index over the rows that have a location, built at load time. */
+  public GridIndex grid() {
+    return grid;
+  }
+
+  /** A fresh {@link PlaceResult} for {@code row} (score 0). */
+  public PlaceResult row(int row) {
+    PlaceResult p = new PlaceResult();
+    p.name = names[row];
+    p.address = addresses[row];
+    p.description = descriptions[row];
+    if (hasLocation.get(row)) {
+      p.location = new Location();
+      p.location.lat = lat[row];
+      p.location.lng = lng[row];
+    }
+    p.rating = rating[row];
+    p.priceLevel = priceLevel[row] >= 0 ? priceLevel[row] : null;
+    p.totalRatings = totalRatings[row];
+    p.openNow = openNow.get(row);
+    return p;
+  }
+
+  private static String intern(String s, Map<String, String> interned) {
+    if (s == null) return null;
+    String existing = interned.putIfAbsent(s, s);
+    return existing != null ? existing : s;
+  }
+}
@@ -0,0 +1,228 @@
+package src.mock;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import src.handlers.PlacesJson;
+import src.server.Log;
+
+/**
+ * Every mock fixture in a directory, parsed into {@link MockDataset}s. The request path only does
+ * map lookups on an immutable {@link Snapshot}; it never touches the filesystem.
+ *
+ * <p>After {@link #startWatching()}, a background thread rebuilds a dataset whenever its file is
+ * added, changed or removed and publishes a new snapshot with one atomic swap. A file that fails to
+ * parse (for example because it is still being written) keeps its previous dataset until the next
+ * change event.
+ */
+public class MockDatasetStore implements Closeable {
+
+  /** How long the directory must be quiet before pending changes are applied. */
+  static final long DEBOUNCE_MILLIS = 200;
+
+  /** An immutable view of every loaded dataset. */
+  public static final class Snapshot {
+    private final Map<String, MockDataset> datasets;
+    private final long version;
+
+    Snapshot(Map<String, MockDataset> datasets, long version) {
+      this.datasets = Collections.unmodifiableMap(datasets);
+      this.version = version;
+    }
+
+    /** The dataset loaded from {@code fileName}, or null. */
+    public MockDataset get(String fileName) {
+      return datasets.get(fileName);
+    }
+
+    public Set<String> names() {
+      return datasets.keySet();
+    }
+
+    /** Increases by one with every published change. */
+    public long version() {
+      return version;
+    }
+
+    private Snapshot with(String fileName, MockDataset dataset) {
+      Map<String, MockDataset> next = new HashMap<>(datasets);
+      if (dataset == null) {
+        next.remove(fileName);
+      } else {
+        next.put(fileName, dataset);
+      }
+      return new Snapshot(next, version + 1);
+    }
+  }
+
+  private final Path dir;
+  private final AtomicReference<Snapshot> current;
+  private volatile WatchService watcher;
+  private Thread watchThread;
+
+  private MockDatasetStore(Path dir, Snapshot initial) {
+    this.dir = dir;
+    this.current = new AtomicReference<>(initial);
+  }
+
+  /** Loads every {@code *.json} file in {@code dir}; files that fail to parse are skipped. */
+  public static MockDatasetStore load(Path dir) throws IOException {
+    Map<String, MockDataset> datasets = new HashMap<>();
+    Map<String, String> interned = new HashMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.json")) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        try {
+          datasets.put(name, read(file, interned));
+        } catch (IOException | RuntimeException e) {
+          Log.warn("Skipping mock data file " + name + ": " + e.getMessage());
+        }
+      }
+    }
+    Log.info("Loaded " + datasets.size() + " mock datasets from " + dir);
+    return new MockDatasetStore(dir, new Snapshot(datasets, 0));
+  }
+
+  private static MockDataset read(Path file, Map<String, String> interned) throws IOException {
+    String name = file.getFileName().toString();
+    String json = Files.readString(file, StandardCharsets.UTF_8);
+    return MockDataset.of(name, PlacesJson.parseResults(json), interned);
+  }
+
+  /**
+   * The current snapshot. Handlers should read it once per request so that every lookup in that
+   * request sees the same data.
+   */
+  public Snapshot snapshot() {
+    return current.get();
+  }
+
+  /** Shorthand for {@code snapshot().get(fileName)}. */
+  public MockDataset get(String fileName) {
+    return current.get().get(fileName);
+  }
+
+  public Set<String> names() {
+    return current.get().names();
+  }
+
+  public Path directory() {
+    return dir;
+  }
+
+  /**
+   * Re-reads {@code fileName} from the directory and publishes the result: a new dataset if the
+   * file exists and parses, a removal if it is gone. A parse failure leaves the snapshot unchanged.
+   *
+   * @return true if a new snapshot was published
+   */
+  public boolean reload(String fileName) {
+    Path file = dir.resolve(fileName);
+    MockDataset dataset = null;
+    if (Files.exists(file)) {
+      try {
+        dataset = read(file, new HashMap<>());
+      } catch (IOException | RuntimeException e) {
+        Log.warn("Keeping previous mock data for " + fileName + ": " + e.getMessage());
+        return false;
+      }
+    } else if (current.get().get(fileName) == null) {
+      return false;
+    }
+    final MockDataset loaded = dataset;
+    Snapshot next = current.updateAndGet(s -> s.with(fileName, loaded));
+    Log.info(
+        (loaded == null ? "Removed" : "Reloaded")
+            + " mock data file "
+            + fileName
+            + " (version "
+            + next.version()
+            + ")");
+    return true;
+  }
+
+  /**
+   * Starts a daemon thread that watches the directory and reloads changed {@code *.json} files.
+   * Calling it again has no effect.
+   */
+  public synchronized void startWatching() throws IOException {
+    if (watchThread != null) return;
+    WatchService service = dir.getFileSystem().newWatchService();
+    dir.register(
+        service,
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY,
+        StandardWatchEventKinds.ENTRY_DELETE);
+    this.watcher = service;
+    this.watchThread = new Thread(() -> watch(service), "mock-data-watcher");
+    watchThread.setDaemon(true);
+    watchThread.start();
+  }
+
+  /** Stops the watcher thread, if one is running. */
+  @Override
+  public synchronized void close() throws IOException {
+    if (watcher != null) {
+      watcher.close();
+      watcher = null;
+      watchThread = null;
+    }
+  }
+
+  private void watch(WatchService service) {
+    try {
+      while (true) {
+        Set<String> pending = new LinkedHashSet<>();
+        boolean overflow = drain(service.take(), pending);
+        // editors and copy tools write in several steps; wait until the directory settles
+        WatchKey next;
+        while ((next = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+          overflow |= drain(next, pending);
+        }
+        if (overflow) {
+          pending.addAll(current.get().names());
+          try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.json")) {
+            for (Path file : files) pending.add(file.getFileName().toString());
+          } catch (IOException e) {
+            Log.warn("Failed to rescan " + dir + ": " + e.getMessage());
+          }
+        }
+        for (String fileName : pending) {
+          reload(fileName);
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      // store closed
+    }
+  }
+
+  /** Collects changed file names from {@code key}; returns true if events were lost. */
+  private static boolean drain(WatchKey key, Set<String> pending) {
+    boolean overflow = false;
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+        overflow = true;
+        continue;
+      }
+      String name = event.context().toString();
+      if (name.endsWith(".json")) pending.add(name);
+    }
+    key.reset();
+    return overflow;
+  }
+}
@@ -0,0 +1,47 @@
+package src.ranking;
+
+import java.util.Locale;
+
+/**
+ * How a group's per-member scores for one place combine into the group's score. Member scores are
+ * normalized to the fraction of their own preferences the place satisfies, so every member has the
+ * same say.
+ */
+public enum Aggregation {
+  /** The mean: what the group as a whole likes best. */
+  AVERAGE {
+    @Override
+    public double combine(double[] memberScores) {
+      double sum = 0;
+      for (double s : memberScores) sum += s;
+      return memberScores.length == 0 ? 0 : sum / memberScores.length;
+    }
+  },
+  /** The minimum: nobody is left with a place that matches none of their preferences. */
+  LEAST_MISERY {
+    @Override
+    public double combine(double[] memberScores) {
+      if (memberScores.length == 0) return 0;
+      double min = Double.POSITIVE_INFINITY;
+      for (double s : memberScores) min = Math.min(min, s);
+      return min;
+    }
+  };
+
+  public abstract double combine(double[] memberScores);
+
+  /**
+   * Parses {@code average} or {@code least_misery} (case-insensitive, {@code -} for {@code _});
+   * null or blank means {@link #AVERAGE}.
+   *
+   * @throws IllegalArgumentException for anything else
+   */
+  public static Aggregation parse(String value) {
+    if (value == null || value.isBlank()) return AVERAGE;
+    try {
+      return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("aggregate must be \"average\" or \"least_misery\"");
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package src.ranking;
+
+import java.util.Locale;
+
+/**
+ * A bonus for being close: {@code weight} at distance 0, half of it at {@code halfDistance}, and
+ * fading further out along the {@link Kernel}'s curve. Distance-aware ranking adds it to the
+ * keyword score, so with the default weight (one keyword's worth) a place next door beats an equal
+ * match across town, but a place matching more keywords still wins.
+ *
+ * <p>{@link #bonuses} works on a whole candidate batch at once: one pass over a {@code double[]}
+ * with no per-element allocation or branching beyond the kernel, which the JIT can unroll and (for
+ * {@link Kernel#RECIPROCAL}) vectorize. Immutable.
+ */
+public final class DistanceDecay {
+
+  /** Distance at which the bonus is halved, unless a request says otherwise. */
+  public static final double DEFAULT_HALF_DISTANCE_METERS = 500;
+
+  /** Bonus at distance 0, in keyword-score units: one keyword at the default weight. */
+  public static final double DEFAULT_WEIGHT = 5;
+
+  /** Shape of the decay; each is exactly 1/2 at the half distance. */
+  public enum Kernel {
+    /** {@code 2^(-d/h)}: steady fall-off, long tail. */
+    EXPONENTIAL,
+    /** {@code 2^(-(d/h)^2)}: flat near the user, then drops quickly. */
+    GAUSSIAN,
+    /** {@code 1/(1 + d/h)}: heavy tail; no exp, the cheapest to compute. */
+    RECIPROCAL;
+
+    /**
+     * Parses a kernel name, case-insensitively; null or blank means {@link #EXPONENTIAL}.
+     *
+     * @throws IllegalArgumentException for an unknown name
+     */
+    public static Kernel parse(String value) {
+      if (value == null || value.isBlank()) return EXPONENTIAL;
+      try {
+        return valueOf(value.trim().toUpperCase(Locale.ROOT));
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            "decay must be \"exponential\", \"gaussian\" or \"reciprocal\"");
+      }
+    }
+  }
+
+  private static final double LN2 = Math.log(2);
+
+  private final Kernel kernel;
+  private final double halfDistance;
+  private final double weight;
+
+  /**
+   * @param halfDistance meters at which the bonus is {@code weight / 2}; positive
+   * @param weight bonus at distance 0; non-negative
+   */
+  public DistanceDecay(Kernel kernel, double halfDistance, double weight) {
+    if (!(halfDistance > 0) || Double.isInfinite(halfDistance)) {
+      throw new IllegalArgumentException("half distance must be a positive number of meters");
+    }
+    if (!(weight >= 0) || Double.isInfinite(weight)) {
+      throw new IllegalArgumentException("distance weight must be a non-negative number");
+    }
+    this.kernel = kernel;
+    this.halfDistance = halfDistance;
+    this.weight = weight;
+  }
+
+  /** Exponential decay with the default half distance and weight. */
+  public static DistanceDecay defaults() {
+    return new DistanceDecay(Kernel.EXPONENTIAL, DEFAULT_HALF_DISTANCE_METERS, DEFAULT_WEIGHT);
+  }
+
+  /** The bonus for one distance; 0 if the distance is unknown (NaN). */
+  public double bonus(double meters) {
+    if (!(meters >= 0)) return 0;
+    switch (kernel) {
+      case GAUSSIAN:
+        double x = meters / halfDistance;
+        return weight * Math.exp(-LN2 * x * x);
+      case RECIPROCAL:
+        return weight / (1 + meters / halfDistance);
+      default:
+        return weight * Math.exp(-LN2 * meters / halfDistance);
+    }
+  }
+
+  /**
+   * {@link #bonus} for the first {@code n} distances of {@code meters}, into {@code out} (which may
+   * be {@code meters} itself). Unknown (NaN) or negative distances get 0.
+   */
+  public void bonuses(double[] meters, int n, double[] out) {
+    // one tight loop per kernel, hoisted out of the loop body
+    switch (kernel) {
+      case GAUSSIAN:
+        {
+          double k = -LN2 / (halfDistance * halfDistance);
+          for (int i = 0; i < n; i++) {
+            double d = meters[i];
+            out[i] = d >= 0 ? weight * Math.exp(k * d * d) : 0;
+          }
+          break;
+        }
+      case RECIPROCAL:
+        {
+          double inverse = 1 / halfDistance;
+          for (int i = 0; i < n; i++) {
+            double d = meters[i];
+            out[i] = d >= 0 ? weight / (1 + d * inverse) : 0;
+          }
+          break;
+        }
+      default:
+        {
+          double k = -LN2 / halfDistance;
+          for (int i = 0; i < n; i++) {
+            double d = meters[i];
+            out[i] = d >= 0 ? weight * Math.exp(k * d) : 0;
+          }
+        }
+    }
+  }
+
+  public Kernel kernel() {
+    return kernel;
+  }
+
+  public double halfDistance() {
+    return halfDistance;
+  }
+
+  public double weight() {
+    return weight;
+  }
+
+  /** {@code kernel:halfDistance:weight}; equal settings give equal strings (for cache keys). */
+  @Override
+  public String toString() {
+    return kernel.name().toLowerCase(Locale.ROOT) + ":" + halfDistance + ":" + weight;
+  }
+}
@@ -0,0 +1,241 @@
+package src.ranking;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import models.Preference;
+
+/**
+ * Scores text against a list of weighted keywords in a single pass. The preferences are compiled
+ * once into an Aho-Corasick automaton over case-folded characters. {@link #score} then walks each
+ * description once, whatever the number of keywords, and adds a preference's weight at most once
+ * per text (the same rule as {@code desc.contains(keyword)}).
+ *
+ * <p>A compiled scorer keeps a little scratch state between calls, so it is not thread-safe:
+ * compile one per request (or per thread).
+ */
+public final class KeywordScorer {
+
+  /** How a keyword has to appear in the text to count. */
+  public enum MatchMode {
+    /** Anywhere, like {@code String.contains}; " walk" still needs the leading space. */
+    SUBSTRING,
+    /** Bounded by non-letter/digit characters (or the ends of the text); keywords are trimmed. */
+    WHOLE_WORD
+  }
+
+  private static final int ROOT = 0;
+
+  private final MatchMode mode;
+  private final int alphabetSize; // column 0 is "a character no keyword uses"
+  private final int[] asciiColumn; // folded ASCII char -> column
+  private final char[] otherChars; // sorted folded non-ASCII chars
+  private final int[] otherColumns; // column of otherChars[i]
+  private final int[] transitions; // state * alphabetSize + column -> next state
+  private final int[][] outputs; // state -> patterns ending here (incl. via failure links)
+  private final int[] patternLength;
+  private final int[] patternWeight;
+  private final int alwaysMatched; // summed weight of empty keywords
+  private final int[] seenAt; // scratch: pattern -> call that last counted it
+  private int call;
+
+  private KeywordScorer(
+      MatchMode mode,
+      int alphabetSize,
+      int[] asciiColumn,
+      char[] otherChars,
+      int[] otherColumns,
+      int[] transitions,
+      int[][] outputs,
+      int[] patternLength,
+      int[] patternWeight,
+      int alwaysMatched) {
+    this.mode = mode;
+    this.alphabetSize = alphabetSize;
+    this.asciiColumn = asciiColumn;
+    this.otherChars = otherChars;
+    this.otherColumns = otherColumns;
+    this.transitions = transitions;
+    this.outputs = outputs;
+    this.patternLength = patternLength;
+    this.patternWeight = patternWeight;
+    this.alwaysMatched = alwaysMatched;
+    this.seenAt = new int[patternLength.length];
+  }
+
+  public static KeywordScorer compile(List<Preference> prefs) {
+    return compile(prefs, MatchMode.SUBSTRING);
+  }
+
+  /**
+   * Builds the automaton for {@code prefs}. Keywords that fold to the same text are merged and
+   * their weights summed, so each still counts once per match.
+   */
+  public static KeywordScorer compile(List<Preference> prefs, MatchMode mode) {
+    Map<String, Integer> weights = new LinkedHashMap<>();
+    int alwaysMatched = 0;
+    for (Preference p : prefs) {
+      if (p.keyword == null) continue;
+      String folded = fold(mode == MatchMode.WHOLE_WORD ? p.keyword.trim() : p.keyword);
+      if (folded.isEmpty()) {
+        if (mode == MatchMode.SUBSTRING) alwaysMatched += p.weight; // "".contains("") is true
+        continue;
+      }
+      weights.merge(folded, p.weight, Integer::sum);
+    }
+    String[] patterns = weights.keySet().toArray(new String[0]);
+
+    // compress the alphabet to the characters the keywords actually use
+    int[] asciiColumn = new int[128];
+    TreeSet<Character> others = new TreeSet<>();
+    int alphabetSize = 1;
+    for (String pattern : patterns) {
+      for (int i = 0; i < pattern.length(); i++) {
+        char c = pattern.charAt(i);
+        if (c >= 128) {
+          others.add(c);
+        } else if (asciiColumn[c] == 0) {
+          asciiColumn[c] = alphabetSize++;
+        }
+      }
+    }
+    char[] otherChars = new char[others.size()];
+    int[] otherColumns = new int[others.size()];
+    int o = 0;
+    for (char c : others) {
+      otherChars[o] = c;
+      otherColumns[o++] = alphabetSize++;
+    }
+
+    // trie
+    List<int[]> trie = new ArrayList<>();
+    List<List<Integer>> own = new ArrayList<>();
+    trie.add(new int[alphabetSize]);
+    own.add(new ArrayList<>());
+    int[] patternLength = new int[patterns.length];
+    int[] patternWeight = new int[patterns.length];
+    for (int p = 0; p < patterns.length; p++) {
+      String pattern = patterns[p];
+      int state = ROOT;
+      for (int i = 0; i < pattern.length(); i++) {
+        int col = column(pattern.charAt(i), asciiColumn, otherChars, otherColumns);
+        if (trie.get(state)[col] == 0) {
+          trie.get(state)[col] = trie.size();
+          trie.add(new int[alphabetSize]);
+          own.add(new ArrayList<>());
+        }
+        state = trie.get(state)[col];
+      }
+      own.get(state).add(p);
+      patternLength[p] = pattern.length();
+      patternWeight[p] = weights.get(pattern);
+    }
+
+    // breadth-first: failure links, then fill missing edges so the trie becomes a DFA
+    int states = trie.size();
+    int[] transitions = new int[states * alphabetSize];
+    int[] fail = new int[states];
+    int[][] outputs = new int[states][];
+    outputs[ROOT] = new int[0];
+    ArrayDeque<Integer> queue = new ArrayDeque<>();
+    for (int col = 0; col < alphabetSize; col++) {
+      int next = trie.get(ROOT)[col];
+      transitions[col] = next;
+      if (next != 0) {
+        fail[next] = ROOT;
+        queue.add(next);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.poll();
+      int[] inherited = outputs[fail[state]];
+      List<Integer> mine = own.get(state);
+      int[] out = Arrays.copyOf(inherited, inherited.length + mine.size());
+      for (int i = 0; i < mine.size(); i++) out[inherited.length + i] = mine.get(i);
+      outputs[state] = out;
+
+      for (int col = 0; col < alphabetSize; col++) {
+        int next = trie.get(state)[col];
+        int viaFail = transitions[fail[state] * alphabetSize + col];
+        if (next != 0) {
+          fail[next] = viaFail;
+          transitions[state * alphabetSize + col] = next;
+          queue.add(next);
+        } else {
+          transitions[state * alphabetSize + col] = viaFail;
+        }
+      }
+    }
+
+    return new KeywordScorer(
+        mode,
+        alphabetSize,
+        asciiColumn,
+        otherChars,
+        otherColumns,
+        transitions,
+        outputs,
+        patternLength,
+        patternWeight,
+        alwaysMatched);
+  }
+
+  /** Sum of the weights of the keywords found in {@code text}; null counts as empty. */
+  public int score(CharSequence text) {
+    int score = alwaysMatched;
+    if (text == null || patternLength.length == 0) return score;
+    if (++call == 0) { // wrapped around; forget old stamps
+      Arrays.fill(seenAt, 0);
+      call = 1;
+    }
+
+    int state = ROOT;
+    int n = text.length();
+    for (int i = 0; i < n; i++) {
+      state = transitions[state * alphabetSize + column(fold(text.charAt(i)))];
+      int[] out = outputs[state];
+      for (int k = 0; k < out.length; k++) {
+        int p = out[k];
+        if (seenAt[p] == call) continue;
+        if (mode == MatchMode.WHOLE_WORD && !isWholeWord(text, i - patternLength[p] + 1, i + 1)) {
+          continue;
+        }
+        seenAt[p] = call;
+        score += patternWeight[p];
+      }
+    }
+    return score;
+  }
+
+  private int column(char folded) {
+    return column(folded, asciiColumn, otherChars, otherColumns);
+  }
+
+  private static int column(char folded, int[] asciiColumn, char[] otherChars, int[] otherCols) {
+    if (folded < 128) return asciiColumn[folded];
+    int i = Arrays.binarySearch(otherChars, folded);
+    return i < 0 ? 0 : otherCols[i];
+  }
+
+  private static boolean isWholeWord(CharSequence text, int start, int end) {
+    return (start == 0 || !Character.isLetterOrDigit(text.charAt(start - 1)))
+        && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)));
+  }
+
+  private static char fold(char c) {
+    if (c < 128) {
+      return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+    return Character.toLowerCase(c);
+  }
+
+  private static String fold(String s) {
+    StringBuilder folded = new StringBuilder(s.length());
+    for (int i = 0; i < s.length(); i++) folded.append(fold(s.charAt(i)));
+    return folded.toString();
+  }
+}
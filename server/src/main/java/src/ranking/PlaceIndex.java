@@ -0,0 +1,414 @@
+package src.ranking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import models.PlaceResult;
+import models.Preference;
+
+/**
+ * An inverted index over place names and descriptions, scored with BM25F. Built once per candidate
+ * set; a query only touches the postings of its own terms, so its cost follows the number of
+ * matches rather than the number of places. When one place of the set changes, {@link #with} and
+ * {@link #without} derive the updated index without indexing the others again.
+ *
+ * <p>Immutable after construction and safe to share between threads.
+ */
+public final class PlaceIndex {
+
+  /** Term-frequency saturation. */
+  public static final double K1 = 1.2;
+
+  /** Length normalization. */
+  public static final double B = 0.75;
+
+  /** A name hit counts this many times more than a description hit. */
+  public static final double NAME_BOOST = 2.0;
+
+  /** One place that matched a query. */
+  public static final class Hit {
+    public final int doc;
+    public final double score;
+
+    Hit(int doc, double score) {
+      this.doc = doc;
+      this.score = score;
+    }
+  }
+
+  private static final class Postings {
+    final int[] docs;
+    final int[] nameTf;
+    final int[] descTf;
+
+    Postings(int[] docs, int[] nameTf, int[] descTf) {
+      this.docs = docs;
+      this.nameTf = nameTf;
+      this.descTf = descTf;
+    }
+
+    /** These postings without {@code doc}'s, or null if it was the only document left. */
+    Postings without(int doc) {
+      int n = docs.length;
+      int at = 0;
+      while (at < n && docs[at] != doc) at++;
+      if (at == n) return this;
+      if (n == 1) return null;
+      return new Postings(remove(docs, at), remove(nameTf, at), remove(descTf, at));
+    }
+
+    /** These postings followed by {@code more}'s. */
+    Postings plus(Postings more) {
+      return new Postings(
+          concat(docs, more.docs), concat(nameTf, more.nameTf), concat(descTf, more.descTf));
+    }
+
+    private static int[] remove(int[] values, int at) {
+      int[] rest = new int[values.length - 1];
+      System.arraycopy(values, 0, rest, 0, at);
+      System.arraycopy(values, at + 1, rest, at, rest.length - at);
+      return rest;
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+      int[] both = Arrays.copyOf(a, a.length + b.length);
+      System.arraycopy(b, 0, both, a.length, b.length);
+      return both;
+    }
+  }
+
+  private static final class PostingsBuilder {
+    int[] docs = new int[4];
+    int[] nameTf = new int[4];
+    int[] descTf = new int[4];
+    int size;
+
+    void add(int doc, int inName, int inDesc) {
+      if (size == docs.length) {
+        docs = Arrays.copyOf(docs, size * 2);
+        nameTf = Arrays.copyOf(nameTf, size * 2);
+        descTf = Arrays.copyOf(descTf, size * 2);
+      }
+      docs[size] = doc;
+      nameTf[size] = inName;
+      descTf[size] = inDesc;
+      size++;
+    }
+
+    Postings build() {
+      return new Postings(
+          Arrays.copyOf(docs, size), Arrays.copyOf(nameTf, size), Arrays.copyOf(descTf, size));
+    }
+  }
+
+  private static final String[] NO_TERMS = {};
+
+  private final List<PlaceResult> places;
+  private final Map<String, Postings> postings;
+  private final int[] nameLength;
+  private final int[] descLength;
+  private final long totalNameLength;
+  private final long totalDescLength;
+  private final double avgNameLength;
+  private final double avgDescLength;
+  private final double[] rating;
+  private final String[][] terms; // each document's distinct terms, to update its postings
+  private final boolean[] indexed; // false once removed by without()
+  private final int documents; // indexed documents; the collection size BM25 sees
+
+  private PlaceIndex(
+      List<PlaceResult> places,
+      Map<String, Postings> postings,
+      int[] nameLength,
+      int[] descLength,
+      long totalNameLength,
+      long totalDescLength,
+      double[] rating,
+      String[][] terms,
+      boolean[] indexed,
+      int documents) {
+    this.places = places;
+    this.postings = postings;
+    this.nameLength = nameLength;
+    this.descLength = descLength;
+    this.totalNameLength = totalNameLength;
+    this.totalDescLength = totalDescLength;
+    this.avgNameLength = documents == 0 ? 0 : (double) totalNameLength / documents;
+    this.avgDescLength = documents == 0 ? 0 : (double) totalDescLength / documents;
+    this.rating = rating;
+    this.terms = terms;
+    this.indexed = indexed;
+    this.documents = documents;
+  }
+
+  /** Indexes a snapshot of {@code places}; document ids are positions in that list. */
+  public static PlaceIndex build(List<PlaceResult> places) {
+    int n = places.size();
+    String[] names = new String[n];
+    String[] descriptions = new String[n];
+    double[] ratings = new double[n];
+    for (int i = 0; i < n; i++) {
+      PlaceResult place = places.get(i);
+      names[i] = place.name;
+      descriptions[i] = place.description;
+      ratings[i] = place.rating;
+    }
+    return build(
+        Collections.unmodifiableList(new ArrayList<>(places)), names, descriptions, ratings);
+  }
+
+  /**
+   * Indexes column data; document ids are array positions. The index keeps no place objects, so
+   * {@link #place} is unavailable and callers map hits back to rows themselves.
+   */
+  public static PlaceIndex build(String[] names, String[] descriptions, double[] ratings) {
+    return build(null, names, descriptions, ratings);
+  }
+
+  private static PlaceIndex build(
+      List<PlaceResult> places, String[] names, String[] descriptions, double[] ratings) {
+    int n = ratings.length;
+    int[] nameLength = new int[n];
+    int[] descLength = new int[n];
+    String[][] terms = new String[n][];
+    boolean[] indexed = new boolean[n];
+    Map<String, PostingsBuilder> building = new HashMap<>();
+    long totalName = 0;
+    long totalDesc = 0;
+
+    for (int doc = 0; doc < n; doc++) {
+      List<String> nameTerms = tokenize(names[doc]);
+      List<String> descTerms = tokenize(descriptions[doc]);
+      Map<String, int[]> tf = termFrequencies(nameTerms, descTerms);
+      nameLength[doc] = nameTerms.size();
+      descLength[doc] = descTerms.size();
+      totalName += nameTerms.size();
+      totalDesc += descTerms.size();
+      terms[doc] = tf.keySet().toArray(NO_TERMS);
+      indexed[doc] = true;
+
+      for (Map.Entry<String, int[]> e : tf.entrySet()) {
+        building
+            .computeIfAbsent(e.getKey(), k -> new PostingsBuilder())
+            .add(doc, e.getValue()[0], e.getValue()[1]);
+      }
+    }
+
+    Map<String, Postings> postings = new HashMap<>(building.size() * 2);
+    for (Map.Entry<String, PostingsBuilder> e : building.entrySet()) {
+      postings.put(e.getKey(), e.getValue().build());
+    }
+
+    return new PlaceIndex(
+        places,
+        postings,
+        nameLength,
+        descLength,
+        totalName,
+        totalDesc,
+        ratings.clone(),
+        terms,
+        indexed,
+        n);
+  }
+
+  /** term -> {times in the name, times in the description} */
+  private static Map<String, int[]> termFrequencies(
+      List<String> nameTerms, List<String> descTerms) {
+    Map<String, int[]> tf = new HashMap<>();
+    for (String t : nameTerms) tf.computeIfAbsent(t, k -> new int[2])[0]++;
+    for (String t : descTerms) tf.computeIfAbsent(t, k -> new int[2])[1]++;
+    return tf;
+  }
+
+  /**
+   * This index with document {@code doc} indexed again from new column values, for example once a
+   * place's details arrive; a document removed by {@link #without} is added back. Only the postings
+   * of the terms it had or now has are rebuilt. Like an index built from columns, the result holds
+   * no places.
+   */
+  public PlaceIndex with(int doc, String name, String description, double rating) {
+    List<String> nameTerms = tokenize(name);
+    List<String> descTerms = tokenize(description);
+    Map<String, int[]> tf = termFrequencies(nameTerms, descTerms);
+    Map<String, Postings> next = withoutPostings(doc);
+    for (Map.Entry<String, int[]> e : tf.entrySet()) {
+      Postings one =
+          new Postings(new int[] {doc}, new int[] {e.getValue()[0]}, new int[] {e.getValue()[1]});
+      next.merge(e.getKey(), one, Postings::plus);
+    }
+    return updated(
+        doc, next, nameTerms.size(), descTerms.size(), rating, tf.keySet().toArray(NO_TERMS), true);
+  }
+
+  /**
+   * This index without document {@code doc}: it matches nothing and no longer counts towards the
+   * collection's size or average lengths, as if it had never been indexed. The other documents keep
+   * their ids. Like an index built from columns, the result holds no places.
+   */
+  public PlaceIndex without(int doc) {
+    return updated(doc, withoutPostings(doc), 0, 0, rating[doc], NO_TERMS, false);
+  }
+
+  /** A copy of the postings with {@code doc} taken out of each of its terms' lists. */
+  private Map<String, Postings> withoutPostings(int doc) {
+    Map<String, Postings> next = new HashMap<>(postings);
+    for (String term : terms[doc]) next.computeIfPresent(term, (t, p) -> p.without(doc));
+    return next;
+  }
+
+  private PlaceIndex updated(
+      int doc,
+      Map<String, Postings> next,
+      int docNameLength,
+      int docDescLength,
+      double docRating,
+      String[] docTerms,
+      boolean docIndexed) {
+    int[] names = nameLength.clone();
+    int[] descriptions = descLength.clone();
+    double[] ratings = rating.clone();
+    String[][] allTerms = terms.clone();
+    boolean[] inIndex = indexed.clone();
+    long totalName = totalNameLength - names[doc] + docNameLength;
+    long totalDesc = totalDescLength - descriptions[doc] + docDescLength;
+    int count = documents - (indexed[doc] ? 1 : 0) + (docIndexed ? 1 : 0);
+    names[doc] = docNameLength;
+    descriptions[doc] = docDescLength;
+    ratings[doc] = docRating;
+    allTerms[doc] = docTerms;
+    inIndex[doc] = docIndexed;
+    return new PlaceIndex(
+        null, next, names, descriptions, totalName, totalDesc, ratings, allTerms, inIndex, count);
+  }
+
+  /** The range of document ids, including any removed by {@link #without}. */
+  public int size() {
+    return rating.length;
+  }
+
+  /**
+   * The indexed place with document id {@code doc}.
+   *
+   * @throws IllegalStateException if the index was built from columns
+   */
+  public PlaceResult place(int doc) {
+    if (places == null) {
+      throw new IllegalStateException("index was built from columns and holds no places");
+    }
+    return places.get(doc);
+  }
+
+  /** Number of places containing {@code term} (after tokenizing). */
+  public int documentFrequency(String term) {
+    Postings p = postings.get(term);
+    return p == null ? 0 : p.docs.length;
+  }
+
+  /** The best hits of a query, plus how many places matched in total. */
+  public static final class SearchResult {
+    public final List<Hit> hits;
+    public final int total;
+
+    SearchResult(List<Hit> hits, int total) {
+      this.hits = hits;
+      this.total = total;
+    }
+  }
+
+  /** All hits of {@link #search(List, int)}, best first. */
+  public List<Hit> search(List<Preference> prefs) {
+    return search(prefs, Integer.MAX_VALUE).hits;
+  }
+
+  /**
+   * Scores every place that matches at least one preference term and keeps the best {@code k}. A
+   * preference contributes its weight times the BM25F score of each of its terms, so negative
+   * weights push places down. Hits are ordered by score desc, then rating desc, then document id.
+   */
+  public SearchResult search(List<Preference> prefs, int k) {
+    return search(prefs, k, null);
+  }
+
+  /**
+   * {@link #search(List, int)} over only the places {@code include} accepts (all if null), e.g.
+   * those within a radius; {@code total} counts the accepted matches.
+   */
+  public SearchResult search(List<Preference> prefs, int k, IntPredicate include) {
+    Map<String, Double> termWeights = new HashMap<>();
+    for (Preference p : prefs) {
+      if (p.keyword == null) continue;
+      for (String term : tokenize(p.keyword)) {
+        termWeights.merge(term, (double) p.weight, Double::sum);
+      }
+    }
+
+    Map<Integer, double[]> scores = new HashMap<>();
+    int n = documents;
+    for (Map.Entry<String, Double> e : termWeights.entrySet()) {
+      Postings p = postings.get(e.getKey());
+      if (p == null) continue;
+      int df = p.docs.length;
+      double idf = Math.log(1 + (n - df + 0.5) / (df + 0.5));
+      for (int i = 0; i < df; i++) {
+        int doc = p.docs[i];
+        if (include != null && !include.test(doc)) continue;
+        double tf =
+            NAME_BOOST * p.nameTf[i] / lengthNorm(nameLength[doc], avgNameLength)
+                + p.descTf[i] / lengthNorm(descLength[doc], avgDescLength);
+        double bm25 = idf * tf * (K1 + 1) / (tf + K1);
+        scores.computeIfAbsent(doc, d -> new double[1])[0] += e.getValue() * bm25;
+      }
+    }
+
+    int matched = scores.size();
+    int[] docs = new int[matched];
+    double[] docScores = new double[matched];
+    int m = 0;
+    for (Map.Entry<Integer, double[]> e : scores.entrySet()) {
+      docs[m] = e.getKey();
+      docScores[m++] = e.getValue()[0];
+    }
+    int[] best =
+        TopK.select(
+            matched,
+            k,
+            (a, b) -> {
+              if (docScores[a] != docScores[b]) return Double.compare(docScores[b], docScores[a]);
+              double ra = rating[docs[a]], rb = rating[docs[b]];
+              if (ra != rb) return Double.compare(rb, ra);
+              return Integer.compare(docs[a], docs[b]);
+            });
+
+    List<Hit> hits = new ArrayList<>(best.length);
+    for (int i : best) {
+      hits.add(new Hit(docs[i], docScores[i]));
+    }
+    return new SearchResult(hits, matched);
+  }
+
+  private static double lengthNorm(int length, double avgLength) {
+    return avgLength == 0 ? 1 : 1 - B + B * length / avgLength;
+  }
+
+  /** Lower-cased runs of letters and digits. */
+  static List<String> tokenize(String text) {
+    List<String> terms = new ArrayList<>();
+    if (text == null) return terms;
+    StringBuilder term = new StringBuilder();
+    for (int i = 0; i <= text.length(); i++) {
+      char c = i < text.length() ? text.charAt(i) : ' ';
+      if (Character.isLetterOrDigit(c)) {
+        term.append(Character.toLowerCase(c));
+      } else if (term.length() > 0) {
+        terms.add(term.toString());
+        term.setLength(0);
+      }
+    }
+    return terms;
+  }
+}
@@ -0,0 +1,69 @@
+package src.ranking;
+
+/**
+ * Bounded-heap selection of the best {@code k} of {@code n} items, identified by index. Runs in O(n
+ * log k) time and O(k) space, so ranking a page never sorts the whole candidate set.
+ */
+public final class TopK {
+
+  /** Orders item indices; negative means {@code a} ranks before {@code b}. */
+  public interface IndexOrder {
+    int compare(int a, int b);
+  }
+
+  private TopK() {}
+
+  /**
+   * Returns the indices of the best {@code min(k, n)} items, best first. The order must be total
+   * (break ties on the index) for pages to be stable.
+   */
+  public static int[] select(int n, int k, IndexOrder order) {
+    int size = Math.max(0, Math.min(k, n));
+    int[] heap = new int[size]; // max-heap on "worst kept" at heap[0]
+    if (size == 0) return heap;
+
+    int kept = 0;
+    for (int i = 0; i < n; i++) {
+      if (kept < size) {
+        heap[kept] = i;
+        siftUp(heap, kept++, order);
+      } else if (order.compare(i, heap[0]) < 0) {
+        heap[0] = i;
+        siftDown(heap, 0, size, order);
+      }
+    }
+
+    // pop the worst to the back until the heap is empty: best first
+    for (int end = size - 1; end > 0; end--) {
+      int worst = heap[0];
+      heap[0] = heap[end];
+      heap[end] = worst;
+      siftDown(heap, 0, end, order);
+    }
+    return heap;
+  }
+
+  private static void siftUp(int[] heap, int pos, IndexOrder order) {
+    int item = heap[pos];
+    while (pos > 0) {
+      int parent = (pos - 1) >>> 1;
+      if (order.compare(item, heap[parent]) <= 0) break;
+      heap[pos] = heap[parent];
+      pos = parent;
+    }
+    heap[pos] = item;
+  }
+
+  private static void siftDown(int[] heap, int pos, int size, IndexOrder order) {
+    int item = heap[pos];
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= size) break;
+      if (child + 1 < size && order.compare(heap[child + 1], heap[child]) > 0) child++;
+      if (order.compare(heap[child], item) <= 0) break;
+      heap[pos] = heap[child];
+      pos = child;
+    }
+    heap[pos] = item;
+  }
+}
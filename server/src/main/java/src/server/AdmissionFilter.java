@@ -0,0 +1,123 @@
+package src.server;
+
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission control for an {@code HttpContext}. At most {@code maxInFlight} requests run at once;
+ * up to {@code maxQueued} more wait (for at most {@code queueTimeout}) for a slot, and everything
+ * beyond that is turned away immediately with 503 and a {@code Retry-After} header. So is a request
+ * the executor itself had no room for (see {@link RequestExecutors#shedding}).
+ *
+ * <p>Each admitted request gets a {@link RequestDeadline} of {@code requestTimeout} counted from
+ * its arrival, so time spent queued comes out of its budget.
+ */
+public class AdmissionFilter extends Filter {
+  private final int maxInFlight;
+  private final Semaphore slots;
+  private final int maxQueued;
+  private final Duration queueTimeout;
+  private final Duration requestTimeout;
+  private final long retryAfterSeconds;
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicLong admitted = new AtomicLong();
+  private final AtomicLong rejected = new AtomicLong();
+
+  /**
+   * @param maxInFlight requests handled concurrently (at least 1)
+   * @param maxQueued requests allowed to wait for a slot (0 rejects as soon as all slots are busy)
+   * @param queueTimeout longest a request waits for a slot before it is rejected
+   * @param requestTimeout deadline for a request, from arrival
+   * @param retryAfter value of the {@code Retry-After} header on rejections
+   */
+  public AdmissionFilter(
+      int maxInFlight,
+      int maxQueued,
+      Duration queueTimeout,
+      Duration requestTimeout,
+      Duration retryAfter) {
+    if (maxInFlight < 1) throw new IllegalArgumentException("maxInFlight must be at least 1");
+    if (maxQueued < 0) throw new IllegalArgumentException("maxQueued must not be negative");
+    this.maxInFlight = maxInFlight;
+    this.slots = new Semaphore(maxInFlight, true); // queued requests are served in order
+    this.maxQueued = maxQueued;
+    this.queueTimeout = queueTimeout;
+    this.requestTimeout = requestTimeout;
+    this.retryAfterSeconds = Math.max(1, retryAfter.toSeconds());
+  }
+
+  @Override
+  public void doFilter(HttpExchange exchange, Chain chain) throws IOException {
+    long arrival = System.nanoTime();
+    if (RequestExecutors.shedding() || !acquire()) {
+      rejected.incrementAndGet();
+      reject(exchange);
+      return;
+    }
+    admitted.incrementAndGet();
+    RequestDeadline.set(arrival + requestTimeout.toNanos());
+    try {
+      chain.doFilter(exchange);
+    } finally {
+      RequestDeadline.clear();
+      slots.release();
+    }
+  }
+
+  private boolean acquire() {
+    if (slots.tryAcquire()) return true;
+    if (queued.incrementAndGet() > maxQueued) {
+      queued.decrementAndGet();
+      return false;
+    }
+    try {
+      return slots.tryAcquire(queueTimeout.toNanos(), TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    } finally {
+      queued.decrementAndGet();
+    }
+  }
+
+  private void reject(HttpExchange exchange) throws IOException {
+    byte[] body = "{\"error\":\"server is busy\"}".getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.getResponseHeaders().set("Retry-After", Long.toString(retryAfterSeconds));
+    exchange.sendResponseHeaders(503, body.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body);
+    }
+  }
+
+  /** Requests currently running. */
+  public int inFlight() {
+    return maxInFlight - slots.availablePermits();
+  }
+
+  /** Requests currently waiting for a slot. */
+  public int queued() {
+    return queued.get();
+  }
+
+  public long admittedCount() {
+    return admitted.get();
+  }
+
+  public long rejectedCount() {
+    return rejected.get();
+  }
+
+  @Override
+  public String description() {
+    return "admission control (" + maxInFlight + " in flight, " + maxQueued + " queued)";
+  }
+}
@@ -0,0 +1,53 @@
+package src.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * A Server-Sent Events response ({@code text/event-stream}): headers go out on {@link #open}, then
+ * each {@link #send} writes one event and flushes it, so the client sees it at once. Not
+ * compressed, since a compressor would hold events back until its buffer fills.
+ */
+public final class EventStream implements AutoCloseable {
+
+  /** Whether the request asked for an event stream, as {@code EventSource} does. */
+  public static boolean accepts(HttpExchange exchange) {
+    String accept = exchange.getRequestHeaders().getFirst("Accept");
+    return accept != null && accept.toLowerCase(Locale.ROOT).contains("text/event-stream");
+  }
+
+  private final OutputStream out;
+
+  private EventStream(OutputStream out) {
+    this.out = out;
+  }
+
+  /** Sends the 200 and the stream headers; the body is chunked and ends on {@link #close}. */
+  public static EventStream open(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=UTF-8");
+    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    exchange.getResponseHeaders().set("X-Accel-Buffering", "no"); // keep proxies from buffering
+    exchange.sendResponseHeaders(200, 0);
+    return new EventStream(exchange.getResponseBody());
+  }
+
+  /** Writes one event named {@code event}; every line of {@code data} becomes a data line. */
+  public void send(String event, String data) throws IOException {
+    StringBuilder frame = new StringBuilder(data.length() + event.length() + 16);
+    frame.append("event: ").append(event).append('\n');
+    for (String line : data.split("\r\n|\r|\n", -1)) {
+      frame.append("data: ").append(line).append('\n');
+    }
+    frame.append('\n');
+    out.write(frame.toString().getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,62 @@
+package src.server;
+
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/**
+ * Level-checked logging to stdout/stderr. The level comes from {@code LOG_LEVEL} (debug, info, warn
+ * or error; info by default). Per-request messages should go through {@link #debug(Supplier)}, so
+ * that with debug off they cost one comparison: no string building and no I/O.
+ */
+public final class Log {
+
+  public enum Level {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR
+  }
+
+  private static volatile Level level = parse(System.getenv("LOG_LEVEL"));
+
+  private Log() {}
+
+  public static Level level() {
+    return level;
+  }
+
+  public static void setLevel(Level newLevel) {
+    level = newLevel;
+  }
+
+  public static boolean enabled(Level at) {
+    return at.compareTo(level) >= 0;
+  }
+
+  /** Builds and prints the message only if debug is enabled. */
+  public static void debug(Supplier<String> message) {
+    if (enabled(Level.DEBUG)) System.out.println(message.get());
+  }
+
+  public static void info(String message) {
+    if (enabled(Level.INFO)) System.out.println(message);
+  }
+
+  public static void warn(String message) {
+    if (enabled(Level.WARN)) System.err.println(message);
+  }
+
+  public static void error(String message) {
+    if (enabled(Level.ERROR)) System.err.println(message);
+  }
+
+  static Level parse(String value) {
+    if (value == null || value.isBlank()) return Level.INFO;
+    try {
+      return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      System.err.println("Ignoring invalid LOG_LEVEL " + value + "; using info");
+      return Level.INFO;
+    }
+  }
+}
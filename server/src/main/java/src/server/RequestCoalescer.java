@@ -0,0 +1,132 @@
+package src.server;
+
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import src.cache.SingleFlight;
+
+/**
+ * Lets concurrent identical requests share one computation. The first request for a key becomes the
+ * leader and computes the result; requests for the same key that arrive before it finishes become
+ * followers and wait for that result (or that failure) instead of repeating the work.
+ *
+ * <pre>{@code
+ * try (RequestCoalescer.Flight<byte[]> flight = coalescer.join(key)) {
+ *   if (flight.leader()) {
+ *     byte[] body = compute();
+ *     flight.complete(body);
+ *   } else {
+ *     byte[] body = flight.await(timeout);
+ *   }
+ * }
+ * }</pre>
+ *
+ * Closing a leader's flight without completing it fails the followers, so a leader that throws
+ * never leaves them (or later requests for the key) hanging.
+ */
+public final class RequestCoalescer<V> {
+
+  private final SingleFlight<String, V> flights = new SingleFlight<>();
+  private final AtomicLong leaders = new AtomicLong();
+  private final AtomicLong followers = new AtomicLong();
+  private final AtomicLong timeouts = new AtomicLong();
+
+  /** One request's part in a shared computation. */
+  public static final class Flight<V> implements AutoCloseable {
+    private final RequestCoalescer<V> owner;
+    private final boolean leader;
+    private final CompletableFuture<V> result; // the leader's promise, or a follower's copy
+
+    private Flight(RequestCoalescer<V> owner, boolean leader, CompletableFuture<V> result) {
+      this.owner = owner;
+      this.leader = leader;
+      this.result = result;
+    }
+
+    /** Whether this request computes the result; otherwise it should {@link #await} it. */
+    public boolean leader() {
+      return leader;
+    }
+
+    /** Hands the leader's result to every follower. */
+    public void complete(V value) {
+      result.complete(value);
+    }
+
+    /** Hands the leader's failure to every follower. */
+    public void fail(Throwable error) {
+      result.completeExceptionally(error);
+    }
+
+    /**
+     * Waits for the leader's result, at most {@code timeout} (shortened to the request's deadline).
+     *
+     * @throws HttpTimeoutException if the leader does not finish in time
+     * @throws ExecutionException with the leader's failure as its cause
+     */
+    public V await(Duration timeout)
+        throws ExecutionException, HttpTimeoutException, InterruptedException {
+      try {
+        return result.get(RequestDeadline.clamp(timeout).toNanos(), TimeUnit.NANOSECONDS);
+      } catch (TimeoutException e) {
+        owner.timeouts.incrementAndGet();
+        result.cancel(true); // a copy: the leader and the other followers carry on
+        throw new HttpTimeoutException("Timed out waiting for an identical request to finish");
+      } catch (CancellationException e) {
+        throw new ExecutionException("Identical request was cancelled", e);
+      }
+    }
+
+    /** For the leader: fails the followers if neither complete nor fail was called. */
+    @Override
+    public void close() {
+      if (leader && !result.isDone()) {
+        result.completeExceptionally(new IllegalStateException("Request ended without a result"));
+      }
+    }
+  }
+
+  /** Joins the computation for {@code key}, as its leader if none is running. */
+  public Flight<V> join(String key) {
+    CompletableFuture<V> promise = new CompletableFuture<>();
+    boolean[] lead = {false};
+    CompletableFuture<V> shared =
+        flights.run(
+            key,
+            () -> {
+              lead[0] = true;
+              return promise;
+            });
+    if (lead[0]) {
+      leaders.incrementAndGet();
+      return new Flight<>(this, true, promise);
+    }
+    followers.incrementAndGet();
+    return new Flight<>(this, false, shared);
+  }
+
+  /** Requests that computed their own result. */
+  public long leaderCount() {
+    return leaders.get();
+  }
+
+  /** Requests that shared another request's result instead of computing it. */
+  public long coalescedCount() {
+    return followers.get();
+  }
+
+  /** Followers that gave up waiting for their leader. */
+  public long timeoutCount() {
+    return timeouts.get();
+  }
+
+  /** Keys being computed right now. */
+  public int inFlightCount() {
+    return flights.inFlightCount();
+  }
+}
@@ -0,0 +1,51 @@
+package src.server;
+
+import java.time.Duration;
+
+/**
+ * The deadline of the request being handled on the current thread. {@link AdmissionFilter} sets it
+ * when a request is admitted; handlers use it to bound their upstream calls so that a request stops
+ * waiting on Google once its caller has given up.
+ *
+ * <p>Outside a request (tests, background work) no deadline is set and every timeout passes through
+ * unchanged.
+ */
+public final class RequestDeadline {
+  private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+  private static final long MIN_TIMEOUT_NANOS = 1_000_000;
+
+  private RequestDeadline() {}
+
+  /** Sets the current thread's deadline, in {@link System#nanoTime()} units. */
+  public static void set(long deadlineNanos) {
+    DEADLINE.set(deadlineNanos);
+  }
+
+  public static void clear() {
+    DEADLINE.remove();
+  }
+
+  public static boolean isSet() {
+    return DEADLINE.get() != null;
+  }
+
+  /** Nanoseconds the current request has left, never negative; Long.MAX_VALUE if unbounded. */
+  public static long remainingNanos() {
+    Long deadline = DEADLINE.get();
+    if (deadline == null) return Long.MAX_VALUE;
+    return Math.max(0, deadline - System.nanoTime());
+  }
+
+  public static boolean expired() {
+    return remainingNanos() == 0;
+  }
+
+  /**
+   * {@code timeout}, shortened to what the current request has left. Never shorter than a
+   * millisecond, since {@code HttpRequest} and friends reject zero timeouts.
+   */
+  public static Duration clamp(Duration timeout) {
+    long remaining = Math.max(MIN_TIMEOUT_NANOS, remainingNanos());
+    return remaining < timeout.toNanos() ? Duration.ofNanos(remaining) : timeout;
+  }
+}
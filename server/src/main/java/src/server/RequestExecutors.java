@@ -0,0 +1,130 @@
+package src.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Executors the HTTP server can dispatch requests on. */
+public final class RequestExecutors {
+
+  /** Which executor {@link #create} builds. */
+  public enum Mode {
+    /** One virtual thread per request (JDK 21+); blocking on Google costs no platform thread. */
+    VIRTUAL,
+    /** A fixed pool of platform threads. */
+    PLATFORM
+  }
+
+  /** Set on the thread that answers requests a full platform pool had no room for. */
+  private static final ThreadLocal<Boolean> SHEDDING = ThreadLocal.withInitial(() -> false);
+
+  private RequestExecutors() {}
+
+  /**
+   * Builds the executor for {@code mode}. If virtual threads are requested but the running JDK does
+   * not have them, falls back to a platform pool of {@code platformThreads}.
+   */
+  public static ExecutorService create(Mode mode, int platformThreads) {
+    if (mode == Mode.VIRTUAL) {
+      ExecutorService virtual = virtualThreadPerTask();
+      if (virtual != null) return virtual;
+      Log.warn(
+          "Virtual threads are not available on Java "
+              + System.getProperty("java.specification.version")
+              + ", using "
+              + platformThreads
+              + " platform threads");
+    }
+    return platformPool(platformThreads);
+  }
+
+  /**
+   * {@code Executors.newVirtualThreadPerTaskExecutor()}, looked up reflectively because the build
+   * still targets Java 11; null on JDKs without virtual threads.
+   */
+  public static ExecutorService virtualThreadPerTask() {
+    try {
+      Method factory =
+          java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Threads {@code executor} runs requests on, or -1 if there is no fixed number (virtual threads).
+   */
+  public static int threadLimit(ExecutorService executor) {
+    return executor instanceof ThreadPoolExecutor
+        ? ((ThreadPoolExecutor) executor).getMaximumPoolSize()
+        : -1;
+  }
+
+  /**
+   * True while running a request the platform pool had no room for. {@link AdmissionFilter} answers
+   * such requests with 503 without running them; contexts without the filter run as usual.
+   */
+  public static boolean shedding() {
+    return SHEDDING.get();
+  }
+
+  /**
+   * A fixed pool of {@code threads} platform threads. It does no admission control of its own.
+   * Callers must size their admission limits to leave threads spare (see {@link #threadLimit}).
+   * Then the queue only absorbs dispatch bursts. If it fills anyway, the request is handed to one
+   * spare thread that turns it away (see {@link #shedding}), never to the server's dispatcher.
+   */
+  public static ExecutorService platformPool(int threads) {
+    AtomicInteger count = new AtomicInteger();
+    ThreadFactory factory =
+        r -> {
+          Thread t = new Thread(r, "http-worker-" + count.incrementAndGet());
+          t.setDaemon(true);
+          return t;
+        };
+    return new ThreadPoolExecutor(
+        threads,
+        threads,
+        60,
+        TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(threads * 4),
+        factory,
+        shedTo(threads * 4));
+  }
+
+  /**
+   * Rejection policy for {@link #platformPool}. Aborting outright would leave the client with a
+   * closed connection and no response, since the server's dispatcher just drops a rejected
+   * exchange. Instead it goes to a single thread that only reads the request and answers 503. If
+   * that falls {@code backlog} requests behind as well, the exchange is aborted after all.
+   */
+  private static RejectedExecutionHandler shedTo(int backlog) {
+    ThreadPoolExecutor shed =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(backlog),
+            r -> {
+              Thread t =
+                  new Thread(
+                      () -> {
+                        SHEDDING.set(true);
+                        r.run();
+                      },
+                      "http-shed");
+              t.setDaemon(true);
+              return t;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    shed.allowCoreThreadTimeOut(true);
+    return (task, pool) -> shed.execute(task);
+  }
+}
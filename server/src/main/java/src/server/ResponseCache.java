@@ -0,0 +1,155 @@
+package src.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import src.cache.BoundedCache;
+import src.cache.CacheStats;
+import src.server.ResponseCompression.Encoded;
+import src.server.ResponseCompression.Encoding;
+
+/**
+ * Finished JSON responses, already encoded, keyed by a normalized request and the negotiated
+ * encoding. Each entry carries a strong {@code ETag} so clients can revalidate with {@code
+ * If-None-Match} and get a 304 instead of the body.
+ *
+ * <p>ETags differ per encoding (gzip and identity bytes are different representations), by an
+ * {@code -gzip} or {@code -deflate} suffix on the base tag. Base tags may be weak ({@link
+ * #weakEtag}); the suffix goes inside the quotes either way.
+ */
+public class ResponseCache {
+
+  /** A cached response: its representation-specific ETag and the bytes to send. */
+  public static final class Entry {
+    public final String etag;
+    public final Encoded body;
+
+    Entry(String etag, Encoded body) {
+      this.etag = etag;
+      this.body = body;
+    }
+  }
+
+  private final BoundedCache<String, Entry> entries;
+
+  /**
+   * @param maxBytes upper bound on cached body bytes
+   * @param ttl how long an entry may be served; keys that embed a data version can use a long one
+   */
+  public ResponseCache(long maxBytes, Duration ttl) {
+    this.entries =
+        new BoundedCache<>(
+            maxBytes,
+            ttl,
+            entry -> entry.body.bytes.length + 192L, // plus key, tag and entry overhead
+            System::nanoTime);
+  }
+
+  /** The cached response for {@code key} in {@code encoding}, or null. */
+  public Entry get(String key, Encoding encoding) {
+    return entries.getIfPresent(key + "|" + encoding);
+  }
+
+  /**
+   * Encodes {@code json}, caches it under {@code key} and {@code encoding} and returns the entry.
+   *
+   * @param etag the base (identity) tag, see {@link #etag}
+   */
+  public Entry put(String key, Encoding encoding, String etag, byte[] json) {
+    return put(key, encoding, etag, ResponseCompression.encode(json, encoding));
+  }
+
+  /**
+   * Caches a body that is already encoded, such as the copy a {@link
+   * ResponseCompression.RecordingStream} kept, under {@code key} and the {@code encoding} the
+   * client asked for, and returns the entry.
+   */
+  public Entry put(String key, Encoding encoding, String etag, Encoded body) {
+    Entry entry = new Entry(forEncoding(etag, encoding), body);
+    entries.put(key + "|" + encoding, entry);
+    return entry;
+  }
+
+  public CacheStats stats() {
+    return entries.stats();
+  }
+
+  /** A strong ETag derived from {@code content}: same content, same tag. */
+  public static String etag(String content) {
+    return etag(content.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /** A strong ETag derived from {@code content}: same content, same tag. */
+  public static String etag(byte[] content) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+      StringBuilder tag = new StringBuilder(34).append('"');
+      for (int i = 0; i < 16; i++) {
+        tag.append(Character.forDigit((digest[i] >> 4) & 0xf, 16));
+        tag.append(Character.forDigit(digest[i] & 0xf, 16));
+      }
+      return tag.append('"').toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is always available", e);
+    }
+  }
+
+  /**
+   * A weak ETag derived from {@code validator}, for responses that are equivalent whenever it is
+   * the same but not necessarily byte for byte.
+   */
+  public static String weakEtag(String validator) {
+    return "W/" + etag(validator);
+  }
+
+  /** The tag of the {@code encoding} representation of the response tagged {@code etag}. */
+  public static String forEncoding(String etag, Encoding encoding) {
+    if (encoding.token == null) return etag;
+    return etag.substring(0, etag.length() - 1) + "-" + encoding.token + "\"";
+  }
+
+  /**
+   * Whether an {@code If-None-Match} header value matches {@code etag}. Uses the weak comparison
+   * RFC 9110 prescribes for this header, so {@code W/"x"} and {@code "x"} match each other.
+   */
+  public static boolean matches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null || etag == null) return false;
+    if (ifNoneMatch.trim().equals("*")) return true;
+    String wanted = opaque(etag);
+    for (String candidate : ifNoneMatch.split(",")) {
+      if (opaque(candidate.trim()).equals(wanted)) return true;
+    }
+    return false;
+  }
+
+  private static String opaque(String tag) {
+    return tag.startsWith("W/") ? tag.substring(2) : tag;
+  }
+
+  /**
+   * Answers with 304 and no body if the request's {@code If-None-Match} matches {@code etag}.
+   *
+   * @return true if the response was sent
+   */
+  public static boolean sendIfNotModified(HttpExchange exchange, String etag) throws IOException {
+    if (!matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) return false;
+    exchange.getResponseHeaders().set("ETag", etag);
+    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+    exchange.sendResponseHeaders(304, -1);
+    exchange.close();
+    return true;
+  }
+
+  /** Sends a cached JSON response with its ETag. */
+  public static void send(HttpExchange exchange, Entry entry) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.getResponseHeaders().set("ETag", entry.etag);
+    // let clients keep the body but revalidate it every time
+    exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+    ResponseCompression.send(exchange, 200, entry.body);
+  }
+}
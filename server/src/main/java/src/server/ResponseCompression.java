@@ -0,0 +1,247 @@
+package src.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code Accept-Encoding} negotiation and response compression. Bodies smaller than {@link
+ * #MIN_COMPRESS_BYTES} are sent as-is: for them the gzip header and the CPU cost outweigh the bytes
+ * saved.
+ */
+public final class ResponseCompression {
+
+  /** Bodies shorter than this are never compressed. */
+  public static final int MIN_COMPRESS_BYTES = 1024;
+
+  /** A content coding the server can produce. */
+  public enum Encoding {
+    IDENTITY(null),
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    /** The {@code Content-Encoding} token, or null for identity. */
+    public final String token;
+
+    Encoding(String token) {
+      this.token = token;
+    }
+  }
+
+  /** A body ready to send, and the coding it is already in. Immutable; safe to cache. */
+  public static final class Encoded {
+    public final byte[] bytes;
+    public final Encoding encoding;
+
+    Encoded(byte[] bytes, Encoding encoding) {
+      this.bytes = bytes;
+      this.encoding = encoding;
+    }
+  }
+
+  private ResponseCompression() {}
+
+  /**
+   * The coding to answer {@code acceptEncoding} with: whichever of gzip and deflate has the higher
+   * q-value (gzip on a tie), or identity if the client accepts neither. A missing header means
+   * identity.
+   */
+  public static Encoding negotiate(String acceptEncoding) {
+    if (acceptEncoding == null || acceptEncoding.isBlank()) return Encoding.IDENTITY;
+    double gzip = -1;
+    double deflate = -1;
+    double any = -1;
+    for (String part : acceptEncoding.split(",")) {
+      String[] fields = part.split(";");
+      String coding = fields[0].trim().toLowerCase(Locale.ROOT);
+      double q = 1;
+      for (int i = 1; i < fields.length; i++) {
+        String param = fields[i].trim().toLowerCase(Locale.ROOT);
+        if (param.startsWith("q=")) {
+          try {
+            q = Double.parseDouble(param.substring(2).trim());
+          } catch (NumberFormatException e) {
+            q = 0;
+          }
+        }
+      }
+      switch (coding) {
+        case "gzip":
+        case "x-gzip":
+          gzip = Math.max(gzip, q);
+          break;
+        case "deflate":
+          deflate = Math.max(deflate, q);
+          break;
+        case "*":
+          any = q;
+          break;
+        default:
+          break;
+      }
+    }
+    if (gzip < 0) gzip = any;
+    if (deflate < 0) deflate = any;
+    if (gzip <= 0 && deflate <= 0) return Encoding.IDENTITY;
+    return gzip >= deflate ? Encoding.GZIP : Encoding.DEFLATE;
+  }
+
+  /** {@code body} in {@code encoding}, or unchanged if it is below the size threshold. */
+  public static Encoded encode(byte[] body, Encoding encoding) {
+    if (encoding == Encoding.IDENTITY || body.length < MIN_COMPRESS_BYTES) {
+      return new Encoded(body, Encoding.IDENTITY);
+    }
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4);
+    try (OutputStream out = wrap(buffer, encoding)) {
+      out.write(body);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e); // in-memory streams do not fail
+    }
+    return new Encoded(buffer.toByteArray(), encoding);
+  }
+
+  /** Sends an already-encoded body with a fixed length and closes the exchange. */
+  public static void send(HttpExchange exchange, int status, Encoded body) throws IOException {
+    exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+    if (body.encoding.token != null) {
+      exchange.getResponseHeaders().set("Content-Encoding", body.encoding.token);
+    }
+    exchange.sendResponseHeaders(status, body.bytes.length == 0 ? -1 : body.bytes.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(body.bytes);
+    }
+  }
+
+  /**
+   * A response body of unknown length. Output is held back until {@link #MIN_COMPRESS_BYTES} have
+   * been written or the caller flushes: a body closed before either goes out uncompressed with a
+   * fixed length, anything else is compressed on the fly with chunked encoding. Every {@code flush}
+   * reaches the client (sync flush), so streaming callers keep their time-to-first-byte. Closing
+   * the stream ends the response.
+   */
+  public static OutputStream stream(HttpExchange exchange, int status, Encoding encoding) {
+    return new ThresholdStream(exchange, status, encoding, null);
+  }
+
+  /**
+   * {@link #stream}, keeping a copy of the body exactly as it went out, so it can be cached without
+   * being encoded a second time. See {@link RecordingStream#sent}.
+   */
+  public static RecordingStream recordingStream(
+      HttpExchange exchange, int status, Encoding encoding) {
+    return new RecordingStream(exchange, status, encoding);
+  }
+
+  /** A {@link #stream} that remembers what it sent. */
+  public static final class RecordingStream extends ThresholdStream {
+    private RecordingStream(HttpExchange exchange, int status, Encoding encoding) {
+      super(exchange, status, encoding, new ByteArrayOutputStream());
+    }
+
+    /** The body as sent, in the coding it was sent in. Only complete once the stream is closed. */
+    public Encoded sent() {
+      return new Encoded(copy.toByteArray(), chosen);
+    }
+  }
+
+  /** Writes to {@code out}, and on success to {@code copy} as well. */
+  private static OutputStream tee(OutputStream out, OutputStream copy) {
+    return new FilterOutputStream(out) {
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        copy.write(b, off, len);
+      }
+
+      @Override
+      public void write(int b) throws IOException {
+        out.write(b);
+        copy.write(b);
+      }
+    };
+  }
+
+  private static OutputStream wrap(OutputStream out, Encoding encoding) throws IOException {
+    switch (encoding) {
+      case GZIP:
+        return new GZIPOutputStream(out, 8 * 1024, true);
+      case DEFLATE:
+        return new DeflaterOutputStream(out, true);
+      default:
+        return out;
+    }
+  }
+
+  static class ThresholdStream extends OutputStream {
+    private final HttpExchange exchange;
+    private final int status;
+    private final Encoding encoding;
+    final ByteArrayOutputStream copy; // also gets every byte sent, if not null
+    private ByteArrayOutputStream head = new ByteArrayOutputStream(MIN_COMPRESS_BYTES);
+    private OutputStream out; // null until the headers are sent
+    Encoding chosen; // set with out
+
+    ThresholdStream(
+        HttpExchange exchange, int status, Encoding encoding, ByteArrayOutputStream copy) {
+      this.exchange = exchange;
+      this.status = status;
+      this.encoding = encoding;
+      this.copy = copy;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (out != null) {
+        out.write(b, off, len);
+        return;
+      }
+      head.write(b, off, len);
+      if (head.size() >= MIN_COMPRESS_BYTES) {
+        commit(encoding, 0);
+      }
+    }
+
+    /**
+     * A caller that flushes wants the bytes so far on the wire, so below the threshold this settles
+     * the encoding without waiting for the rest and sends the headers.
+     */
+    @Override
+    public void flush() throws IOException {
+      if (out == null) commit(encoding, 0);
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (out == null) {
+        commit(Encoding.IDENTITY, head.size() == 0 ? -1 : head.size());
+      }
+      out.close();
+    }
+
+    private void commit(Encoding chosen, long length) throws IOException {
+      exchange.getResponseHeaders().add("Vary", "Accept-Encoding");
+      if (chosen.token != null) {
+        exchange.getResponseHeaders().set("Content-Encoding", chosen.token);
+      }
+      exchange.sendResponseHeaders(status, length);
+      OutputStream body = exchange.getResponseBody();
+      if (copy != null) body = tee(body, copy);
+      out = wrap(body, chosen);
+      this.chosen = chosen;
+      head.writeTo(out);
+      head = null;
+    }
+  }
+}
@@ -0,0 +1,508 @@
+package src.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.zip.CRC32;
+import src.server.Log;
+
+/**
+ * An append-only, memory-mapped log of place-details bodies keyed by place_id, so the details cache
+ * survives restarts. The newest record for a key wins; an in-memory index maps each key to it.
+ *
+ * <p>Writes are behind: {@link #append} queues the record and returns, and one background thread
+ * writes queued records in batches. If the queue is full the record is dropped (the cache still has
+ * it; only the warm start loses it). On {@link #open} the log is replayed to rebuild the index,
+ * stopping at the first torn or corrupt record, which a crash mid-write can leave behind.
+ * Superseded and expired records are removed by {@link #compact}, which rewrites the live ones to a
+ * new file and swaps it in; the writer runs it when most of the file is garbage.
+ *
+ * <p>File layout: an 8-byte header ({@link #MAGIC}, {@link #VERSION}), then records of
+ *
+ * <pre>
+ *   int   record length in bytes, this field and the checksum included
+ *   long  written at, epoch millis
+ *   int   key length in bytes
+ *   byte  key (UTF-8), then value (UTF-8) up to the checksum
+ *   int   CRC32 of everything before it
+ * </pre>
+ *
+ * and zeros after the last record.
+ */
+public final class DetailsLog implements AutoCloseable {
+
+  /** First int of the file. */
+  public static final int MAGIC = 0x50444c47; // "PDLG"
+
+  public static final int VERSION = 1;
+
+  /** Default upper bound on the file; a mapping cannot exceed 2 GB. */
+  public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+  /** Records waiting to be written; past this, {@link #append} drops. */
+  public static final int QUEUE_CAPACITY = 10_000;
+
+  private static final int HEADER_BYTES = 8;
+  private static final int RECORD_OVERHEAD = 4 + 8 + 4 + 4;
+  private static final int INITIAL_CAPACITY = 1 << 20;
+
+  /** The writer compacts when live records take up less than this fraction of the file. */
+  private static final double COMPACT_BELOW_LIVE_FRACTION = 0.5;
+
+  /** ...and the file is at least this big, so small logs are not rewritten over and over. */
+  private static final int COMPACT_MIN_BYTES = 4 << 20;
+
+  /** How often the writer counts expired records towards the garbage, when idle or not. */
+  private static final long EXPIRY_CHECK_MILLIS = 60_000;
+
+  /** Writes reach the page cache at once; this bounds what an OS crash can lose. */
+  private static final long FORCE_INTERVAL_MILLIS = 1_000;
+
+  /** A live record, as handed to {@link #forEachLive}. */
+  public static final class Entry {
+    public final String key;
+    public final String value;
+    public final long writtenAtMillis;
+
+    Entry(String key, String value, long writtenAtMillis) {
+      this.key = key;
+      this.value = value;
+      this.writtenAtMillis = writtenAtMillis;
+    }
+  }
+
+  /** Where the newest record for a key is. */
+  private static final class Slot {
+    final int offset;
+    final int length;
+    final long writtenAtMillis;
+
+    Slot(int offset, int length, long writtenAtMillis) {
+      this.offset = offset;
+      this.length = length;
+      this.writtenAtMillis = writtenAtMillis;
+    }
+  }
+
+  /** A queued write, or (with a latch) a flush marker. */
+  private static final class Pending {
+    final String key;
+    final String value;
+    final long writtenAtMillis;
+    final CountDownLatch flushed;
+
+    Pending(String key, String value, long writtenAtMillis, CountDownLatch flushed) {
+      this.key = key;
+      this.value = value;
+      this.writtenAtMillis = writtenAtMillis;
+      this.flushed = flushed;
+    }
+  }
+
+  private static final Pending STOP = new Pending(null, null, 0, null);
+
+  private final Path path;
+  private final long ttlMillis;
+  private final long maxBytes;
+  private final LongSupplier clockMillis;
+
+  // guarded by this
+  private FileChannel channel;
+  private MappedByteBuffer map;
+  private int end;
+  private long liveBytes;
+  private final Map<String, Slot> index = new HashMap<>();
+  private long lastForceMillis;
+  private long lastExpiryCheckMillis;
+
+  private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+  private final Thread writer;
+  private final AtomicLong written = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong compactions = new AtomicLong();
+  private volatile boolean closed;
+
+  private DetailsLog(Path path, Duration ttl, long maxBytes, LongSupplier clockMillis)
+      throws IOException {
+    if (maxBytes < INITIAL_CAPACITY || maxBytes > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("maxBytes must be between 1 MB and 2 GB");
+    }
+    this.path = path;
+    this.ttlMillis = ttl.toMillis();
+    this.maxBytes = maxBytes;
+    this.clockMillis = clockMillis;
+    synchronized (this) {
+      load();
+      lastForceMillis = lastExpiryCheckMillis = clockMillis.getAsLong();
+    }
+    this.writer = new Thread(this::writeLoop, "details-log-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /** Opens (or creates) the log at {@code path}; records older than {@code ttl} are not served. */
+  public static DetailsLog open(Path path, Duration ttl) throws IOException {
+    return open(path, ttl, DEFAULT_MAX_BYTES, System::currentTimeMillis);
+  }
+
+  /**
+   * @param maxBytes largest the file may grow to; when full and compaction frees nothing, new
+   *     records are dropped
+   * @param clockMillis wall-clock time source (records outlive the process), replaceable in tests
+   * @throws IOException if the file cannot be opened or is not a details log
+   */
+  public static DetailsLog open(Path path, Duration ttl, long maxBytes, LongSupplier clockMillis)
+      throws IOException {
+    return new DetailsLog(path, ttl, maxBytes, clockMillis);
+  }
+
+  /**
+   * Queues {@code value} to be stored under {@code key}, replacing any earlier record once written.
+   * Never blocks; drops the record if the writer is too far behind or the log is closed.
+   */
+  public void append(String key, String value) {
+    if (closed || !queue.offer(new Pending(key, value, clockMillis.getAsLong(), null))) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  /** Waits until every record queued before this call has been written to the mapping. */
+  public void flush() throws InterruptedException {
+    if (closed) return;
+    CountDownLatch done = new CountDownLatch(1);
+    queue.put(new Pending(null, null, 0, done));
+    done.await();
+  }
+
+  /** The newest live value for {@code key}, or null if there is none or it has expired. */
+  public synchronized String get(String key) {
+    Slot slot = index.get(key);
+    if (slot == null || expired(slot, clockMillis.getAsLong())) return null;
+    return readValue(slot);
+  }
+
+  /** Calls {@code action} for every live record, oldest first. */
+  public void forEachLive(Consumer<Entry> action) {
+    List<Entry> live = new ArrayList<>();
+    synchronized (this) {
+      long now = clockMillis.getAsLong();
+      for (Slot slot : slotsInFileOrder()) {
+        if (!expired(slot, now)) {
+          live.add(new Entry(readKey(slot), readValue(slot), slot.writtenAtMillis));
+        }
+      }
+    }
+    live.forEach(action);
+  }
+
+  /** Number of keys with a record, live or expired. */
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /** Bytes used in the file, header and superseded records included. */
+  public synchronized long bytes() {
+    return end;
+  }
+
+  /** Records written since the log was opened. */
+  public long written() {
+    return written.get();
+  }
+
+  /** Records not stored because the queue was full, the file was full or the log was closed. */
+  public long dropped() {
+    return dropped.get();
+  }
+
+  public long compactions() {
+    return compactions.get();
+  }
+
+  /**
+   * Rewrites the live records to a fresh file and swaps it in, dropping superseded and expired
+   * ones. Safe to call while the writer runs; appends wait for it.
+   */
+  public synchronized void compact() throws IOException {
+    long now = clockMillis.getAsLong();
+    Path tmp = path.resolveSibling(path.getFileName() + ".compact");
+    List<Slot> keep = new ArrayList<>();
+    long keepBytes = HEADER_BYTES;
+    for (Slot slot : slotsInFileOrder()) {
+      if (!expired(slot, now)) {
+        keep.add(slot);
+        keepBytes += slot.length;
+      }
+    }
+    int capacity = capacityFor(keepBytes);
+    try (FileChannel out =
+        FileChannel.open(
+            tmp,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE)) {
+      MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      target.putInt(0, MAGIC);
+      target.putInt(4, VERSION);
+      int position = HEADER_BYTES;
+      for (Slot slot : keep) {
+        ByteBuffer record = map.duplicate();
+        record.position(slot.offset).limit(slot.offset + slot.length);
+        target.position(position);
+        target.put(record);
+        position += slot.length;
+      }
+      target.force();
+    }
+    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    channel.close();
+    load();
+    compactions.incrementAndGet();
+    Log.debug(() -> "Compacted " + path + " to " + keep.size() + " records");
+  }
+
+  /** Writes what is queued, stops the writer and closes the file. Further appends are dropped. */
+  @Override
+  public void close() {
+    if (closed) return;
+    closed = true;
+    try {
+      queue.put(STOP);
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      map.force();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        Log.warn("Could not close " + path + ": " + e.getMessage());
+      }
+    }
+  }
+
+  // --- writer thread ---
+
+  private void writeLoop() {
+    List<Pending> batch = new ArrayList<>();
+    while (true) {
+      try {
+        Pending first = queue.poll(EXPIRY_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+        if (first != null) {
+          batch.add(first);
+          queue.drainTo(batch);
+        }
+        boolean stop = writeBatch(batch);
+        batch.clear();
+        if (stop) return;
+      } catch (InterruptedException e) {
+        return;
+      } catch (IOException | RuntimeException e) {
+        // keep the writer alive: the next batch may well succeed (e.g. after compaction)
+        Log.error("Details log write failed: " + e);
+        batch.clear();
+      }
+    }
+  }
+
+  /**
+   * @return true if the batch held the stop marker
+   */
+  private synchronized boolean writeBatch(List<Pending> batch) throws IOException {
+    boolean stop = false;
+    for (Pending pending : batch) {
+      if (pending == STOP) {
+        stop = true;
+      } else if (pending.flushed != null) {
+        pending.flushed.countDown();
+      } else {
+        write(pending);
+      }
+    }
+    long now = clockMillis.getAsLong();
+    // superseded records are counted as they happen; expired ones only now and then
+    long live = liveBytes;
+    if (now - lastExpiryCheckMillis >= EXPIRY_CHECK_MILLIS) {
+      lastExpiryCheckMillis = now;
+      live = liveUnexpiredBytes(now);
+    }
+    if (end >= COMPACT_MIN_BYTES && live < end * COMPACT_BELOW_LIVE_FRACTION) {
+      compact();
+    }
+    if (now - lastForceMillis >= FORCE_INTERVAL_MILLIS) {
+      lastForceMillis = now;
+      map.force();
+    }
+    return stop;
+  }
+
+  // caller holds the lock
+  private void write(Pending pending) throws IOException {
+    byte[] key = pending.key.getBytes(StandardCharsets.UTF_8);
+    byte[] value = pending.value.getBytes(StandardCharsets.UTF_8);
+    long length = (long) RECORD_OVERHEAD + key.length + value.length;
+    if (!ensureRoom(length)) {
+      dropped.incrementAndGet();
+      return;
+    }
+    int offset = end;
+    ByteBuffer record = map.duplicate();
+    record.position(offset);
+    record.putInt((int) length);
+    record.putLong(pending.writtenAtMillis);
+    record.putInt(key.length);
+    record.put(key);
+    record.put(value);
+    record.putInt(checksum(offset, (int) length));
+    end = offset + (int) length;
+    index(pending.key, new Slot(offset, (int) length, pending.writtenAtMillis));
+    written.incrementAndGet();
+  }
+
+  /** Grows or compacts the file until {@code length} more bytes fit; false if they never will. */
+  private boolean ensureRoom(long length) throws IOException {
+    if (end + length <= map.capacity()) return true;
+    if (end + length <= maxBytes) {
+      remap(capacityFor(end + length));
+      return true;
+    }
+    compact();
+    if (end + length > maxBytes) return false;
+    if (end + length > map.capacity()) remap(capacityFor(end + length));
+    return true;
+  }
+
+  // --- reading the file ---
+
+  /** Maps {@link #path} and rebuilds the index from its records. Caller holds the lock. */
+  private void load() throws IOException {
+    channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long size = channel.size();
+    if (size > maxBytes) {
+      channel.close();
+      throw new IOException(path + " is larger than the configured maximum of " + maxBytes);
+    }
+    map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityFor(size));
+    if (size == 0) {
+      map.putInt(0, MAGIC);
+      map.putInt(4, VERSION);
+    } else if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+      channel.close();
+      throw new IOException(path + " is not a version " + VERSION + " details log");
+    }
+
+    index.clear();
+    liveBytes = 0;
+    int position = HEADER_BYTES;
+    boolean torn = false;
+    while (position + 4 <= map.capacity()) {
+      int length = map.getInt(position);
+      if (length == 0) break;
+      if (length < RECORD_OVERHEAD
+          || length > map.capacity() - position
+          || map.getInt(position + length - 4) != checksum(position, length)) {
+        torn = true;
+        break;
+      }
+      int keyLength = map.getInt(position + 12);
+      if (keyLength < 0 || keyLength > length - RECORD_OVERHEAD) {
+        torn = true;
+        break;
+      }
+      Slot slot = new Slot(position, length, map.getLong(position + 4));
+      index(readKey(slot), slot);
+      position += length;
+    }
+    end = position;
+    if (torn) {
+      // zero the rest, so records appended after this point are not hidden behind the garbage
+      Log.warn("Discarding a torn record at offset " + end + " of " + path);
+      for (int i = end; i < map.capacity(); i++) map.put(i, (byte) 0);
+    }
+  }
+
+  private void remap(int capacity) throws IOException {
+    map.force();
+    map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+  }
+
+  private void index(String key, Slot slot) {
+    Slot previous = index.put(key, slot);
+    if (previous != null) liveBytes -= previous.length;
+    liveBytes += slot.length;
+  }
+
+  private List<Slot> slotsInFileOrder() {
+    List<Slot> slots = new ArrayList<>(index.values());
+    slots.sort((a, b) -> Integer.compare(a.offset, b.offset));
+    return slots;
+  }
+
+  private long liveUnexpiredBytes(long now) {
+    long bytes = 0;
+    for (Slot slot : index.values()) {
+      if (!expired(slot, now)) bytes += slot.length;
+    }
+    return bytes;
+  }
+
+  private boolean expired(Slot slot, long now) {
+    return now - slot.writtenAtMillis >= ttlMillis;
+  }
+
+  private String readKey(Slot slot) {
+    int keyLength = map.getInt(slot.offset + 12);
+    return readString(slot.offset + 16, keyLength);
+  }
+
+  private String readValue(Slot slot) {
+    int keyLength = map.getInt(slot.offset + 12);
+    int start = slot.offset + 16 + keyLength;
+    return readString(start, slot.offset + slot.length - 4 - start);
+  }
+
+  private String readString(int offset, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer view = map.duplicate();
+    view.position(offset);
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private int checksum(int offset, int length) {
+    ByteBuffer covered = map.duplicate();
+    covered.position(offset).limit(offset + length - 4);
+    CRC32 crc = new CRC32();
+    crc.update(covered);
+    return (int) crc.getValue();
+  }
+
+  /** Smallest power-of-two capacity (at least 1 MB, at most the maximum) holding {@code bytes}. */
+  private int capacityFor(long bytes) {
+    long capacity = INITIAL_CAPACITY;
+    while (capacity < bytes) capacity *= 2;
+    return (int) Math.min(capacity, maxBytes);
+  }
+}
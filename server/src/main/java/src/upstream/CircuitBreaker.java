@@ -0,0 +1,137 @@
+package src.upstream;
+
+import java.time.Duration;
+import java.util.function.LongSupplier;
+
+/**
+ * A count-based circuit breaker. It watches the outcomes of the last {@code window} calls; once at
+ * least {@code minCalls} of them are in and {@code failureRatio} or more failed, it opens and
+ * callers are turned away without trying the upstream. After {@code openFor} it lets one trial call
+ * through (half-open): success closes it again, failure reopens it for another {@code openFor}.
+ */
+public final class CircuitBreaker {
+
+  /** Where the breaker is; exported as a gauge, so the values are fixed. */
+  public enum State {
+    CLOSED(0),
+    OPEN(1),
+    HALF_OPEN(2);
+
+    public final int code;
+
+    State(int code) {
+      this.code = code;
+    }
+  }
+
+  private final boolean[] outcomes; // ring of recent calls, true for a failure
+  private final int minCalls;
+  private final double failureRatio;
+  private final long openNanos;
+  private final LongSupplier clock;
+
+  private int next;
+  private int recorded;
+  private int failures;
+  private State state = State.CLOSED;
+  private long openedAtNanos;
+  private boolean trialRunning;
+  private long rejected;
+  private long opened;
+
+  /**
+   * @param window number of recent calls considered
+   * @param minCalls calls needed in the window before the breaker may open
+   * @param failureRatio share of failed calls (0 to 1) that opens the breaker
+   * @param openFor how long the breaker stays open before a trial call
+   * @param clock nanosecond time source, replaceable in tests
+   */
+  public CircuitBreaker(
+      int window, int minCalls, double failureRatio, Duration openFor, LongSupplier clock) {
+    if (window < 1 || minCalls < 1 || minCalls > window) {
+      throw new IllegalArgumentException("need 1 <= minCalls <= window");
+    }
+    if (failureRatio <= 0 || failureRatio > 1) {
+      throw new IllegalArgumentException("failureRatio must be in (0, 1]");
+    }
+    this.outcomes = new boolean[window];
+    this.minCalls = minCalls;
+    this.failureRatio = failureRatio;
+    this.openNanos = openFor.toNanos();
+    this.clock = clock;
+  }
+
+  /**
+   * Whether a call may go ahead. Every call that was allowed must report back through {@link
+   * #onSuccess} or {@link #onFailure}.
+   */
+  public synchronized boolean tryAcquire() {
+    if (state == State.OPEN && clock.getAsLong() - openedAtNanos >= openNanos) {
+      state = State.HALF_OPEN;
+      trialRunning = false;
+    }
+    if (state == State.CLOSED) return true;
+    if (state == State.HALF_OPEN && !trialRunning) {
+      trialRunning = true;
+      return true;
+    }
+    rejected++;
+    return false;
+  }
+
+  public synchronized void onSuccess() {
+    if (state == State.HALF_OPEN) {
+      close();
+    } else if (state == State.CLOSED) {
+      record(false);
+    }
+  }
+
+  public synchronized void onFailure() {
+    if (state == State.HALF_OPEN) {
+      open();
+    } else if (state == State.CLOSED) {
+      record(true);
+    }
+  }
+
+  public synchronized State state() {
+    return state;
+  }
+
+  /** Calls turned away while the breaker was open. */
+  public synchronized long rejectedCount() {
+    return rejected;
+  }
+
+  /** Times the breaker has opened. */
+  public synchronized long openedCount() {
+    return opened;
+  }
+
+  // caller holds the lock
+  private void record(boolean failure) {
+    if (recorded == outcomes.length) {
+      if (outcomes[next]) failures--;
+    } else {
+      recorded++;
+    }
+    outcomes[next] = failure;
+    if (failure) failures++;
+    next = (next + 1) % outcomes.length;
+    if (recorded >= minCalls && failures >= failureRatio * recorded) open();
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openedAtNanos = clock.getAsLong();
+    opened++;
+  }
+
+  private void close() {
+    state = State.CLOSED;
+    next = 0;
+    recorded = 0;
+    failures = 0;
+  }
+}
@@ -0,0 +1,12 @@
+package src.upstream;
+
+import java.io.IOException;
+
+/** A call that was not made because the upstream's circuit breaker is open. */
+public class CircuitOpenException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  public CircuitOpenException(String upstream) {
+    super("Circuit open for " + upstream + "; not calling it until it recovers");
+  }
+}
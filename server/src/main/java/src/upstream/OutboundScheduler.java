@@ -0,0 +1,263 @@
+package src.upstream;
+
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import src.metrics.LatencyHistogram;
+import src.metrics.Metrics;
+
+/**
+ * Paces the calls to one upstream endpoint to its quota. A call goes out at once while the {@link
+ * TokenBucket} has a token; otherwise it queues, and queued calls go out as tokens drip in:
+ *
+ * <ul>
+ *   <li>by {@link Priority} first, so what a user is waiting on goes before what they are not;
+ *   <li>then round-robin across owners (one per request), so a request with forty details calls
+ *       does not starve one with four.
+ * </ul>
+ *
+ * A queued call whose deadline passes is dropped without ever spending a token. Calls beyond {@code
+ * maxQueued} are refused at once.
+ */
+public final class OutboundScheduler {
+
+  /** How much a call matters to someone waiting, most urgent first. */
+  public enum Priority {
+    /** Gates the first response a user sees: nearby search, details for places on the page. */
+    FIRST_PAGE("first_page"),
+    /** Part of a user-facing request, but only for results further down. */
+    LATER_RESULTS("later_results"),
+    /** Nobody waits on it: speculative hedges, prefetch, refresh. */
+    BACKGROUND("background");
+
+    public final String label;
+
+    Priority(String label) {
+      this.label = label;
+    }
+  }
+
+  private static final long MIN_CALL_NANOS = 1_000_000;
+
+  private final String name;
+  private final TokenBucket bucket;
+  private final int maxQueued;
+  private final Map<Priority, LinkedHashMap<Object, ArrayDeque<Task<?>>>> queues =
+      new EnumMap<>(Priority.class);
+  private final Map<Priority, LatencyHistogram> waits = new EnumMap<>(Priority.class);
+  private final AtomicLong dropped = new AtomicLong();
+  private int queued;
+  private boolean wakeUpScheduled;
+
+  /**
+   * @param name the endpoint, for metrics and error messages
+   * @param bucket the endpoint's quota
+   * @param maxQueued calls allowed to wait for a token
+   */
+  public OutboundScheduler(String name, TokenBucket bucket, int maxQueued) {
+    this.name = name;
+    this.bucket = bucket;
+    this.maxQueued = maxQueued;
+    for (Priority priority : Priority.values()) {
+      queues.put(priority, new LinkedHashMap<>());
+      waits.put(priority, Metrics.outboundWait(name, priority.label));
+    }
+  }
+
+  /**
+   * Makes {@code call} once a token is free, handing it whatever is left of {@code timeout} after
+   * the wait. The returned future fails with {@link HttpTimeoutException} if no token came in time,
+   * or with a non-retryable {@link UpstreamException} if the queue is full.
+   *
+   * @param owner who the call is for; owners of one priority take turns
+   */
+  public <T> CompletableFuture<T> submit(
+      Priority priority,
+      Object owner,
+      Duration timeout,
+      Function<Duration, CompletableFuture<T>> call) {
+    Task<T> task = new Task<>(priority, owner, System.nanoTime() + timeout.toNanos(), call);
+    synchronized (this) {
+      if (queued >= maxQueued) {
+        dropped.incrementAndGet();
+        return CompletableFuture.failedFuture(
+            new UpstreamException("Too many " + name + " calls waiting for quota", false));
+      }
+      queues.get(priority).computeIfAbsent(owner, k -> new ArrayDeque<>()).add(task);
+      queued++;
+    }
+    drain();
+    if (!task.started) {
+      CompletableFuture.delayedExecutor(timeout.toNanos(), TimeUnit.NANOSECONDS)
+          .execute(() -> expireIfWaiting(task));
+    }
+    return task.result;
+  }
+
+  /**
+   * Moves {@code call}, a future {@link #submit} returned, up to the more urgent {@code priority}
+   * if it is still waiting for a token; it keeps its owner and goes to the back of that owner's
+   * line. Calls that went out, or wait at {@code priority} or a more urgent one, are left alone.
+   */
+  public synchronized void promote(CompletableFuture<?> call, Priority priority) {
+    for (Priority from : Priority.values()) {
+      if (from.compareTo(priority) <= 0) continue;
+      Iterator<Map.Entry<Object, ArrayDeque<Task<?>>>> turns =
+          queues.get(from).entrySet().iterator();
+      while (turns.hasNext()) {
+        ArrayDeque<Task<?>> tasks = turns.next().getValue();
+        Iterator<Task<?>> waiting = tasks.iterator();
+        while (waiting.hasNext()) {
+          Task<?> task = waiting.next();
+          if (task.result != call) continue;
+          waiting.remove();
+          if (tasks.isEmpty()) turns.remove();
+          task.priority = priority;
+          queues.get(priority).computeIfAbsent(task.owner, k -> new ArrayDeque<>()).add(task);
+          return;
+        }
+      }
+    }
+  }
+
+  /** Calls waiting for a token. */
+  public synchronized int queuedCount() {
+    return queued;
+  }
+
+  /** Calls refused or dropped before they went out. */
+  public long droppedCount() {
+    return dropped.get();
+  }
+
+  /** Starts as many queued calls as there are tokens, then waits for the next token. */
+  private void drain() {
+    List<Task<?>> ready = new ArrayList<>();
+    synchronized (this) {
+      while (queued > 0) {
+        if (!bucket.tryTake()) {
+          wakeUpIn(bucket.nanosUntilAvailable());
+          break;
+        }
+        Task<?> next = pollLive();
+        if (next == null) {
+          bucket.refund();
+          break;
+        }
+        ready.add(next);
+      }
+    }
+    for (Task<?> task : ready) task.start();
+  }
+
+  private synchronized void expireIfWaiting(Task<?> task) {
+    LinkedHashMap<Object, ArrayDeque<Task<?>>> owners = queues.get(task.priority);
+    ArrayDeque<Task<?>> tasks = owners.get(task.owner);
+    if (tasks == null || !tasks.remove(task)) return; // it went out in time
+    queued--;
+    if (tasks.isEmpty()) owners.remove(task.owner);
+    task.expire();
+  }
+
+  // caller holds the lock
+  private void wakeUpIn(long nanos) {
+    if (wakeUpScheduled) return;
+    wakeUpScheduled = true;
+    CompletableFuture.delayedExecutor(Math.max(nanos, 1), TimeUnit.NANOSECONDS)
+        .execute(
+            () -> {
+              synchronized (this) {
+                wakeUpScheduled = false;
+              }
+              drain();
+            });
+  }
+
+  /**
+   * Removes and returns the next call to make: most urgent priority, then the owner whose turn it
+   * is. Calls that are out of time or no longer wanted are dropped on the way.
+   */
+  // caller holds the lock
+  private Task<?> pollLive() {
+    long now = System.nanoTime();
+    for (LinkedHashMap<Object, ArrayDeque<Task<?>>> owners : queues.values()) {
+      Iterator<Map.Entry<Object, ArrayDeque<Task<?>>>> turns = owners.entrySet().iterator();
+      while (turns.hasNext()) {
+        Map.Entry<Object, ArrayDeque<Task<?>>> turn = turns.next();
+        ArrayDeque<Task<?>> tasks = turn.getValue();
+        Task<?> task;
+        while ((task = tasks.poll()) != null) {
+          queued--;
+          if (task.live(now)) break;
+          task.expire();
+        }
+        turns.remove();
+        if (task == null) continue;
+        task.started = true;
+        if (!tasks.isEmpty()) owners.put(turn.getKey(), tasks); // back of the line
+        return task;
+      }
+    }
+    return null;
+  }
+
+  /** One queued call. */
+  private final class Task<T> {
+    Priority priority; // raised by promote, under the scheduler's lock
+    final Object owner;
+    final long deadlineNanos;
+    final long queuedAtNanos = System.nanoTime();
+    final Function<Duration, CompletableFuture<T>> call;
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    volatile boolean started;
+
+    Task(
+        Priority priority,
+        Object owner,
+        long deadlineNanos,
+        Function<Duration, CompletableFuture<T>> call) {
+      this.priority = priority;
+      this.owner = owner;
+      this.deadlineNanos = deadlineNanos;
+      this.call = call;
+    }
+
+    boolean live(long now) {
+      return !result.isDone() && deadlineNanos - now >= MIN_CALL_NANOS;
+    }
+
+    void expire() {
+      HttpTimeoutException e =
+          new HttpTimeoutException("No " + name + " quota before the call's deadline");
+      if (result.completeExceptionally(e)) dropped.incrementAndGet();
+    }
+
+    void start() {
+      long now = waits.get(priority).recordSince(queuedAtNanos);
+      CompletableFuture<T> made;
+      try {
+        made = call.apply(Duration.ofNanos(Math.max(MIN_CALL_NANOS, deadlineNanos - now)));
+      } catch (RuntimeException e) {
+        made = CompletableFuture.failedFuture(e);
+      }
+      made.whenComplete(
+          (value, err) -> {
+            if (err != null) {
+              result.completeExceptionally(err);
+            } else {
+              result.complete(value);
+            }
+          });
+    }
+  }
+}
@@ -0,0 +1,57 @@
+package src.upstream;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A token bucket: tokens drip in at {@code perSecond} up to {@code burst}, and each call spends
+ * one. Quota is held to the rate on average while short bursts still go out at once.
+ */
+public final class TokenBucket {
+
+  private final double tokensPerNano;
+  private final double burst;
+  private final LongSupplier clock;
+  private double tokens;
+  private long refilledAtNanos;
+
+  /**
+   * @param perSecond sustained rate
+   * @param burst most tokens held at once (at least 1); the bucket starts full
+   * @param clock nanosecond time source, replaceable in tests
+   */
+  public TokenBucket(double perSecond, double burst, LongSupplier clock) {
+    if (!(perSecond > 0)) throw new IllegalArgumentException("perSecond must be positive");
+    if (!(burst >= 1)) throw new IllegalArgumentException("burst must be at least 1");
+    this.tokensPerNano = perSecond / 1e9;
+    this.burst = burst;
+    this.clock = clock;
+    this.tokens = burst;
+    this.refilledAtNanos = clock.getAsLong();
+  }
+
+  /** Spends a token if one is available. */
+  public synchronized boolean tryTake() {
+    refill();
+    if (tokens < 1) return false;
+    tokens -= 1;
+    return true;
+  }
+
+  /** Returns a token taken for a call that was not made. */
+  public synchronized void refund() {
+    tokens = Math.min(burst, tokens + 1);
+  }
+
+  /** Nanoseconds until a token is available; 0 if one is now. */
+  public synchronized long nanosUntilAvailable() {
+    refill();
+    return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / tokensPerNano);
+  }
+
+  // caller holds the lock
+  private void refill() {
+    long now = clock.getAsLong();
+    tokens = Math.min(burst, tokens + (now - refilledAtNanos) * tokensPerNano);
+    refilledAtNanos = now;
+  }
+}
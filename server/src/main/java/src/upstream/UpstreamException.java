@@ -0,0 +1,19 @@
+package src.upstream;
+
+import java.io.IOException;
+
+/**
+ * An upstream call that got an answer, but not a usable one. {@link #retryable} says whether asking
+ * again may help: true for overload and server errors (HTTP 5xx or 429, {@code OVER_QUERY_LIMIT}),
+ * false for answers that will not change (a bad request, a denied key).
+ */
+public class UpstreamException extends IOException {
+  private static final long serialVersionUID = 1L;
+
+  public final boolean retryable;
+
+  public UpstreamException(String message, boolean retryable) {
+    super(message);
+    this.retryable = retryable;
+  }
+}
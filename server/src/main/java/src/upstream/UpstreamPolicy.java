@@ -0,0 +1,263 @@
+package src.upstream;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import src.metrics.LatencyHistogram;
+
+/**
+ * Timeouts, retries, hedging and a circuit breaker for calls to one upstream endpoint.
+ *
+ * <ul>
+ *   <li>Each attempt gets its own timeout, never past the call's overall one.
+ *   <li>A failed attempt is retried, up to {@code maxAttempts} in all, if its failure is retryable
+ *       (see {@link UpstreamException}; network errors and timeouts are too). Retries wait a random
+ *       time between zero and {@code backoffBase} doubled per attempt, capped at {@code backoffCap}
+ *       ("full jitter"), so clients that failed together do not retry together; a retry that could
+ *       not finish in time is not made.
+ *   <li>With hedging on, an attempt still running once it is slower than the {@code hedgeQuantile}
+ *       of past attempts gets a twin; whichever answers first wins and the other is cancelled. At
+ *       most {@value #HEDGE_BUDGET_PERCENT}% of calls are hedged, so a slow upstream sees at most
+ *       that much extra load.
+ *   <li>Every attempt reports to the {@link CircuitBreaker}; retryable failures count against the
+ *       upstream. While it is open, calls fail at once with {@link CircuitOpenException}.
+ * </ul>
+ */
+public final class UpstreamPolicy {
+
+  /** Hedged calls, as a share of all calls. */
+  public static final int HEDGE_BUDGET_PERCENT = 10;
+
+  /** Attempts timed before the hedging delay is trusted. */
+  public static final int HEDGE_MIN_SAMPLES = 20;
+
+  /**
+   * One try at the upstream call, which must give up after {@code timeout}. {@code hedge} is true
+   * for a hedged twin, which nobody is waiting on yet and can yield to more urgent calls.
+   */
+  public interface Attempt<T> {
+    CompletableFuture<T> start(Duration timeout, boolean hedge);
+  }
+
+  private static final long MIN_ATTEMPT_NANOS = 1_000_000;
+
+  private final String name;
+  private final CircuitBreaker breaker;
+  private final int maxAttempts;
+  private final long backoffBaseNanos;
+  private final long backoffCapNanos;
+  private final double hedgeQuantile;
+  private final LatencyHistogram latency = new LatencyHistogram();
+  private final AtomicLong calls = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong hedges = new AtomicLong();
+
+  /**
+   * @param name the upstream, for error messages
+   * @param breaker breaker guarding the upstream
+   * @param maxAttempts attempts per call, including the first (1 turns retries off)
+   * @param backoffBase longest wait before the first retry
+   * @param backoffCap longest wait before any retry
+   * @param hedgeQuantile quantile (0 to 1) of attempt latency after which to hedge; 0 turns hedging
+   *     off
+   */
+  public UpstreamPolicy(
+      String name,
+      CircuitBreaker breaker,
+      int maxAttempts,
+      Duration backoffBase,
+      Duration backoffCap,
+      double hedgeQuantile) {
+    if (maxAttempts < 1) throw new IllegalArgumentException("maxAttempts must be at least 1");
+    if (hedgeQuantile < 0 || hedgeQuantile >= 1) {
+      throw new IllegalArgumentException("hedgeQuantile must be in [0, 1)");
+    }
+    this.name = name;
+    this.breaker = breaker;
+    this.maxAttempts = maxAttempts;
+    this.backoffBaseNanos = backoffBase.toNanos();
+    this.backoffCapNanos = backoffCap.toNanos();
+    this.hedgeQuantile = hedgeQuantile;
+  }
+
+  /**
+   * Runs {@code attempt} under this policy. The returned future fails with the last attempt's
+   * failure, with {@link CircuitOpenException} if the breaker is open, or with {@link
+   * java.net.http.HttpTimeoutException} from the attempt that ran into {@code timeout}.
+   *
+   * @param attemptTimeout longest one attempt may take
+   * @param timeout longest the whole call may take, retries and backoff included
+   */
+  public <T> CompletableFuture<T> call(
+      Attempt<T> attempt, Duration attemptTimeout, Duration timeout) {
+    calls.incrementAndGet();
+    CompletableFuture<T> result = new CompletableFuture<>();
+    run(attempt, attemptTimeout.toNanos(), System.nanoTime() + timeout.toNanos(), 1, result);
+    return result;
+  }
+
+  private <T> void run(
+      Attempt<T> attempt,
+      long attemptTimeoutNanos,
+      long deadlineNanos,
+      int number,
+      CompletableFuture<T> result) {
+    if (result.isDone()) return; // the caller gave up
+    if (!breaker.tryAcquire()) {
+      result.completeExceptionally(new CircuitOpenException(name));
+      return;
+    }
+    long remaining = deadlineNanos - System.nanoTime();
+    long bound = Math.max(MIN_ATTEMPT_NANOS, Math.min(attemptTimeoutNanos, remaining));
+    hedged(attempt, bound)
+        .whenComplete(
+            (value, err) -> {
+              if (err == null) {
+                breaker.onSuccess();
+                result.complete(value);
+                return;
+              }
+              Throwable cause = unwrap(err);
+              boolean retryable = retryable(cause);
+              if (retryable) {
+                breaker.onFailure();
+              } else {
+                breaker.onSuccess(); // it answered; the request was the problem
+              }
+              long backoff = backoffNanos(number);
+              if (!retryable
+                  || number >= maxAttempts
+                  || System.nanoTime() + backoff + MIN_ATTEMPT_NANOS >= deadlineNanos) {
+                result.completeExceptionally(cause);
+                return;
+              }
+              retries.incrementAndGet();
+              CompletableFuture.delayedExecutor(backoff, TimeUnit.NANOSECONDS)
+                  .execute(
+                      () -> run(attempt, attemptTimeoutNanos, deadlineNanos, number + 1, result));
+            });
+  }
+
+  /** One attempt, with a twin started if it is still running after the hedging delay. */
+  private <T> CompletableFuture<T> hedged(Attempt<T> attempt, long timeoutNanos) {
+    long delay = hedgeDelayNanos();
+    Race<T> race = new Race<>();
+    race.enter(() -> timed(attempt, timeoutNanos, false));
+    if (delay >= 0 && delay < timeoutNanos) {
+      CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS)
+          .execute(
+              () -> {
+                if (race.result.isDone() || !withinHedgeBudget()) return;
+                race.enter(
+                    () -> {
+                      hedges.incrementAndGet();
+                      return timed(attempt, timeoutNanos - delay, true);
+                    });
+              });
+    }
+    return race.result;
+  }
+
+  private <T> CompletableFuture<T> timed(Attempt<T> attempt, long timeoutNanos, boolean hedge) {
+    long start = System.nanoTime();
+    return attempt
+        .start(Duration.ofNanos(timeoutNanos), hedge)
+        .whenComplete(
+            (value, err) -> {
+              if (err == null) latency.recordSince(start);
+            });
+  }
+
+  /** The hedging delay, or -1 while hedging is off or there is too little history. */
+  private long hedgeDelayNanos() {
+    if (hedgeQuantile == 0 || latency.count() < HEDGE_MIN_SAMPLES) return -1;
+    return Math.max(MIN_ATTEMPT_NANOS, latency.percentileNanos(hedgeQuantile));
+  }
+
+  private boolean withinHedgeBudget() {
+    return hedges.get() * 100 < calls.get() * HEDGE_BUDGET_PERCENT;
+  }
+
+  /** Full jitter: uniform in [0, min(cap, base * 2^(number - 1))]. */
+  private long backoffNanos(int number) {
+    long ceiling = backoffBaseNanos << Math.min(number - 1, 30);
+    if (ceiling <= 0 || ceiling > backoffCapNanos) ceiling = backoffCapNanos;
+    return ThreadLocalRandom.current().nextLong(ceiling + 1);
+  }
+
+  static boolean retryable(Throwable cause) {
+    if (cause instanceof UpstreamException) return ((UpstreamException) cause).retryable;
+    return cause instanceof IOException && !(cause instanceof CircuitOpenException);
+  }
+
+  private static Throwable unwrap(Throwable err) {
+    return err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+  }
+
+  /** Calls made through this policy. */
+  public long callCount() {
+    return calls.get();
+  }
+
+  /** Attempts beyond each call's first. */
+  public long retryCount() {
+    return retries.get();
+  }
+
+  /** Attempts that got a twin because they were slow. */
+  public long hedgeCount() {
+    return hedges.get();
+  }
+
+  public CircuitBreaker breaker() {
+    return breaker;
+  }
+
+  /** Legs of one hedged attempt: the first success wins, the call fails once every leg has. */
+  private static final class Race<T> {
+    final CompletableFuture<T> result = new CompletableFuture<>();
+    private final List<CompletableFuture<T>> legs = new ArrayList<>();
+    private int running;
+
+    /** Starts a leg, unless the race is already decided. */
+    boolean enter(Supplier<CompletableFuture<T>> start) {
+      CompletableFuture<T> leg;
+      synchronized (this) {
+        if (result.isDone() || (running == 0 && !legs.isEmpty())) return false;
+        running++;
+        try {
+          leg = start.get();
+        } catch (RuntimeException e) {
+          leg = CompletableFuture.failedFuture(e);
+        }
+        legs.add(leg);
+      }
+      leg.whenComplete((value, err) -> settle(value, err));
+      return true;
+    }
+
+    private void settle(T value, Throwable err) {
+      if (err == null) {
+        if (!result.complete(value)) return;
+        List<CompletableFuture<T>> losers;
+        synchronized (this) {
+          losers = new ArrayList<>(legs);
+        }
+        for (CompletableFuture<T> leg : losers) leg.cancel(true);
+        return;
+      }
+      boolean last;
+      synchronized (this) {
+        last = --running == 0;
+      }
+      if (last) result.completeExceptionally(err);
+    }
+  }
+}
@@ -0,0 +1,181 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import src.server.AdmissionFilter;
+import src.server.RequestDeadline;
+import src.server.RequestExecutors;
+
+public class AdmissionFilterTest {
+
+  private HttpServer server;
+  private ExecutorService executor;
+  private final HttpClient http = HttpClient.newHttpClient();
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final CountDownLatch entered = new CountDownLatch(1);
+  private final AtomicLong seenRemaining = new AtomicLong(-1);
+
+  private AdmissionFilter start(int maxInFlight, int maxQueued, Duration queueTimeout)
+      throws Exception {
+    return start(maxInFlight, maxQueued, queueTimeout, 8);
+  }
+
+  private AdmissionFilter start(int maxInFlight, int maxQueued, Duration queueTimeout, int threads)
+      throws Exception {
+    AdmissionFilter filter =
+        new AdmissionFilter(
+            maxInFlight, maxQueued, queueTimeout, Duration.ofSeconds(5), Duration.ofSeconds(2));
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server
+        .createContext(
+            "/slow",
+            exchange -> {
+              seenRemaining.set(RequestDeadline.remainingNanos());
+              entered.countDown();
+              try {
+                release.await(10, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              byte[] body = "ok".getBytes();
+              exchange.sendResponseHeaders(200, body.length);
+              try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+              }
+            })
+        .getFilters()
+        .add(filter);
+    executor = RequestExecutors.platformPool(threads);
+    server.setExecutor(executor);
+    server.start();
+    return filter;
+  }
+
+  @AfterEach
+  public void tearDown() {
+    release.countDown();
+    if (server != null) server.stop(0);
+    if (executor != null) executor.shutdownNow();
+  }
+
+  private CompletableFuture<HttpResponse<String>> get() {
+    URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/slow");
+    return http.sendAsync(
+        HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  @Test
+  public void testRejectsWhenSaturated() throws Exception {
+    AdmissionFilter filter = start(1, 0, Duration.ofSeconds(1));
+    CompletableFuture<HttpResponse<String>> first = get();
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+    HttpResponse<String> second = get().get(5, TimeUnit.SECONDS);
+    assertEquals(503, second.statusCode());
+    assertEquals("2", second.headers().firstValue("Retry-After").orElse(null));
+    assertEquals(1, filter.rejectedCount());
+
+    release.countDown();
+    assertEquals(200, first.get(5, TimeUnit.SECONDS).statusCode());
+    assertEquals(1, filter.admittedCount());
+  }
+
+  @Test
+  public void testQueuedRequestRunsWhenSlotFrees() throws Exception {
+    AdmissionFilter filter = start(1, 1, Duration.ofSeconds(5));
+    CompletableFuture<HttpResponse<String>> first = get();
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    CompletableFuture<HttpResponse<String>> second = get();
+
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (filter.queued() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+    assertEquals(1, filter.queued());
+
+    release.countDown();
+    assertEquals(200, first.get(5, TimeUnit.SECONDS).statusCode());
+    assertEquals(200, second.get(5, TimeUnit.SECONDS).statusCode());
+    assertEquals(0, filter.rejectedCount());
+    assertEquals(0, filter.inFlight());
+  }
+
+  @Test
+  public void testFullPoolRejectsInsteadOfRunningOnTheDispatcher() throws Exception {
+    // admission would let everything in; the one thread and its queue of four are the limit
+    AdmissionFilter filter = start(100, 100, Duration.ofSeconds(1), 1);
+    CompletableFuture<HttpResponse<String>> first = get();
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+    List<CompletableFuture<HttpResponse<String>>> rest = new ArrayList<>();
+    for (int i = 0; i < 6; i++) rest.add(get());
+    long deadline = System.currentTimeMillis() + 5_000;
+    while (filter.rejectedCount() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+    assertEquals(2, filter.rejectedCount());
+
+    release.countDown();
+    assertEquals(200, first.get(5, TimeUnit.SECONDS).statusCode());
+    int busy = 0;
+    for (CompletableFuture<HttpResponse<String>> response : rest) {
+      HttpResponse<String> r = response.get(5, TimeUnit.SECONDS);
+      if (r.statusCode() == 503) {
+        busy++;
+        assertEquals("2", r.headers().firstValue("Retry-After").orElse(null));
+      } else {
+        assertEquals(200, r.statusCode());
+      }
+    }
+    assertEquals(2, busy);
+  }
+
+  @Test
+  public void testHandlerSeesRequestDeadline() throws Exception {
+    start(1, 0, Duration.ofSeconds(1));
+    release.countDown();
+    assertEquals(200, get().get(5, TimeUnit.SECONDS).statusCode());
+    assertTrue(seenRemaining.get() > 0);
+    assertTrue(seenRemaining.get() <= Duration.ofSeconds(5).toNanos());
+    // the deadline does not leak to threads outside a request
+    assertFalse(RequestDeadline.isSet());
+  }
+
+  @Test
+  public void testClampShortensToDeadline() {
+    assertEquals(Duration.ofSeconds(3), RequestDeadline.clamp(Duration.ofSeconds(3)));
+    RequestDeadline.set(System.nanoTime() + Duration.ofMillis(200).toNanos());
+    try {
+      assertTrue(RequestDeadline.clamp(Duration.ofSeconds(3)).toMillis() <= 200);
+      RequestDeadline.set(System.nanoTime() - 1);
+      assertTrue(RequestDeadline.expired());
+      assertFalse(RequestDeadline.clamp(Duration.ofSeconds(3)).isZero());
+    } finally {
+      RequestDeadline.clear();
+    }
+  }
+
+  @Test
+  public void testVirtualExecutorFallsBack() {
+    ExecutorService exec = RequestExecutors.create(RequestExecutors.Mode.VIRTUAL, 2);
+    assertNotNull(exec);
+    // unbounded with virtual threads, the platform pool's size without them
+    int limit = RequestExecutors.threadLimit(exec);
+    assertTrue(limit == -1 || limit == 2, Integer.toString(limit));
+    exec.shutdown();
+    ExecutorService pool = RequestExecutors.platformPool(8);
+    assertEquals(8, RequestExecutors.threadLimit(pool));
+    pool.shutdown();
+  }
+}
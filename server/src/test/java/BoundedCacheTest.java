@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import src.cache.BoundedCache;
+import src.cache.CacheStats;
+
+public class BoundedCacheTest {
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() {
+    BoundedCache<String, String> cache = new BoundedCache<>(2, Duration.ofMinutes(1));
+    cache.put("a", "A");
+    cache.put("b", "B");
+    assertEquals("A", cache.getIfPresent("a")); // "b" is now the eldest
+    cache.put("c", "C");
+
+    assertNull(cache.getIfPresent("b"));
+    assertEquals("A", cache.getIfPresent("a"));
+    assertEquals("C", cache.getIfPresent("c"));
+    assertEquals(1, cache.stats().evictions);
+  }
+
+  @Test
+  public void testWeightBound() {
+    BoundedCache<String, String> cache =
+        new BoundedCache<>(10, Duration.ofMinutes(1), v -> v.length(), System::nanoTime);
+    cache.put("a", "12345");
+    cache.put("b", "1234");
+    cache.put("c", "123");
+
+    assertNull(cache.getIfPresent("a"));
+    assertEquals(7, cache.stats().weight);
+
+    // a value heavier than the whole cache is never stored
+    cache.put("d", "12345678901");
+    assertNull(cache.getIfPresent("d"));
+    assertEquals("1234", cache.getIfPresent("b"));
+  }
+
+  @Test
+  public void testEntriesExpireAfterTtl() {
+    AtomicLong now = new AtomicLong();
+    BoundedCache<String, String> cache =
+        new BoundedCache<>(10, Duration.ofSeconds(30), v -> 1L, now::get);
+    cache.put("a", "A");
+
+    now.set(Duration.ofSeconds(29).toNanos());
+    assertEquals("A", cache.getIfPresent("a"));
+
+    now.set(Duration.ofSeconds(30).toNanos());
+    assertNull(cache.getIfPresent("a"));
+    assertEquals(1, cache.stats().expirations);
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testConcurrentMissesShareOneLoad() {
+    BoundedCache<String, String> cache = new BoundedCache<>(10, Duration.ofMinutes(1));
+    AtomicInteger loads = new AtomicInteger();
+    CompletableFuture<String> upstream = new CompletableFuture<>();
+
+    CompletableFuture<String> first =
+        cache.getAsync(
+            "a",
+            k -> {
+              loads.incrementAndGet();
+              return upstream;
+            });
+    CompletableFuture<String> second =
+        cache.getAsync(
+            "a",
+            k -> {
+              loads.incrementAndGet();
+              return upstream;
+            });
+    assertFalse(first.isDone());
+    upstream.complete("A");
+
+    assertEquals("A", first.join());
+    assertEquals("A", second.join());
+    assertEquals(1, loads.get());
+    assertEquals("A", cache.getIfPresent("a"));
+
+    CacheStats stats = cache.stats();
+    assertEquals(1, stats.loadSuccesses);
+    assertEquals(2, stats.misses);
+    assertEquals(1, stats.hits);
+  }
+
+  @Test
+  public void testFailedLoadIsNotCached() {
+    BoundedCache<String, String> cache = new BoundedCache<>(10, Duration.ofMinutes(1));
+    CompletableFuture<String> failed =
+        cache.getAsync("a", k -> CompletableFuture.failedFuture(new IllegalStateException("down")));
+
+    assertThrows(CompletionException.class, failed::join);
+    assertNull(cache.getIfPresent("a"));
+    assertEquals(1, cache.stats().loadFailures);
+
+    assertEquals("A", cache.getAsync("a", k -> CompletableFuture.completedFuture("A")).join());
+  }
+}
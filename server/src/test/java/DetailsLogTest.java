@@ -0,0 +1,161 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+import src.handlers.GooglePlacesClient;
+import src.storage.DetailsLog;
+
+public class DetailsLogTest {
+
+  private static final Duration TTL = Duration.ofMinutes(30);
+
+  private static Path tempLog() throws Exception {
+    Path dir = Files.createTempDirectory("details-log");
+    dir.toFile().deleteOnExit();
+    return dir.resolve("details.log");
+  }
+
+  private static List<String> liveKeys(DetailsLog log) {
+    List<String> keys = new ArrayList<>();
+    log.forEachLive(entry -> keys.add(entry.key + "=" + entry.value));
+    return keys;
+  }
+
+  @Test
+  public void testRecordsSurviveReopenNewestWins() throws Exception {
+    Path file = tempLog();
+    AtomicLong now = new AtomicLong(1_000_000);
+    try (DetailsLog log = DetailsLog.open(file, TTL, DetailsLog.DEFAULT_MAX_BYTES, now::get)) {
+      log.append("a", "{\"name\":\"first\"}");
+      log.append("b", "{\"name\":\"Café ☕\"}");
+      log.append("a", "{\"name\":\"second\"}");
+      log.flush();
+      assertEquals("{\"name\":\"second\"}", log.get("a"));
+      assertNull(log.get("missing"));
+      assertEquals(3, log.written());
+    }
+
+    try (DetailsLog log = DetailsLog.open(file, TTL, DetailsLog.DEFAULT_MAX_BYTES, now::get)) {
+      assertEquals(2, log.size());
+      // oldest first, so the newest ends up most recently used in a warmed cache
+      assertEquals(List.of("b={\"name\":\"Café ☕\"}", "a={\"name\":\"second\"}"), liveKeys(log));
+    }
+  }
+
+  @Test
+  public void testCompactionDropsSupersededAndExpired() throws Exception {
+    Path file = tempLog();
+    AtomicLong now = new AtomicLong(1_000_000);
+    try (DetailsLog log = DetailsLog.open(file, TTL, DetailsLog.DEFAULT_MAX_BYTES, now::get)) {
+      String body = "x".repeat(1_000);
+      log.append("old", body);
+      log.flush();
+      now.addAndGet(TTL.toMillis() / 2);
+      for (int i = 0; i < 100; i++) log.append("hot", body + i);
+      log.append("fresh", body);
+      log.flush();
+      long before = log.bytes();
+
+      now.addAndGet(TTL.toMillis() / 2 + 1); // "old" has expired, the rest have not
+      assertNull(log.get("old"));
+      log.compact();
+      assertEquals(1, log.compactions());
+      assertTrue(log.bytes() < before / 10, log.bytes() + " vs " + before);
+      assertEquals(List.of("hot=" + body + 99, "fresh=" + body), liveKeys(log));
+
+      log.append("after", "compaction");
+      log.flush();
+    }
+    try (DetailsLog log = DetailsLog.open(file, TTL, DetailsLog.DEFAULT_MAX_BYTES, now::get)) {
+      assertEquals(3, log.size());
+      assertEquals("compaction", log.get("after"));
+    }
+  }
+
+  @Test
+  public void testTornTailIsDiscardedAndOverwritten() throws Exception {
+    Path file = tempLog();
+    AtomicLong now = new AtomicLong(1_000_000);
+    long secondStart;
+    try (DetailsLog log = DetailsLog.open(file, TTL, DetailsLog.DEFAULT_MAX_BYTES, now::get)) {
+      log.append("good", "kept");
+      log.flush();
+      secondStart = log.bytes();
+      log.append("torn", "a body long enough that a short record can follow inside it");
+      log.flush();
+    }
+    // a crash mid-write: the second record's tail never reached the disk
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0x7f, 0x7f, 0x7f}), secondStart + 30);
+    }
+
+    try (DetailsLog log = DetailsLog.open(file, TTL, DetailsLog.DEFAULT_MAX_BYTES, now::get)) {
+      assertEquals(List.of("good=kept"), liveKeys(log));
+      assertEquals(secondStart, log.bytes());
+      log.append("next", "short");
+      log.flush();
+    }
+    try (DetailsLog log = DetailsLog.open(file, TTL, DetailsLog.DEFAULT_MAX_BYTES, now::get)) {
+      assertEquals(List.of("good=kept", "next=short"), liveKeys(log));
+    }
+  }
+
+  @Test
+  public void testNotADetailsLogIsRejected() throws Exception {
+    Path file = tempLog();
+    Files.write(file, "not a log".getBytes(StandardCharsets.UTF_8));
+    assertThrows(IOException.class, () -> DetailsLog.open(file, TTL));
+  }
+
+  @Test
+  public void testClientStartsWarmFromTheLog() throws Exception {
+    AtomicInteger upstreamCalls = new AtomicInteger();
+    HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    upstream.createContext(
+        "/maps/api/place/details/json",
+        exchange -> {
+          upstreamCalls.incrementAndGet();
+          byte[] body =
+              "{\"result\":{\"name\":\"From Google\"},\"status\":\"OK\"}"
+                  .getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+          }
+        });
+    upstream.start();
+    Path file = tempLog();
+    String baseUrl = "http://127.0.0.1:" + upstream.getAddress().getPort();
+    try {
+      try (DetailsLog log = DetailsLog.open(file, TTL)) {
+        GooglePlacesClient client = new GooglePlacesClient(baseUrl, "test", log);
+        assertTrue(client.getPlaceDetailsAsJson("p1").contains("From Google"));
+        assertEquals(1, upstreamCalls.get());
+      } // closing writes out what is queued
+
+      // "restart": a new client over the same file answers without calling upstream
+      try (DetailsLog log = DetailsLog.open(file, TTL)) {
+        GooglePlacesClient client = new GooglePlacesClient(baseUrl, "test", log);
+        assertTrue(client.getPlaceDetailsAsJson("p1").contains("From Google"));
+        assertEquals(1, upstreamCalls.get());
+        assertEquals(1, client.detailsCacheStats().hits);
+      }
+    } finally {
+      upstream.stop(0);
+    }
+  }
+}
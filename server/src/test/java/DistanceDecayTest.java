@@ -0,0 +1,176 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Random;
+import models.PlaceResult;
+import models.Preference;
+import models.ResultsWrapper;
+import org.junit.jupiter.api.Test;
+import src.geo.Distance;
+import src.handlers.MockPlacesHandler;
+import src.handlers.RankingHandler;
+import src.ranking.DistanceDecay;
+import src.ranking.KeywordScorer.MatchMode;
+
+public class DistanceDecayTest {
+
+  private static Preference pref(String keyword, int weight) {
+    Preference p = new Preference();
+    p.keyword = keyword;
+    p.weight = weight;
+    return p;
+  }
+
+  @Test
+  public void testEveryKernelHalvesAtTheHalfDistance() {
+    for (DistanceDecay.Kernel kernel : DistanceDecay.Kernel.values()) {
+      DistanceDecay decay = new DistanceDecay(kernel, 300, 4);
+      assertEquals(4, decay.bonus(0), 1e-12, kernel.name());
+      assertEquals(2, decay.bonus(300), 1e-12, kernel.name());
+      assertTrue(decay.bonus(600) < decay.bonus(300), kernel.name());
+      assertEquals(0.0, decay.bonus(Double.NaN), kernel.name());
+    }
+  }
+
+  @Test
+  public void testBulkMatchesScalar() {
+    Random random = new Random(3);
+    int n = 1_000;
+    double[] meters = new double[n + 5];
+    for (int i = 0; i < n; i++) {
+      meters[i] = i % 17 == 0 ? Double.NaN : random.nextDouble() * 5_000;
+    }
+    for (DistanceDecay.Kernel kernel : DistanceDecay.Kernel.values()) {
+      DistanceDecay decay = new DistanceDecay(kernel, 750, 5);
+      double[] out = new double[n + 5];
+      out[n] = -1; // past n is left alone
+      decay.bonuses(meters, n, out);
+      for (int i = 0; i < n; i++) {
+        assertEquals(decay.bonus(meters[i]), out[i], 1e-12, kernel + " at " + meters[i]);
+      }
+      assertEquals(-1.0, out[n]);
+    }
+  }
+
+  @Test
+  public void testInvalidSettingsAreRejected() {
+    DistanceDecay.Kernel exp = DistanceDecay.Kernel.EXPONENTIAL;
+    assertThrows(IllegalArgumentException.class, () -> new DistanceDecay(exp, 0, 5));
+    assertThrows(IllegalArgumentException.class, () -> new DistanceDecay(exp, Double.NaN, 5));
+    assertThrows(IllegalArgumentException.class, () -> new DistanceDecay(exp, 500, -1));
+    assertThrows(IllegalArgumentException.class, () -> DistanceDecay.Kernel.parse("linear"));
+    assertEquals(DistanceDecay.Kernel.GAUSSIAN, DistanceDecay.Kernel.parse(" Gaussian "));
+    assertEquals(DistanceDecay.Kernel.EXPONENTIAL, DistanceDecay.Kernel.parse(null));
+  }
+
+  @Test
+  public void testBulkDistanceAgreesWithHaversineAtCityScale() {
+    Random random = new Random(11);
+    int n = 500;
+    double[] lats = new double[n];
+    double[] lngs = new double[n];
+    double[] out = new double[n];
+    double lat = 41.82;
+    double lng = -71.41;
+    for (int i = 0; i < n; i++) {
+      lats[i] = lat + (random.nextDouble() - 0.5) * 0.3;
+      lngs[i] = lng + (random.nextDouble() - 0.5) * 0.3;
+    }
+    Distance.metersFrom(lat, lng, lats, lngs, n, out);
+    for (int i = 0; i < n; i++) {
+      double exact = Distance.meters(lat, lng, lats[i], lngs[i]);
+      assertEquals(exact, out[i], Math.max(0.01, exact * 1e-3));
+    }
+
+    // across the antimeridian the short way round is a few hundred meters, not the whole planet
+    double[] east = {41, 41};
+    double[] eastLng = {-179.998, 179.998};
+    Distance.metersFrom(41, 179.999, east, eastLng, 2, out);
+    assertEquals(Distance.meters(41, 179.999, 41, -179.998), out[0], 0.5);
+    assertEquals(Distance.meters(41, 179.999, 41, 179.998), out[1], 0.5);
+  }
+
+  @Test
+  public void testNearbyBreaksTiesButMoreKeywordsStillWin() {
+    double[] meters = {4_000, 50, 3_000};
+    String[] descriptions = {"quiet cafe", "quiet cafe", "quiet cafe with wifi"};
+    double[] ratings = {4.9, 3.0, 3.0};
+    List<Preference> prefs = List.of(pref("cafe", 5), pref("wifi", 5));
+    ResultsWrapper page =
+        new RankingHandler()
+            .rankRowsByDistance(
+                descriptions,
+                ratings,
+                meters,
+                DistanceDecay.defaults(),
+                i -> {
+                  PlaceResult place = new PlaceResult();
+                  place.name = "row " + i;
+                  place.description = descriptions[i];
+                  place.rating = ratings[i];
+                  return place;
+                },
+                prefs,
+                MatchMode.SUBSTRING,
+                0,
+                10);
+    assertEquals(Integer.valueOf(3), page.total);
+    assertEquals("row 2", page.results.get(0).name); // two keywords, even from 3 km
+    assertEquals("row 1", page.results.get(1).name); // next door beats a better rating
+    assertEquals("row 0", page.results.get(2).name);
+    assertEquals(5, page.results.get(1).score);
+    assertEquals(5 + DistanceDecay.defaults().bonus(50), page.results.get(1).relevance, 1e-9);
+  }
+
+  @Test
+  public void testMockPlacesRankByDistance() throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/places", new MockPlacesHandler());
+    server.start();
+    try {
+      String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/places?";
+      HttpClient http = HttpClient.newHttpClient();
+      String query = "lat=41.8243&lng=-71.4114&radius=1500&keyword=cafe&rank=distance";
+      HttpResponse<String> response =
+          http.send(
+              HttpRequest.newBuilder(URI.create(base + query + "&decay=gaussian")).build(),
+              HttpResponse.BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      JsonArray results =
+          JsonParser.parseString(response.body()).getAsJsonObject().getAsJsonArray("results");
+      assertTrue(results.size() > 1);
+      double previous = Double.MAX_VALUE;
+      for (int i = 0; i < results.size(); i++) {
+        JsonObject place = results.get(i).getAsJsonObject();
+        assertTrue(place.has("distance"), place.toString());
+        double relevance = place.get("relevance").getAsDouble();
+        assertTrue(relevance <= previous + 1e-9, "ordered by relevance");
+        assertTrue(relevance >= place.get("score").getAsDouble(), place.toString());
+        previous = relevance;
+      }
+
+      HttpResponse<String> noCenter =
+          http.send(
+              HttpRequest.newBuilder(URI.create(base + "keyword=cafe&rank=distance")).build(),
+              HttpResponse.BodyHandlers.ofString());
+      assertEquals(400, noCenter.statusCode());
+
+      HttpResponse<String> badDecay =
+          http.send(
+              HttpRequest.newBuilder(URI.create(base + query + "&decay=linear")).build(),
+              HttpResponse.BodyHandlers.ofString());
+      assertEquals(400, badDecay.statusCode());
+    } finally {
+      server.stop(0);
+    }
+  }
+}
@@ -0,0 +1,167 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import src.geo.Distance;
+import src.geo.GridIndex;
+import src.handlers.MockPlacesHandler;
+import src.mock.MockDataset;
+import src.mock.MockDatasetStore;
+
+public class GridIndexTest {
+
+  /** Every point within the radius, by brute force, in row order. */
+  private static List<Integer> bruteForce(
+      double[] lat, double[] lng, BitSet present, double qLat, double qLng, double radius) {
+    List<Integer> rows = new ArrayList<>();
+    for (int i = 0; i < lat.length; i++) {
+      if (present.get(i) && Distance.meters(qLat, qLng, lat[i], lng[i]) <= radius) rows.add(i);
+    }
+    return rows;
+  }
+
+  private static List<Integer> rows(GridIndex.Within within) {
+    List<Integer> rows = new ArrayList<>();
+    for (int row : within.rows) rows.add(row);
+    return rows;
+  }
+
+  /** {@code queries} random circles centred in the box, all checked against brute force. */
+  private static void assertMatchesBruteForce(
+      GridIndex grid,
+      double[] lat,
+      double[] lng,
+      BitSet present,
+      double[] box, // latFrom, latTo, lngFrom, lngTo
+      double maxRadius,
+      int queries,
+      Random random) {
+    assertEquals(present.cardinality(), grid.size());
+    for (int q = 0; q < queries; q++) {
+      double qLat = box[0] + random.nextDouble() * (box[1] - box[0]);
+      double qLng = box[2] + random.nextDouble() * (box[3] - box[2]);
+      double radius = random.nextDouble() * maxRadius;
+      GridIndex.Within within = grid.within(qLat, qLng, radius);
+      assertEquals(bruteForce(lat, lng, present, qLat, qLng, radius), rows(within));
+      for (int i = 0; i < within.size(); i++) {
+        int row = within.rows[i];
+        assertEquals(Distance.meters(qLat, qLng, lat[row], lng[row]), within.meters[i], 1e-6);
+        assertEquals(i, within.indexOf(row));
+      }
+    }
+  }
+
+  @Test
+  public void testCityScaleMatchesBruteForce() {
+    Random random = new Random(7);
+    int n = 5_000;
+    double[] lat = new double[n];
+    double[] lng = new double[n];
+    BitSet present = new BitSet(n);
+    for (int i = 0; i < n; i++) {
+      lat[i] = 41.80 + random.nextDouble() * 0.08;
+      lng[i] = -71.45 + random.nextDouble() * 0.10;
+      if (i % 10 != 0) present.set(i); // some places have no location
+    }
+    double[] box = {41.79, 41.89, -71.46, -71.34};
+    GridIndex grid = GridIndex.build(lat, lng, present, GridIndex.DEFAULT_CELL_METERS);
+    assertMatchesBruteForce(grid, lat, lng, present, box, 3_000, 200, random);
+    // a box with more cells than the data occupies takes the scan path
+    GridIndex fine = GridIndex.build(lat, lng, present, 50);
+    assertMatchesBruteForce(fine, lat, lng, present, box, 5_000, 20, random);
+  }
+
+  @Test
+  public void testAntimeridianAndPoles() {
+    Random random = new Random(11);
+    int n = 2_000;
+    double[] lat = new double[n];
+    double[] lng = new double[n];
+    BitSet present = new BitSet(n);
+    present.set(0, n);
+    for (int i = 0; i < n; i++) {
+      if (i % 2 == 0) {
+        lat[i] = 89.5 + random.nextDouble() * 0.5;
+        lng[i] = -180 + random.nextDouble() * 360;
+      } else {
+        // on both sides of the antimeridian
+        lat[i] = -1 + random.nextDouble() * 2;
+        lng[i] = (random.nextBoolean() ? 179.9 : -180.0) + random.nextDouble() * 0.1;
+      }
+    }
+    GridIndex grid = GridIndex.build(lat, lng, present, 1_000);
+    double[] east = {-1, 1, 179.85, 180};
+    double[] west = {-1, 1, -180, -179.85};
+    double[] pole = {89.6, 90, -180, 180};
+    assertMatchesBruteForce(grid, lat, lng, present, east, 20_000, 100, random);
+    assertMatchesBruteForce(grid, lat, lng, present, west, 20_000, 100, random);
+    assertMatchesBruteForce(grid, lat, lng, present, pole, 40_000, 50, random);
+  }
+
+  @Test
+  public void testEmptyIndex() {
+    GridIndex grid = GridIndex.build(new double[0], new double[0], new BitSet(), 500);
+    assertEquals(0, grid.within(41.8, -71.4, 10_000).size());
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> GridIndex.build(new double[0], new double[0], new BitSet(), 0));
+  }
+
+  @Test
+  public void testMockPlacesHonorsRadius() throws Exception {
+    String file = "all_prov_accurate(r=2km).json";
+    MockDataset dataset = MockDatasetStore.load(Paths.get("src/test/TestingData")).get(file);
+    double lat = 41.8243;
+    double lng = -71.4114;
+    int expected = dataset.grid().within(lat, lng, 800).size();
+    assertTrue(expected > 0 && expected < dataset.size(), "pick a radius that splits the data");
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/places", new MockPlacesHandler());
+    server.start();
+    try {
+      String base = "http://127.0.0.1:" + server.getAddress().getPort() + "/places?";
+      HttpClient http = HttpClient.newHttpClient();
+      URI circle = URI.create(base + "lat=" + lat + "&lng=" + lng + "&radius=800");
+      HttpResponse<String> response =
+          http.send(HttpRequest.newBuilder(circle).build(), HttpResponse.BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      JsonArray results =
+          JsonParser.parseString(response.body()).getAsJsonObject().getAsJsonArray("results");
+      assertEquals(expected, results.size());
+      for (int i = 0; i < results.size(); i++) {
+        JsonObject place = results.get(i).getAsJsonObject();
+        assertTrue(place.get("distance").getAsDouble() <= 800.05, place.toString());
+      }
+
+      // without a location the whole fixture is ranked, as before
+      HttpResponse<String> all =
+          http.send(
+              HttpRequest.newBuilder(URI.create(base + "keyword=cafe")).build(),
+              HttpResponse.BodyHandlers.ofString());
+      JsonObject body = JsonParser.parseString(all.body()).getAsJsonObject();
+      assertFalse(body.getAsJsonArray("results").get(0).getAsJsonObject().has("distance"));
+
+      HttpResponse<String> bad =
+          http.send(
+              HttpRequest.newBuilder(URI.create(base + "lat=1&lng=2&radius=-5")).build(),
+              HttpResponse.BodyHandlers.ofString());
+      assertEquals(400, bad.statusCode());
+    } finally {
+      server.stop(0);
+    }
+  }
+}
@@ -0,0 +1,146 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import models.PlaceResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import src.handlers.GroupRankHandler;
+
+public class GroupRankTest {
+
+  private HttpServer server;
+  private final AtomicInteger searches = new AtomicInteger();
+  private final HttpClient http = HttpClient.newHttpClient();
+
+  private static PlaceResult place(String name, String description, double rating) {
+    PlaceResult p = new PlaceResult();
+    p.name = name;
+    p.description = description;
+    p.rating = rating;
+    return p;
+  }
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    List<PlaceResult> places = new ArrayList<>();
+    places.add(place("Quiet Library", "quiet study space", 4.0));
+    places.add(place("Loud Bar", "live music and drinks", 4.5));
+    places.add(place("Study Cafe", "quiet cafe with coffee and music", 4.2));
+    places.add(place("Coffee Cart", "coffee to go", 3.9));
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/rank",
+        new GroupRankHandler(
+            (lat, lng, radius, keyword) -> {
+              searches.incrementAndGet();
+              return places;
+            }));
+    server.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  private HttpResponse<String> post(String body) throws Exception {
+    URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/rank");
+    HttpRequest request =
+        HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString(body)).build();
+    return http.send(request, HttpResponse.BodyHandlers.ofString());
+  }
+
+  private static List<String> names(JsonArray results) {
+    List<String> names = new ArrayList<>();
+    results.forEach(r -> names.add(r.getAsJsonObject().get("name").getAsString()));
+    return names;
+  }
+
+  private static final String GROUP =
+      "{\"lat\":41.8,\"lng\":-71.4,\"radius\":1000,\"profiles\":["
+          + "{\"name\":\"ana\",\"preferences\":[{\"keyword\":\"quiet\",\"weight\":5}]},"
+          + "{\"name\":\"ben\",\"preferences\":[{\"keyword\":\"music\",\"weight\":5},"
+          + "{\"keyword\":\"coffee\",\"weight\":5}]}]";
+
+  @Test
+  public void testRanksEveryProfileFromOneSearch() throws Exception {
+    HttpResponse<String> response = post(GROUP + "}");
+    assertEquals(200, response.statusCode(), response.body());
+    assertEquals(1, searches.get());
+
+    JsonObject body = JsonParser.parseString(response.body()).getAsJsonObject();
+    assertEquals(4, body.get("candidates").getAsInt());
+    assertEquals("average", body.get("aggregate").getAsString());
+    JsonArray profiles = body.getAsJsonArray("profiles");
+    assertEquals(2, profiles.size());
+    assertEquals("ana", profiles.get(0).getAsJsonObject().get("name").getAsString());
+    assertEquals(
+        List.of("Study Cafe", "Quiet Library", "Loud Bar", "Coffee Cart"),
+        names(profiles.get(0).getAsJsonObject().getAsJsonArray("results")));
+    assertEquals(
+        List.of("Study Cafe", "Loud Bar", "Coffee Cart", "Quiet Library"),
+        names(profiles.get(1).getAsJsonObject().getAsJsonArray("results")));
+
+    // Study Cafe satisfies everyone; it leads with 1.0
+    JsonArray group = body.getAsJsonArray("group");
+    JsonObject first = group.get(0).getAsJsonObject();
+    assertEquals("Study Cafe", first.get("name").getAsString());
+    assertEquals(1.0, first.get("relevance").getAsDouble(), 1e-9);
+    assertEquals(15, first.get("score").getAsInt());
+  }
+
+  @Test
+  public void testLeastMiseryAndLimit() throws Exception {
+    HttpResponse<String> response = post(GROUP + ",\"aggregate\":\"least-misery\",\"limit\":2}");
+    assertEquals(200, response.statusCode(), response.body());
+    JsonObject body = JsonParser.parseString(response.body()).getAsJsonObject();
+    assertEquals("least_misery", body.get("aggregate").getAsString());
+    // only Study Cafe gives both members something; the rest tie at 0 and fall back to rating
+    JsonArray group = body.getAsJsonArray("group");
+    assertEquals(List.of("Study Cafe", "Loud Bar"), names(group));
+    assertEquals(0.0, group.get(1).getAsJsonObject().get("relevance").getAsDouble());
+    JsonObject ana = body.getAsJsonArray("profiles").get(0).getAsJsonObject();
+    assertEquals(2, ana.getAsJsonArray("results").size());
+  }
+
+  @Test
+  public void testPlainPreferencesRequestIsOneProfile() throws Exception {
+    HttpResponse<String> response =
+        post("{\"lat\":1,\"lng\":2,\"preferences\":[{\"keyword\":\"coffee\",\"weight\":3}]}");
+    assertEquals(200, response.statusCode(), response.body());
+    JsonObject body = JsonParser.parseString(response.body()).getAsJsonObject();
+    JsonArray profiles = body.getAsJsonArray("profiles");
+    assertEquals(1, profiles.size());
+    assertFalse(profiles.get(0).getAsJsonObject().has("name"));
+  }
+
+  @Test
+  public void testBadRequests() throws Exception {
+    assertEquals(400, post("{not json").statusCode());
+    assertEquals(400, post("{\"lat\":1}").statusCode());
+    // no center: must not quietly search around (0, 0)
+    assertEquals(400, post("{\"profiles\":[{\"name\":\"a\",\"preferences\":[]}]}").statusCode());
+    assertEquals(400, post("{\"lat\":1,\"lng\":null,\"preferences\":[]}").statusCode());
+    assertEquals(400, post("[]").statusCode());
+    assertEquals(400, post(GROUP + ",\"aggregate\":\"median\"}").statusCode());
+    assertEquals(400, post(GROUP + ",\"limit\":-1}").statusCode());
+    assertEquals(0, searches.get());
+
+    URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/rank");
+    HttpResponse<String> get =
+        http.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+    assertEquals(405, get.statusCode());
+  }
+}
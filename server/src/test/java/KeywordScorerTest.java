@@ -0,0 +1,105 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import models.PlaceResult;
+import models.Preference;
+import org.junit.jupiter.api.Test;
+import src.handlers.PlacesJson;
+import src.ranking.KeywordScorer;
+import src.ranking.KeywordScorer.MatchMode;
+
+public class KeywordScorerTest {
+
+  private static Preference pref(String keyword, int weight) {
+    Preference p = new Preference();
+    p.keyword = keyword;
+    p.weight = weight;
+    return p;
+  }
+
+  /** The rule the scorer replaces: add the weight if the lower-cased text contains the keyword. */
+  private static int naiveScore(String text, List<Preference> prefs) {
+    String desc = text.toLowerCase();
+    int score = 0;
+    for (Preference p : prefs) {
+      if (desc.contains(p.keyword.toLowerCase())) score += p.weight;
+    }
+    return score;
+  }
+
+  @Test
+  public void testOverlappingKeywords() {
+    List<Preference> prefs =
+        List.of(pref("he", 1), pref("she", 2), pref("his", 4), pref("hers", 8));
+    KeywordScorer scorer = KeywordScorer.compile(prefs);
+
+    assertEquals(11, scorer.score("USHERS")); // she, he, hers
+    assertEquals(4, scorer.score("this"));
+    assertEquals(0, scorer.score("nothing"));
+    assertEquals(0, scorer.score(null));
+  }
+
+  @Test
+  public void testEachKeywordCountsOncePerText() {
+    KeywordScorer scorer = KeywordScorer.compile(List.of(pref("cafe", 2), pref("Cafe", 3)));
+    assertEquals(5, scorer.score("cafe cafe CAFE"));
+  }
+
+  @Test
+  public void testWholeWordMode() {
+    List<Preference> prefs = List.of(pref("art", 2), pref(" walk", 3), pref("café", 1));
+    KeywordScorer words = KeywordScorer.compile(prefs, MatchMode.WHOLE_WORD);
+    KeywordScorer substrings = KeywordScorer.compile(prefs, MatchMode.SUBSTRING);
+
+    assertEquals(0, words.score("A smart cafe with walkways"));
+    assertEquals(6, words.score("Art, a short walk, and a CAFÉ."));
+    // "art" inside "smart", " walk" inside " walkways"
+    assertEquals(5, substrings.score("A smart cafe with walkways"));
+  }
+
+  @Test
+  public void testMatchesNaiveContainsOnFixtures() throws Exception {
+    List<PlaceResult> places =
+        PlacesJson.parseResults(
+            Files.readString(Paths.get("src/test/TestingData/all_prov_accurate(r=2km).json")));
+    List<Preference> prefs =
+        List.of(
+            pref("cafe", 2),
+            pref(" japanese", 2),
+            pref("korean", 3),
+            pref("soju", 5),
+            pref("coffee", 1),
+            pref("co", -1),
+            pref("outdoor seating", 4));
+    KeywordScorer scorer = KeywordScorer.compile(prefs);
+
+    for (PlaceResult place : places) {
+      assertEquals(naiveScore(place.description, prefs), scorer.score(place.description));
+    }
+  }
+
+  @Test
+  public void testMatchesNaiveContainsOnRandomText() {
+    Random random = new Random(42);
+    String alphabet = "abAB c";
+    for (int round = 0; round < 200; round++) {
+      List<Preference> prefs = new ArrayList<>();
+      for (int k = 0; k < 1 + random.nextInt(6); k++) {
+        prefs.add(pref(randomString(random, alphabet, 1 + random.nextInt(4)), random.nextInt(9)));
+      }
+      KeywordScorer scorer = KeywordScorer.compile(prefs);
+      for (int t = 0; t < 20; t++) {
+        String text = randomString(random, alphabet, random.nextInt(30));
+        assertEquals(naiveScore(text, prefs), scorer.score(text), prefs + " / " + text);
+      }
+    }
+  }
+
+  private static String randomString(Random random, String alphabet, int length) {
+    StringBuilder sb = new StringBuilder(length);
+    for (int i = 0; i < length; i++) sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    return sb.toString();
+  }
+}
@@ -0,0 +1,107 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import src.metrics.Counter;
+import src.metrics.LatencyHistogram;
+import src.metrics.MetricsHandler;
+import src.metrics.MetricsRegistry;
+
+public class MetricsTest {
+
+  @Test
+  public void testEmptyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.count());
+    assertEquals(0, histogram.percentileNanos(0.99));
+  }
+
+  @Test
+  public void testPercentilesAreWithinBucketPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    // 1..1000 ms, one sample each
+    for (long ms = 1; ms <= 1000; ms++) histogram.record(TimeUnit.MILLISECONDS.toNanos(ms));
+
+    assertEquals(1000, histogram.count());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), histogram.maxNanos());
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(500_500), histogram.sumNanos());
+    for (double q : new double[] {0.5, 0.9, 0.99}) {
+      double expected = TimeUnit.MILLISECONDS.toNanos(Math.round(q * 1000));
+      long actual = histogram.percentileNanos(q);
+      assertTrue(actual >= expected, q + ": " + actual + " understates " + expected);
+      assertTrue(actual <= expected * (1 + 1.0 / 16), q + ": " + actual + " vs " + expected);
+    }
+    assertEquals(histogram.maxNanos(), histogram.percentileNanos(1.0));
+  }
+
+  @Test
+  public void testSmallAndHugeValues() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5);
+    histogram.record(7);
+    histogram.record(Long.MAX_VALUE / 2);
+    assertEquals(3, histogram.count());
+    assertEquals(0, histogram.percentileNanos(0.1));
+    assertEquals(7, histogram.percentileNanos(0.5));
+    assertEquals(Long.MAX_VALUE / 2, histogram.maxNanos());
+  }
+
+  @Test
+  public void testSameNameAndLabelsIsSameMetric() {
+    MetricsRegistry registry = new MetricsRegistry();
+    Counter a = registry.counter("hits_total", "Hits", "cache", "details");
+    Counter b = registry.counter("hits_total", "Hits", "cache", "details");
+    Counter c = registry.counter("hits_total", "Hits", "cache", "nearby");
+    assertSame(a, b);
+    assertNotSame(a, c);
+    assertThrows(IllegalArgumentException.class, () -> registry.histogram("hits_total", "Hits"));
+    assertThrows(IllegalArgumentException.class, () -> registry.counter("bad name", "x"));
+  }
+
+  @Test
+  public void testPrometheusTextFormat() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("requests_total", "Requests", "path", "/places").add(3);
+    registry.gauge("in_flight", "Running \"now\"", () -> 2);
+    registry.histogram("stage_seconds", "Stage time", "stage", "ranking").record(2_000_000);
+
+    String text = registry.scrape();
+    assertTrue(text.contains("# TYPE requests_total counter\n"), text);
+    assertTrue(text.contains("requests_total{path=\"/places\"} 3\n"), text);
+    assertTrue(text.contains("# HELP in_flight Running \"now\"\n"), text);
+    assertTrue(text.contains("in_flight 2\n"), text);
+    assertTrue(text.contains("# TYPE stage_seconds summary\n"), text);
+    assertTrue(text.contains("stage_seconds{stage=\"ranking\",quantile=\"0.99\"} 0.002"), text);
+    assertTrue(text.contains("stage_seconds_sum{stage=\"ranking\"} 0.002\n"), text);
+    assertTrue(text.contains("stage_seconds_count{stage=\"ranking\"} 1\n"), text);
+    // families are sorted by name
+    assertTrue(text.indexOf("in_flight") < text.indexOf("requests_total"));
+    assertTrue(text.indexOf("requests_total") < text.indexOf("stage_seconds"));
+  }
+
+  @Test
+  public void testMetricsEndpoint() throws Exception {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("scrapes_total", "Scrapes").increment();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/metrics", new MetricsHandler(registry));
+    server.start();
+    try {
+      URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/metrics");
+      HttpRequest request = HttpRequest.newBuilder(uri).GET().build();
+      HttpResponse<String> response =
+          HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+      assertTrue(response.body().contains("scrapes_total 1\n"), response.body());
+    } finally {
+      server.stop(0);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import src.mock.MockDatasetStore;
+
+public class MockDatasetReloadTest {
+
+  private static final String CAFE = "places_cafe(radius=1000).json";
+  private static final String PARK = "places_park(radius=1000).json";
+
+  private Path dir;
+  private MockDatasetStore store;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    dir = Files.createTempDirectory("mock-data");
+    Files.copy(Paths.get("src/test/TestingData", CAFE), dir.resolve(CAFE));
+    store = MockDatasetStore.load(dir);
+  }
+
+  @AfterEach
+  public void tearDown() throws Exception {
+    store.close();
+    try (var files = Files.list(dir)) {
+      for (Path f : (Iterable<Path>) files::iterator) Files.delete(f);
+    }
+    Files.delete(dir);
+  }
+
+  @Test
+  public void testReloadPublishesNewSnapshot() throws Exception {
+    MockDatasetStore.Snapshot before = store.snapshot();
+    int cafeSize = before.get(CAFE).size();
+
+    Files.copy(Paths.get("src/test/TestingData", PARK), dir.resolve(PARK));
+    assertTrue(store.reload(PARK));
+
+    MockDatasetStore.Snapshot after = store.snapshot();
+    assertEquals(before.version() + 1, after.version());
+    assertNotNull(after.get(PARK));
+    assertSame(before.get(CAFE), after.get(CAFE)); // untouched datasets are shared
+    // a reader holding the old snapshot still sees the old data
+    assertNull(before.get(PARK));
+    assertEquals(cafeSize, before.get(CAFE).size());
+  }
+
+  @Test
+  public void testBrokenFileKeepsPreviousDataset() throws Exception {
+    int cafeSize = store.get(CAFE).size();
+    Files.writeString(dir.resolve(CAFE), "{\"results\": [ {\"name\": ");
+
+    assertFalse(store.reload(CAFE));
+    assertEquals(0, store.snapshot().version());
+    assertEquals(cafeSize, store.get(CAFE).size());
+  }
+
+  @Test
+  public void testRemovedFileIsDropped() throws Exception {
+    Files.delete(dir.resolve(CAFE));
+    assertTrue(store.reload(CAFE));
+    assertNull(store.get(CAFE));
+    assertFalse(store.reload(CAFE)); // nothing left to remove
+  }
+
+  @Test
+  public void testWatcherPicksUpNewFile() throws Exception {
+    store.startWatching();
+    Path tmp = dir.resolve("park.tmp");
+    Files.copy(Paths.get("src/test/TestingData", PARK), tmp);
+    Files.move(tmp, dir.resolve(PARK), StandardCopyOption.ATOMIC_MOVE);
+
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (store.get(PARK) == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertNotNull(store.get(PARK), "watcher did not load the new file");
+  }
+}
@@ -0,0 +1,65 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import models.PlaceResult;
+import models.Preference;
+import models.ResultsWrapper;
+import org.junit.jupiter.api.Test;
+import src.handlers.MockRankingHandler;
+import src.handlers.PlacesJson;
+import src.mock.MockDataset;
+import src.mock.MockDatasetStore;
+import src.ranking.KeywordScorer.MatchMode;
+
+public class MockDatasetTest {
+
+  private static final String DIR = "src/test/TestingData";
+
+  @Test
+  public void testLoadsEveryFixtureOnce() throws Exception {
+    MockDatasetStore store = MockDatasetStore.load(Paths.get(DIR));
+    assertEquals(5, store.names().size());
+    assertEquals(122, store.get("all_prov_accurate(r=2km).json").size());
+    // the bare-array fixture loads too
+    assertEquals(101, store.get("places_all_prov_with_price(radius=2000).json").size());
+    assertNull(store.get("places_nothing(radius=2000).json"));
+  }
+
+  @Test
+  public void testRowsRoundTrip() throws Exception {
+    String file = "all_prov_accurate(r=2km).json";
+    List<PlaceResult> places = PlacesJson.parseResults(Files.readString(Paths.get(DIR, file)));
+    MockDataset dataset = MockDataset.of(file, places, new HashMap<>());
+
+    for (int i = 0; i < places.size(); i++) {
+      PlaceResult expected = places.get(i);
+      expected.score = 0;
+      assertEquals(
+          PlacesJson.GSON.toJson(expected), PlacesJson.GSON.toJson(dataset.row(i)), "row " + i);
+    }
+  }
+
+  @Test
+  public void testColumnarRankingMatchesListRanking() throws Exception {
+    MockDatasetStore store = MockDatasetStore.load(Paths.get(DIR));
+    String file = "all_prov_accurate(r=2km).json";
+    List<PlaceResult> places = PlacesJson.parseResults(Files.readString(Paths.get(DIR, file)));
+
+    List<Preference> prefs = new ArrayList<>();
+    for (String kw : new String[] {"cafe", "korean", "soju", "quiet"}) {
+      Preference p = new Preference();
+      p.keyword = kw;
+      p.weight = kw.length();
+      prefs.add(p);
+    }
+
+    MockRankingHandler handler = new MockRankingHandler();
+    ResultsWrapper columnar = handler.rankPage(store.get(file), prefs, MatchMode.SUBSTRING, 5, 20);
+    ResultsWrapper list = handler.rankPage(places, prefs, MatchMode.SUBSTRING, 5, 20);
+
+    assertEquals(list.total, columnar.total);
+    assertEquals(PlacesJson.toJson(list.results), PlacesJson.toJson(columnar.results));
+  }
+}
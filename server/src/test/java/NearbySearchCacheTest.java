@@ -0,0 +1,137 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import models.PlaceDetails;
+import org.junit.jupiter.api.Test;
+import src.cache.NearbySearchCache;
+import src.geo.Distance;
+import src.geo.GeoHash;
+
+public class NearbySearchCacheTest {
+
+  private static PlaceDetails place(String name, double lat, double lng) {
+    return new PlaceDetails(null, name, null, lat, lng, Double.NaN, null, false, null, -1);
+  }
+
+  @Test
+  public void testGeoHashEncode() {
+    assertEquals("ezs42", GeoHash.encode(42.605, -5.603, 5));
+    double[] b = GeoHash.bounds("ezs42");
+    assertTrue(b[0] <= 42.605 && 42.605 <= b[1]);
+    assertTrue(b[2] <= -5.603 && -5.603 <= b[3]);
+  }
+
+  @Test
+  public void testNeighbouringQueriesShareOneFetch() {
+    NearbySearchCache cache = new NearbySearchCache(100, Duration.ofMinutes(1));
+    AtomicInteger fetches = new AtomicInteger();
+    List<PlaceDetails> upstream =
+        List.of(place("Near", 41.82680, -71.40300), place("Far", 41.84000, -71.40300));
+
+    NearbySearchCache.Fetcher fetcher =
+        (lat, lng, radius, keyword) -> {
+          fetches.incrementAndGet();
+          return CompletableFuture.completedFuture(upstream);
+        };
+
+    // two users a few meters apart, same keyword modulo case and spacing
+    NearbySearchCache.Result first = cache.search(41.82670, -71.40310, 500, "Cafe", fetcher).join();
+    NearbySearchCache.Result second =
+        cache.search(41.82672, -71.40308, 400, " cafe ", fetcher).join();
+
+    assertEquals(1, fetches.get());
+    assertEquals(1, first.places.size());
+    assertEquals("Near", first.places.get(0).name);
+    assertEquals(1, second.places.size());
+    assertEquals(1, cache.stats().hits);
+    assertEquals(first.version, second.version);
+  }
+
+  @Test
+  public void testVersionChangesWhenTheTileIsFetchedAgain() throws Exception {
+    NearbySearchCache cache = new NearbySearchCache(100, Duration.ofMillis(50));
+    NearbySearchCache.Fetcher fetcher =
+        (lat, lng, radius, keyword) -> CompletableFuture.completedFuture(List.of());
+
+    String first = cache.search(41.82670, -71.40310, 500, "cafe", fetcher).join().version;
+    assertEquals(first, cache.search(41.82670, -71.40310, 500, "cafe", fetcher).join().version);
+    assertNotEquals(first, cache.search(41.82670, -71.40310, 500, "tea", fetcher).join().version);
+
+    Thread.sleep(100);
+    assertNotEquals(first, cache.search(41.82670, -71.40310, 500, "cafe", fetcher).join().version);
+  }
+
+  @Test
+  public void testFetcherGetsTheKeywordAsWritten() {
+    NearbySearchCache cache = new NearbySearchCache(100, Duration.ofMinutes(1));
+    List<String> sent = new ArrayList<>();
+    NearbySearchCache.Fetcher fetcher =
+        (lat, lng, radius, keyword) -> {
+          sent.add(keyword);
+          return CompletableFuture.completedFuture(List.of());
+        };
+
+    cache.search(41.82670, -71.40310, 500, " Breakfast cafe ", fetcher).join();
+    // same tile modulo case and spacing: not fetched again
+    cache.search(41.82670, -71.40310, 500, "breakfast  CAFE", fetcher).join();
+    // too wide for a tile, so searched as asked
+    cache.search(41.82670, -71.40310, 49_990, "Breakfast cafe", fetcher).join();
+
+    assertEquals(List.of("Breakfast cafe", "Breakfast cafe"), sent);
+  }
+
+  @Test
+  public void testDistanceFilterUsesRealDistance() {
+    NearbySearchCache cache = new NearbySearchCache(100, Duration.ofMinutes(1));
+    List<PlaceDetails> upstream = List.of(place("Edge", 41.82670, -71.40310 + 0.0025));
+    NearbySearchCache.Fetcher fetcher =
+        (lat, lng, radius, keyword) -> CompletableFuture.completedFuture(upstream);
+
+    double d = Distance.meters(41.82670, -71.40310, 41.82670, -71.40310 + 0.0025);
+    assertEquals(
+        0, cache.search(41.82670, -71.40310, (int) d - 1, "", fetcher).join().places.size());
+    assertEquals(
+        1, cache.search(41.82670, -71.40310, (int) d + 1, "", fetcher).join().places.size());
+  }
+
+  @Test
+  public void testFullTileFallsBackToTheCallersOwnSearch() {
+    NearbySearchCache cache = new NearbySearchCache(100, Duration.ofMinutes(1));
+    List<PlaceDetails> page = new ArrayList<>();
+    for (int i = 0; i < NearbySearchCache.UPSTREAM_PAGE_SIZE; i++) {
+      page.add(place("Tile " + i, 41.82670, -71.40310));
+    }
+    List<PlaceDetails> direct = List.of(place("Direct", 41.82671, -71.40311));
+    List<double[]> calls = new ArrayList<>();
+
+    NearbySearchCache.Fetcher fetcher =
+        (lat, lng, radius, keyword) -> {
+          calls.add(new double[] {lat, lng, radius});
+          // the first call is the tile's, every later one the caller's own
+          return CompletableFuture.completedFuture(calls.size() == 1 ? page : direct);
+        };
+
+    List<PlaceDetails> first =
+        cache.search(41.82670, -71.40310, 300, "cafe", fetcher).join().places;
+    List<PlaceDetails> second =
+        cache.search(41.82672, -71.40308, 300, "cafe", fetcher).join().places;
+
+    assertEquals(direct, first);
+    assertEquals(direct, second);
+    // one tile fetch, then each query as asked; the full tile is not fetched again
+    assertEquals(3, calls.size());
+    assertNotEquals(300, (int) calls.get(0)[2]);
+    assertArrayEquals(new double[] {41.82670, -71.40310, 300}, calls.get(1));
+    assertArrayEquals(new double[] {41.82672, -71.40308, 300}, calls.get(2));
+
+    // a repeated query behind a full tile is served from its own entry
+    long hits = cache.stats().hits;
+    assertEquals(direct, cache.search(41.82670, -71.40310, 300, "cafe", fetcher).join().places);
+    assertEquals(3, calls.size());
+    assertEquals(hits + 2, cache.stats().hits); // the full tile, then the exact query
+  }
+}
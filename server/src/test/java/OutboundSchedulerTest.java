@@ -0,0 +1,185 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import models.PlaceDetails;
+import org.junit.jupiter.api.Test;
+import src.handlers.GooglePlacesClient;
+import src.upstream.OutboundScheduler;
+import src.upstream.OutboundScheduler.Priority;
+import src.upstream.TokenBucket;
+import src.upstream.UpstreamException;
+
+public class OutboundSchedulerTest {
+
+  private static final Duration LONG = Duration.ofSeconds(30);
+  private static final long SECOND = 1_000_000_000L;
+
+  @Test
+  public void testBucketAllowsABurstThenTheRate() {
+    AtomicLong now = new AtomicLong();
+    TokenBucket bucket = new TokenBucket(10, 2, now::get);
+    assertTrue(bucket.tryTake());
+    assertTrue(bucket.tryTake());
+    assertFalse(bucket.tryTake());
+    assertEquals(SECOND / 10, bucket.nanosUntilAvailable());
+    now.addAndGet(SECOND / 10);
+    assertTrue(bucket.tryTake());
+    now.addAndGet(10 * SECOND); // idle time does not bank more than the burst
+    assertTrue(bucket.tryTake());
+    assertTrue(bucket.tryTake());
+    assertFalse(bucket.tryTake());
+  }
+
+  /** A call that records its label when it goes out and answers at once. */
+  private static CompletableFuture<String> submit(
+      OutboundScheduler scheduler,
+      Priority priority,
+      Object owner,
+      String label,
+      List<String> log) {
+    return scheduler.submit(
+        priority,
+        owner,
+        LONG,
+        timeout -> {
+          log.add(label);
+          return CompletableFuture.completedFuture(label);
+        });
+  }
+
+  @Test
+  public void testQueuedCallsGoOutByPriorityThenTakingTurns() throws Exception {
+    AtomicLong now = new AtomicLong();
+    OutboundScheduler scheduler =
+        new OutboundScheduler("test", new TokenBucket(1, 10, now::get), 100);
+    List<String> log = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 10; i++) submit(scheduler, Priority.FIRST_PAGE, "warm", "warm", log);
+    log.clear(); // the burst is spent; from here on everything queues
+
+    Object a = "request a";
+    Object b = "request b";
+    List<CompletableFuture<String>> calls = new ArrayList<>();
+    calls.add(submit(scheduler, Priority.BACKGROUND, a, "a-hedge", log));
+    calls.add(submit(scheduler, Priority.LATER_RESULTS, a, "a3", log));
+    calls.add(submit(scheduler, Priority.FIRST_PAGE, a, "a1", log));
+    calls.add(submit(scheduler, Priority.FIRST_PAGE, a, "a2", log));
+    calls.add(submit(scheduler, Priority.LATER_RESULTS, a, "a4", log));
+    calls.add(submit(scheduler, Priority.FIRST_PAGE, b, "b1", log));
+    calls.add(submit(scheduler, Priority.FIRST_PAGE, b, "b2", log));
+    assertTrue(log.isEmpty());
+    assertEquals(7, scheduler.queuedCount());
+
+    now.addAndGet(10 * SECOND); // ten tokens; the next submit sends everything out in order
+    calls.add(submit(scheduler, Priority.BACKGROUND, b, "b-hedge", log));
+    for (CompletableFuture<String> call : calls) call.get();
+    assertEquals(List.of("a1", "b1", "a2", "b2", "a3", "a4", "a-hedge", "b-hedge"), log);
+    assertEquals(0, scheduler.queuedCount());
+  }
+
+  @Test
+  public void testPromotedCallGoesOutAheadOfLessUrgentOnes() throws Exception {
+    AtomicLong now = new AtomicLong();
+    OutboundScheduler scheduler =
+        new OutboundScheduler("test", new TokenBucket(1, 3, now::get), 100);
+    List<String> log = Collections.synchronizedList(new ArrayList<>());
+    for (int i = 0; i < 3; i++) submit(scheduler, Priority.FIRST_PAGE, "warm", "warm", log);
+    log.clear();
+
+    CompletableFuture<String> later = submit(scheduler, Priority.LATER_RESULTS, "a", "later", log);
+    CompletableFuture<String> joined = submit(scheduler, Priority.BACKGROUND, "b", "joined", log);
+    scheduler.promote(joined, Priority.FIRST_PAGE);
+    scheduler.promote(later, Priority.BACKGROUND); // never moved down
+    assertEquals(2, scheduler.queuedCount());
+
+    now.addAndGet(3 * SECOND);
+    CompletableFuture<String> last = submit(scheduler, Priority.BACKGROUND, "c", "last", log);
+    later.get();
+    joined.get();
+    last.get();
+    assertEquals(List.of("joined", "later", "last"), log);
+  }
+
+  @Test
+  public void testCallsOutOfTimeAreDroppedWithoutBeingMade() throws Exception {
+    AtomicLong now = new AtomicLong();
+    OutboundScheduler scheduler = new OutboundScheduler("test", new TokenBucket(1, 1, now::get), 1);
+    AtomicInteger made = new AtomicInteger();
+    scheduler.submit(Priority.FIRST_PAGE, "r", LONG, t -> CompletableFuture.completedFuture(""));
+
+    CompletableFuture<String> late =
+        scheduler.submit(
+            Priority.FIRST_PAGE,
+            "r",
+            Duration.ofMillis(50),
+            t -> {
+              made.incrementAndGet();
+              return CompletableFuture.completedFuture("too late");
+            });
+    // the one queue slot is taken
+    ExecutionException full =
+        assertThrows(
+            ExecutionException.class,
+            () -> scheduler.submit(Priority.FIRST_PAGE, "r", LONG, t -> late).get());
+    assertTrue(full.getCause() instanceof UpstreamException);
+
+    ExecutionException e = assertThrows(ExecutionException.class, late::get);
+    assertTrue(e.getCause() instanceof HttpTimeoutException);
+    assertEquals(0, made.get());
+    assertEquals(0, scheduler.queuedCount());
+    assertEquals(2, scheduler.droppedCount());
+  }
+
+  @Test
+  public void testJoiningAQueuedDetailsCallMovesItUp() throws Exception {
+    List<String> asked = Collections.synchronizedList(new ArrayList<>());
+    HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    upstream.createContext(
+        "/maps/api/place/details/json",
+        exchange -> {
+          String query = exchange.getRequestURI().getQuery();
+          String id = query.substring(query.indexOf("place_id=") + 9, query.indexOf('&'));
+          asked.add(id);
+          byte[] body =
+              ("{\"result\":{\"name\":\"" + id + "\"},\"status\":\"OK\"}")
+                  .getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+          }
+        });
+    upstream.start();
+    try {
+      String baseUrl = "http://127.0.0.1:" + upstream.getAddress().getPort();
+      // one details call a second, so everything after the first queues
+      GooglePlacesClient client = new GooglePlacesClient(baseUrl, "test", null, 10, 1);
+      client.getPlaceDetailsAsync("first", LONG, Priority.FIRST_PAGE).get();
+
+      CompletableFuture<PlaceDetails> prefetch =
+          client.getPlaceDetailsAsync("prefetched", LONG, Priority.BACKGROUND);
+      CompletableFuture<PlaceDetails> later =
+          client.getPlaceDetailsAsync("later", LONG, Priority.LATER_RESULTS);
+      // a user now needs the prefetched place on their first page
+      CompletableFuture<PlaceDetails> needed =
+          client.getPlaceDetailsAsync("prefetched", LONG, Priority.FIRST_PAGE);
+
+      assertEquals("prefetched", needed.get().name);
+      assertEquals("prefetched", prefetch.get().name);
+      assertEquals("later", later.get().name);
+      assertEquals(List.of("first", "prefetched", "later"), asked);
+    } finally {
+      upstream.stop(0);
+    }
+  }
+}
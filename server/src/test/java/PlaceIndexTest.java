@@ -0,0 +1,134 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import models.PlaceResult;
+import models.Preference;
+import org.junit.jupiter.api.Test;
+import src.handlers.PlacesJson;
+import src.handlers.RankingHandler;
+import src.ranking.KeywordScorer.MatchMode;
+import src.ranking.PlaceIndex;
+
+public class PlaceIndexTest {
+
+  private static PlaceResult place(String name, String description, double rating) {
+    PlaceResult p = new PlaceResult();
+    p.name = name;
+    p.description = description;
+    p.rating = rating;
+    return p;
+  }
+
+  private static Preference pref(String keyword, int weight) {
+    Preference p = new Preference();
+    p.keyword = keyword;
+    p.weight = weight;
+    return p;
+  }
+
+  @Test
+  public void testOnlyMatchingPlacesAreReturned() {
+    PlaceIndex index =
+        PlaceIndex.build(
+            List.of(
+                place("Bean There", "Quiet coffee shop with espresso", 4.1),
+                place("Green Park", "Open lawn and benches", 4.8),
+                place("Library Cafe", "Coffee and quiet study tables", 4.5)));
+
+    List<PlaceIndex.Hit> hits = index.search(List.of(pref("quiet", 3)));
+    assertEquals(2, hits.size());
+    assertEquals(2, index.documentFrequency("quiet"));
+    assertEquals(0, index.documentFrequency("espresso machine"));
+  }
+
+  @Test
+  public void testRarerTermsAndNameMatchesScoreHigher() {
+    PlaceIndex index =
+        PlaceIndex.build(
+            List.of(
+                place("Corner Spot", "coffee coffee and pastries", 4.0),
+                place("Espresso Bar", "coffee drinks", 4.0),
+                place("Tea House", "coffee and tea", 4.0)));
+
+    List<PlaceIndex.Hit> hits = index.search(List.of(pref("coffee", 1), pref("espresso", 1)));
+    assertEquals(3, hits.size());
+    assertEquals(1, hits.get(0).doc); // the only "espresso", and in the name
+  }
+
+  @Test
+  public void testNegativeWeightsAndRatingTieBreak() {
+    PlaceIndex index =
+        PlaceIndex.build(
+            List.of(
+                place("A", "outdoor seating", 3.9),
+                place("B", "outdoor seating", 4.7),
+                place("C", "outdoor seating, loud music", 5.0)));
+
+    List<PlaceIndex.Hit> hits = index.search(List.of(pref("outdoor", 2), pref("loud", -5)));
+    assertEquals(1, hits.get(0).doc);
+    assertEquals(0, hits.get(1).doc);
+    assertEquals(2, hits.get(2).doc);
+    assertTrue(hits.get(2).score < 0);
+  }
+
+  @Test
+  public void testRankByRelevanceOnFixture() throws Exception {
+    List<PlaceResult> places =
+        PlacesJson.parseResults(
+            Files.readString(Paths.get("src/test/TestingData/all_prov_accurate(r=2km).json")));
+    PlaceIndex index = PlaceIndex.build(places);
+
+    List<PlaceResult> ranked =
+        new RankingHandler()
+            .rankByRelevance(
+                index, List.of(pref("korean", 3), pref("soju", 5)), MatchMode.SUBSTRING);
+
+    assertFalse(ranked.isEmpty());
+    assertEquals("Den Den Café Asiana", ranked.get(0).name);
+    assertEquals(8, ranked.get(0).score);
+    assertNotNull(ranked.get(0).relevance);
+    for (int i = 1; i < ranked.size(); i++) {
+      assertTrue(ranked.get(i - 1).relevance >= ranked.get(i).relevance);
+    }
+    assertNull(places.get(0).relevance, "index copies, never mutates, the candidates");
+  }
+
+  @Test
+  public void testUpdatedIndexScoresLikeARebuild() {
+    List<PlaceResult> places =
+        List.of(
+            place("Bean There", "Quiet coffee shop with espresso", 4.1),
+            place("Green Park", "Open lawn and benches", 4.8),
+            place("Library Cafe", "Coffee and quiet study tables", 4.5));
+    List<Preference> prefs = List.of(pref("quiet coffee", 2), pref("lawn", 1));
+    PlaceIndex index = PlaceIndex.build(places);
+
+    // the park's details arrive, and now it serves coffee
+    PlaceResult park = place("Green Park", "Coffee cart on a quiet lawn", 4.7);
+    PlaceIndex updated = index.with(1, park.name, park.description, park.rating);
+    assertHits(
+        PlaceIndex.build(List.of(places.get(0), park, places.get(2))).search(prefs),
+        updated.search(prefs));
+
+    // then the first place drops out; the others keep their ids
+    List<PlaceIndex.Hit> rebuilt = PlaceIndex.build(List.of(park, places.get(2))).search(prefs);
+    List<PlaceIndex.Hit> removed = updated.without(0).search(prefs);
+    assertEquals(rebuilt.size(), removed.size());
+    for (int i = 0; i < rebuilt.size(); i++) {
+      assertEquals(rebuilt.get(i).doc + 1, removed.get(i).doc);
+      assertEquals(rebuilt.get(i).score, removed.get(i).score, 1e-9);
+    }
+    // the original is untouched
+    assertHits(index.search(prefs), PlaceIndex.build(places).search(prefs));
+  }
+
+  private static void assertHits(List<PlaceIndex.Hit> expected, List<PlaceIndex.Hit> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).doc, actual.get(i).doc);
+      assertEquals(expected.get(i).score, actual.get(i).score, 1e-9);
+    }
+  }
+}
@@ -0,0 +1,104 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import models.PlaceDetails;
+import models.PlaceResult;
+import org.junit.jupiter.api.Test;
+import src.handlers.PlacesApiJson;
+import src.handlers.PlacesJson;
+
+public class PlacesApiJsonTest {
+
+  private static final String DETAILS =
+      "{\"html_attributions\":[],\"result\":{"
+          + "\"address_components\":[{\"long_name\":\"Thayer\",\"types\":[\"route\"]}],"
+          + "\"editorial_summary\":{\"language\":\"en\",\"overview\":\"Cozy espresso bar\"},"
+          + "\"geometry\":{\"location\":{\"lat\":41.8268,\"lng\":-71.4025},"
+          + "\"viewport\":{\"northeast\":{\"lat\":41.83,\"lng\":-71.40}}},"
+          + "\"name\":\"Bolt Coffee\",\"opening_hours\":{\"open_now\":true,"
+          + "\"periods\":[{\"open\":{\"day\":0,\"time\":\"0700\"}}]},"
+          + "\"photos\":[{\"height\":3024,\"photo_reference\":\"abc\"}],"
+          + "\"place_id\":\"p1\",\"price_level\":2,\"rating\":4.6,"
+          + "\"reviews\":[{\"text\":\"great\",\"rating\":5}],"
+          + "\"user_ratings_total\":812,\"vicinity\":\"61 Washington St\"},\"status\":\"OK\"}";
+
+  private static PlacesApiJson.Response read(String body) throws IOException {
+    return PlacesApiJson.read(new StringReader(body));
+  }
+
+  @Test
+  public void testKeepsOnlyTheUsedFields() throws Exception {
+    PlacesApiJson.Response response = read(DETAILS);
+    assertEquals("OK", response.status);
+    assertTrue(response.results.isEmpty());
+    PlaceDetails place = response.result;
+    assertEquals("p1", place.placeId);
+    assertEquals("Bolt Coffee", place.name);
+    assertEquals("61 Washington St", place.vicinity);
+    assertEquals(41.8268, place.lat);
+    assertEquals(-71.4025, place.lng);
+    assertEquals(4.6, place.rating);
+    assertEquals(Integer.valueOf(2), place.priceLevel);
+    assertTrue(place.openNow);
+    assertEquals("Cozy espresso bar", place.overview);
+    assertEquals(812, place.userRatingsTotal);
+  }
+
+  @Test
+  public void testMissingAndNullFieldsMapLikeBefore() throws Exception {
+    String body = "{\"result\":{\"name\":\"Bare\",\"rating\":null,\"opening_hours\":{}}}";
+    PlaceDetails place = read(body).result;
+    assertFalse(place.hasLocation());
+    PlaceResult mapped = PlacesJson.fromPlacesApi(place);
+    assertEquals("Bare", mapped.name);
+    assertNull(mapped.priceLevel);
+    assertNull(mapped.location);
+    assertEquals(0.0, mapped.rating);
+    assertFalse(mapped.openNow);
+    assertEquals(PlacesJson.NO_DESCRIPTION, mapped.description);
+    assertEquals(-1, mapped.totalRatings);
+  }
+
+  @Test
+  public void testReadsNearbyResultsAndErrorStatuses() throws Exception {
+    PlacesApiJson.Response nearby =
+        read(
+            "{\"next_page_token\":\"t\",\"results\":[{\"place_id\":\"a\",\"name\":\"A\"},"
+                + "{\"place_id\":\"b\",\"icon\":\"x.png\",\"types\":[\"cafe\"]}],"
+                + "\"status\":\"OK\"}");
+    assertEquals(2, nearby.results.size());
+    assertEquals("a", nearby.results.get(0).placeId);
+    assertEquals("b", nearby.results.get(1).placeId);
+    assertNull(nearby.results.get(1).name);
+
+    PlacesApiJson.Response denied = read("{\"error_message\":\"bad key\",\"status\":\"DENIED\"}");
+    assertEquals("DENIED", denied.status);
+    assertNull(denied.result);
+  }
+
+  @Test
+  public void testCompactBodyReadsBackTheSame() throws Exception {
+    PlaceDetails place = read(DETAILS).result;
+    String compact = PlacesApiJson.toDetailsJson(place);
+    assertTrue(compact.length() < DETAILS.length() / 2, compact);
+    PlaceDetails again = read(compact).result;
+    assertEquals(
+        PlacesJson.GSON.toJson(PlacesJson.fromPlacesApi(place)),
+        PlacesJson.GSON.toJson(PlacesJson.fromPlacesApi(again)));
+    assertEquals(place.placeId, again.placeId);
+
+    List<PlaceDetails> results = read(PlacesApiJson.toNearbyJson(List.of(place, again))).results;
+    assertEquals(2, results.size());
+    assertEquals("Bolt Coffee", results.get(1).name);
+  }
+
+  @Test
+  public void testMalformedBodiesFail() {
+    assertThrows(IOException.class, () -> read("<html>502 Bad Gateway</html>"));
+    assertThrows(IOException.class, () -> read("[1,2]"));
+    assertThrows(IOException.class, () -> read("{\"result\":{\"rating\":\"high\"}}"));
+    assertThrows(IOException.class, () -> read("{\"result\":{\"name\":\"Cut"));
+  }
+}
@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import models.PlaceDetails;
+import org.junit.jupiter.api.Test;
+import src.cache.NearbySearchCache;
+import src.handlers.GooglePlacesClient;
+import src.handlers.PlacesHandler;
+import src.handlers.PlacesJson;
+import src.metrics.Metrics;
+import src.upstream.OutboundScheduler.Priority;
+
+public class PlacesEnrichmentTest {
+
+  private static final double LAT = 41.8240;
+  private static final double LNG = -71.4128;
+
+  private static PlaceDetails nearby(int i) {
+    return new PlaceDetails(
+        "p" + i, "Place " + i, null, LAT + i * 0.0001, LNG, 4.0, null, false, null, 10);
+  }
+
+  /** A client whose nearby search finds p0, p1 and p2, and whose details call for p1 is bad. */
+  private static GooglePlacesClient client(CompletableFuture<PlaceDetails> p1Details) {
+    NearbySearchCache tiles = new NearbySearchCache(10, Duration.ofMinutes(1));
+    List<PlaceDetails> found = List.of(nearby(0), nearby(1), nearby(2));
+    return new GooglePlacesClient("http://127.0.0.1:1", "test") {
+      @Override
+      public NearbySearchCache.Result searchNearbyVersioned(
+          double lat, double lng, int radius, String keyword) {
+        return tiles
+            .search(
+                lat, lng, radius, keyword, (a, b, c, d) -> CompletableFuture.completedFuture(found))
+            .join();
+      }
+
+      @Override
+      public CompletableFuture<PlaceDetails> getPlaceDetailsAsync(
+          String placeId, Duration timeout, Priority priority) {
+        if (placeId.equals("p1")) return p1Details;
+        int i = placeId.charAt(1) - '0';
+        PlaceDetails place = nearby(i);
+        return CompletableFuture.completedFuture(
+            new PlaceDetails(
+                place.placeId,
+                place.name,
+                "1 Main St",
+                place.lat,
+                place.lng,
+                4.5,
+                2,
+                true,
+                "Enriched " + i,
+                100));
+      }
+    };
+  }
+
+  /** The /places results from {@code client}, by name. */
+  private static Map<String, JsonObject> places(GooglePlacesClient client) throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/places", new PlacesHandler(client, 8, Duration.ofMillis(300)));
+    server.start();
+    try {
+      URI uri =
+          URI.create(
+              "http://127.0.0.1:"
+                  + server.getAddress().getPort()
+                  + "/places?lat="
+                  + LAT
+                  + "&lng="
+                  + LNG
+                  + "&radius=500");
+      HttpResponse<String> response =
+          HttpClient.newHttpClient()
+              .send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      Map<String, JsonObject> byName = new HashMap<>();
+      for (JsonElement place :
+          JsonParser.parseString(response.body()).getAsJsonObject().getAsJsonArray("results")) {
+        byName.put(place.getAsJsonObject().get("name").getAsString(), place.getAsJsonObject());
+      }
+      return byName;
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private static void assertOnlyP1Degraded(CompletableFuture<PlaceDetails> p1Details)
+      throws Exception {
+    long degraded = Metrics.DEGRADED_DETAILS.get();
+    Map<String, JsonObject> places = places(client(p1Details));
+
+    assertEquals(3, places.size());
+    assertEquals("Enriched 0", places.get("Place 0").get("description").getAsString());
+    assertEquals("Enriched 2", places.get("Place 2").get("description").getAsString());
+    // the bad lookup leaves its place with what nearby search said, and the others untouched
+    assertEquals(PlacesJson.NO_DESCRIPTION, places.get("Place 1").get("description").getAsString());
+    assertEquals(4.0, places.get("Place 1").get("rating").getAsDouble());
+    assertEquals(1, Metrics.DEGRADED_DETAILS.get() - degraded);
+  }
+
+  @Test
+  public void testCancelledLookupDegradesOnlyItsPlace() throws Exception {
+    CompletableFuture<PlaceDetails> cancelled = new CompletableFuture<>();
+    cancelled.cancel(true);
+    assertOnlyP1Degraded(cancelled);
+  }
+
+  @Test
+  public void testSlowLookupDegradesOnlyItsPlace() throws Exception {
+    // never completes; the handler's 300 ms details timeout gives up on it
+    assertOnlyP1Degraded(new CompletableFuture<>());
+  }
+}
@@ -0,0 +1,125 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import models.PlaceDetails;
+import models.PlaceResult;
+import models.Preference;
+import models.ResultsWrapper;
+import org.junit.jupiter.api.Test;
+import src.handlers.PlacesJson;
+import src.handlers.RankingHandler;
+
+public class PlacesJsonTest {
+
+  private static String stream(ResultsWrapper page) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PlacesJson.write(page, out);
+    return out.toString(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testStreamingMatchesToJson() throws Exception {
+    String json = Files.readString(Paths.get("src/test/TestingData/all_prov_accurate(r=2km).json"));
+    ResultsWrapper page = new ResultsWrapper();
+    page.results = PlacesJson.parseResults(json);
+    assertEquals(PlacesJson.toJson(page), stream(page));
+
+    page.total = 122;
+    page.offset = 10;
+    page.limit = 5;
+    page.results = page.results.subList(10, 15);
+    assertEquals(PlacesJson.toJson(page), stream(page));
+  }
+
+  @Test
+  public void testStreamingEscapesLikeGson() throws Exception {
+    PlaceResult place = new PlaceResult();
+    place.name = "Tom & Jerry's <Diner>";
+    place.description = "café \"quoted\"\n";
+    place.relevance = 1.5;
+    List<PlaceResult> places = new ArrayList<>();
+    places.add(place);
+    places.add(null);
+    ResultsWrapper page = new ResultsWrapper();
+    page.results = places;
+    assertEquals(PlacesJson.toJson(page), stream(page));
+
+    assertEquals(PlacesJson.toJson(new ResultsWrapper()), stream(new ResultsWrapper()));
+  }
+
+  @Test
+  public void testFromPlacesApiMapsDetails() {
+    PlaceResult place =
+        PlacesJson.fromPlacesApi(
+            new PlaceDetails(
+                "p1", "Blue State", "300 Thayer St", 41.83, -71.40, 4.2, 2, true, "Coffee.", 512));
+    assertEquals("Blue State", place.name);
+    assertEquals("300 Thayer St", place.address);
+    assertEquals(41.83, place.location.lat);
+    assertEquals(-71.40, place.location.lng);
+    assertEquals(4.2, place.rating);
+    assertEquals(2, place.priceLevel);
+    assertTrue(place.openNow);
+    assertEquals("Coffee.", place.description);
+    assertEquals(512, place.totalRatings);
+  }
+
+  @Test
+  public void testFromPlacesApiFillsGapsInANearbyResult() {
+    PlaceResult place =
+        PlacesJson.fromPlacesApi(
+            new PlaceDetails(
+                "p1", "Blue State", null, 41.83, -71.40, Double.NaN, null, false, null, 0));
+    assertEquals(0, place.rating);
+    assertNull(place.priceLevel);
+    assertEquals(PlacesJson.NO_DESCRIPTION, place.description);
+
+    String json = PlacesJson.toJson(List.of(place));
+    assertTrue(json.contains("\"price_level\":\"" + PlacesJson.NO_PRICE_LEVEL + "\""), json);
+    assertFalse(json.contains("\"address\""), json);
+  }
+
+  @Test
+  public void testParsesWrappedAndBareArrays() {
+    String place =
+        "{\"name\":\"A\",\"price_level\":\"price level unavailable\","
+            + "\"location\":{\"lat\":1.5,\"lng\":2.5},\"rating\":4,\"open_now\":true,"
+            + "\"description\":\"d\",\"total_ratings\":7,\"extra\":[1,2]}";
+    List<PlaceResult> wrapped =
+        PlacesJson.parseResults("{\"status\":\"OK\",\"results\":[" + place + "]}");
+    List<PlaceResult> bare = PlacesJson.parseResults("[" + place + "]");
+
+    assertEquals(PlacesJson.toJson(wrapped), PlacesJson.toJson(bare));
+    PlaceResult parsed = bare.get(0);
+    assertEquals("A", parsed.name);
+    assertNull(parsed.priceLevel);
+    assertEquals(1.5, parsed.location.lat);
+    assertEquals(2.5, parsed.location.lng);
+    assertTrue(parsed.openNow);
+    assertEquals(7, parsed.totalRatings);
+    // serializing and parsing again is lossless
+    assertEquals(
+        PlacesJson.toJson(bare),
+        PlacesJson.toJson(PlacesJson.parseResults(PlacesJson.toJson(bare))));
+  }
+
+  @Test
+  public void testRankEnrichedMatchesTypedRank() throws Exception {
+    String json = Files.readString(Paths.get("src/test/TestingData/all_prov_accurate(r=2km).json"));
+    Preference coffee = new Preference();
+    coffee.keyword = "coffee";
+    coffee.weight = 3;
+    List<Preference> prefs = List.of(coffee);
+    RankingHandler ranking = new RankingHandler();
+
+    List<PlaceResult> ranked = ranking.rank(PlacesJson.parseResults(json), prefs);
+    assertEquals(PlacesJson.toJson(ranked), ranking.rankEnriched(json, prefs));
+    assertTrue(ranked.get(0).score >= ranked.get(ranked.size() - 1).score);
+    assertTrue(ranked.get(0).description.toLowerCase().contains("coffee"));
+  }
+}
@@ -0,0 +1,299 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import src.handlers.GooglePlacesClient;
+import src.handlers.MockPlacesHandler;
+import src.handlers.PlacesHandler;
+
+public class PlacesStreamTest {
+
+  /** Three places; only the slowest one's details mention the keyword. */
+  private static final String[] NAMES = {"Slow Cafe Spot", "Quick Stop", "Middle Place"};
+
+  private static final long[] DETAILS_DELAY_MS = {600, 50, 150};
+
+  private static void send(HttpExchange exchange, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(bytes);
+    }
+  }
+
+  private static JsonObject place(int i) {
+    JsonObject location = new JsonObject();
+    location.addProperty("lat", 41.8240 + i * 0.001);
+    location.addProperty("lng", -71.4128);
+    JsonObject geometry = new JsonObject();
+    geometry.add("location", location);
+    JsonObject place = new JsonObject();
+    place.addProperty("place_id", "p" + i);
+    place.addProperty("name", NAMES[i]);
+    place.add("geometry", geometry);
+    place.addProperty("rating", 3.0 + i * 0.5);
+    return place;
+  }
+
+  private static HttpServer fakeUpstream() throws IOException {
+    return fakeUpstream(-1);
+  }
+
+  /** Like {@link #fakeUpstream()}, with no name in place {@code nameless}'s details. */
+  private static HttpServer fakeUpstream(int nameless) throws IOException {
+    HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    upstream.createContext(
+        "/maps/api/place/nearbysearch/json",
+        exchange -> {
+          JsonArray results = new JsonArray();
+          for (int i = 0; i < NAMES.length; i++) results.add(place(i));
+          JsonObject body = new JsonObject();
+          body.add("results", results);
+          body.addProperty("status", "OK");
+          send(exchange, body.toString());
+        });
+    upstream.createContext(
+        "/maps/api/place/details/json",
+        exchange -> {
+          String query = exchange.getRequestURI().getQuery();
+          int i = query.charAt(query.indexOf("place_id=p") + "place_id=p".length()) - '0';
+          try {
+            Thread.sleep(DETAILS_DELAY_MS[i]);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          JsonObject result = place(i);
+          JsonObject summary = new JsonObject();
+          summary.addProperty("overview", i == 0 ? "a quiet cafe" : "a shop");
+          result.add("editorial_summary", summary);
+          if (i == nameless) result.remove("name");
+          JsonObject body = new JsonObject();
+          body.add("result", result);
+          body.addProperty("status", "OK");
+          send(exchange, body.toString());
+        });
+    upstream.setExecutor(Executors.newCachedThreadPool());
+    upstream.start();
+    return upstream;
+  }
+
+  /** One parsed event: its name and its (single-line) data. */
+  private static final class Event {
+    final String name;
+    final String data;
+    final long atMillis;
+
+    Event(String name, String data, long atMillis) {
+      this.name = name;
+      this.data = data;
+      this.atMillis = atMillis;
+    }
+  }
+
+  private static List<Event> readEvents(HttpClient http, URI uri) throws Exception {
+    long start = System.nanoTime();
+    HttpResponse<Stream<String>> response =
+        http.send(
+            HttpRequest.newBuilder(uri).header("Accept", "text/event-stream").build(),
+            HttpResponse.BodyHandlers.ofLines());
+    assertEquals(200, response.statusCode());
+    assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/event"));
+    List<Event> events = new ArrayList<>();
+    String[] name = {null};
+    response
+        .body()
+        .forEach(
+            line -> {
+              if (line.startsWith("event: ")) {
+                name[0] = line.substring("event: ".length());
+              } else if (line.startsWith("data: ")) {
+                long at = (System.nanoTime() - start) / 1_000_000;
+                events.add(new Event(name[0], line.substring("data: ".length()), at));
+              }
+            });
+    return events;
+  }
+
+  @Test
+  public void testStreamSendsProvisionalThenUpdatesThenFinal() throws Exception {
+    HttpServer upstream = fakeUpstream();
+    String baseUrl = "http://127.0.0.1:" + upstream.getAddress().getPort();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/places",
+        new PlacesHandler(new GooglePlacesClient(baseUrl, "test"), 8, Duration.ofSeconds(3)));
+    server.createContext(
+        "/plain",
+        new PlacesHandler(new GooglePlacesClient(baseUrl, "test"), 8, Duration.ofSeconds(3)));
+    server.createContext(
+        "/warmup",
+        new PlacesHandler(new GooglePlacesClient(baseUrl, "test"), 8, Duration.ofSeconds(3)));
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+    try {
+      String port = Integer.toString(server.getAddress().getPort());
+      String query = "?lat=41.824&lng=-71.4128&radius=1000&keyword=cafe";
+      HttpClient http = HttpClient.newHttpClient();
+      // a first stream on a cold JVM spends most of a second loading classes; the timing below
+      // is about the handler, so warm up on one with its own caches
+      readEvents(http, URI.create("http://127.0.0.1:" + port + "/warmup" + query));
+      URI streamed = URI.create("http://127.0.0.1:" + port + "/places" + query);
+      List<Event> events = readEvents(http, streamed);
+
+      assertEquals(
+          List.of("provisional", "update", "update", "update", "final"),
+          events.stream().map(e -> e.name).collect(Collectors.toList()));
+      // the first event does not wait for the slowest details call
+      assertTrue(events.get(0).atMillis < DETAILS_DELAY_MS[0] - 200, events.get(0).atMillis + "ms");
+
+      JsonObject provisional = JsonParser.parseString(events.get(0).data).getAsJsonObject();
+      assertEquals(3, provisional.getAsJsonArray("results").size());
+      // no descriptions yet, so rating decides: p2, p1, p0
+      assertEquals("[2,1,0]", provisional.getAsJsonArray("order").toString());
+
+      // updates arrive as the calls finish; the cafe jumps to the top once its details land
+      JsonObject first = JsonParser.parseString(events.get(1).data).getAsJsonObject();
+      assertEquals(1, first.get("index").getAsInt());
+      JsonObject last = JsonParser.parseString(events.get(3).data).getAsJsonObject();
+      assertEquals(0, last.get("index").getAsInt());
+      assertEquals(0, last.get("position").getAsInt());
+      assertEquals(5, last.getAsJsonObject("place").get("score").getAsInt());
+      assertEquals("[0,2,1]", last.getAsJsonArray("order").toString());
+
+      // the final event is the plain response body
+      HttpResponse<String> plain =
+          http.send(
+              HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/plain" + query))
+                  .build(),
+              HttpResponse.BodyHandlers.ofString());
+      assertEquals(plain.body(), events.get(4).data);
+    } finally {
+      server.stop(0);
+      upstream.stop(0);
+    }
+  }
+
+  @Test
+  public void testPlaceWhoseDetailsHaveNoNameIsDroppedLikeInThePlainBody() throws Exception {
+    HttpServer upstream = fakeUpstream(1);
+    String baseUrl = "http://127.0.0.1:" + upstream.getAddress().getPort();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/places",
+        new PlacesHandler(new GooglePlacesClient(baseUrl, "test"), 8, Duration.ofSeconds(3)));
+    server.createContext(
+        "/plain",
+        new PlacesHandler(new GooglePlacesClient(baseUrl, "test"), 8, Duration.ofSeconds(3)));
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+    try {
+      String base = "http://127.0.0.1:" + server.getAddress().getPort();
+      String query = "?lat=41.824&lng=-71.4128&radius=1000&keyword=cafe";
+      HttpClient http = HttpClient.newHttpClient();
+      List<Event> events = readEvents(http, URI.create(base + "/places" + query));
+      assertEquals(5, events.size());
+      JsonObject dropped = JsonParser.parseString(events.get(1).data).getAsJsonObject();
+      assertEquals(1, dropped.get("index").getAsInt());
+      assertTrue(dropped.get("place").isJsonNull());
+      assertEquals(-1, dropped.get("position").getAsInt());
+      assertEquals("[2,0]", dropped.getAsJsonArray("order").toString());
+
+      JsonObject last = JsonParser.parseString(events.get(4).data).getAsJsonObject();
+      assertEquals(2, last.getAsJsonArray("results").size());
+      HttpResponse<String> plain =
+          http.send(
+              HttpRequest.newBuilder(URI.create(base + "/plain" + query)).build(),
+              HttpResponse.BodyHandlers.ofString());
+      assertEquals(plain.body(), events.get(4).data);
+    } finally {
+      server.stop(0);
+      upstream.stop(0);
+    }
+  }
+
+  @Test
+  public void testBm25StreamMatchesThePlainBodyAndPagesShareTheIndex() throws Exception {
+    HttpServer upstream = fakeUpstream(1);
+    String baseUrl = "http://127.0.0.1:" + upstream.getAddress().getPort();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/places",
+        new PlacesHandler(new GooglePlacesClient(baseUrl, "test"), 8, Duration.ofSeconds(3)));
+    PlacesHandler plainHandler =
+        new PlacesHandler(new GooglePlacesClient(baseUrl, "test"), 8, Duration.ofSeconds(3));
+    server.createContext("/plain", plainHandler);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+    try {
+      String base = "http://127.0.0.1:" + server.getAddress().getPort();
+      String query = "?lat=41.824&lng=-71.4128&radius=1000&keyword=cafe%20shop&rank=bm25";
+      HttpClient http = HttpClient.newHttpClient();
+
+      // the stream's index is updated as each place's details arrive, and loses the nameless one
+      List<Event> events = readEvents(http, URI.create(base + "/places" + query));
+      assertEquals("final", events.get(events.size() - 1).name);
+      HttpResponse<String> plain =
+          http.send(
+              HttpRequest.newBuilder(URI.create(base + "/plain" + query + "&limit=1")).build(),
+              HttpResponse.BodyHandlers.ofString());
+      HttpResponse<String> second =
+          http.send(
+              HttpRequest.newBuilder(URI.create(base + "/plain" + query + "&limit=1&offset=1"))
+                  .build(),
+              HttpResponse.BodyHandlers.ofString());
+      JsonObject all = JsonParser.parseString(events.get(events.size() - 1).data).getAsJsonObject();
+      JsonArray pages = new JsonArray();
+      pages.addAll(
+          JsonParser.parseString(plain.body()).getAsJsonObject().getAsJsonArray("results"));
+      pages.addAll(
+          JsonParser.parseString(second.body()).getAsJsonObject().getAsJsonArray("results"));
+      assertEquals(2, all.getAsJsonArray("results").size());
+      assertEquals(all.getAsJsonArray("results"), pages);
+
+      // the second page was ranked from the first page's index
+      assertEquals(1, plainHandler.indexCacheStats().hits);
+    } finally {
+      server.stop(0);
+      upstream.stop(0);
+    }
+  }
+
+  @Test
+  public void testMockPlacesStreamsOneFinalEvent() throws Exception {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/places", new MockPlacesHandler());
+    server.start();
+    try {
+      String uri = "http://127.0.0.1:" + server.getAddress().getPort() + "/places?keyword=cafe";
+      HttpClient http = HttpClient.newHttpClient();
+      List<Event> events = readEvents(http, URI.create(uri));
+      assertEquals(1, events.size());
+      assertEquals("final", events.get(0).name);
+      HttpResponse<String> plain =
+          http.send(
+              HttpRequest.newBuilder(URI.create(uri)).build(),
+              HttpResponse.BodyHandlers.ofString());
+      assertEquals(plain.body(), events.get(0).data);
+    } finally {
+      server.stop(0);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+import src.handlers.GooglePlacesClient;
+import src.handlers.PlacesHandler;
+import src.metrics.Metrics;
+import src.server.RequestCoalescer;
+
+public class RequestCoalescerTest {
+
+  @Test
+  public void testFollowersShareTheLeadersResult() throws Exception {
+    RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+    RequestCoalescer.Flight<String> leader = coalescer.join("k");
+    RequestCoalescer.Flight<String> follower = coalescer.join("k");
+    RequestCoalescer.Flight<String> other = coalescer.join("other");
+    assertTrue(leader.leader());
+    assertFalse(follower.leader());
+    assertTrue(other.leader());
+
+    CompletableFuture<String> waiting =
+        CompletableFuture.supplyAsync(
+            () -> {
+              try {
+                return follower.await(Duration.ofSeconds(5));
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    leader.complete("ranked");
+    leader.close();
+    assertEquals("ranked", waiting.get());
+    assertEquals(1, coalescer.coalescedCount());
+    assertEquals(2, coalescer.leaderCount());
+
+    // once the flight lands, the next request computes afresh
+    assertTrue(coalescer.join("k").leader());
+  }
+
+  @Test
+  public void testLeaderFailureReachesEveryFollower() throws Exception {
+    RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+    RequestCoalescer.Flight<String> leader = coalescer.join("k");
+    List<RequestCoalescer.Flight<String>> followers = new ArrayList<>();
+    for (int i = 0; i < 3; i++) followers.add(coalescer.join("k"));
+
+    leader.fail(new HttpTimeoutException("upstream too slow"));
+    for (RequestCoalescer.Flight<String> follower : followers) {
+      ExecutionException e =
+          assertThrows(ExecutionException.class, () -> follower.await(Duration.ofSeconds(1)));
+      assertTrue(e.getCause() instanceof HttpTimeoutException);
+    }
+  }
+
+  @Test
+  public void testLeaderThatEndsWithoutAResultReleasesFollowers() throws Exception {
+    RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+    RequestCoalescer.Flight<String> follower;
+    try (RequestCoalescer.Flight<String> leader = coalescer.join("k")) {
+      follower = coalescer.join("k");
+      assertTrue(leader.leader());
+    }
+    assertThrows(ExecutionException.class, () -> follower.await(Duration.ofSeconds(1)));
+    assertEquals(0, coalescer.inFlightCount());
+  }
+
+  @Test
+  public void testFollowerWaitIsBounded() throws Exception {
+    RequestCoalescer<String> coalescer = new RequestCoalescer<>();
+    RequestCoalescer.Flight<String> leader = coalescer.join("k");
+    RequestCoalescer.Flight<String> impatient = coalescer.join("k");
+    RequestCoalescer.Flight<String> patient = coalescer.join("k");
+
+    assertThrows(HttpTimeoutException.class, () -> impatient.await(Duration.ofMillis(20)));
+    assertEquals(1, coalescer.timeoutCount());
+    // giving up did not cancel the leader or the other followers
+    leader.complete("late");
+    assertEquals("late", patient.await(Duration.ofSeconds(1)));
+  }
+
+  @Test
+  public void testConcurrentIdenticalPlacesRequestsShareOneComputation() throws Exception {
+    AtomicInteger nearbyCalls = new AtomicInteger();
+    HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    upstream.createContext(
+        "/maps/api/place/nearbysearch/json",
+        exchange -> {
+          nearbyCalls.incrementAndGet();
+          try {
+            Thread.sleep(300); // long enough for every request to arrive
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          String body =
+              "{\"results\":[{\"place_id\":\"p1\",\"name\":\"Cafe\",\"rating\":4.5}],"
+                  + "\"status\":\"OK\"}";
+          send(exchange, body);
+        });
+    upstream.createContext(
+        "/maps/api/place/details/json",
+        exchange -> send(exchange, "{\"result\":{\"name\":\"Cafe\"},\"status\":\"OK\"}"));
+    upstream.setExecutor(Executors.newCachedThreadPool());
+    upstream.start();
+
+    String baseUrl = "http://127.0.0.1:" + upstream.getAddress().getPort();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext(
+        "/places",
+        new PlacesHandler(new GooglePlacesClient(baseUrl, "test"), 8, Duration.ofSeconds(3)));
+    ExecutorService executor = Executors.newCachedThreadPool();
+    server.setExecutor(executor);
+    server.start();
+    try {
+      URI uri =
+          URI.create(
+              "http://127.0.0.1:"
+                  + server.getAddress().getPort()
+                  + "/places?lat=41.8&lng=-71.4&radius=800&keyword=cafe");
+      HttpClient http = HttpClient.newHttpClient();
+      List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+      for (int i = 0; i < 10; i++) {
+        HttpRequest request = HttpRequest.newBuilder(uri).build();
+        responses.add(http.sendAsync(request, HttpResponse.BodyHandlers.ofString()));
+      }
+      String first = responses.get(0).get().body();
+      String etag = responses.get(0).get().headers().firstValue("ETag").orElse(null);
+      assertNotNull(etag);
+      for (CompletableFuture<HttpResponse<String>> response : responses) {
+        assertEquals(200, response.get().statusCode());
+        assertEquals(first, response.get().body());
+        // the leader's own response and every follower's carry the tag, not just cached copies
+        assertEquals(etag, response.get().headers().firstValue("ETag").orElse(null));
+      }
+      assertEquals(1, nearbyCalls.get());
+      // all ten arrive within the leader's 300 ms; allow a few stragglers on a slow machine
+      assertTrue(coalesced() >= 5, "coalesced " + coalesced());
+
+      // a few meters away the page is ranked from the same search, so the tag still holds
+      URI nearby =
+          URI.create(
+              "http://127.0.0.1:"
+                  + server.getAddress().getPort()
+                  + "/places?lat=41.80001&lng=-71.4&radius=800&keyword=cafe");
+      HttpResponse<String> revalidated =
+          http.send(
+              HttpRequest.newBuilder(nearby).header("If-None-Match", etag).build(),
+              HttpResponse.BodyHandlers.ofString());
+      assertEquals(304, revalidated.statusCode());
+      assertEquals(1, nearbyCalls.get());
+    } finally {
+      server.stop(0);
+      executor.shutdownNow();
+      upstream.stop(0);
+    }
+  }
+
+  private static long coalesced() {
+    String prefix = "places_requests_coalesced_total{handler=\"places\"} ";
+    for (String line : Metrics.REGISTRY.scrape().split("\n")) {
+      if (line.startsWith(prefix)) return Long.parseLong(line.substring(prefix.length()).trim());
+    }
+    return -1;
+  }
+
+  private static void send(HttpExchange exchange, String body) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,119 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import src.handlers.MockPlacesHandler;
+import src.server.ResponseCache;
+import src.server.ResponseCompression.Encoding;
+
+public class ResponseCacheTest {
+
+  private HttpServer server;
+  private MockPlacesHandler handler;
+  private final HttpClient http = HttpClient.newHttpClient();
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    handler = new MockPlacesHandler();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/places", handler);
+    server.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  private HttpResponse<String> get(String query, String... headers) throws Exception {
+    URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/places?" + query);
+    HttpRequest.Builder request = HttpRequest.newBuilder(uri).GET();
+    if (headers.length > 0) request.headers(headers);
+    return http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  @Test
+  public void testKeywordOrderAndCaseShareAnEntry() throws Exception {
+    HttpResponse<String> first = get("keyword=cafe%20breakfast&limit=5");
+    long hits = handler.responseCacheStats().hits;
+    HttpResponse<String> second = get("keyword=Breakfast%20cafe&limit=5");
+
+    assertEquals(hits + 1, handler.responseCacheStats().hits);
+    assertEquals(first.body(), second.body());
+    String etag = first.headers().firstValue("ETag").orElse(null);
+    assertNotNull(etag);
+    assertEquals(etag, second.headers().firstValue("ETag").orElse(null));
+
+    HttpResponse<String> otherPage = get("keyword=cafe%20breakfast&limit=5&offset=5");
+    assertNotEquals(etag, otherPage.headers().firstValue("ETag").orElse(null));
+  }
+
+  @Test
+  public void testKeywordIsDecodedOnce() throws Exception {
+    assertEquals(200, get("keyword=100%25").statusCode()); // "100%", not a broken escape
+    String plusPlus = get("keyword=c%2B%2B").headers().firstValue("ETag").orElseThrow();
+    String c = get("keyword=c").headers().firstValue("ETag").orElseThrow();
+    assertNotEquals(c, plusPlus);
+    assertEquals(400, get("lat=north&lng=1").statusCode());
+  }
+
+  @Test
+  public void testBadQueryGetsAJsonError() throws Exception {
+    HttpResponse<String> bad = get("lat=%22north%22&lng=1");
+    assertEquals(400, bad.statusCode());
+    // the message quotes what was sent, quotes and all
+    JsonObject body = JsonParser.parseString(bad.body()).getAsJsonObject();
+    assertTrue(body.get("error").getAsString().contains("\"north\""));
+  }
+
+  @Test
+  public void testIfNoneMatchGets304() throws Exception {
+    HttpResponse<String> first = get("keyword=park");
+    String etag = first.headers().firstValue("ETag").orElseThrow();
+
+    HttpResponse<String> revalidated = get("keyword=PARK", "If-None-Match", etag);
+    assertEquals(304, revalidated.statusCode());
+    assertEquals("", revalidated.body());
+    assertEquals(etag, revalidated.headers().firstValue("ETag").orElse(null));
+
+    HttpResponse<String> stale = get("keyword=park", "If-None-Match", "\"something-else\"");
+    assertEquals(200, stale.statusCode());
+    assertEquals(first.body(), stale.body());
+  }
+
+  @Test
+  public void testEncodingsHaveDistinctTags() throws Exception {
+    String plain = get("keyword=cafe").headers().firstValue("ETag").orElseThrow();
+    String gzip =
+        get("keyword=cafe", "Accept-Encoding", "gzip").headers().firstValue("ETag").orElseThrow();
+    assertNotEquals(plain, gzip);
+    assertEquals(ResponseCache.forEncoding(plain, Encoding.GZIP), gzip);
+
+    // a gzip tag does not revalidate the identity representation
+    assertEquals(200, get("keyword=cafe", "If-None-Match", gzip).statusCode());
+  }
+
+  @Test
+  public void testMatches() {
+    String tag = ResponseCache.etag("x");
+    assertTrue(tag.startsWith("\"") && tag.endsWith("\""));
+    assertEquals(tag, ResponseCache.etag("x"));
+    assertNotEquals(tag, ResponseCache.etag("y"));
+
+    assertTrue(ResponseCache.matches(tag, tag));
+    assertTrue(ResponseCache.matches("W/" + tag, tag));
+    assertTrue(ResponseCache.matches("\"a\", " + tag, tag));
+    assertTrue(ResponseCache.matches("*", tag));
+    assertFalse(ResponseCache.matches("\"a\"", tag));
+    assertFalse(ResponseCache.matches(null, tag));
+  }
+}
@@ -0,0 +1,207 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import src.handlers.MockPlacesHandler;
+import src.server.ResponseCompression;
+import src.server.ResponseCompression.Encoding;
+
+public class ResponseCompressionTest {
+
+  private HttpServer server;
+  private MockPlacesHandler handler;
+  private final HttpClient http = HttpClient.newHttpClient();
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    handler = new MockPlacesHandler();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/places", handler);
+    server.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  private HttpResponse<byte[]> get(String query, String acceptEncoding) throws Exception {
+    URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/places?" + query);
+    HttpRequest.Builder request = HttpRequest.newBuilder(uri).GET();
+    if (acceptEncoding != null) request.header("Accept-Encoding", acceptEncoding);
+    return http.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+  }
+
+  @Test
+  public void testNegotiate() {
+    assertEquals(Encoding.IDENTITY, ResponseCompression.negotiate(null));
+    assertEquals(Encoding.GZIP, ResponseCompression.negotiate("gzip, deflate, br"));
+    assertEquals(Encoding.DEFLATE, ResponseCompression.negotiate("gzip;q=0.5, deflate"));
+    assertEquals(Encoding.DEFLATE, ResponseCompression.negotiate("deflate"));
+    assertEquals(Encoding.IDENTITY, ResponseCompression.negotiate("br"));
+    assertEquals(Encoding.IDENTITY, ResponseCompression.negotiate("gzip;q=0"));
+    assertEquals(Encoding.GZIP, ResponseCompression.negotiate("*"));
+    assertEquals(Encoding.DEFLATE, ResponseCompression.negotiate("gzip;q=0, *"));
+  }
+
+  @Test
+  public void testSmallBodiesAreNotCompressed() {
+    byte[] small = "{\"results\":[]}".getBytes(StandardCharsets.UTF_8);
+    ResponseCompression.Encoded encoded = ResponseCompression.encode(small, Encoding.GZIP);
+    assertEquals(Encoding.IDENTITY, encoded.encoding);
+    assertSame(small, encoded.bytes);
+  }
+
+  @Test
+  public void testStreamCompressesOnlyPastThreshold() throws Exception {
+    server.createContext(
+        "/echo",
+        exchange -> {
+          int size = Integer.parseInt(exchange.getRequestURI().getQuery());
+          Encoding encoding =
+              ResponseCompression.negotiate(
+                  exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+          try (OutputStream os = ResponseCompression.stream(exchange, 200, encoding)) {
+            for (int i = 0; i < size; i++) os.write('a' + i % 26);
+          }
+        });
+    URI base = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/echo?");
+
+    HttpResponse<byte[]> small =
+        http.send(
+            HttpRequest.newBuilder(URI.create(base + "100"))
+                .header("Accept-Encoding", "gzip")
+                .build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+    assertTrue(small.headers().firstValue("Content-Encoding").isEmpty());
+    assertEquals("100", small.headers().firstValue("Content-Length").orElse(null));
+    assertEquals(100, small.body().length);
+
+    HttpResponse<byte[]> large =
+        http.send(
+            HttpRequest.newBuilder(URI.create(base + "50000"))
+                .header("Accept-Encoding", "gzip")
+                .build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+    assertEquals("gzip", large.headers().firstValue("Content-Encoding").orElse(null));
+    byte[] unzipped = new GZIPInputStream(new ByteArrayInputStream(large.body())).readAllBytes();
+    assertEquals(50000, unzipped.length);
+    assertEquals('b', unzipped[27]);
+  }
+
+  @Test
+  public void testFlushSendsTheFirstChunkBeforeTheBodyEnds() throws Exception {
+    CountDownLatch rest = new CountDownLatch(1);
+    server.createContext(
+        "/slow",
+        exchange -> {
+          try (OutputStream os = ResponseCompression.stream(exchange, 200, Encoding.GZIP)) {
+            os.write("first".getBytes(StandardCharsets.UTF_8));
+            os.flush();
+            rest.await(5, TimeUnit.SECONDS);
+            os.write(new byte[4096]);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    URI uri = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/slow");
+
+    try {
+      HttpResponse<InputStream> response =
+          http.sendAsync(
+                  HttpRequest.newBuilder(uri).header("Accept-Encoding", "gzip").build(),
+                  HttpResponse.BodyHandlers.ofInputStream())
+              .get(2, TimeUnit.SECONDS);
+      assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(null));
+      try (InputStream body = new GZIPInputStream(response.body())) {
+        // the rest of the body has not been written yet
+        assertArrayEquals("first".getBytes(StandardCharsets.UTF_8), body.readNBytes(5));
+        rest.countDown();
+        assertEquals(4096, body.readAllBytes().length);
+      }
+    } finally {
+      rest.countDown();
+    }
+  }
+
+  @Test
+  public void testRecordingStreamKeepsTheBytesAsSent() throws Exception {
+    BlockingQueue<ResponseCompression.Encoded> sent = new LinkedBlockingQueue<>();
+    server.createContext(
+        "/record",
+        exchange -> {
+          int size = Integer.parseInt(exchange.getRequestURI().getQuery());
+          ResponseCompression.RecordingStream os =
+              ResponseCompression.recordingStream(exchange, 200, Encoding.GZIP);
+          try (os) {
+            for (int i = 0; i < size; i++) os.write('a' + i % 26);
+          }
+          sent.add(os.sent()); // after the client has the body, so it is awaited below
+        });
+    URI base = URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/record?");
+
+    for (int size : new int[] {100, 50000}) {
+      HttpResponse<byte[]> response =
+          http.send(
+              HttpRequest.newBuilder(URI.create(base + Integer.toString(size)))
+                  .header("Accept-Encoding", "gzip")
+                  .build(),
+              HttpResponse.BodyHandlers.ofByteArray());
+      // what the client got, still encoded, is what a cache would serve next time
+      ResponseCompression.Encoded copy = sent.poll(5, TimeUnit.SECONDS);
+      assertArrayEquals(response.body(), copy.bytes);
+      assertEquals(size < ResponseCompression.MIN_COMPRESS_BYTES, copy.encoding.token == null);
+    }
+  }
+
+  @Test
+  public void testGzipAndDeflateDecodeToIdentityBody() throws Exception {
+    String query = "keyword=cafe&limit=30";
+    HttpResponse<byte[]> plain = get(query, null);
+    assertEquals(200, plain.statusCode());
+    assertTrue(plain.headers().firstValue("Content-Encoding").isEmpty());
+
+    HttpResponse<byte[]> gzip = get(query, "gzip");
+    assertEquals("gzip", gzip.headers().firstValue("Content-Encoding").orElse(null));
+    assertTrue(gzip.body().length < plain.body().length);
+    byte[] unzipped = new GZIPInputStream(new ByteArrayInputStream(gzip.body())).readAllBytes();
+    assertArrayEquals(plain.body(), unzipped);
+
+    HttpResponse<byte[]> deflate = get(query, "deflate");
+    assertEquals("deflate", deflate.headers().firstValue("Content-Encoding").orElse(null));
+    byte[] inflated =
+        new InflaterInputStream(new ByteArrayInputStream(deflate.body())).readAllBytes();
+    assertArrayEquals(plain.body(), inflated);
+  }
+
+  @Test
+  public void testRepeatedRequestIsServedFromCache() throws Exception {
+    HttpResponse<byte[]> first = get("keyword=park&limit=10", "gzip");
+    long hitsBefore = handler.responseCacheStats().hits;
+    HttpResponse<byte[]> second = get("keyword=park&limit=10", "gzip");
+
+    assertEquals(hitsBefore + 1, handler.responseCacheStats().hits);
+    assertArrayEquals(first.body(), second.body());
+
+    // a different page is a different body
+    get("keyword=park&limit=10&offset=10", "gzip");
+    assertEquals(hitsBefore + 1, handler.responseCacheStats().hits);
+  }
+}
@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import models.PlaceResult;
+import models.Preference;
+import models.ResultsWrapper;
+import org.junit.jupiter.api.Test;
+import src.handlers.PlacesJson;
+import src.handlers.RankingHandler;
+import src.ranking.KeywordScorer.MatchMode;
+import src.ranking.TopK;
+
+public class TopKTest {
+
+  @Test
+  public void testSelectMatchesFullSort() {
+    Random random = new Random(7);
+    for (int round = 0; round < 100; round++) {
+      int n = random.nextInt(200);
+      int[] values = new int[n];
+      for (int i = 0; i < n; i++) values[i] = random.nextInt(10);
+      TopK.IndexOrder order =
+          (a, b) -> values[a] != values[b] ? Integer.compare(values[b], values[a]) : a - b;
+
+      Integer[] all = new Integer[n];
+      for (int i = 0; i < n; i++) all[i] = i;
+      Arrays.sort(all, order::compare);
+
+      int k = random.nextInt(n + 5);
+      int[] top = TopK.select(n, k, order);
+      assertEquals(Math.min(k, n), top.length);
+      for (int i = 0; i < top.length; i++) assertEquals((int) all[i], top[i]);
+    }
+  }
+
+  @Test
+  public void testPagesConcatenateToFullRanking() throws Exception {
+    List<PlaceResult> places =
+        PlacesJson.parseResults(
+            Files.readString(Paths.get("src/test/TestingData/all_prov_accurate(r=2km).json")));
+    Preference p = new Preference();
+    p.keyword = "coffee";
+    p.weight = 3;
+    List<Preference> prefs = List.of(p);
+    RankingHandler handler = new RankingHandler();
+
+    List<PlaceResult> full = handler.rank(places, prefs);
+    List<String> paged = new ArrayList<>();
+    for (int offset = 0; offset < places.size(); offset += 10) {
+      ResultsWrapper page = handler.rankPage(places, prefs, MatchMode.SUBSTRING, offset, 10);
+      assertEquals(places.size(), (int) page.total);
+      assertTrue(page.results.size() <= 10);
+      page.results.forEach(r -> paged.add(r.name + "/" + r.score));
+    }
+
+    assertEquals(full.size(), paged.size());
+    for (int i = 0; i < full.size(); i++) {
+      assertEquals(full.get(i).name + "/" + full.get(i).score, paged.get(i));
+    }
+    assertTrue(handler.rankPage(places, prefs, MatchMode.SUBSTRING, 500, 10).results.isEmpty());
+  }
+}
@@ -0,0 +1,311 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import models.PlaceDetails;
+import org.junit.jupiter.api.Test;
+import src.cache.BoundedCache;
+import src.handlers.GooglePlacesClient;
+import src.storage.DetailsLog;
+import src.upstream.CircuitBreaker;
+import src.upstream.CircuitOpenException;
+import src.upstream.OutboundScheduler.Priority;
+import src.upstream.UpstreamException;
+import src.upstream.UpstreamPolicy;
+
+public class UpstreamPolicyTest {
+
+  private static final Duration LONG = Duration.ofSeconds(5);
+
+  private static CircuitBreaker lenientBreaker() {
+    return new CircuitBreaker(100, 100, 1.0, Duration.ofSeconds(30), System::nanoTime);
+  }
+
+  private static UpstreamPolicy policy(CircuitBreaker breaker, double hedgeQuantile) {
+    return new UpstreamPolicy(
+        "test", breaker, 3, Duration.ofMillis(1), Duration.ofMillis(5), hedgeQuantile);
+  }
+
+  @Test
+  public void testTransientFailuresAreRetried() throws Exception {
+    UpstreamPolicy policy = policy(lenientBreaker(), 0);
+    AtomicInteger attempts = new AtomicInteger();
+    CompletableFuture<String> call =
+        policy.call(
+            (timeout, hedge) ->
+                attempts.incrementAndGet() < 3
+                    ? CompletableFuture.failedFuture(new UpstreamException("503", true))
+                    : CompletableFuture.completedFuture("ok"),
+            LONG,
+            LONG);
+    assertEquals("ok", call.get());
+    assertEquals(3, attempts.get());
+    assertEquals(2, policy.retryCount());
+  }
+
+  @Test
+  public void testPermanentFailuresAndExhaustedAttemptsAreNotRetried() throws Exception {
+    UpstreamPolicy policy = policy(lenientBreaker(), 0);
+    AtomicInteger attempts = new AtomicInteger();
+    ExecutionException denied =
+        assertThrows(
+            ExecutionException.class,
+            () ->
+                policy
+                    .call(
+                        (timeout, hedge) -> {
+                          attempts.incrementAndGet();
+                          return CompletableFuture.failedFuture(
+                              new UpstreamException("REQUEST_DENIED", false));
+                        },
+                        LONG,
+                        LONG)
+                    .get());
+    assertTrue(denied.getCause() instanceof UpstreamException);
+    assertEquals(1, attempts.get());
+
+    attempts.set(0);
+    assertThrows(
+        ExecutionException.class,
+        () ->
+            policy
+                .call(
+                    (timeout, hedge) -> {
+                      attempts.incrementAndGet();
+                      return CompletableFuture.failedFuture(new IOException("reset"));
+                    },
+                    LONG,
+                    LONG)
+                .get());
+    assertEquals(3, attempts.get());
+  }
+
+  @Test
+  public void testSlowAttemptIsHedged() throws Exception {
+    UpstreamPolicy policy = policy(lenientBreaker(), 0.5);
+    for (int i = 0; i < UpstreamPolicy.HEDGE_MIN_SAMPLES; i++) {
+      policy.call((timeout, hedge) -> CompletableFuture.completedFuture("fast"), LONG, LONG).get();
+    }
+    AtomicInteger attempts = new AtomicInteger();
+    CompletableFuture<String> straggler = new CompletableFuture<>(); // never answers
+    long start = System.nanoTime();
+    String result =
+        policy
+            .call(
+                (timeout, hedge) ->
+                    attempts.incrementAndGet() == 1
+                        ? straggler
+                        : CompletableFuture.completedFuture("twin"),
+                LONG,
+                LONG)
+            .get();
+    assertEquals("twin", result);
+    assertTrue(System.nanoTime() - start < LONG.toNanos() / 2);
+    assertEquals(1, policy.hedgeCount());
+  }
+
+  @Test
+  public void testBreakerOpensFailsFastAndRecoversAfterATrial() {
+    AtomicLong now = new AtomicLong();
+    CircuitBreaker breaker = new CircuitBreaker(4, 4, 0.5, Duration.ofSeconds(30), now::get);
+    for (int i = 0; i < 3; i++) {
+      assertTrue(breaker.tryAcquire());
+      if (i == 0) breaker.onSuccess();
+      else breaker.onFailure();
+    }
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.state()); // too few calls to judge
+    assertTrue(breaker.tryAcquire());
+    breaker.onSuccess();
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state()); // 2 of 4 failed
+    assertFalse(breaker.tryAcquire());
+    assertEquals(1, breaker.rejectedCount());
+
+    now.addAndGet(Duration.ofSeconds(30).toNanos());
+    assertTrue(breaker.tryAcquire()); // the trial call
+    assertFalse(breaker.tryAcquire()); // only one at a time
+    breaker.onFailure();
+    assertEquals(CircuitBreaker.State.OPEN, breaker.state());
+
+    now.addAndGet(Duration.ofSeconds(30).toNanos());
+    assertTrue(breaker.tryAcquire());
+    breaker.onSuccess();
+    assertEquals(CircuitBreaker.State.CLOSED, breaker.state());
+    assertEquals(2, breaker.openedCount());
+  }
+
+  @Test
+  public void testOpenBreakerFailsCallsWithoutAttempting() {
+    CircuitBreaker breaker =
+        new CircuitBreaker(2, 2, 0.5, Duration.ofSeconds(30), System::nanoTime);
+    UpstreamPolicy policy = new UpstreamPolicy("test", breaker, 1, Duration.ZERO, Duration.ZERO, 0);
+    AtomicInteger attempts = new AtomicInteger();
+    for (int i = 0; i < 3; i++) {
+      CompletableFuture<String> call =
+          policy.call(
+              (timeout, hedge) -> {
+                attempts.incrementAndGet();
+                return CompletableFuture.failedFuture(new IOException("down"));
+              },
+              LONG,
+              LONG);
+      assertTrue(call.isCompletedExceptionally());
+    }
+    assertEquals(2, attempts.get());
+    ExecutionException e =
+        assertThrows(
+            ExecutionException.class,
+            () -> policy.call((t, h) -> CompletableFuture.completedFuture("x"), LONG, LONG).get());
+    assertTrue(e.getCause() instanceof CircuitOpenException);
+  }
+
+  @Test
+  public void testExpiredEntryIsKeptForStaleReads() {
+    AtomicLong now = new AtomicLong();
+    BoundedCache<String, String> cache =
+        new BoundedCache<>(10, Duration.ofSeconds(10), Duration.ofSeconds(60), v -> 1L, now::get);
+    cache.put("k", "v");
+    now.addAndGet(Duration.ofSeconds(20).toNanos());
+    assertNull(cache.getIfPresent("k")); // expired: a miss, but kept
+    assertEquals("v", cache.getStale("k"));
+    assertEquals(1, cache.stats().staleHits);
+    now.addAndGet(Duration.ofSeconds(60).toNanos());
+    assertNull(cache.getStale("k"));
+    assertNull(cache.getIfPresent("k"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testClientRetriesServerErrorsThenServesStaleDetails() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    upstream.createContext(
+        "/maps/api/place/details/json",
+        exchange -> {
+          calls.incrementAndGet();
+          byte[] body = "{\"error\":\"backend down\"}".getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(503, body.length);
+          try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+          }
+        });
+    upstream.start();
+    Path dir = Files.createTempDirectory("details-log");
+    dir.toFile().deleteOnExit();
+    String baseUrl = "http://127.0.0.1:" + upstream.getAddress().getPort();
+    // the first client on a cold JVM takes about a second to start, longer than the record below
+    // has left to live
+    new GooglePlacesClient(baseUrl, "test");
+    // written just under a TTL ago, so it is still live on load and expires soon after
+    long writtenAt =
+        System.currentTimeMillis() - GooglePlacesClient.DETAILS_CACHE_TTL.toMillis() + 1_000;
+    try (DetailsLog log =
+        DetailsLog.open(
+            dir.resolve("details.log"),
+            GooglePlacesClient.DETAILS_CACHE_TTL,
+            DetailsLog.DEFAULT_MAX_BYTES,
+            () -> writtenAt)) {
+      log.append("cached", "{\"result\":{\"name\":\"Old\"},\"status\":\"OK\"}");
+      log.flush();
+      GooglePlacesClient client = new GooglePlacesClient(baseUrl, "test", log);
+
+      ExecutionException e =
+          assertThrows(
+              ExecutionException.class,
+              () -> client.getPlaceDetailsAsJsonAsync("fresh", LONG).get());
+      assertTrue(e.getCause() instanceof UpstreamException, e.getCause().toString());
+      assertEquals(GooglePlacesClient.MAX_ATTEMPTS, calls.get());
+
+      long expiresAt = writtenAt + GooglePlacesClient.DETAILS_CACHE_TTL.toMillis();
+      Thread.sleep(Math.max(0, expiresAt - System.currentTimeMillis()) + 50);
+      String stale = client.getPlaceDetailsAsJsonAsync("cached", LONG).get();
+      assertTrue(stale.contains("Old"));
+      assertEquals(2 * GooglePlacesClient.MAX_ATTEMPTS, calls.get());
+      assertEquals(1, client.detailsCacheStats().staleHits);
+    } finally {
+      upstream.stop(0);
+    }
+  }
+
+  @Test
+  public void testSharedDetailsCallOutlivesItsFirstCallersDeadline() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    upstream.createContext(
+        "/maps/api/place/details/json",
+        exchange -> {
+          calls.incrementAndGet();
+          try {
+            Thread.sleep(500);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          byte[] body =
+              "{\"result\":{\"name\":\"Slow\"},\"status\":\"OK\"}".getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+          }
+        });
+    upstream.start();
+    try {
+      String baseUrl = "http://127.0.0.1:" + upstream.getAddress().getPort();
+      GooglePlacesClient client = new GooglePlacesClient(baseUrl, "test");
+
+      // the first caller starts the call in a hurry; the second joins it with time to spare
+      CompletableFuture<PlaceDetails> hurried =
+          client.getPlaceDetailsAsync("slow", Duration.ofMillis(100), Priority.BACKGROUND);
+      CompletableFuture<PlaceDetails> patient =
+          client.getPlaceDetailsAsync("slow", LONG, Priority.FIRST_PAGE);
+
+      ExecutionException e = assertThrows(ExecutionException.class, hurried::get);
+      assertTrue(e.getCause() instanceof HttpTimeoutException, e.getCause().toString());
+      assertEquals("Slow", patient.get().name);
+      assertEquals(1, calls.get());
+    } finally {
+      upstream.stop(0);
+    }
+  }
+
+  @Test
+  public void testPlaceIdIsEncodedInTheDetailsQuery() throws Exception {
+    AtomicReference<String> query = new AtomicReference<>();
+    HttpServer upstream = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    upstream.createContext(
+        "/maps/api/place/details/json",
+        exchange -> {
+          query.set(exchange.getRequestURI().getRawQuery());
+          byte[] body =
+              "{\"result\":{\"name\":\"Odd\"},\"status\":\"OK\"}".getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(200, body.length);
+          try (OutputStream os = exchange.getResponseBody()) {
+            os.write(body);
+          }
+        });
+    upstream.start();
+    try {
+      String baseUrl = "http://127.0.0.1:" + upstream.getAddress().getPort();
+      GooglePlacesClient client = new GooglePlacesClient(baseUrl, "test");
+
+      // unencoded, the '&' would end the parameter and the space would fail URI parsing
+      String odd = "Ch IJ&key=other/+=";
+      assertEquals("Odd", client.getPlaceDetailsAsync(odd, LONG, Priority.FIRST_PAGE).get().name);
+      String first = query.get().split("&")[0];
+      assertEquals("place_id=" + odd, URLDecoder.decode(first, StandardCharsets.UTF_8));
+    } finally {
+      upstream.stop(0);
+    }
+  }
+}